@@ -0,0 +1,86 @@
+package wenmingwei.bench;
+
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufUtil;
+import wenmingwei.ProtoJsonMapper;
+import wenmingwei.ProtoJsonMapperConfig;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 参与对比的编解码方式
+ * <p>
+ * 实现在Setup时创建。
+ */
+public enum Codec {
+
+    /**
+     * 默认的JsonElement树编解码(TypeAdapterProtoMessage)
+     */
+    TREE {
+        @Override
+        JsonCodec create() {
+            return mapper(new ProtoJsonMapperConfig());
+        }
+    },
+
+    /**
+     * 流式编解码(TypeAdapterStreamingProtoMessage)
+     */
+    STREAMING {
+        @Override
+        JsonCodec create() {
+            ProtoJsonMapperConfig config = new ProtoJsonMapperConfig();
+            config.setStreaming(true);
+            return mapper(config);
+        }
+    },
+
+    /**
+     * 对比基准: protobuf-java-util的JsonFormat，使用proto3标准的Json格式，与ProtoJsonMapper的格式不同
+     */
+    JSON_FORMAT {
+        @Override
+        JsonCodec create() {
+            JsonFormat.Printer printer = JsonFormat.printer().omittingInsignificantWhitespace();
+            JsonFormat.Parser parser = JsonFormat.parser();
+            return new JsonCodec() {
+                @Override
+                public void encode(Message message, ByteBuf out) throws IOException {
+                    StringBuilder sb = new StringBuilder();
+                    printer.appendTo(message, sb);
+                    ByteBufUtil.writeUtf8(out, sb);
+                }
+
+                @Override
+                public Message decode(ByteBuf json, Message prototype) throws IOException {
+                    Message.Builder builder = prototype.newBuilderForType();
+                    parser.merge(new InputStreamReader(new ByteBufInputStream(json), StandardCharsets.UTF_8), builder);
+                    return builder.build();
+                }
+            };
+        }
+    };
+
+    abstract JsonCodec create();
+
+    private static JsonCodec mapper(ProtoJsonMapperConfig config) {
+        ProtoJsonMapper mapper = new ProtoJsonMapper(config);
+        return new JsonCodec() {
+            @Override
+            public void encode(Message message, ByteBuf out) {
+                mapper.encode(message, out);
+            }
+
+            @Override
+            public Message decode(ByteBuf json, Message prototype) throws IOException {
+                return mapper.decode(json, prototype.getDescriptorForType());
+            }
+        };
+    }
+}
@@ -0,0 +1,56 @@
+package wenmingwei.bench;
+
+import com.google.protobuf.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+
+/**
+ * Json -> Proto.Message 解码
+ * <p>
+ * TREE与STREAMING解码相同的Json，对比JsonElement中间树和流式解码；JSON_FORMAT解码自己编码的proto3标准Json。
+ */
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    @Param({"FLAT", "DEEP", "REPEATED", "ENUMS", "MAP", "BLOB"})
+    private Shape shape;
+
+    @Param({"TREE", "STREAMING", "JSON_FORMAT"})
+    private Codec codec;
+
+    private JsonCodec jsonCodec;
+    private Message prototype;
+    private ByteBuf json;
+
+    @Setup
+    public void setUp() throws IOException {
+        jsonCodec = codec.create();
+        Message message = shape.message();
+        prototype = message.getDefaultInstanceForType();
+        json = PooledByteBufAllocator.DEFAULT.ioBuffer();
+        jsonCodec.encode(message, json);
+
+        if (!message.equals(jsonCodec.decode(json.duplicate(), prototype))) {
+            throw new IllegalStateException(codec + " cannot decode " + shape + " correctly");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        json.release();
+    }
+
+    @Benchmark
+    public Message decode() throws IOException {
+        //duplicate共享内容，只复制读写索引
+        return jsonCodec.decode(json.duplicate(), prototype);
+    }
+}
@@ -0,0 +1,51 @@
+package wenmingwei.bench;
+
+import com.google.protobuf.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+
+/**
+ * Proto.Message -> Json 编码，写入复用的池化ByteBuf
+ */
+@State(Scope.Thread)
+public class EncodeBenchmark {
+
+    @Param({"FLAT", "DEEP", "REPEATED", "ENUMS", "MAP", "BLOB"})
+    private Shape shape;
+
+    @Param({"TREE", "STREAMING", "JSON_FORMAT"})
+    private Codec codec;
+
+    private JsonCodec jsonCodec;
+    private Message message;
+    private ByteBuf out;
+
+    @Setup
+    public void setUp() throws IOException {
+        jsonCodec = codec.create();
+        message = shape.message();
+        out = PooledByteBufAllocator.DEFAULT.ioBuffer();
+        //预热一次，让ByteBuf扩容到需要的大小
+        jsonCodec.encode(message, out);
+    }
+
+    @TearDown
+    public void tearDown() {
+        out.release();
+    }
+
+    @Benchmark
+    public ByteBuf encode() throws IOException {
+        out.clear();
+        jsonCodec.encode(message, out);
+        return out;
+    }
+}
@@ -0,0 +1,16 @@
+package wenmingwei.bench;
+
+import com.google.protobuf.Message;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/**
+ * 被测的Json编解码实现，统一为ByteBuf输入输出
+ */
+interface JsonCodec {
+
+    void encode(Message message, ByteBuf out) throws IOException;
+
+    Message decode(ByteBuf json, Message prototype) throws IOException;
+}
@@ -0,0 +1,126 @@
+package wenmingwei.bench;
+
+import com.google.gson.stream.JsonReader;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.util.function.Supplier;
+
+/**
+ * 嵌套解码时每层创建Builder的方式对比
+ * <p>
+ * 与TypeAdapterProtoMessage一样每层创建一个Builder，通过FieldDescriptor写入字段，但直接从JsonReader读取，
+ * 不经过JsonElement树，Builder的创建在每层的开销中占比最大。
+ * REFLECTIVE是TypeMapMessage原来的方式，BOUND是现在预先绑定到默认实例的Builder工厂。
+ */
+@State(Scope.Thread)
+public class NestedBuilderBenchmark {
+
+    public enum Factory {
+
+        /**
+         * 每次通过Method.invoke调用静态的newBuilder
+         */
+        REFLECTIVE {
+            @Override
+            Supplier<Message.Builder> bind(Class<? extends Message> clazz) throws ReflectiveOperationException {
+                Method method = clazz.getMethod("newBuilder");
+                return () -> {
+                    try {
+                        return (Message.Builder) method.invoke(clazz);
+                    } catch (Exception e) {
+                        throw new IllegalArgumentException("Failed to invoke newBuilder of class(" + clazz.getCanonicalName() + ")", e);
+                    }
+                };
+            }
+        },
+
+        /**
+         * 默认实例的newBuilderForType
+         */
+        BOUND {
+            @Override
+            Supplier<Message.Builder> bind(Class<? extends Message> clazz) throws ReflectiveOperationException {
+                Message defaultInstance = (Message) clazz.getMethod("getDefaultInstance").invoke(clazz);
+                return defaultInstance::newBuilderForType;
+            }
+        };
+
+        abstract Supplier<Message.Builder> bind(Class<? extends Message> clazz) throws ReflectiveOperationException;
+    }
+
+    @Param({"8", "32", "96"})
+    private int depth;
+
+    @Param({"REFLECTIVE", "BOUND"})
+    private Factory factory;
+
+    private Supplier<Message.Builder> builders;
+    private Descriptors.FieldDescriptor depthField;
+    private Descriptors.FieldDescriptor labelField;
+    private Descriptors.FieldDescriptor childField;
+    private String json;
+
+    @Setup
+    public void setUp() throws IOException, ReflectiveOperationException {
+        builders = factory.bind(Node.class);
+        Descriptors.Descriptor descriptor = Node.getDescriptor();
+        depthField = descriptor.findFieldByName("depth");
+        labelField = descriptor.findFieldByName("label");
+        childField = descriptor.findFieldByName("child");
+
+        Node message = Shape.node(depth);
+        StringBuilder sb = new StringBuilder();
+        for (Node node = message; ; node = node.getChild()) {
+            sb.append("{\"depth\":").append(node.getDepth()).append(",\"label\":\"").append(node.getLabel()).append('"');
+            if (!node.hasChild()) {
+                break;
+            }
+            sb.append(",\"child\":");
+        }
+        for (int i = 0; i < depth; i++) {
+            sb.append('}');
+        }
+        json = sb.toString();
+
+        if (!message.equals(decode())) {
+            throw new IllegalStateException(factory + " cannot decode node(" + depth + ") correctly");
+        }
+    }
+
+    @Benchmark
+    public Message decode() throws IOException {
+        return readNode(new JsonReader(new StringReader(json)));
+    }
+
+    private Message readNode(JsonReader in) throws IOException {
+        Message.Builder builder = builders.get();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "depth":
+                    builder.setField(depthField, in.nextInt());
+                    break;
+                case "label":
+                    builder.setField(labelField, in.nextString());
+                    break;
+                case "child":
+                    builder.setField(childField, readNode(in));
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        return builder.build();
+    }
+}
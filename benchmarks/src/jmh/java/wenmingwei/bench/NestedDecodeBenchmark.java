@@ -0,0 +1,53 @@
+package wenmingwei.bench;
+
+import com.google.protobuf.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+
+/**
+ * 嵌套层数对解码的影响
+ * <p>
+ * TREE解码时每一层都会重新解析下层的JsonElement子树，耗时随层数平方增长；
+ * STREAMING只读取一遍Token，嵌套Message的Builder通过newBuilderForField创建。
+ */
+@State(Scope.Thread)
+public class NestedDecodeBenchmark {
+
+    //JsonFormat默认的嵌套层数限制为100
+    @Param({"8", "32", "96"})
+    private int depth;
+
+    @Param({"TREE", "STREAMING", "JSON_FORMAT"})
+    private Codec codec;
+
+    private JsonCodec jsonCodec;
+    private Message prototype;
+    private ByteBuf json;
+
+    @Setup
+    public void setUp() throws IOException {
+        jsonCodec = codec.create();
+        Message message = Shape.node(depth);
+        prototype = message.getDefaultInstanceForType();
+        json = PooledByteBufAllocator.DEFAULT.ioBuffer();
+        jsonCodec.encode(message, json);
+    }
+
+    @TearDown
+    public void tearDown() {
+        json.release();
+    }
+
+    @Benchmark
+    public Message decode() throws IOException {
+        return jsonCodec.decode(json.duplicate(), prototype);
+    }
+}
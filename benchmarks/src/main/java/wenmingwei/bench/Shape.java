@@ -0,0 +1,152 @@
+package wenmingwei.bench;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+
+import java.util.Random;
+
+/**
+ * 基准测试使用的消息形状，每种形状对应bench.proto中的一种Message
+ * <p>
+ * 消息内容由固定种子生成，每次运行完全相同。
+ */
+public enum Shape {
+
+    /**
+     * 扁平的标量字段，包括Enum和短ByteString
+     */
+    FLAT {
+        @Override
+        public Message message() {
+            return flat(new Random(SEED));
+        }
+    },
+
+    /**
+     * 32层嵌套
+     */
+    DEEP {
+        @Override
+        public Message message() {
+            return node(32);
+        }
+    },
+
+    /**
+     * 大量Repeated字段: 各1000个标量，500个嵌套Record
+     */
+    REPEATED {
+        @Override
+        public Message message() {
+            Random random = new Random(SEED);
+            Batch.Builder builder = Batch.newBuilder();
+            for (int i = 0; i < 1000; i++) {
+                builder.addInts(random.nextInt())
+                        .addLongs(random.nextLong())
+                        .addDoubles(random.nextDouble())
+                        .addStrings("item-" + i)
+                        .addStatuses(Status.forNumber(i % 4));
+            }
+            for (int i = 0; i < 500; i++) {
+                builder.addRecords(record(random, i));
+            }
+            return builder.build();
+        }
+    },
+
+    /**
+     * 10000个Repeated Enum，例如事件类型列表
+     */
+    ENUMS {
+        @Override
+        public Message message() {
+            Random random = new Random(SEED);
+            Batch.Builder builder = Batch.newBuilder();
+            for (int i = 0; i < 10000; i++) {
+                builder.addStatuses(Status.forNumber(random.nextInt(4)));
+            }
+            return builder.build();
+        }
+    },
+
+    /**
+     * Map字段: 各500个Entry
+     */
+    MAP {
+        @Override
+        public Message message() {
+            Random random = new Random(SEED);
+            Index.Builder builder = Index.newBuilder();
+            for (int i = 0; i < 500; i++) {
+                builder.putCounters("counter-" + i, random.nextLong())
+                        .putRecords(i, record(random, i))
+                        .putNames(random.nextLong(), "name-" + i);
+            }
+            return builder.build();
+        }
+    },
+
+    /**
+     * 1MB的ByteString
+     */
+    BLOB {
+        @Override
+        public Message message() {
+            byte[] payload = new byte[1024 * 1024];
+            new Random(SEED).nextBytes(payload);
+            return Blob.newBuilder()
+                    .setName("blob")
+                    .setPayload(ByteString.copyFrom(payload))
+                    .build();
+        }
+    };
+
+    private static final long SEED = 20191017L;
+
+    /**
+     * @return 该形状的消息，每次调用都重新生成
+     */
+    public abstract Message message();
+
+    /**
+     * @param depth 嵌套层数
+     * @return 指定嵌套层数的Node
+     */
+    public static Node node(int depth) {
+        Node node = Node.newBuilder().setDepth(depth).setLabel("leaf").build();
+        for (int i = depth - 1; i > 0; i--) {
+            node = Node.newBuilder().setDepth(i).setLabel("node-" + i).setChild(node).build();
+        }
+        return node;
+    }
+
+    private static Flat flat(Random random) {
+        byte[] token = new byte[32];
+        random.nextBytes(token);
+        return Flat.newBuilder()
+                .setI32(random.nextInt())
+                .setI64(random.nextLong())
+                .setU32(random.nextInt())
+                .setS64(random.nextLong())
+                .setF64(random.nextLong())
+                .setFl(random.nextFloat())
+                .setDb(random.nextDouble())
+                .setBo(true)
+                .setName("flat-message")
+                .setDescription("一段包含非ASCII字符的描述, with some ASCII text as well")
+                .setStatus(Status.ACTIVE)
+                .setToken(ByteString.copyFrom(token))
+                .build();
+    }
+
+    private static Record record(Random random, int i) {
+        return Record.newBuilder()
+                .setId(random.nextLong())
+                .setName("record-" + i)
+                .setScore(random.nextDouble())
+                .setStatus(Status.forNumber(i % 4))
+                .addTags("tag-a")
+                .addTags("tag-" + i)
+                .build();
+    }
+}
@@ -0,0 +1,393 @@
+package wenmingwei.gateway;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gson.JsonObject;
+import com.google.protobuf.Message;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.Status;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.concurrent.Future;
+import lombok.extern.slf4j.Slf4j;
+import wenmingwei.ProtoJsonStreamResponse;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * in-process ServerCall for one gateway request, responses are written back to the http channel and encoded by
+ * ProtoJsonHttpCodec: unary responses as one json body, server streaming responses as chunked ndjson
+ * <p>
+ * listener callbacks run one at a time on the call executor, like grpc's own server calls, inside a grpc Context
+ * carrying the deadline of the grpc-timeout request header; the context is cancelled when the call completes,
+ * the deadline expires (504) or the connection closes.
+ * GrpcGatewayHandler forwards channel writability (onReady) and connection close (onCancel) of its active call
+ */
+@Slf4j
+class GatewayServerCall<ReqT, RespT> extends ServerCall<ReqT, RespT> {
+
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
+    static final String TIMEOUT_HEADER = "grpc-timeout";
+    //streaming responses are encoded in the event loop and not counted by channel writability until then,
+    //isReady turns false while this many messages are not yet written to the socket
+    static final int MAX_PENDING_MESSAGES = 16;
+
+    private final ChannelHandlerContext ctx;
+    private final MethodDescriptor<ReqT, RespT> method;
+    private final boolean streaming;
+    //deadline of the call, cancelled when the call ends
+    private final Context.CancellableContext context;
+    //runs listener callbacks in order, one at a time, inside context
+    private final Executor callExecutor;
+    //called in the event loop after the response is written
+    private final Consumer<GatewayServerCall<?, ?>> onClosed;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean cancelled;
+    private volatile ServerCall.Listener<ReqT> listener;
+    //streaming messages written to the channel but not yet to the socket
+    private final AtomicInteger pendingMessages = new AtomicInteger();
+
+    //unary response, written on close
+    private RespT response;
+    //server streaming response headers
+    private volatile boolean headersSent;
+
+    private GatewayServerCall(ChannelHandlerContext ctx, MethodDescriptor<ReqT, RespT> method, Context.CancellableContext context,
+                              Executor executor, Consumer<GatewayServerCall<?, ?>> onClosed) {
+        this.ctx = ctx;
+        this.method = method;
+        this.streaming = method.getType() == MethodDescriptor.MethodType.SERVER_STREAMING;
+        this.context = context;
+        this.callExecutor = context.fixedContextExecutor(MoreExecutors.newSequentialExecutor(executor));
+        this.onClosed = onClosed;
+    }
+
+    /**
+     * starts the call on the executor
+     *
+     * @param onClosed called in the event loop after the response is written
+     * @return the started call
+     * @throws RejectedExecutionException the executor rejected the call
+     */
+    static <ReqT, RespT> GatewayServerCall<ReqT, RespT> invoke(ChannelHandlerContext ctx, ServerMethodDefinition<ReqT, RespT> definition,
+                                                              HttpHeaders headers, Message request, Executor executor,
+                                                              Consumer<GatewayServerCall<?, ?>> onClosed) {
+        Long timeout = timeoutNanos(headers);
+        Context.CancellableContext context = timeout == null
+                ? Context.current().withCancellation()
+                : Context.current().withDeadline(Deadline.after(timeout, TimeUnit.NANOSECONDS), ctx.executor());
+        GatewayServerCall<ReqT, RespT> call = new GatewayServerCall<>(ctx, definition.getMethodDescriptor(), context, executor, onClosed);
+        @SuppressWarnings("unchecked")
+        ReqT message = (ReqT) request;
+        try {
+            call.callExecutor.execute(() -> call.start(definition.getServerCallHandler(), toMetadata(headers), message));
+        } catch (RejectedExecutionException ex) {
+            context.cancel(ex);
+            throw ex;
+        }
+        context.addListener(call::contextCancelled, ctx.executor());
+        return call;
+    }
+
+    private void start(ServerCallHandler<ReqT, RespT> handler, Metadata headers, ReqT message) {
+        try {
+            listener = handler.startCall(this, headers);
+            listener.onReady();
+            listener.onMessage(message);
+            listener.onHalfClose();
+        } catch (RuntimeException ex) {
+            log.warn("Failed to call method({}) from gateway", method.getFullMethodName(), ex);
+            close(Status.fromThrowable(ex), new Metadata());
+        }
+    }
+
+    @Override
+    public void request(int numMessages) {
+        //the only request message is delivered in start
+    }
+
+    @Override
+    public void sendHeaders(Metadata headers) {
+        //grpc headers are not forwarded to http response
+    }
+
+    @Override
+    public void sendMessage(RespT message) {
+        if (cancelled || closed.get()) {
+            return;
+        }
+        if (!streaming) {
+            response = message;
+            return;
+        }
+
+        synchronized (this) {
+            //the deadline may close the call from the event loop, the message must be written before its trailers
+            if (closed.get()) {
+                return;
+            }
+            //the first message also writes the response headers
+            headersSent = true;
+            pendingMessages.incrementAndGet();
+            ctx.writeAndFlush(ProtoJsonStreamResponse.message((Message) message)).addListener(this::messageWritten);
+        }
+    }
+
+    //in the event loop, after a streaming message is written to the socket or failed
+    private void messageWritten(Future<? super Void> future) {
+        if (!future.isSuccess()) {
+            //the chunked response cannot be completed, cancels the call
+            log.warn("Failed to write response of method({}), close channel({})", method.getFullMethodName(), ctx.channel(),
+                    future.cause());
+            ctx.close();
+        }
+        if (pendingMessages.decrementAndGet() == MAX_PENDING_MESSAGES - 1) {
+            writabilityChanged();
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return !closed.get() && !cancelled && pendingMessages.get() < MAX_PENDING_MESSAGES && ctx.channel().isWritable();
+    }
+
+    @Override
+    public void close(Status status, Metadata trailers) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (!cancelled) {
+            if (status.isOk() && streaming) {
+                //also writes the response headers if no message was sent
+                ctx.writeAndFlush(ProtoJsonStreamResponse.end());
+            } else if (status.isOk() && response != null) {
+                //encoded by ProtoJsonHttpCodec
+                ctx.writeAndFlush(response);
+            } else if (status.isOk()) {
+                writeStatus(Status.INTERNAL.withDescription("No response from method(" + method.getFullMethodName() + ")"));
+            } else {
+                writeStatus(status);
+            }
+        }
+
+        ctx.executor().execute(() -> onClosed.accept(this));
+        callListener("complete", ServerCall.Listener::onComplete);
+        //like grpc, the context is cancelled after the listener completes
+        try {
+            callExecutor.execute(() -> context.cancel(null));
+        } catch (RejectedExecutionException ex) {
+            context.cancel(null);
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public MethodDescriptor<ReqT, RespT> getMethodDescriptor() {
+        return method;
+    }
+
+    //channel became writable again or pending messages are written, isReady may turn true
+    void writabilityChanged() {
+        if (isReady()) {
+            callListener("ready", ServerCall.Listener::onReady);
+        }
+    }
+
+    //http connection closed before the call is completed
+    void cancel() {
+        if (closed.get()) {
+            return;
+        }
+        cancelled = true;
+        callListener("cancel", ServerCall.Listener::onCancel);
+        context.cancel(Status.CANCELLED.withDescription("http connection closed").asRuntimeException());
+    }
+
+    //in the event loop, the context is cancelled by close, cancel or the deadline
+    private void contextCancelled(Context cancelledContext) {
+        synchronized (this) {
+            if (!closed.compareAndSet(false, true) || cancelled) {
+                //completed, or the connection is closed
+                return;
+            }
+            cancelled = true;
+            //queued after the messages already sent from the call executor
+            Status status = Status.DEADLINE_EXCEEDED.withDescription("Deadline of method(" + method.getFullMethodName() + ") exceeded");
+            ctx.executor().execute(() -> {
+                writeStatus(status);
+                onClosed.accept(this);
+            });
+        }
+        callListener("cancel", ServerCall.Listener::onCancel);
+    }
+
+    private void callListener(String event, Consumer<ServerCall.Listener<ReqT>> callback) {
+        try {
+            callExecutor.execute(() -> {
+                ServerCall.Listener<ReqT> current = listener;
+                if (current == null) {
+                    return;
+                }
+                try {
+                    callback.accept(current);
+                } catch (RuntimeException ex) {
+                    log.warn("Listener of method({}) failed on {}", method.getFullMethodName(), event, ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            log.warn("Gateway executor rejected {} of method({})", event, method.getFullMethodName());
+        }
+    }
+
+    private void writeStatus(Status status) {
+        if (headersSent) {
+            //status line is already sent, report error in trailers
+            HttpHeaders trailers = new DefaultHttpHeaders();
+            trailers.set("grpc-status", status.getCode().value());
+            if (status.getDescription() != null) {
+                trailers.set("grpc-message", headerSafe(status.getDescription()));
+            }
+            ctx.writeAndFlush(ProtoJsonStreamResponse.end(trailers));
+        } else {
+            writeError(status);
+        }
+    }
+
+    private void writeError(Status status) {
+        JsonObject error = new JsonObject();
+        error.addProperty("code", status.getCode().name());
+        if (status.getDescription() != null) {
+            error.addProperty("message", status.getDescription());
+        }
+        ByteBuf content = ByteBufUtil.writeUtf8(ctx.alloc(), error.toString());
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, httpStatus(status.getCode()), content);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, JSON_CONTENT_TYPE);
+        response.headers().set("grpc-status", status.getCode().value());
+        HttpUtil.setContentLength(response, content.readableBytes());
+        ctx.writeAndFlush(response);
+    }
+
+    static HttpResponseStatus httpStatus(Status.Code code) {
+        switch (code) {
+            case OK:
+                return HttpResponseStatus.OK;
+            case INVALID_ARGUMENT:
+            case FAILED_PRECONDITION:
+            case OUT_OF_RANGE:
+                return HttpResponseStatus.BAD_REQUEST;
+            case UNAUTHENTICATED:
+                return HttpResponseStatus.UNAUTHORIZED;
+            case PERMISSION_DENIED:
+                return HttpResponseStatus.FORBIDDEN;
+            case NOT_FOUND:
+                return HttpResponseStatus.NOT_FOUND;
+            case ALREADY_EXISTS:
+            case ABORTED:
+                return HttpResponseStatus.CONFLICT;
+            case RESOURCE_EXHAUSTED:
+                return HttpResponseStatus.TOO_MANY_REQUESTS;
+            case CANCELLED:
+                return HttpResponseStatus.REQUEST_TIMEOUT;
+            case UNIMPLEMENTED:
+                return HttpResponseStatus.NOT_IMPLEMENTED;
+            case UNAVAILABLE:
+                return HttpResponseStatus.SERVICE_UNAVAILABLE;
+            case DEADLINE_EXCEEDED:
+                return HttpResponseStatus.GATEWAY_TIMEOUT;
+            default:
+                return HttpResponseStatus.INTERNAL_SERVER_ERROR;
+        }
+    }
+
+    //grpc-timeout header in nanoseconds: at most 8 digits and a unit, null when absent or malformed
+    static Long timeoutNanos(HttpHeaders headers) {
+        String value = headers.get(TIMEOUT_HEADER);
+        if (value == null) {
+            return null;
+        }
+        int length = value.length();
+        if (length < 2 || length > 9) {
+            log.debug("Ignore malformed {}({})", TIMEOUT_HEADER, value);
+            return null;
+        }
+        long amount = 0;
+        for (int i = 0; i < length - 1; i++) {
+            char ch = value.charAt(i);
+            if (ch < '0' || ch > '9') {
+                log.debug("Ignore malformed {}({})", TIMEOUT_HEADER, value);
+                return null;
+            }
+            amount = amount * 10 + (ch - '0');
+        }
+        switch (value.charAt(length - 1)) {
+            case 'n':
+                return amount;
+            case 'u':
+                return TimeUnit.MICROSECONDS.toNanos(amount);
+            case 'm':
+                return TimeUnit.MILLISECONDS.toNanos(amount);
+            case 'S':
+                return TimeUnit.SECONDS.toNanos(amount);
+            case 'M':
+                return TimeUnit.MINUTES.toNanos(amount);
+            case 'H':
+                return TimeUnit.HOURS.toNanos(amount);
+            default:
+                log.debug("Ignore malformed {}({})", TIMEOUT_HEADER, value);
+                return null;
+        }
+    }
+
+    //http request headers as grpc metadata, grpc-timeout (the context deadline), binary and invalid header names are skipped
+    private static Metadata toMetadata(HttpHeaders headers) {
+        Metadata metadata = new Metadata();
+        for (Map.Entry<String, String> header : headers) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (name.endsWith(Metadata.BINARY_HEADER_SUFFIX) || name.equals(TIMEOUT_HEADER)) {
+                continue;
+            }
+            try {
+                metadata.put(Metadata.Key.of(name, Metadata.ASCII_STRING_MARSHALLER), header.getValue());
+            } catch (IllegalArgumentException ex) {
+                log.debug("Skip http header({})", name, ex);
+            }
+        }
+        return metadata;
+    }
+
+    private static String headerSafe(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            sb.append(ch < 0x20 || ch > 0x7e ? ' ' : ch);
+        }
+        return sb.toString();
+    }
+}
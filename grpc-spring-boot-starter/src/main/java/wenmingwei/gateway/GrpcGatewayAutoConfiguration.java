@@ -0,0 +1,213 @@
+package wenmingwei.gateway;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import io.grpc.BindableService;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerKeepAliveHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import wenmingwei.ProtoJsonHttpCodec;
+import wenmingwei.ProtoJsonMapper;
+import wenmingwei.ProtoJsonMetrics;
+import wenmingwei.ProtoJsonRoutes;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP/JSON gateway for in-process grpc services, POST /{service}/{method} with json request body.
+ * Unary methods respond with a json body, server streaming methods respond with chunked ndjson.
+ * Large request bodies are decoded on the offload executor and calls run on the call executor,
+ * bounded pools created by the gateway unless Executor beans are named in GrpcGatewayConfig.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(value = "grpc.gateway.enabled", havingValue = "true")
+public class GrpcGatewayAutoConfiguration {
+
+    @Autowired
+    private GrpcGatewayConfig grpcGatewayConfig;
+
+    @Autowired(required = false)
+    private Map<String, BindableService> services;
+
+    @Autowired(required = false)
+    private Map<String, ServerInterceptor> interceptors;
+
+    @Autowired(required = false)
+    private ProtoJsonMetrics protoJsonMetrics;
+
+    @Autowired(required = false)
+    private Map<String, Executor> executors;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    //pools created by the gateway, shut down with it
+    private final List<ExecutorService> ownedExecutors = new ArrayList<>();
+    private Channel channel;
+
+    @PostConstruct
+    public void startup() throws InterruptedException {
+        ProtoJsonMapper mapper = new ProtoJsonMapper(grpcGatewayConfig.getMapper(),
+                protoJsonMetrics != null ? protoJsonMetrics : ProtoJsonMetrics.NOOP);
+        ProtoJsonRoutes routes = new ProtoJsonRoutes();
+        Map<String, ServerMethodDefinition<?, ?>> methods = new HashMap<>();
+        List<ServerInterceptor> serviceInterceptors = selectInterceptors();
+        for (BindableService service : selectServices()) {
+            ServerServiceDefinition definition = ServerInterceptors.interceptForward(service, serviceInterceptors);
+            for (ServerMethodDefinition<?, ?> method : definition.getMethods()) {
+                MethodDescriptor<?, ?> descriptor = method.getMethodDescriptor();
+                if (descriptor.getType() != MethodDescriptor.MethodType.UNARY
+                        && descriptor.getType() != MethodDescriptor.MethodType.SERVER_STREAMING) {
+                    log.info("Skip {} method({}) in gateway", descriptor.getType(), descriptor.getFullMethodName());
+                    continue;
+                }
+                Descriptors.Descriptor requestDescriptor = requestDescriptor(descriptor);
+                if (requestDescriptor == null) {
+                    log.info("Skip method({}) in gateway, request is not a protobuf message", descriptor.getFullMethodName());
+                    continue;
+                }
+                routes.bind(HttpMethod.POST, "/" + descriptor.getFullMethodName(), requestDescriptor);
+                methods.put(descriptor.getFullMethodName(), method);
+                log.info("bind method({}) to gateway", descriptor.getFullMethodName());
+            }
+        }
+
+        String offloadExecutorName = grpcGatewayConfig.getOffloadExecutor().trim();
+        String callExecutorName = grpcGatewayConfig.getCallExecutor().trim();
+        if (offloadExecutorName.length() > 0 && offloadExecutorName.equals(callExecutorName)) {
+            throw new IllegalArgumentException("Gateway offload and call executors must be different, both are Executor("
+                    + offloadExecutorName + ")");
+        }
+        int offloadThreads = grpcGatewayConfig.getOffloadThreads() > 0
+                ? grpcGatewayConfig.getOffloadThreads() : Runtime.getRuntime().availableProcessors();
+        Executor offloadExecutor = selectExecutor(offloadExecutorName, "grpc-gateway-offload",
+                offloadThreads, grpcGatewayConfig.getOffloadQueueSize());
+        Executor callExecutor = selectExecutor(callExecutorName, "grpc-gateway-call",
+                grpcGatewayConfig.getCallThreads(), grpcGatewayConfig.getCallQueueSize());
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup(grpcGatewayConfig.getWorkerThreads());
+        Map<String, ServerMethodDefinition<?, ?>> gatewayMethods = Collections.unmodifiableMap(methods);
+        int offloadThreshold = grpcGatewayConfig.getOffloadThreshold();
+        long maxContentLength = grpcGatewayConfig.getMaxContentLength();
+
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(
+                                new HttpServerCodec(),
+                                new HttpServerKeepAliveHandler(),
+                                new ProtoJsonHttpCodec(mapper, routes, offloadExecutor, offloadThreshold, maxContentLength),
+                                //one call at a time per connection
+                                new GrpcGatewayHandler(gatewayMethods, callExecutor));
+                    }
+                });
+        channel = bootstrap.bind(grpcGatewayConfig.getHost(), grpcGatewayConfig.getPort()).sync().channel();
+        log.info("grpc gateway started, bind to ({})", channel.localAddress());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (channel != null) {
+            channel.close().syncUninterruptibly();
+        }
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully().syncUninterruptibly();
+        for (ExecutorService executor : ownedExecutors) {
+            executor.shutdown();
+        }
+        try {
+            for (ExecutorService executor : ownedExecutors) {
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    log.info("grpc gateway executor is still running.");
+                }
+            }
+        } catch (InterruptedException e) {
+            //do nothing
+        }
+    }
+
+    //the Executor bean of the name, or a new bounded pool; a full pool rejects new tasks
+    private Executor selectExecutor(String name, String poolName, int threads, int queueSize) {
+        if (name.length() > 0) {
+            Executor executor = executors == null ? null : executors.get(name);
+            if (executor == null) {
+                throw new IllegalArgumentException("Executor(" + name + ") is NOT Defined.");
+            }
+            return executor;
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueSize), new DefaultThreadFactory(poolName, true));
+        executor.allowCoreThreadTimeOut(true);
+        ownedExecutors.add(executor);
+        return executor;
+    }
+
+    private Collection<BindableService> selectServices() {
+        if (services == null) {
+            log.warn("No BindableService defined, grpc gateway has no routes");
+            return Collections.emptyList();
+        }
+        String serviceNames = grpcGatewayConfig.getServices();
+        if (serviceNames == null || serviceNames.trim().length() == 0) {
+            log.info("bind all services to gateway");
+            return services.values();
+        }
+
+        List<BindableService> selected = new ArrayList<>();
+        for (String name : new HashSet<>(Arrays.asList(serviceNames.split(",")))) {
+            BindableService service = services.get(name.trim());
+            if (service == null) {
+                throw new IllegalArgumentException("Cannot bind Service(" + name + ") to gateway, it doesn't exist");
+            }
+            selected.add(service);
+        }
+        return selected;
+    }
+
+    private List<ServerInterceptor> selectInterceptors() {
+        List<ServerInterceptor> selected = new ArrayList<>();
+        for (String name : grpcGatewayConfig.getInterceptors()) {
+            ServerInterceptor interceptor = interceptors == null ? null : interceptors.get(name.trim());
+            if (interceptor == null) {
+                throw new IllegalArgumentException("ServerInterceptor(" + name + ") is NOT Defined.");
+            }
+            selected.add(interceptor);
+        }
+        return selected;
+    }
+
+    private static Descriptors.Descriptor requestDescriptor(MethodDescriptor<?, ?> method) {
+        if (!(method.getRequestMarshaller() instanceof MethodDescriptor.PrototypeMarshaller)) {
+            return null;
+        }
+        Object prototype = ((MethodDescriptor.PrototypeMarshaller<?>) method.getRequestMarshaller()).getMessagePrototype();
+        return prototype instanceof Message ? ((Message) prototype).getDescriptorForType() : null;
+    }
+}
@@ -0,0 +1,79 @@
+package wenmingwei.gateway;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import wenmingwei.ProtoJsonHttpCodec;
+import wenmingwei.ProtoJsonMapperConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Configuration
+@Data
+@ConfigurationProperties(prefix = "grpc.gateway")
+public class GrpcGatewayConfig {
+
+    private String host = "0.0.0.0";
+    private int port = 8081;
+
+    /**
+     * comma separated BindableService bean names exposed by the gateway, empty for all services
+     */
+    private String services = "";
+
+    /**
+     * ServerInterceptor bean names applied to every gateway service, the first one intercepts the call first.
+     * interceptors installed by a providers Customizer live in its ServerBuilder and are not seen by the gateway,
+     * list them here to apply them to gateway calls too
+     */
+    private List<String> interceptors = new ArrayList<>();
+
+    /**
+     * netty worker threads, 0 for netty default
+     */
+    private int workerThreads = 0;
+
+    /**
+     * request bodies larger than this are decoded off the event loop
+     */
+    private int offloadThreshold = ProtoJsonHttpCodec.DEFAULT_OFFLOAD_THRESHOLD;
+
+    /**
+     * request bodies larger than this are rejected with 413
+     */
+    private long maxContentLength = ProtoJsonHttpCodec.DEFAULT_MAX_CONTENT_LENGTH;
+
+    /**
+     * Executor bean name that decodes large request bodies, empty for a pool of offloadThreads created by the gateway
+     */
+    private String offloadExecutor = "";
+
+    /**
+     * threads of the offload pool created by the gateway, 0 for the number of available processors
+     */
+    private int offloadThreads = 0;
+
+    /**
+     * request bodies waiting for an offload thread, more are decoded on the event loop
+     */
+    private int offloadQueueSize = 1024;
+
+    /**
+     * Executor bean name that runs the grpc calls, empty for a pool of callThreads created by the gateway.
+     * must not be the offload executor, so large request bodies cannot starve the calls
+     */
+    private String callExecutor = "";
+
+    /**
+     * threads of the call pool created by the gateway
+     */
+    private int callThreads = 64;
+
+    /**
+     * calls waiting for a call thread, more are rejected with 503
+     */
+    private int callQueueSize = 1024;
+
+    private ProtoJsonMapperConfig mapper = new ProtoJsonMapperConfig();
+}
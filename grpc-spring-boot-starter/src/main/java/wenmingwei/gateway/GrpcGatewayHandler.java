@@ -0,0 +1,164 @@
+package wenmingwei.gateway;
+
+import io.grpc.ServerMethodDefinition;
+import io.grpc.Status;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+import wenmingwei.ChannelReadSuspension;
+import wenmingwei.ProtoJsonRequest;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * invokes the bound grpc method of each decoded ProtoJsonRequest on the executor, requests without a route get 404
+ * <p>
+ * one instance per channel, one call at a time: reads are paused (ChannelReadSuspension) while a call is in flight,
+ * pipelined requests already decoded wait in order, so http/1.1 responses keep the order of the requests
+ */
+@Slf4j
+class GrpcGatewayHandler extends SimpleChannelInboundHandler<Object> {
+
+    //full method name -> method definition
+    private final Map<String, ServerMethodDefinition<?, ?>> methods;
+    private final Executor executor;
+
+    //the call in flight, receives writability changes and connection close
+    private GatewayServerCall<?, ?> activeCall;
+    //requests received while a call is in flight
+    private final Queue<Object> queued = new ArrayDeque<>();
+    //reads suspended by this handler while a call is in flight
+    private boolean readSuspended;
+
+    GrpcGatewayHandler(Map<String, ServerMethodDefinition<?, ?>> methods, Executor executor) {
+        this.methods = methods;
+        this.executor = executor;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
+        if (activeCall != null) {
+            queued.add(ReferenceCountUtil.retain(msg));
+            return;
+        }
+        handle(ctx, msg);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (activeCall != null) {
+            activeCall.writabilityChanged();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (activeCall != null) {
+            activeCall.cancel();
+            activeCall = null;
+        }
+        releaseQueued();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        releaseQueued();
+        if (readSuspended) {
+            readSuspended = false;
+            ChannelReadSuspension.resume(ctx.channel());
+        }
+    }
+
+    private void handle(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof ProtoJsonRequest) {
+            invoke(ctx, (ProtoJsonRequest) msg);
+        } else if (msg instanceof LastHttpContent) {
+            //request passed through ProtoJsonHttpCodec, no grpc method bound
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND, Unpooled.EMPTY_BUFFER);
+            HttpUtil.setContentLength(response, 0);
+            ctx.writeAndFlush(response);
+        }
+    }
+
+    private void invoke(ChannelHandlerContext ctx, ProtoJsonRequest request) {
+        String uri = request.getRequest().uri();
+        int query = uri.indexOf('?');
+        String path = query < 0 ? uri : uri.substring(0, query);
+        ServerMethodDefinition<?, ?> method = methods.get(path.substring(1));
+        if (method == null) {
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND, Unpooled.EMPTY_BUFFER);
+            HttpUtil.setContentLength(response, 0);
+            ctx.writeAndFlush(response);
+            return;
+        }
+
+        try {
+            activeCall = GatewayServerCall.invoke(ctx, method, request.getRequest().headers(), request.getMessage(),
+                    executor, call -> callClosed(ctx, call));
+        } catch (RejectedExecutionException ex) {
+            log.warn("Gateway executor rejected method({})", method.getMethodDescriptor().getFullMethodName());
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                    GatewayServerCall.httpStatus(Status.Code.UNAVAILABLE), Unpooled.EMPTY_BUFFER);
+            HttpUtil.setContentLength(response, 0);
+            ctx.writeAndFlush(response);
+            return;
+        }
+
+        if (!readSuspended) {
+            //no more requests until the response is written
+            ChannelReadSuspension.suspend(ctx.channel());
+            readSuspended = true;
+        }
+    }
+
+    //in the event loop, after the response of the call is written
+    private void callClosed(ChannelHandlerContext ctx, GatewayServerCall<?, ?> call) {
+        if (call != activeCall) {
+            //channel is already closed
+            return;
+        }
+        activeCall = null;
+
+        //handle requests received in the meantime in order, stop at the next call
+        Object msg;
+        while (activeCall == null && (msg = queued.poll()) != null) {
+            try {
+                handle(ctx, msg);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        if (activeCall == null && readSuspended) {
+            readSuspended = false;
+            ChannelReadSuspension.resume(ctx.channel());
+        }
+    }
+
+    private void releaseQueued() {
+        Object msg;
+        while ((msg = queued.poll()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.warn("Gateway channel({}) failed, close it", ctx.channel(), cause);
+        ctx.close();
+    }
+}
@@ -0,0 +1,37 @@
+package wenmingwei.mapper;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import wenmingwei.ProtoJsonMapper;
+import wenmingwei.ProtoJsonMapperConfig;
+import wenmingwei.ProtoJsonMetrics;
+import wenmingwei.metrics.ProtoJsonMetricsAutoConfiguration;
+
+/**
+ * registers a shared ProtoJsonMapper configured by proto-json.mapper.* and instrumented by the ProtoJsonMetrics bean, if any.
+ * define a ProtoJsonMapper (or ProtoJsonMapperConfig) bean to replace it.
+ * the grpc gateway builds its own mapper from grpc.gateway.mapper.*, it reports to the same ProtoJsonMetrics bean
+ */
+@Configuration
+@EnableConfigurationProperties
+@AutoConfigureAfter(ProtoJsonMetricsAutoConfiguration.class)
+public class ProtoJsonMapperAutoConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConfigurationProperties(prefix = "proto-json.mapper")
+    public ProtoJsonMapperConfig protoJsonMapperConfig() {
+        return new ProtoJsonMapperConfig();
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public ProtoJsonMapper protoJsonMapper(ProtoJsonMapperConfig protoJsonMapperConfig, ObjectProvider<ProtoJsonMetrics> protoJsonMetrics) {
+        return new ProtoJsonMapper(protoJsonMapperConfig, protoJsonMetrics.getIfAvailable(() -> ProtoJsonMetrics.NOOP));
+    }
+}
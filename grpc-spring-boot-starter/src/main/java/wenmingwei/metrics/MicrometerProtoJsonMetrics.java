@@ -0,0 +1,115 @@
+package wenmingwei.metrics;
+
+import com.google.protobuf.Descriptors;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import wenmingwei.ProtoJsonMetrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProtoJsonMetrics backed by micrometer, meters are tagged with the proto message full name (type).
+ * Latency timers publish percentile histograms, failure counters are also tagged with the exception simple name.
+ * Meters are registered once per type (and exception) and reused, the registry is not looked up per call.
+ * <p>
+ * Like every ProtoJsonMetrics, only encode/decode and encodeStream records are reported,
+ * ProtoJsonMapper.decodeStream and IncrementalProtoJsonDecoder are not instrumented.
+ */
+public class MicrometerProtoJsonMetrics implements ProtoJsonMetrics {
+
+    private static final String TYPE_TAG = "type";
+    private static final String EXCEPTION_TAG = "exception";
+    private static final String ENCODE_FAILURES = "proto.json.encode.failures";
+    private static final String DECODE_FAILURES = "proto.json.decode.failures";
+
+    private final MeterRegistry registry;
+    private final ConcurrentMap<Descriptors.Descriptor, Meters> meters = new ConcurrentHashMap<>();
+
+    public MicrometerProtoJsonMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void encoded(Descriptors.Descriptor descriptor, long nanos, long bytes) {
+        Meters typeMeters = meters(descriptor);
+        typeMeters.encodeTimer.record(nanos, TimeUnit.NANOSECONDS);
+        typeMeters.encodeBytes.record(bytes);
+    }
+
+    @Override
+    public void decoded(Descriptors.Descriptor descriptor, long nanos, long bytes) {
+        Meters typeMeters = meters(descriptor);
+        typeMeters.decodeTimer.record(nanos, TimeUnit.NANOSECONDS);
+        typeMeters.decodeBytes.record(bytes);
+    }
+
+    @Override
+    public void encodeFailed(Descriptors.Descriptor descriptor, long nanos, Throwable cause) {
+        Meters typeMeters = meters(descriptor);
+        typeMeters.failure(registry, ENCODE_FAILURES, typeMeters.encodeFailures, cause).increment();
+    }
+
+    @Override
+    public void decodeFailed(Descriptors.Descriptor descriptor, long nanos, Throwable cause) {
+        Meters typeMeters = meters(descriptor);
+        typeMeters.failure(registry, DECODE_FAILURES, typeMeters.decodeFailures, cause).increment();
+    }
+
+    private Meters meters(Descriptors.Descriptor descriptor) {
+        Meters typeMeters = meters.get(descriptor);
+        if (typeMeters == null) {
+            typeMeters = meters.computeIfAbsent(descriptor, key -> new Meters(registry, key.getFullName()));
+        }
+        return typeMeters;
+    }
+
+    private static class Meters {
+        private final String type;
+        //failure counters by exception class, registered on the first failure
+        private final ConcurrentMap<Class<?>, Counter> encodeFailures = new ConcurrentHashMap<>();
+        private final ConcurrentMap<Class<?>, Counter> decodeFailures = new ConcurrentHashMap<>();
+        private final Timer encodeTimer;
+        private final Timer decodeTimer;
+        private final DistributionSummary encodeBytes;
+        private final DistributionSummary decodeBytes;
+
+        Meters(MeterRegistry registry, String type) {
+            this.type = type;
+            encodeTimer = Timer.builder("proto.json.encode")
+                    .description("Proto message to json encoding latency")
+                    .tag(TYPE_TAG, type)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            decodeTimer = Timer.builder("proto.json.decode")
+                    .description("Json to proto message decoding latency")
+                    .tag(TYPE_TAG, type)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            encodeBytes = DistributionSummary.builder("proto.json.encode.bytes")
+                    .description("Encoded json size")
+                    .baseUnit("bytes")
+                    .tag(TYPE_TAG, type)
+                    .register(registry);
+            decodeBytes = DistributionSummary.builder("proto.json.decode.bytes")
+                    .description("Decoded json size")
+                    .baseUnit("bytes")
+                    .tag(TYPE_TAG, type)
+                    .register(registry);
+        }
+
+        Counter failure(MeterRegistry registry, String name, ConcurrentMap<Class<?>, Counter> counters, Throwable cause) {
+            Counter counter = counters.get(cause.getClass());
+            if (counter == null) {
+                counter = counters.computeIfAbsent(cause.getClass(), key -> Counter.builder(name)
+                        .tag(TYPE_TAG, type)
+                        .tag(EXCEPTION_TAG, key.getSimpleName())
+                        .register(registry));
+            }
+            return counter;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package wenmingwei.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import wenmingwei.ProtoJsonMetrics;
+
+/**
+ * registers MicrometerProtoJsonMetrics when micrometer is on the classpath and a MeterRegistry is defined
+ */
+@Configuration
+@ConditionalOnClass(MeterRegistry.class)
+@ConditionalOnProperty(value = "proto-json.metrics.enabled", havingValue = "true", matchIfMissing = true)
+@AutoConfigureAfter(name = "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration")
+public class ProtoJsonMetricsAutoConfiguration {
+
+    @Bean
+    @ConditionalOnBean(MeterRegistry.class)
+    @ConditionalOnMissingBean(ProtoJsonMetrics.class)
+    public ProtoJsonMetrics protoJsonMetrics(MeterRegistry meterRegistry) {
+        return new MicrometerProtoJsonMetrics(meterRegistry);
+    }
+}
@@ -0,0 +1,199 @@
+package wenmingwei.gateway;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gson.JsonParser;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import io.grpc.Context;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCalls;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.junit.Test;
+import wenmingwei.ProtoJsonHttpCodec;
+import wenmingwei.ProtoJsonMapper;
+import wenmingwei.ProtoJsonRoutes;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GrpcGatewayHandlerTest {
+
+    private static final String SERVICE = "test.Echo";
+
+    private final ProtoJsonMapper mapper = new ProtoJsonMapper();
+    //context seen by the last call
+    private final AtomicReference<Context> callContext = new AtomicReference<>();
+
+    private static MethodDescriptor<FieldDescriptorProto, FieldDescriptorProto> method(MethodDescriptor.MethodType type, String name) {
+        return MethodDescriptor.<FieldDescriptorProto, FieldDescriptorProto>newBuilder()
+                .setType(type)
+                .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE, name))
+                .setRequestMarshaller(ProtoUtils.marshaller(FieldDescriptorProto.getDefaultInstance()))
+                .setResponseMarshaller(ProtoUtils.marshaller(FieldDescriptorProto.getDefaultInstance()))
+                .build();
+    }
+
+    private static FieldDescriptorProto field(String name, int number) {
+        return FieldDescriptorProto.newBuilder().setName(name).setNumber(number).build();
+    }
+
+    //Unary echoes the request, Stream sends `number` messages, Hang never responds
+    private EmbeddedChannel channel() {
+        ServerServiceDefinition service = ServerServiceDefinition.builder(SERVICE)
+                .addMethod(method(MethodDescriptor.MethodType.UNARY, "Unary"), ServerCalls.asyncUnaryCall((request, observer) -> {
+                    callContext.set(Context.current());
+                    observer.onNext(field(request.getName() + "!", request.getNumber()));
+                    observer.onCompleted();
+                }))
+                .addMethod(method(MethodDescriptor.MethodType.SERVER_STREAMING, "Stream"), ServerCalls.asyncServerStreamingCall((request, observer) -> {
+                    callContext.set(Context.current());
+                    for (int i = 0; i < request.getNumber(); i++) {
+                        observer.onNext(field(request.getName(), i));
+                    }
+                    observer.onCompleted();
+                }))
+                .addMethod(method(MethodDescriptor.MethodType.UNARY, "Hang"), ServerCalls.asyncUnaryCall((request, observer) ->
+                        callContext.set(Context.current())))
+                .build();
+
+        ProtoJsonRoutes routes = new ProtoJsonRoutes();
+        Map<String, ServerMethodDefinition<?, ?>> methods = new HashMap<>();
+        for (ServerMethodDefinition<?, ?> definition : service.getMethods()) {
+            String name = definition.getMethodDescriptor().getFullMethodName();
+            routes.bind(HttpMethod.POST, "/" + name, FieldDescriptorProto.getDescriptor());
+            methods.put(name, definition);
+        }
+        return new EmbeddedChannel(new ProtoJsonHttpCodec(mapper, routes),
+                new GrpcGatewayHandler(methods, MoreExecutors.directExecutor()));
+    }
+
+    private FullHttpRequest request(String method, FieldDescriptorProto message) {
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/" + SERVICE + "/" + method,
+                Unpooled.copiedBuffer(mapper.encode(message), StandardCharsets.UTF_8));
+        HttpUtil.setContentLength(request, request.content().readableBytes());
+        return request;
+    }
+
+    private void assertJson(FieldDescriptorProto expected, String json) {
+        assertEquals(new JsonParser().parse(mapper.encode(expected)), new JsonParser().parse(json));
+    }
+
+    //pipelined unary calls are answered in order, the call runs in a cancellable context without deadline
+    @Test
+    public void unaryCall() {
+        EmbeddedChannel channel = channel();
+        channel.writeInbound(request("Unary", field("a", 1)), request("Unary", field("b", 2)));
+        channel.runPendingTasks();
+
+        for (String name : new String[]{"a!", "b!"}) {
+            FullHttpResponse response = channel.readOutbound();
+            assertEquals(HttpResponseStatus.OK, response.status());
+            assertJson(field(name, name.equals("a!") ? 1 : 2), response.content().toString(StandardCharsets.UTF_8));
+            response.release();
+        }
+        assertNull(channel.readOutbound());
+        assertNull(callContext.get().getDeadline());
+        //cancelled after the call completed
+        assertTrue(callContext.get().isCancelled());
+        assertTrue(channel.config().isAutoRead());
+        assertFalse(channel.finish());
+    }
+
+    //server streaming responds with a chunked ndjson body, the call sees the deadline of grpc-timeout
+    @Test
+    public void serverStreamingCall() {
+        EmbeddedChannel channel = channel();
+        FullHttpRequest request = request("Stream", field("s", 3));
+        request.headers().set(GatewayServerCall.TIMEOUT_HEADER, "10S");
+        channel.writeInbound(request);
+        channel.runPendingTasks();
+
+        HttpResponse head = channel.readOutbound();
+        assertEquals(HttpResponseStatus.OK, head.status());
+        assertTrue(HttpUtil.isTransferEncodingChunked(head));
+        assertEquals("application/x-ndjson; charset=UTF-8", head.headers().get(HttpHeaderNames.CONTENT_TYPE));
+        for (int i = 0; i < 3; i++) {
+            HttpContent content = channel.readOutbound();
+            assertFalse(content instanceof LastHttpContent);
+            String line = content.content().toString(StandardCharsets.UTF_8);
+            assertTrue(line.endsWith("\n"));
+            assertJson(field("s", i), line);
+            content.release();
+        }
+        LastHttpContent last = channel.readOutbound();
+        assertFalse(last.content().isReadable());
+        assertNull(channel.readOutbound());
+
+        assertNotNull(callContext.get().getDeadline());
+        long remaining = callContext.get().getDeadline().timeRemaining(TimeUnit.SECONDS);
+        assertTrue(String.valueOf(remaining), remaining > 0 && remaining <= 10);
+        assertFalse(channel.finish());
+    }
+
+    //a call past its deadline is cancelled and answered with 504, the next request is served
+    @Test
+    public void deadlineExceeded() throws InterruptedException {
+        EmbeddedChannel channel = channel();
+        FullHttpRequest request = request("Hang", field("h", 0));
+        request.headers().set(GatewayServerCall.TIMEOUT_HEADER, "20m");
+        channel.writeInbound(request, request("Unary", field("a", 1)));
+        Context hung = callContext.get();
+        assertFalse(hung.isCancelled());
+        assertNull(channel.readOutbound());
+
+        Thread.sleep(50);
+        channel.runScheduledPendingTasks();
+        channel.runPendingTasks();
+
+        assertTrue(hung.isCancelled());
+        FullHttpResponse timeout = channel.readOutbound();
+        assertEquals(HttpResponseStatus.GATEWAY_TIMEOUT, timeout.status());
+        assertEquals("4", timeout.headers().get("grpc-status"));
+        timeout.release();
+
+        channel.runPendingTasks();
+        FullHttpResponse next = channel.readOutbound();
+        assertEquals(HttpResponseStatus.OK, next.status());
+        next.release();
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void timeoutHeader() {
+        assertNull(GatewayServerCall.timeoutNanos(new DefaultHttpHeaders()));
+        String[] values = {"1n", "2u", "3m", "4S", "5M", "6H", "99999999m"};
+        long[] nanos = {1, 2000, TimeUnit.MILLISECONDS.toNanos(3), TimeUnit.SECONDS.toNanos(4), TimeUnit.MINUTES.toNanos(5),
+                TimeUnit.HOURS.toNanos(6), TimeUnit.MILLISECONDS.toNanos(99999999)};
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], Long.valueOf(nanos[i]),
+                    GatewayServerCall.timeoutNanos(new DefaultHttpHeaders().set(GatewayServerCall.TIMEOUT_HEADER, values[i])));
+        }
+        for (String value : new String[]{"", "S", "1", "1s", "-1S", "+1S", "123456789S", "1.5S"}) {
+            assertNull(value, GatewayServerCall.timeoutNanos(new DefaultHttpHeaders().set(GatewayServerCall.TIMEOUT_HEADER, value)));
+        }
+    }
+}
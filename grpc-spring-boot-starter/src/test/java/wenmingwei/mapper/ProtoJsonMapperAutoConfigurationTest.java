@@ -0,0 +1,54 @@
+package wenmingwei.mapper;
+
+import com.google.protobuf.DescriptorProtos;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import wenmingwei.ProtoJsonMapper;
+import wenmingwei.ProtoJsonMapperConfig;
+import wenmingwei.metrics.ProtoJsonMetricsAutoConfiguration;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProtoJsonMapperAutoConfigurationTest {
+
+    private static AnnotationConfigApplicationContext context(boolean meterRegistry) {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("test",
+                Collections.singletonMap("proto-json.mapper.streaming", "true")));
+        if (meterRegistry) {
+            context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        }
+        context.register(ProtoJsonMetricsAutoConfiguration.class, ProtoJsonMapperAutoConfiguration.class);
+        context.refresh();
+        return context;
+    }
+
+    //the shared mapper is bound to proto-json.mapper.* and reports to the ProtoJsonMetrics bean
+    @Test
+    public void mapperReportsToMetricsBean() {
+        try (AnnotationConfigApplicationContext context = context(true)) {
+            assertTrue(context.getBean(ProtoJsonMapperConfig.class).isStreaming());
+            context.getBean(ProtoJsonMapper.class).encode(DescriptorProtos.FieldDescriptorProto.newBuilder().setName("a").build());
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertEquals(1, registry.find("proto.json.encode")
+                    .tag("type", DescriptorProtos.FieldDescriptorProto.getDescriptor().getFullName()).timer().count());
+        }
+    }
+
+    //without a MeterRegistry there is no ProtoJsonMetrics bean, the mapper is not instrumented
+    @Test
+    public void mapperWithoutMetrics() {
+        try (AnnotationConfigApplicationContext context = context(false)) {
+            assertEquals(0, context.getBeanNamesForType(MeterRegistry.class).length);
+            assertEquals("{\n  \"name\": \"a\"\n}",
+                    context.getBean(ProtoJsonMapper.class).encode(DescriptorProtos.FieldDescriptorProto.newBuilder().setName("a").build()));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package wenmingwei.metrics;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+import wenmingwei.ProtoJsonMapper;
+import wenmingwei.ProtoJsonMapperConfig;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MicrometerProtoJsonMetricsTest {
+
+    private static final Descriptors.Descriptor TYPE = DescriptorProtos.FieldDescriptorProto.getDescriptor();
+    private static final String TYPE_NAME = TYPE.getFullName();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ProtoJsonMapper mapper = new ProtoJsonMapper(new ProtoJsonMapperConfig(), new MicrometerProtoJsonMetrics(registry));
+
+    private Counter failures(String name, Class<? extends Throwable> exception) {
+        return registry.find(name).tags("type", TYPE_NAME, "exception", exception.getSimpleName()).counter();
+    }
+
+    @Test
+    public void countsAndBytes() throws IOException {
+        DescriptorProtos.FieldDescriptorProto message = DescriptorProtos.FieldDescriptorProto.newBuilder().setName("né").setNumber(1).build();
+        String json = mapper.encode(message);
+        ByteBuf out = Unpooled.buffer();
+        mapper.encode(message, out);
+
+        Timer encodeTimer = registry.find("proto.json.encode").tag("type", TYPE_NAME).timer();
+        DistributionSummary encodeBytes = registry.find("proto.json.encode.bytes").tag("type", TYPE_NAME).summary();
+        assertEquals(2, encodeTimer.count());
+        assertEquals(2, encodeBytes.count());
+        assertEquals(json.getBytes(StandardCharsets.UTF_8).length + out.readableBytes(), (long) encodeBytes.totalAmount());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(message, mapper.decode(out.duplicate(), TYPE));
+        }
+        Timer decodeTimer = registry.find("proto.json.decode").tag("type", TYPE_NAME).timer();
+        DistributionSummary decodeBytes = registry.find("proto.json.decode.bytes").tag("type", TYPE_NAME).summary();
+        assertEquals(3, decodeTimer.count());
+        assertEquals(3L * out.readableBytes(), (long) decodeBytes.totalAmount());
+        assertTrue(decodeTimer.totalTime(TimeUnit.NANOSECONDS) > 0);
+    }
+
+    //failure counters are registered once per type and exception, and reused afterwards
+    @Test
+    public void failures() {
+        assertNull(failures("proto.json.decode.failures", JsonSyntaxException.class));
+        for (int i = 0; i < 3; i++) {
+            try {
+                mapper.decode(Unpooled.copiedBuffer("{\"name\":", StandardCharsets.UTF_8), TYPE);
+                fail();
+            } catch (IOException | JsonSyntaxException ignored) {
+            }
+        }
+        Counter decodeFailures = registry.find("proto.json.decode.failures").tag("type", TYPE_NAME).counter();
+        assertEquals(3, decodeFailures.count(), 0);
+        int meters = registry.getMeters().size();
+
+        DescriptorProtos.FieldDescriptorProto message = DescriptorProtos.FieldDescriptorProto.newBuilder().setName("abcdefgh").build();
+        for (int i = 0; i < 2; i++) {
+            try {
+                mapper.encode(message, Unpooled.buffer(0, 4));
+                fail();
+            } catch (IndexOutOfBoundsException ignored) {
+            }
+        }
+        Counter encodeFailures = failures("proto.json.encode.failures", IndexOutOfBoundsException.class);
+        assertEquals(2, encodeFailures.count(), 0);
+        //one more counter for encode failures, no meter per call
+        assertEquals(meters + 1, registry.getMeters().size());
+
+        try {
+            mapper.encode(message, Unpooled.buffer(0, 4));
+            fail();
+        } catch (IndexOutOfBoundsException ignored) {
+        }
+        assertSame(encodeFailures, failures("proto.json.encode.failures", IndexOutOfBoundsException.class));
+        assertEquals(3, encodeFailures.count(), 0);
+        assertEquals(0, registry.find("proto.json.encode").tag("type", TYPE_NAME).timer().count());
+    }
+}
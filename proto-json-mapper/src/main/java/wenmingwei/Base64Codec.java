@@ -0,0 +1,191 @@
+package wenmingwei;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * ByteString与Base64(RFC 4648，与java.util.Base64.getEncoder/getDecoder一致)之间的转换，不产生中间拷贝
+ * <p>
+ * 编码: 直接读取ByteString内部的缓冲区(asReadOnlyByteBufferList)，不调用toByteArray；
+ * 解码: 直接从字符(或者ByteBufJsonReader中的字节)解码到一个大小精确的byte[]，通过UnsafeByteOperations.unsafeWrap包装为ByteString，不再copyFrom。
+ */
+final class Base64Codec {
+
+    private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private static final int[] DECODE_TABLE = new int[128];
+
+    //Gson的htmlSafe模式(默认开启)会转义 '='，直接写入时需要保持一致
+    private static final byte[] HTML_SAFE_PADDING = "\\u003d".getBytes(StandardCharsets.US_ASCII);
+
+    //直接写入ByteBuf时的分段大小
+    private static final int CHUNK_SIZE = 8192;
+
+    static {
+        Arrays.fill(DECODE_TABLE, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE_TABLE[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64Codec() {
+    }
+
+    static int encodedLength(int size) {
+        return (size + 2) / 3 * 4;
+    }
+
+    /**
+     * 编码为Base64字符串，只分配一次结果大小的缓冲区
+     *
+     * @param src ByteString
+     * @return Base64字符串
+     */
+    static String encodeToString(ByteString src) {
+        byte[] dst = new byte[encodedLength(src.size())];
+        encode(src, dst, null, false);
+        return new String(dst, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * 将Base64字符(不含引号)直接写入ByteBuf
+     *
+     * @param src      ByteString
+     * @param out      写入的ByteBuf
+     * @param htmlSafe 是否与Gson的htmlSafe模式一样转义 '='
+     */
+    static void encode(ByteString src, ByteBuf out, boolean htmlSafe) {
+        int length = encodedLength(src.size());
+        //htmlSafe时按最多的填充预留，只是提示，不能超过maxCapacity
+        out.ensureWritable(length + (htmlSafe ? 2 * HTML_SAFE_PADDING.length : 0), false);
+        encode(src, new byte[Math.min(length + 2 * HTML_SAFE_PADDING.length, CHUNK_SIZE)], out, htmlSafe);
+    }
+
+    //编码到dst，dst写满时写入out；out为null时，dst必须足够大
+    private static void encode(ByteString src, byte[] dst, ByteBuf out, boolean htmlSafe) {
+        int pos = 0;
+        int bits = 0;
+        int count = 0;
+        for (ByteBuffer buffer : src.asReadOnlyByteBufferList()) {
+            for (int i = buffer.position(), limit = buffer.limit(); i < limit; i++) {
+                bits = (bits << 8) | (buffer.get(i) & 0xff);
+                if (++count == 3) {
+                    if (pos + 4 > dst.length) {
+                        out.writeBytes(dst, 0, pos);
+                        pos = 0;
+                    }
+                    dst[pos++] = ALPHABET[(bits >>> 18) & 0x3f];
+                    dst[pos++] = ALPHABET[(bits >>> 12) & 0x3f];
+                    dst[pos++] = ALPHABET[(bits >>> 6) & 0x3f];
+                    dst[pos++] = ALPHABET[bits & 0x3f];
+                    bits = 0;
+                    count = 0;
+                }
+            }
+        }
+
+        if (count > 0) {
+            int paddings = 3 - count;
+            int tailLength = count + 1 + paddings * (htmlSafe ? HTML_SAFE_PADDING.length : 1);
+            if (pos + tailLength > dst.length) {
+                out.writeBytes(dst, 0, pos);
+                pos = 0;
+            }
+            bits <<= 8 * paddings;
+            dst[pos++] = ALPHABET[(bits >>> 18) & 0x3f];
+            dst[pos++] = ALPHABET[(bits >>> 12) & 0x3f];
+            if (count == 2) {
+                dst[pos++] = ALPHABET[(bits >>> 6) & 0x3f];
+            }
+            for (int i = 0; i < paddings; i++) {
+                if (htmlSafe) {
+                    System.arraycopy(HTML_SAFE_PADDING, 0, dst, pos, HTML_SAFE_PADDING.length);
+                    pos += HTML_SAFE_PADDING.length;
+                } else {
+                    dst[pos++] = '=';
+                }
+            }
+        }
+
+        if (out != null && pos > 0) {
+            out.writeBytes(dst, 0, pos);
+        }
+    }
+
+    /**
+     * 解码Base64字符串，规则与java.util.Base64.getDecoder()一致: 末尾的 '=' 可以省略，其它非法字符抛出异常
+     *
+     * @param src Base64字符串
+     * @return 直接包装解码结果的ByteString，不再拷贝
+     * @throws IllegalArgumentException 不是合法的Base64字符串时，抛出
+     */
+    static ByteString decode(CharSequence src) {
+        int length = src.length();
+        int end = length;
+        if (end > 0 && src.charAt(end - 1) == '=') {
+            end--;
+            if (end > 0 && src.charAt(end - 1) == '=') {
+                end--;
+            }
+        }
+        return decode(src, end, length - end);
+    }
+
+    /**
+     * 解码末尾的 '=' 已经去掉的Base64字符，规则与decode(CharSequence)一致
+     * <p>
+     * ByteBufJsonReader直接从字节解码时使用，Json中的 '=' 可能被转义为 \u003d，由调用者计数。
+     *
+     * @param src      Base64字符，只读取[0, end)
+     * @param end      Base64字符的个数，不含 '='
+     * @param paddings 末尾 '=' 的个数
+     * @return 直接包装解码结果的ByteString，不再拷贝
+     * @throws IllegalArgumentException 不是合法的Base64字符串时，抛出
+     */
+    static ByteString decode(CharSequence src, int end, int paddings) {
+        if (paddings > 0 && (end + paddings) % 4 != 0) {
+            throw new IllegalArgumentException("Input byte array has wrong 4-byte ending unit");
+        }
+        int remainder = end % 4;
+        if (remainder == 1) {
+            throw new IllegalArgumentException("Last unit does not have enough valid bits");
+        }
+
+        byte[] dst = new byte[end / 4 * 3 + (remainder == 0 ? 0 : remainder - 1)];
+        int pos = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            bits = (bits << 6) | decodeChar(src.charAt(i), i);
+            if (++count == 4) {
+                dst[pos++] = (byte) (bits >> 16);
+                dst[pos++] = (byte) (bits >> 8);
+                dst[pos++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 3) {
+            dst[pos++] = (byte) (bits >> 10);
+            dst[pos] = (byte) (bits >> 2);
+        } else if (count == 2) {
+            dst[pos] = (byte) (bits >> 4);
+        }
+
+        return UnsafeByteOperations.unsafeWrap(dst);
+    }
+
+    private static int decodeChar(char ch, int index) {
+        int value = ch < 128 ? DECODE_TABLE[ch] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Illegal base64 character " + Integer.toString(ch, 16) + " at " + index);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,1249 @@
+package wenmingwei;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import com.google.protobuf.ByteString;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.AsciiString;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 直接读取ByteBuf中UTF-8字节的JsonReader，不经过InputStreamReader/CharsetDecoder，与ByteBufJsonWriter对应
+ * <p>
+ * 覆盖了JsonReader所有的公开方法，Gson的TypeAdapter和编解码计划可以直接使用。
+ * 1. 字段名可以通过JsonNameTable按字节匹配(nextName(JsonNameTable))，不构建String
+ * 2. 字符串值只在nextString时解码，ASCII字符串不经过UTF-8解码器；skipValue跳过的值不解码
+ * 3. 整数在peek时直接从字节计算，nextInt/nextLong不构建String
+ * <p>
+ * ByteBuf有backing array时直接读取数组；Direct Buffer读取nioBuffer，多块的CompositeByteBuf按nioBuffers逐块读取，都不整体拷贝，
+ * 只有字段名、去重的字符串按字节查找时拷贝到复用的小缓冲区。读取时不改变ByteBuf的readerIndex，close之前ByteBuf需要保持有效。
+ * <p>
+ * 只支持标准的Json语法，lenient模式下另外支持NaN和Infinity。Gson lenient模式的其它语法(注释、单引号、不带引号的字符串等)
+ * 抛出cause为UnsupportedSyntax的MalformedJsonException，由调用者改用JsonReader重新解码，参考ProtoJsonMapper.decode；
+ * 其它格式错误与JsonReader一样，不需要重新解码。
+ */
+final class ByteBufJsonReader extends JsonReader {
+
+    //所有方法都已覆盖，父类的Reader不会被读取
+    private static final Reader UNUSED_READER = new StringReader("");
+
+    private static final long MIN_INCOMPLETE_INTEGER = Long.MIN_VALUE / 10;
+
+    //嵌套层次，与JsonScope一致
+    private static final int EMPTY_ARRAY = 1;
+    private static final int NONEMPTY_ARRAY = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    private static final int EMPTY_DOCUMENT = 6;
+    private static final int NONEMPTY_DOCUMENT = 7;
+    private static final int CLOSED = 8;
+
+    //peek的结果
+    private static final int PEEKED_NONE = 0;
+    private static final int PEEKED_BEGIN_OBJECT = 1;
+    private static final int PEEKED_END_OBJECT = 2;
+    private static final int PEEKED_BEGIN_ARRAY = 3;
+    private static final int PEEKED_END_ARRAY = 4;
+    private static final int PEEKED_TRUE = 5;
+    private static final int PEEKED_FALSE = 6;
+    private static final int PEEKED_NULL = 7;
+    //pos为开始的引号之后
+    private static final int PEEKED_STRING = 8;
+    private static final int PEEKED_NAME = 9;
+    //值在peekedLong中
+    private static final int PEEKED_LONG = 10;
+    //文本为 bytes[peekedNumberStart, pos)
+    private static final int PEEKED_NUMBER = 11;
+    private static final int PEEKED_EOF = 12;
+
+    //getPath中的字段名，其它值为名字开始的引号之后的位置
+    private static final int NO_NAME = -1;
+    private static final int SKIPPED_NAME = -2;
+
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] NAN = {'N', 'a', 'N'};
+    private static final byte[] INFINITY = {'I', 'n', 'f', 'i', 'n', 'i', 't', 'y'};
+    // \u003d 的字节数
+    private static final int ESCAPED_PADDING_LENGTH = 6;
+
+    //ByteBuf的backing array，没有时为null
+    private final byte[] bytes;
+    //没有backing array时读取的ByteBuf，位置为ByteBuf的下标；有backing array时为null
+    private final ByteBuf buffer;
+    //buffer只有一块时的ByteBuffer，下标与buffer一致，读取时不检查引用计数；否则为null
+    private final ByteBuffer nio;
+    //buffer有多块时[start, limit)的各块(不包括空的块)，以及每块开始位置在buffer中的下标；否则为null
+    private final ByteBuffer[] components;
+    private final int[] componentStarts;
+    //当前读取的块，下标index的字节为 component.get(index + componentBase)；[componentStart, componentEnd)之外时重新查找
+    private ByteBuffer component;
+    private int componentBase;
+    private int componentStart;
+    private int componentEnd;
+    private final int start;
+    private final int limit;
+    //从buffer拷贝字段名、去重的字符串，按字节查找时复用
+    private byte[] scratch;
+    //并行解码使用的ForkJoinPool，参考ParallelRepeatedCodec；为null时使用ForkJoinPool.commonPool()
+    private ForkJoinPool parallelPool;
+
+    private int pos;
+    private int peeked = PEEKED_NONE;
+    private long peekedLong;
+    private int peekedNumberStart;
+    //最近一次readString结束的引号之后的位置
+    private int stringEnd;
+    //UTF-8解码复用的缓冲区
+    private char[] chars = new char[64];
+
+    //最近一次skipArrayElements的数组路径
+    private String arrayPath;
+    //getPath的开头，并行解码的一段元素为数组所在的路径
+    private String pathPrefix = "$";
+
+    private int[] stack = new int[32];
+    private int stackSize;
+    private int[] pathNames = new int[32];
+    private int[] pathIndices = new int[32];
+
+    /**
+     * @param json Json Content，读取readerIndex到writerIndex之间的字节
+     */
+    ByteBufJsonReader(ByteBuf json) {
+        super(UNUSED_READER);
+        int length = json.readableBytes();
+        if (json.hasArray()) {
+            this.bytes = json.array();
+            this.buffer = null;
+            this.nio = null;
+            this.components = null;
+            this.componentStarts = null;
+            this.start = json.arrayOffset() + json.readerIndex();
+        } else {
+            this.bytes = null;
+            this.buffer = json;
+            int count = json.nioBufferCount();
+            this.nio = count == 1 ? json.nioBuffer(0, json.writerIndex()) : null;
+            this.start = json.readerIndex();
+            if (count > 1) {
+                ByteBuffer[] nioBuffers = json.nioBuffers(start, length);
+                int n = 0;
+                int[] starts = new int[nioBuffers.length];
+                int index = start;
+                for (ByteBuffer nioBuffer : nioBuffers) {
+                    if (nioBuffer.hasRemaining()) {
+                        starts[n] = index;
+                        nioBuffers[n++] = nioBuffer;
+                        index += nioBuffer.remaining();
+                    }
+                }
+                this.components = Arrays.copyOf(nioBuffers, n);
+                this.componentStarts = Arrays.copyOf(starts, n);
+            } else {
+                this.components = null;
+                this.componentStarts = null;
+            }
+        }
+        this.limit = start + length;
+        this.pos = start;
+
+        //与JsonReader一致，跳过开头的BOM
+        if (length >= 3 && byteAt(pos) == (byte) 0xEF && byteAt(pos + 1) == (byte) 0xBB && byteAt(pos + 2) == (byte) 0xBF) {
+            pos += 3;
+        }
+        stack[stackSize++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * 读取同一缓冲区中某个Json数组的一段元素，用于并行解码(ParallelRepeatedCodec)；不拷贝、不释放缓冲区，parent关闭前有效
+     * <p>
+     * 相当于已经读过数组开头的 '['，调用者只读取这一段的元素个数，不读取数组结尾。
+     *
+     * @param parent     已经扫描过数组的ByteBufJsonReader
+     * @param from       第一个元素的开始位置，参考skipArrayElements
+     * @param to         这一段之后的位置
+     * @param firstIndex 第一个元素在数组中的下标，用于错误信息中的路径
+     */
+    ByteBufJsonReader(ByteBufJsonReader parent, int from, int to, int firstIndex) {
+        super(UNUSED_READER);
+        this.bytes = parent.bytes;
+        this.buffer = parent.buffer;
+        //ByteBuffer的绝对位置读取不改变状态，可以与parent共享
+        this.nio = parent.nio;
+        this.components = parent.components;
+        this.componentStarts = parent.componentStarts;
+        this.start = parent.start;
+        this.limit = to;
+        this.pos = from;
+        setLenient(parent.isLenient());
+        this.parallelPool = parent.parallelPool;
+        this.pathPrefix = parent.arrayPath;
+        stack[stackSize++] = NONEMPTY_DOCUMENT;
+        stack[stackSize++] = EMPTY_ARRAY;
+        pathIndices[1] = firstIndex;
+    }
+
+    /**
+     * @param parallelPool 并行解码使用的ForkJoinPool，由ProtoJsonMapper按ProtoJsonMapperConfig.parallelPool设置
+     */
+    void setParallelPool(ForkJoinPool parallelPool) {
+        this.parallelPool = parallelPool;
+    }
+
+    /**
+     * @return 并行解码使用的ForkJoinPool，没有设置时为null
+     */
+    ForkJoinPool getParallelPool() {
+        return parallelPool;
+    }
+
+    /**
+     * @return 未读取的字节数
+     */
+    int remaining() {
+        return limit - pos;
+    }
+
+    /**
+     * 读取元素都是Json对象的数组，只记录每个元素的位置，不解码
+     * <p>
+     * 元素不是Json对象时，抛出与beginObject相同的异常。
+     *
+     * @return 长度为元素个数+1，依次为每个元素的开始位置，最后为最后一个元素之后的位置
+     * @throws IOException 格式错误时，抛出
+     */
+    int[] skipArrayElements() throws IOException {
+        arrayPath = getPath();
+        beginArray();
+        int[] offsets = new int[16];
+        int count = 0;
+        while (hasNext()) {
+            if (peeked != PEEKED_BEGIN_OBJECT) {
+                beginObject();
+            }
+            if (count + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            //peek已经读过 '{'
+            offsets[count++] = pos - 1;
+            skipValue();
+        }
+        offsets[count] = pos;
+        endArray();
+        return Arrays.copyOf(offsets, count + 1);
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        if (p != PEEKED_BEGIN_ARRAY) {
+            throw new IllegalStateException("Expected BEGIN_ARRAY but was " + peek() + locationString());
+        }
+        push(EMPTY_ARRAY);
+        pathIndices[stackSize - 1] = 0;
+        peeked = PEEKED_NONE;
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        if (p != PEEKED_END_ARRAY) {
+            throw new IllegalStateException("Expected END_ARRAY but was " + peek() + locationString());
+        }
+        stackSize--;
+        pathIndices[stackSize - 1]++;
+        peeked = PEEKED_NONE;
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        if (p != PEEKED_BEGIN_OBJECT) {
+            throw new IllegalStateException("Expected BEGIN_OBJECT but was " + peek() + locationString());
+        }
+        push(EMPTY_OBJECT);
+        peeked = PEEKED_NONE;
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        if (p != PEEKED_END_OBJECT) {
+            throw new IllegalStateException("Expected END_OBJECT but was " + peek() + locationString());
+        }
+        stackSize--;
+        pathNames[stackSize] = NO_NAME;
+        pathIndices[stackSize - 1]++;
+        peeked = PEEKED_NONE;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        return p != PEEKED_END_OBJECT && p != PEEKED_END_ARRAY && p != PEEKED_EOF;
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        switch (p) {
+            case PEEKED_BEGIN_OBJECT:
+                return JsonToken.BEGIN_OBJECT;
+            case PEEKED_END_OBJECT:
+                return JsonToken.END_OBJECT;
+            case PEEKED_BEGIN_ARRAY:
+                return JsonToken.BEGIN_ARRAY;
+            case PEEKED_END_ARRAY:
+                return JsonToken.END_ARRAY;
+            case PEEKED_NAME:
+                return JsonToken.NAME;
+            case PEEKED_TRUE:
+            case PEEKED_FALSE:
+                return JsonToken.BOOLEAN;
+            case PEEKED_NULL:
+                return JsonToken.NULL;
+            case PEEKED_STRING:
+                return JsonToken.STRING;
+            case PEEKED_LONG:
+            case PEEKED_NUMBER:
+                return JsonToken.NUMBER;
+            case PEEKED_EOF:
+                return JsonToken.END_DOCUMENT;
+        }
+
+        throw new IllegalStateException("Should not be here.");
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        if (p != PEEKED_NAME) {
+            throw new IllegalStateException("Expected a name but was " + peek() + locationString());
+        }
+        int nameStart = pos;
+        String result = readString(nameStart);
+        pos = stringEnd;
+        pathNames[stackSize - 1] = nameStart;
+        peeked = PEEKED_NONE;
+        return result;
+    }
+
+    /**
+     * 读取字段名，按字节在JsonNameTable中查找，名字中没有转义字符时不构建String
+     *
+     * @param names 字段名表
+     * @return 字段计划，未知字段返回null
+     * @throws IOException 读取失败时，抛出
+     */
+    CodecPlanField nextName(JsonNameTable names) throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        if (p != PEEKED_NAME) {
+            throw new IllegalStateException("Expected a name but was " + peek() + locationString());
+        }
+        int nameStart = pos;
+        int hash = 0;
+        for (int i = nameStart; i < limit; i++) {
+            byte b = byteAt(i);
+            if (b == '"') {
+                pos = i + 1;
+                pathNames[stackSize - 1] = nameStart;
+                peeked = PEEKED_NONE;
+                return bytes != null ? names.get(bytes, nameStart, i, hash) : names.get(copyOf(nameStart, i), 0, i - nameStart, hash);
+            }
+            if (b == '\\') {
+                break;
+            }
+            hash = JsonNameTable.hash(hash, b);
+        }
+
+        //有转义字符
+        String name = readString(nameStart);
+        pos = stringEnd;
+        pathNames[stackSize - 1] = nameStart;
+        peeked = PEEKED_NONE;
+        return names.get(name);
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        String result;
+        if (p == PEEKED_STRING) {
+            result = readString(pos);
+            pos = stringEnd;
+        } else if (p == PEEKED_LONG) {
+            result = Long.toString(peekedLong);
+        } else if (p == PEEKED_NUMBER) {
+            result = numberText();
+        } else {
+            throw new IllegalStateException("Expected a string but was " + peek() + locationString());
+        }
+        consumeValue();
+        return result;
+    }
+
+    /**
+     * 读取字符串值，UTF-8字节写入ByteBuf；没有转义字符的ASCII字符串直接拷贝字节，不构建String
+     * <p>
+     * 其它字符串和数字与nextString的结果一致，参考JsonWireTranscoder。
+     *
+     * @param out 写入的ByteBuf
+     * @throws IOException 读取失败时，抛出
+     */
+    void nextString(ByteBuf out) throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        if (p == PEEKED_STRING) {
+            for (int i = pos; i < limit; i++) {
+                byte b = byteAt(i);
+                if (b == '"') {
+                    if (bytes != null) {
+                        out.writeBytes(bytes, pos, i - pos);
+                    } else {
+                        out.writeBytes(buffer, pos, i - pos);
+                    }
+                    pos = i + 1;
+                    consumeValue();
+                    return;
+                }
+                if (b == '\\' || b < 0) {
+                    break;
+                }
+            }
+        }
+        ByteBufUtil.writeUtf8(out, nextString());
+    }
+
+    /**
+     * 读取Base64字符串值并解码为ByteString，直接从字节解码，不构建String
+     * <p>
+     * Gson的htmlSafe模式把 '=' 转义为 \u003d，末尾的这种转义直接按 '=' 处理；其它转义字符与数字按nextString读取后解码，
+     * 结果与 Base64Codec.decode(nextString()) 一致。
+     *
+     * @return ByteString
+     * @throws IOException              读取失败时，抛出
+     * @throws IllegalArgumentException 不是合法的Base64字符串时，抛出
+     */
+    ByteString nextBase64() throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        if (p == PEEKED_STRING) {
+            //第一个 '=' 的位置，以及 '=' 的个数
+            int end = -1;
+            int paddings = 0;
+            int i = pos;
+            while (i < limit) {
+                byte b = byteAt(i);
+                if (b == '"') {
+                    int length = (end < 0 ? i : end) - pos;
+                    CharSequence base64 = bytes != null
+                            ? new AsciiString(bytes, pos, length, false) : buffer.getCharSequence(pos, length, StandardCharsets.US_ASCII);
+                    ByteString result = Base64Codec.decode(base64, length, paddings);
+                    pos = i + 1;
+                    consumeValue();
+                    return result;
+                }
+                int padding = b == '=' ? 1 : b == '\\' && isEscapedPadding(i) ? ESCAPED_PADDING_LENGTH : 0;
+                if (padding > 0 && paddings < 2) {
+                    if (end < 0) {
+                        end = i;
+                    }
+                    paddings++;
+                    i += padding;
+                } else if (padding == 0 && end < 0 && b != '\\' && b >= 0) {
+                    i++;
+                } else {
+                    // '=' 之后还有其它字符，或者有其它转义字符、非ASCII字符，下面按字符串解码，错误信息一致
+                    break;
+                }
+            }
+        }
+        return Base64Codec.decode(nextString());
+    }
+
+    // \u003d
+    private boolean isEscapedPadding(int p) {
+        return p + ESCAPED_PADDING_LENGTH <= limit && byteAt(p + 1) == 'u' && byteAt(p + 2) == '0' && byteAt(p + 3) == '0'
+                && byteAt(p + 4) == '3' && (byteAt(p + 5) == 'd' || byteAt(p + 5) == 'D');
+    }
+
+    /**
+     * 读取字符串值，先按字节在StringInternTable中查找，命中时不解码、不构建String
+     * <p>
+     * 有转义字符或者超过StringInternTable.MAX_LENGTH字节的字符串与数字不去重，与nextString的结果一致。
+     *
+     * @param strings 去重的字符串表
+     * @return 字符串值
+     * @throws IOException 读取失败时，抛出
+     */
+    String nextString(StringInternTable strings) throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        if (p == PEEKED_STRING) {
+            int end = Math.min(limit, pos + StringInternTable.MAX_LENGTH + 1);
+            int hash = 0;
+            for (int i = pos; i < end; i++) {
+                byte b = byteAt(i);
+                if (b == '"') {
+                    byte[] array = bytes;
+                    int from = pos;
+                    int to = i;
+                    if (array == null) {
+                        array = copyOf(from, to);
+                        from = 0;
+                        to = i - pos;
+                    }
+                    String result = strings.get(array, from, to, hash);
+                    if (result == null) {
+                        result = readString(pos);
+                        strings.put(array, from, to, hash, result);
+                    }
+                    pos = i + 1;
+                    consumeValue();
+                    return result;
+                }
+                if (b == '\\') {
+                    break;
+                }
+                hash = JsonNameTable.hash(hash, b);
+            }
+        }
+        return nextString();
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        if (p != PEEKED_TRUE && p != PEEKED_FALSE) {
+            throw new IllegalStateException("Expected a boolean but was " + peek() + locationString());
+        }
+        consumeValue();
+        return p == PEEKED_TRUE;
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        if (p != PEEKED_NULL) {
+            throw new IllegalStateException("Expected null but was " + peek() + locationString());
+        }
+        consumeValue();
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        if (p == PEEKED_LONG) {
+            consumeValue();
+            return (double) peekedLong;
+        }
+
+        String text;
+        if (p == PEEKED_NUMBER) {
+            text = numberText();
+        } else if (p == PEEKED_STRING) {
+            text = readString(pos);
+            pos = stringEnd;
+        } else {
+            throw new IllegalStateException("Expected a double but was " + peek() + locationString());
+        }
+        consumeValue();
+
+        double result = Double.parseDouble(text);
+        if (!isLenient() && (Double.isNaN(result) || Double.isInfinite(result))) {
+            throw new MalformedJsonException("JSON forbids NaN and infinities: " + result + locationString());
+        }
+        return result;
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        if (p == PEEKED_LONG) {
+            consumeValue();
+            return peekedLong;
+        }
+
+        String text;
+        if (p == PEEKED_NUMBER) {
+            text = numberText();
+        } else if (p == PEEKED_STRING) {
+            text = readString(pos);
+            pos = stringEnd;
+            try {
+                long result = Long.parseLong(text);
+                consumeValue();
+                return result;
+            } catch (NumberFormatException ex) {
+                //不是整数，按double解析
+            }
+        } else {
+            throw new IllegalStateException("Expected a long but was " + peek() + locationString());
+        }
+        consumeValue();
+
+        double asDouble = Double.parseDouble(text);
+        long result = (long) asDouble;
+        if (result != asDouble) {
+            throw new NumberFormatException("Expected a long but was " + text + locationString());
+        }
+        return result;
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+        if (p == PEEKED_LONG) {
+            int result = (int) peekedLong;
+            if (peekedLong != result) {
+                throw new NumberFormatException("Expected an int but was " + peekedLong + locationString());
+            }
+            consumeValue();
+            return result;
+        }
+
+        String text;
+        if (p == PEEKED_NUMBER) {
+            text = numberText();
+        } else if (p == PEEKED_STRING) {
+            text = readString(pos);
+            pos = stringEnd;
+            try {
+                int result = Integer.parseInt(text);
+                consumeValue();
+                return result;
+            } catch (NumberFormatException ex) {
+                //不是整数，按double解析
+            }
+        } else {
+            throw new IllegalStateException("Expected an int but was " + peek() + locationString());
+        }
+        consumeValue();
+
+        double asDouble = Double.parseDouble(text);
+        int result = (int) asDouble;
+        if (result != asDouble) {
+            throw new NumberFormatException("Expected an int but was " + text + locationString());
+        }
+        return result;
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        int count = 0;
+        do {
+            int p = peeked == PEEKED_NONE ? doPeek() : peeked;
+            switch (p) {
+                case PEEKED_BEGIN_ARRAY:
+                    push(EMPTY_ARRAY);
+                    count++;
+                    break;
+                case PEEKED_BEGIN_OBJECT:
+                    push(EMPTY_OBJECT);
+                    count++;
+                    break;
+                case PEEKED_END_ARRAY:
+                case PEEKED_END_OBJECT:
+                    stackSize--;
+                    count--;
+                    break;
+                case PEEKED_NAME:
+                case PEEKED_STRING:
+                    //只找到结束的引号，不解码
+                    skipString(pos);
+                    break;
+                default:
+                    //数字和字面量在peek时已经读过
+                    break;
+            }
+            peeked = PEEKED_NONE;
+        } while (count != 0);
+
+        pathIndices[stackSize - 1]++;
+        pathNames[stackSize - 1] = SKIPPED_NAME;
+    }
+
+    @Override
+    public void close() {
+        peeked = PEEKED_NONE;
+        stack[0] = CLOSED;
+        stackSize = 1;
+    }
+
+    @Override
+    public String getPath() {
+        StringBuilder result = new StringBuilder().append(pathPrefix);
+        for (int i = 0; i < stackSize; i++) {
+            switch (stack[i]) {
+                case EMPTY_ARRAY:
+                case NONEMPTY_ARRAY:
+                    result.append('[').append(pathIndices[i]).append(']');
+                    break;
+                case EMPTY_OBJECT:
+                case DANGLING_NAME:
+                case NONEMPTY_OBJECT:
+                    result.append('.');
+                    if (pathNames[i] == SKIPPED_NAME) {
+                        result.append("null");
+                    } else if (pathNames[i] != NO_NAME) {
+                        result.append(nameAt(pathNames[i]));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + locationString();
+    }
+
+    private int doPeek() throws IOException {
+        int peekStack = stack[stackSize - 1];
+        if (peekStack == EMPTY_ARRAY) {
+            stack[stackSize - 1] = NONEMPTY_ARRAY;
+        } else if (peekStack == NONEMPTY_ARRAY) {
+            int c = nextNonWhitespace();
+            if (c == ']') {
+                pos++;
+                return peeked = PEEKED_END_ARRAY;
+            }
+            if (c != ',') {
+                throw syntaxError("Unterminated array", c);
+            }
+            pos++;
+        } else if (peekStack == EMPTY_OBJECT || peekStack == NONEMPTY_OBJECT) {
+            stack[stackSize - 1] = DANGLING_NAME;
+            if (peekStack == NONEMPTY_OBJECT) {
+                int c = nextNonWhitespace();
+                if (c == '}') {
+                    pos++;
+                    return peeked = PEEKED_END_OBJECT;
+                }
+                if (c != ',') {
+                    throw syntaxError("Unterminated object", c);
+                }
+                pos++;
+            }
+            int c = nextNonWhitespace();
+            if (c == '"') {
+                pos++;
+                return peeked = PEEKED_NAME;
+            }
+            if (c == '}' && peekStack == EMPTY_OBJECT) {
+                pos++;
+                return peeked = PEEKED_END_OBJECT;
+            }
+            throw syntaxError("Expected name", c);
+        } else if (peekStack == DANGLING_NAME) {
+            stack[stackSize - 1] = NONEMPTY_OBJECT;
+            int c = nextNonWhitespace();
+            if (c != ':') {
+                throw syntaxError("Expected ':'", c);
+            }
+            pos++;
+        } else if (peekStack == EMPTY_DOCUMENT) {
+            stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+        } else if (peekStack == NONEMPTY_DOCUMENT) {
+            if (nextNonWhitespace() == -1) {
+                return peeked = PEEKED_EOF;
+            }
+            if (!isLenient()) {
+                throw syntaxError("Use JsonReader.setLenient(true) to accept malformed JSON");
+            }
+        } else if (peekStack == CLOSED) {
+            throw new IllegalStateException("JsonReader is closed");
+        }
+
+        int c = nextNonWhitespace();
+        switch (c) {
+            case -1:
+                throw new EOFException("End of input" + locationString());
+            case ']':
+                if (peekStack == EMPTY_ARRAY) {
+                    pos++;
+                    return peeked = PEEKED_END_ARRAY;
+                }
+                throw syntaxError("Unexpected value", c);
+            case '"':
+                pos++;
+                return peeked = PEEKED_STRING;
+            case '{':
+                pos++;
+                return peeked = PEEKED_BEGIN_OBJECT;
+            case '[':
+                pos++;
+                return peeked = PEEKED_BEGIN_ARRAY;
+            case 't':
+                return peekKeyword(TRUE, PEEKED_TRUE);
+            case 'f':
+                return peekKeyword(FALSE, PEEKED_FALSE);
+            case 'n':
+                return peekKeyword(NULL, PEEKED_NULL);
+            default:
+                return peekNumber();
+        }
+    }
+
+    private int peekKeyword(byte[] keyword, int peeking) throws IOException {
+        if (!matches(pos, keyword)) {
+            throw unexpectedValue();
+        }
+        pos += keyword.length;
+        return peeked = peeking;
+    }
+
+    private int peekNumber() throws IOException {
+        int p = pos;
+        boolean negative = false;
+        if (byteAt(p) == '-') {
+            negative = true;
+            p++;
+        }
+
+        //lenient模式下的NaN、Infinity、-Infinity
+        if (isLenient() && ((!negative && matches(p, NAN)) || matches(p, INFINITY))) {
+            peekedNumberStart = pos;
+            pos = p + (byteAt(p) == 'N' ? NAN.length : INFINITY.length);
+            return peeked = PEEKED_NUMBER;
+        }
+
+        if (p >= limit || !isDigit(byteAt(p))) {
+            throw unexpectedValue();
+        }
+
+        //与JsonReader一致，按负数累加，可以表示Long.MIN_VALUE
+        long value = 0;
+        boolean fitsInLong = true;
+        boolean integer = true;
+        if (byteAt(p) == '0') {
+            p++;
+        } else {
+            while (p < limit && isDigit(byteAt(p))) {
+                long newValue = value * 10 - (byteAt(p) - '0');
+                fitsInLong &= value > MIN_INCOMPLETE_INTEGER || (value == MIN_INCOMPLETE_INTEGER && newValue < value);
+                value = newValue;
+                p++;
+            }
+        }
+        if (p < limit && byteAt(p) == '.') {
+            integer = false;
+            p = skipDigits(p + 1);
+        }
+        if (p < limit && (byteAt(p) == 'e' || byteAt(p) == 'E')) {
+            integer = false;
+            p++;
+            if (p < limit && (byteAt(p) == '+' || byteAt(p) == '-')) {
+                p++;
+            }
+            p = skipDigits(p);
+        }
+        if (p < limit && !isLiteralEnd(byteAt(p))) {
+            throw unexpectedValue();
+        }
+
+        if (integer && fitsInLong && (value != Long.MIN_VALUE || negative) && (value != 0 || !negative)) {
+            peekedLong = negative ? value : -value;
+            pos = p;
+            return peeked = PEEKED_LONG;
+        }
+        peekedNumberStart = pos;
+        pos = p;
+        return peeked = PEEKED_NUMBER;
+    }
+
+    //至少一个数字
+    private int skipDigits(int p) throws IOException {
+        if (p >= limit || !isDigit(byteAt(p))) {
+            throw unexpectedValue();
+        }
+        do {
+            p++;
+        } while (p < limit && isDigit(byteAt(p)));
+        return p;
+    }
+
+    //字面量完整，并且之后是分隔符或者结束
+    private boolean matches(int p, byte[] literal) {
+        int end = p + literal.length;
+        if (end > limit) {
+            return false;
+        }
+        for (int i = 0; i < literal.length; i++) {
+            if (byteAt(p + i) != literal[i]) {
+                return false;
+            }
+        }
+        return end == limit || isLiteralEnd(byteAt(end));
+    }
+
+    private String numberText() {
+        return asciiString(peekedNumberStart, pos);
+    }
+
+    /**
+     * 解码从start开始到结束的引号之间的字符串，结束的引号之后的位置保存在stringEnd
+     */
+    private String readString(int from) throws IOException {
+        boolean ascii = true;
+        for (int p = from; p < limit; p++) {
+            byte b = byteAt(p);
+            if (b == '"') {
+                stringEnd = p + 1;
+                return ascii ? asciiString(from, p) : utf8String(from, p);
+            }
+            if (b == '\\') {
+                return readEscapedString(from, p);
+            }
+            if (b < 0) {
+                ascii = false;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    //JDK8的 new String(byte[], Charset) 每次都会创建CharsetDecoder，ASCII直接按字节转换
+    @SuppressWarnings("deprecation")
+    private String asciiString(int from, int to) {
+        return bytes != null ? new String(bytes, 0, from, to - from) : buffer.toString(from, to - from, StandardCharsets.US_ASCII);
+    }
+
+    //解码到复用的char[]，遇到不合法的UTF-8字节时交给JDK，与InputStreamReader一样替换为U+FFFD
+    private String utf8String(int from, int to) {
+        char[] dst = chars;
+        if (dst.length < to - from) {
+            dst = new char[Math.max(to - from, dst.length * 2)];
+            chars = dst;
+        }
+
+        int n = 0;
+        int p = from;
+        while (p < to) {
+            int b = byteAt(p);
+            if (b >= 0) {
+                dst[n++] = (char) b;
+                p++;
+            } else if ((b & 0xE0) == 0xC0 && p + 1 < to && isContinuation(byteAt(p + 1))) {
+                int c = ((b & 0x1F) << 6) | (byteAt(p + 1) & 0x3F);
+                if (c < 0x80) {
+                    break;
+                }
+                dst[n++] = (char) c;
+                p += 2;
+            } else if ((b & 0xF0) == 0xE0 && p + 2 < to && isContinuation(byteAt(p + 1)) && isContinuation(byteAt(p + 2))) {
+                int c = ((b & 0x0F) << 12) | ((byteAt(p + 1) & 0x3F) << 6) | (byteAt(p + 2) & 0x3F);
+                if (c < 0x800 || Character.isSurrogate((char) c)) {
+                    break;
+                }
+                dst[n++] = (char) c;
+                p += 3;
+            } else if ((b & 0xF8) == 0xF0 && p + 3 < to && isContinuation(byteAt(p + 1))
+                    && isContinuation(byteAt(p + 2)) && isContinuation(byteAt(p + 3))) {
+                int c = ((b & 0x07) << 18) | ((byteAt(p + 1) & 0x3F) << 12) | ((byteAt(p + 2) & 0x3F) << 6) | (byteAt(p + 3) & 0x3F);
+                if (c < 0x10000 || c > Character.MAX_CODE_POINT) {
+                    break;
+                }
+                dst[n++] = Character.highSurrogate(c);
+                dst[n++] = Character.lowSurrogate(c);
+                p += 4;
+            } else {
+                break;
+            }
+        }
+        if (p < to) {
+            return bytes != null ? new String(bytes, from, to - from, StandardCharsets.UTF_8) : buffer.toString(from, to - from, StandardCharsets.UTF_8);
+        }
+        return new String(dst, 0, n);
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    //转义字符都是ASCII，不会拆开UTF-8多字节字符，转义字符之间的部分整段解码
+    private String readEscapedString(int from, int p) throws IOException {
+        StringBuilder sb = new StringBuilder(p - from + 16);
+        int segment = from;
+        while (p < limit) {
+            byte b = byteAt(p);
+            if (b == '"') {
+                appendUtf8(sb, segment, p);
+                stringEnd = p + 1;
+                return sb.toString();
+            }
+            if (b == '\\') {
+                appendUtf8(sb, segment, p);
+                p = readEscape(sb, p + 1);
+                segment = p;
+            } else {
+                p++;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void appendUtf8(StringBuilder sb, int from, int to) {
+        if (to > from) {
+            sb.append(utf8String(from, to));
+        }
+    }
+
+    //与JsonReader.readEscapeCharacter一致，返回转义序列之后的位置
+    private int readEscape(StringBuilder sb, int p) throws IOException {
+        if (p >= limit) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+        byte escaped = byteAt(p);
+        switch (escaped) {
+            case 'u':
+                if (p + 5 > limit) {
+                    throw syntaxError("Unterminated escape sequence");
+                }
+                char result = 0;
+                for (int i = p + 1; i < p + 5; i++) {
+                    int digit = Character.digit(byteAt(i), 16);
+                    if (digit < 0) {
+                        throw new NumberFormatException("\\u" + asciiString(p + 1, p + 5));
+                    }
+                    result = (char) ((result << 4) + digit);
+                }
+                sb.append(result);
+                return p + 5;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'b':
+                sb.append('\b');
+                break;
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case '\n':
+            case '\'':
+            case '"':
+            case '\\':
+            case '/':
+                sb.append((char) escaped);
+                break;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+        return p + 1;
+    }
+
+    private void skipString(int from) throws IOException {
+        for (int p = from; p < limit; p++) {
+            byte b = byteAt(p);
+            if (b == '"') {
+                pos = p + 1;
+                return;
+            }
+            if (b == '\\') {
+                p++;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    //跳过空白，返回下一个字节但不消费，结束时返回-1
+    private int nextNonWhitespace() {
+        int p = pos;
+        while (p < limit) {
+            byte b = byteAt(p);
+            if (b != ' ' && b != '\n' && b != '\t' && b != '\r') {
+                pos = p;
+                return b & 0xFF;
+            }
+            p++;
+        }
+        pos = p;
+        return -1;
+    }
+
+    private byte byteAt(int index) {
+        if (bytes != null) {
+            return bytes[index];
+        }
+        if (nio != null) {
+            return nio.get(index);
+        }
+        if (components == null) {
+            return buffer.getByte(index);
+        }
+        if (index < componentStart || index >= componentEnd) {
+            selectComponent(index);
+        }
+        return component.get(index + componentBase);
+    }
+
+    //Json通常按顺序读取，换块不频繁
+    private void selectComponent(int index) {
+        int i = Arrays.binarySearch(componentStarts, index);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        if (i < 0) {
+            throw new IndexOutOfBoundsException("index: " + index + ", start: " + start);
+        }
+        component = components[i];
+        componentStart = componentStarts[i];
+        componentEnd = componentStart + component.remaining();
+        componentBase = component.position() - componentStart;
+    }
+
+    //拷贝buffer中[from, to)的字节到复用的scratch，从下标0开始；只用于没有backing array的ByteBuf
+    private byte[] copyOf(int from, int to) {
+        int length = to - from;
+        if (scratch == null || scratch.length < length) {
+            scratch = new byte[Math.max(length, 64)];
+        }
+        buffer.getBytes(from, scratch, 0, length);
+        return scratch;
+    }
+
+    private void consumeValue() {
+        peeked = PEEKED_NONE;
+        pathIndices[stackSize - 1]++;
+    }
+
+    private void push(int newTop) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+            pathNames = Arrays.copyOf(pathNames, stackSize * 2);
+            pathIndices = Arrays.copyOf(pathIndices, stackSize * 2);
+        }
+        pathNames[stackSize] = NO_NAME;
+        stack[stackSize++] = newTop;
+    }
+
+    private String nameAt(int nameStart) {
+        int savedEnd = stringEnd;
+        try {
+            return readString(nameStart);
+        } catch (IOException ex) {
+            //名字在记录之前已经成功读取过
+            throw new IllegalStateException("Should not be here.", ex);
+        } finally {
+            stringEnd = savedEnd;
+        }
+    }
+
+    private String locationString() {
+        return " at byte " + (pos - start) + " path " + getPath();
+    }
+
+    private MalformedJsonException syntaxError(String message) {
+        return new MalformedJsonException(message + locationString());
+    }
+
+    //c为出错位置的字节，Gson lenient模式下可能合法时cause为UnsupportedSyntax
+    private MalformedJsonException syntaxError(String message, int c) {
+        if (isLenient() && isLenientOnly(c)) {
+            return new MalformedJsonException(message + locationString(), UnsupportedSyntax.INSTANCE);
+        }
+        return syntaxError(message);
+    }
+
+    //pos为值的开始位置，例如 tru、1.5x 在Gson lenient模式下是不带引号的字符串
+    private MalformedJsonException unexpectedValue() {
+        return syntaxError("Unexpected value", byteAt(pos) & 0xFF);
+    }
+
+    /**
+     * 异常(包括cause)是否为ByteBufJsonReader不支持的lenient语法，是时需要改用JsonReader重新解码
+     *
+     * @param ex 解码时抛出的异常
+     * @return 是否需要重新解码
+     */
+    static boolean isUnsupportedSyntax(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause == UnsupportedSyntax.INSTANCE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Gson lenient模式下可能合法的字符: 注释、单引号、';' '=' 分隔符、数组中省略的值、不带引号的字符串(包括非ASCII字符)
+    private static boolean isLenientOnly(int c) {
+        switch (c) {
+            case -1:
+            case '"':
+                return false;
+            case '/':
+            case '#':
+            case '\'':
+            case ';':
+            case '=':
+            case ',':
+            case ']':
+                return true;
+            default:
+                return !isLiteralEnd((byte) c);
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Gson lenient模式支持、ByteBufJsonReader不支持的语法，作为MalformedJsonException的cause，可以改用JsonReader重新解码
+     * <p>
+     * MalformedJsonException是final类，只能通过cause区分；不记录堆栈，共用一个实例。
+     */
+    private static final class UnsupportedSyntax extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final UnsupportedSyntax INSTANCE = new UnsupportedSyntax();
+
+        private UnsupportedSyntax() {
+            super("Lenient syntax is not supported by ByteBufJsonReader", null, false, false);
+        }
+    }
+
+    //与JsonReader.isLiteral相反
+    private static boolean isLiteralEnd(byte b) {
+        switch (b) {
+            case '/':
+            case '\\':
+            case ';':
+            case '#':
+            case '=':
+            case '{':
+            case '}':
+            case '[':
+            case ']':
+            case ':':
+            case ',':
+            case ' ':
+            case '\t':
+            case '\f':
+            case '\r':
+            case '\n':
+                return true;
+            default:
+                return false;
+        }
+    }
+}
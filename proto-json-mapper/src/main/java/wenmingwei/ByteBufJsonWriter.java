@@ -0,0 +1,96 @@
+package wenmingwei;
+
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.ByteString;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 写入ByteBuf的JsonWriter，字符通过ByteBufUtf8Writer直接编码进ByteBuf
+ * <p>
+ * 对于不需要转义的大字段值(如Base64)，可以跳过String直接写入ByteBuf。
+ */
+class ByteBufJsonWriter extends JsonWriter {
+
+    private final ByteBuf buf;
+    //并行编码使用的ForkJoinPool，参考ParallelRepeatedCodec；为null时使用ForkJoinPool.commonPool()
+    private ForkJoinPool parallelPool;
+
+    ByteBufJsonWriter(ByteBuf buf) {
+        super(new ByteBufUtf8Writer(buf));
+        this.buf = buf;
+    }
+
+    /**
+     * 写入ByteString的Base64字符串值，直接从ByteString内部的缓冲区编码到ByteBuf
+     *
+     * @param value ByteString
+     * @return this
+     * @throws IOException 写入失败时，抛出
+     */
+    ByteBufJsonWriter base64Value(ByteString value) throws IOException {
+        //借用空的jsonValue写出字段名、逗号和缩进，并更新JsonWriter的状态；ByteBufUtf8Writer没有缓冲，之后可以直接写入ByteBuf
+        jsonValue("");
+        buf.writeByte('"');
+        Base64Codec.encode(value, buf, isHtmlSafe());
+        buf.writeByte('"');
+        return this;
+    }
+
+    /**
+     * 写入已经编码好的Json片段(如并行编码的一段数组元素，元素之间以逗号分隔)，JsonWriter的状态按写入了一个值更新
+     *
+     * @param json   片段所在的ByteBuf，不改变readerIndex
+     * @param index  片段开始位置
+     * @param length 片段字节数
+     * @return this
+     * @throws IOException 写入失败时，抛出
+     */
+    ByteBufJsonWriter rawValue(ByteBuf json, int index, int length) throws IOException {
+        //与base64Value一样，借用空的jsonValue写出逗号
+        jsonValue("");
+        buf.writeBytes(json, index, length);
+        return this;
+    }
+
+    /**
+     * 写入不需要转义的字符串值(ASCII可见字符，不含 '"'、'\\' 和htmlSafe转义的字符)，直接拷贝UTF-8字节，不构建String
+     *
+     * @param src    字符串的UTF-8字节所在的ByteBuf，不改变readerIndex
+     * @param index  开始位置
+     * @param length 字节数
+     * @return this
+     * @throws IOException 写入失败时，抛出
+     */
+    ByteBufJsonWriter stringValue(ByteBuf src, int index, int length) throws IOException {
+        jsonValue("");
+        buf.writeByte('"');
+        buf.writeBytes(src, index, length);
+        buf.writeByte('"');
+        return this;
+    }
+
+    /**
+     * @param parallelPool 并行编码使用的ForkJoinPool，由ProtoJsonMapper按ProtoJsonMapperConfig.parallelPool设置
+     */
+    void setParallelPool(ForkJoinPool parallelPool) {
+        this.parallelPool = parallelPool;
+    }
+
+    /**
+     * @return 并行编码使用的ForkJoinPool，没有设置时为null
+     */
+    ForkJoinPool getParallelPool() {
+        return parallelPool;
+    }
+
+    /**
+     * @return 写入的ByteBuf的分配器
+     */
+    ByteBufAllocator alloc() {
+        return buf.alloc();
+    }
+}
@@ -0,0 +1,93 @@
+package wenmingwei;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/**
+ * 直接将字符以UTF-8编码写入ByteBuf的Writer
+ * <p>
+ * 与 OutputStreamWriter(ByteBufOutputStream) 相比，没有CharsetEncoder和中间的char[]/byte[]缓冲，
+ * JsonWriter写出的每一段字符直接编码进ByteBuf。
+ */
+class ByteBufUtf8Writer extends Writer {
+
+    private final ByteBuf buf;
+
+    ByteBufUtf8Writer(ByteBuf buf) {
+        this.buf = buf;
+    }
+
+    @Override
+    public void write(int c) {
+        char ch = (char) c;
+        if (ch < 0x80) {
+            buf.writeByte(ch);
+        } else if (ch < 0x800) {
+            buf.writeByte(0xc0 | (ch >> 6));
+            buf.writeByte(0x80 | (ch & 0x3f));
+        } else if (Character.isSurrogate(ch)) {
+            //单独的代理字符无法编码，与ByteBufUtil.writeUtf8的处理方式一致
+            buf.writeByte('?');
+        } else {
+            buf.writeByte(0xe0 | (ch >> 12));
+            buf.writeByte(0x80 | ((ch >> 6) & 0x3f));
+            buf.writeByte(0x80 | (ch & 0x3f));
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        writeUtf8(CharBuffer.wrap(cbuf), off, off + len);
+    }
+
+    @Override
+    public void write(String str) {
+        writeUtf8(str, 0, str.length());
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        writeUtf8(str, off, off + len);
+    }
+
+    @Override
+    public Writer append(CharSequence csq) {
+        CharSequence seq = csq == null ? "null" : csq;
+        writeUtf8(seq, 0, seq.length());
+        return this;
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) {
+        writeUtf8(csq == null ? "null" : csq, start, end);
+        return this;
+    }
+
+    @Override
+    public Writer append(char c) {
+        write(c);
+        return this;
+    }
+
+    //ByteBufUtil.writeUtf8按每个字符3字节预留空间，接近maxCapacity时改为按实际字节数预留，能放下的内容不会抛出异常
+    private void writeUtf8(CharSequence seq, int start, int end) {
+        int reserve = ByteBufUtil.utf8MaxBytes(end - start);
+        if (reserve > buf.maxWritableBytes()) {
+            reserve = ByteBufUtil.utf8Bytes(seq, start, end);
+        }
+        ByteBufUtil.reserveAndWriteUtf8(buf, seq, start, end, reserve);
+    }
+
+    @Override
+    public void flush() {
+        //直接写入ByteBuf，无需flush
+    }
+
+    @Override
+    public void close() {
+        //ByteBuf由调用者管理，不在这里释放
+    }
+}
@@ -0,0 +1,63 @@
+package wenmingwei;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+/**
+ * 同一个Channel上多个Handler暂停读取(autoRead)时的计数
+ * <p>
+ * 第一次suspend时关闭autoRead，所有suspend都resume之后才恢复；原本就没有开启autoRead时不做修改。
+ * 只能在Channel的EventLoop中调用，每次suspend对应一次resume。
+ */
+public final class ChannelReadSuspension {
+
+    private static final AttributeKey<ChannelReadSuspension> KEY =
+            AttributeKey.valueOf(ChannelReadSuspension.class, "suspension");
+
+    //尚未resume的suspend次数
+    private int count;
+    //第一次suspend时关闭了autoRead，需要恢复
+    private boolean restoreAutoRead;
+
+    private ChannelReadSuspension() {
+    }
+
+    /**
+     * 暂停读取
+     *
+     * @param channel Channel
+     */
+    public static void suspend(Channel channel) {
+        Attribute<ChannelReadSuspension> attr = channel.attr(KEY);
+        ChannelReadSuspension suspension = attr.get();
+        if (suspension == null) {
+            suspension = new ChannelReadSuspension();
+            attr.set(suspension);
+        }
+        if (suspension.count++ == 0) {
+            ChannelConfig config = channel.config();
+            if (config.isAutoRead()) {
+                config.setAutoRead(false);
+                suspension.restoreAutoRead = true;
+            }
+        }
+    }
+
+    /**
+     * 撤销一次suspend，没有其它暂停时恢复读取
+     *
+     * @param channel Channel
+     */
+    public static void resume(Channel channel) {
+        ChannelReadSuspension suspension = channel.attr(KEY).get();
+        if (suspension == null || suspension.count == 0) {
+            throw new IllegalStateException("Channel(" + channel + ") read is not suspended");
+        }
+        if (--suspension.count == 0 && suspension.restoreAutoRead) {
+            suspension.restoreAutoRead = false;
+            channel.config().setAutoRead(true);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package wenmingwei;
+
+import com.google.protobuf.Descriptors;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lombok.Value;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 影响Json格式的编解码选项，由ProtoJsonMapperConfig生成
+ * <p>
+ * 编解码计划按选项分别缓存(TypeMapMessage.lookupCodecPlan)，选项相同的ProtoJsonMapper共享计划。
+ */
+@Value
+class CodecOptions {
+
+    static final CodecOptions DEFAULT = new CodecOptions(false, false, 0, false, Collections.emptySet(), null, null);
+
+    //Map字段编码为Json对象，参考ProtoJsonMapperConfig.mapAsObject
+    boolean mapAsObject;
+
+    //DynamicMessage模式，参考ProtoJsonMapperConfig.dynamic；Map/Repeated字段使用基于Descriptor的通用访问器，不绑定protoc生成的类
+    boolean dynamic;
+
+    //Repeated Message字段并行编解码的元素个数阈值，0为不并行，参考ProtoJsonMapperConfig.parallelThreshold
+    //使用的ForkJoinPool不是选项，由ProtoJsonMapper在每次编解码时设置到ByteBufJsonWriter/ByteBufJsonReader，不影响计划的共享
+    int parallelThreshold;
+
+    //Well-Known Types使用proto3 Json映射的紧凑格式，参考ProtoJsonMapperConfig.wellKnownTypes
+    boolean wellKnownTypes;
+
+    //解码时字符串值去重的字段或Message全名，参考ProtoJsonMapperConfig.stringDedupFields
+    //去重表每个ProtoJsonMapper一个，按身份比较，开启去重的ProtoJsonMapper之间不共享计划；没有去重字段时为null
+    Set<String> stringDedupFields;
+    StringInternTable stringTable;
+
+    //开启字符串去重时ProtoJsonMapper自己的计划缓存(编解码选项 -> (Message类型 -> 编解码计划))，随ProtoJsonMapper回收，
+    //不进入进程内共享的TypeMapMessage缓存；asDynamic得到的选项共用。没有去重字段时为null
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    ConcurrentMap<CodecOptions, ConcurrentMap<Descriptors.Descriptor, CodecPlanMessage>> mapperPlans;
+
+    static CodecOptions of(ProtoJsonMapperConfig config) {
+        Set<String> dedupFields = config.getStringDedupFields().isEmpty()
+                ? Collections.emptySet() : Collections.unmodifiableSet(new LinkedHashSet<>(config.getStringDedupFields()));
+        return new CodecOptions(config.isMapAsObject(), config.isDynamic(), config.getParallelThreshold(),
+                config.isWellKnownTypes(), dedupFields,
+                dedupFields.isEmpty() ? null : new StringInternTable(config.getStringDedupCapacity()),
+                dedupFields.isEmpty() ? null : new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @param fieldDescriptor 字段
+     * @return 字段本身或者所在的Message在stringDedupFields中
+     */
+    boolean dedupStrings(Descriptors.FieldDescriptor fieldDescriptor) {
+        return stringTable != null && (stringDedupFields.contains(fieldDescriptor.getFullName())
+                || stringDedupFields.contains(fieldDescriptor.getContainingType().getFullName()));
+    }
+
+    /**
+     * @return 其它选项相同的DynamicMessage模式选项，用于没有protoc生成类的Any内容
+     */
+    CodecOptions asDynamic() {
+        return dynamic ? this : new CodecOptions(mapAsObject, true, parallelThreshold, wellKnownTypes, stringDedupFields, stringTable, mapperPlans);
+    }
+}
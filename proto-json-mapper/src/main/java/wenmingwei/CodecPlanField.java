@@ -0,0 +1,496 @@
+package wenmingwei;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 单个字段预编译的编解码计划
+ * <p>
+ * 在构建时解析好字段的Json名字、编解码策略、Map字段的Key/Value子计划；Java类型和嵌套Message计划在第一次使用时解析并缓存。
+ * 编解码时不再遍历Descriptor或者查找TypeMapMessage/TypeMapEnum。
+ * <p>
+ * 字段值通过Message.getField/Message.Builder.setField读写。
+ */
+@Slf4j
+class CodecPlanField {
+
+    private final Descriptors.FieldDescriptor descriptor;
+    private final CodecOptions options;
+    private final String jsonName;
+    private final boolean repeated;
+    private final CodecValue value;
+
+    //JsonElement树编解码(TypeAdapterProtoMessage)使用的Java类型，第一次使用时解析，流式编解码不需要
+    private volatile Type type;
+
+    //仅Enum字段有效
+    private final EnumValueTable enumValues;
+
+    //仅Map字段有效
+    private final CodecPlanField mapKey;
+    private final CodecPlanField mapValue;
+
+    //Map字段的条目读写，第一次使用时绑定
+    private volatile MapFieldAccessor mapAccessor;
+    //Map字段的Message值的默认实例，第一次使用时解析
+    private volatile Message mapValuePrototype;
+
+    //仅Int/Long/Float/Double类型的Repeated字段有效，整体读写基本类型列表，第一次使用时绑定
+    private final boolean numberArray;
+    private volatile RepeatedNumberAccessor numberAccessor;
+
+    //嵌套Message的编解码计划，第一次使用时解析，避免递归类型构建时死循环
+    private volatile CodecPlanMessage messagePlan;
+
+    //Json null是字段值，不能跳过，仅开启wellKnownTypes时的单个google.protobuf.Value字段
+    private final boolean readsNull;
+
+    //解码时字符串值去重，仅String字段(包括Map的Key/Value)在ProtoJsonMapperConfig.stringDedupFields中时有效，否则为null
+    private final StringInternTable strings;
+
+    CodecPlanField(Descriptors.FieldDescriptor descriptor, CodecOptions options) {
+        this(descriptor, options, false);
+    }
+
+    //dedupMap: 所在的Map字段需要去重
+    private CodecPlanField(Descriptors.FieldDescriptor descriptor, CodecOptions options, boolean dedupMap) {
+        this.descriptor = descriptor;
+        this.options = options;
+        this.jsonName = descriptor.getJsonName();
+        this.repeated = descriptor.isRepeated();
+        this.value = CodecValue.of(descriptor.getJavaType());
+        this.enumValues = value == CodecValue.ENUM ? TypeMapEnum.INSTANCE.lookupValueTable(descriptor.getEnumType()) : null;
+        this.numberArray = RepeatedNumberAccessor.supports(descriptor);
+        this.readsNull = options.isWellKnownTypes() && !repeated && value == CodecValue.MESSAGE
+                && CodecPlanWellKnown.readsNull(descriptor.getMessageType());
+        boolean dedupStrings = dedupMap || options.dedupStrings(descriptor);
+        this.strings = dedupStrings && value == CodecValue.STRING ? options.getStringTable() : null;
+
+        if (descriptor.isMapField()) {
+            List<Descriptors.FieldDescriptor> mapFieldDescriptors = checkMapEntry(descriptor.getMessageType());
+            this.mapKey = new CodecPlanField(mapFieldDescriptors.get(0), options, dedupStrings);
+            this.mapValue = new CodecPlanField(mapFieldDescriptors.get(1), options, dedupStrings);
+        } else {
+            this.mapKey = null;
+            this.mapValue = null;
+        }
+    }
+
+    CodecValue value() {
+        return value;
+    }
+
+    CodecOptions options() {
+        return options;
+    }
+
+    Descriptors.FieldDescriptor descriptor() {
+        return descriptor;
+    }
+
+    String jsonName() {
+        return jsonName;
+    }
+
+    boolean isMapField() {
+        return mapKey != null;
+    }
+
+    /**
+     * @return Json null是否作为字段值读取，否则跳过
+     */
+    boolean readsNull() {
+        return readsNull;
+    }
+
+    /**
+     * @return 字符串值去重表，不需要去重时返回null
+     */
+    StringInternTable strings() {
+        return strings;
+    }
+
+    /**
+     * 对JsonElement树解码出的字符串值去重，其它值原样返回，参考StringInternTable.intern
+     *
+     * @param value 字段值
+     * @return 去重后的字段值
+     */
+    Object dedup(Object value) {
+        return strings != null && value instanceof String ? strings.intern((String) value) : value;
+    }
+
+    Type type() {
+        Type ret = type;
+        if (ret == null) {
+            ret = buildType(descriptor);
+            type = ret;
+        }
+        return ret;
+    }
+
+    EnumValueTable enumValues() {
+        return enumValues;
+    }
+
+    CodecPlanField mapKey() {
+        return mapKey;
+    }
+
+    CodecPlanField mapValue() {
+        return mapValue;
+    }
+
+    MapFieldAccessor mapAccessor() {
+        MapFieldAccessor accessor = mapAccessor;
+        if (accessor == null) {
+            accessor = options.isDynamic() ? MapFieldAccessor.generic(descriptor) : MapFieldAccessor.of(descriptor);
+            mapAccessor = accessor;
+        }
+        return accessor;
+    }
+
+    /**
+     * @return Int/Long/Float/Double类型Repeated字段的访问器，其它字段返回null
+     */
+    RepeatedNumberAccessor numberAccessor() {
+        if (!numberArray) {
+            return null;
+        }
+        RepeatedNumberAccessor accessor = numberAccessor;
+        if (accessor == null) {
+            accessor = options.isDynamic() ? RepeatedNumberAccessor.generic(descriptor) : RepeatedNumberAccessor.of(descriptor);
+            numberAccessor = accessor;
+        }
+        return accessor;
+    }
+
+    CodecPlanMessage messagePlan() {
+        CodecPlanMessage plan = messagePlan;
+        if (plan == null) {
+            plan = TypeMapMessage.INSTANCE.lookupCodecPlan(descriptor.getMessageType(), options);
+            messagePlan = plan;
+        }
+        return plan;
+    }
+
+    /**
+     * 从JsonReader读取字段值并写入Message.Builder
+     * <p>
+     * Repeated字段和Map字段为Json数组，Map字段的元素为 {"key": ..., "value": ...}；
+     * 开启mapAsObject时，Map字段为Json对象 {"key": value, ...}
+     *
+     * @param in      JsonReader，当前位置为字段值
+     * @param builder Message.Builder
+     * @throws IOException 读取失败时，抛出
+     */
+    void read(JsonReader in, Message.Builder builder) throws IOException {
+        if (mapKey != null && options.isMapAsObject()) {
+            readMapObject(in, builder);
+        } else if (numberArray) {
+            numberAccessor().read(in, builder);
+        } else if (repeated && parallel(in)) {
+            ParallelRepeatedCodec.read((ByteBufJsonReader) in, builder, this, CodecProjection.ALL);
+        } else if (repeated) {
+            in.beginArray();
+            while (in.hasNext()) {
+                builder.addRepeatedField(descriptor, value.read(in, builder, this));
+            }
+            in.endArray();
+        } else {
+            builder.setField(descriptor, value.read(in, builder, this));
+        }
+    }
+
+    /**
+     * 将字段写入JsonWriter，字段不存在(与Message.getAllFields规则一致)时不写入
+     *
+     * @param out     JsonWriter
+     * @param message Proto.Message
+     * @throws IOException 写入失败时，抛出
+     */
+    void write(JsonWriter out, Message message) throws IOException {
+        if (mapKey != null && options.isMapAsObject()) {
+            writeMapObject(out, message);
+        } else if (numberArray) {
+            numberAccessor().write(out, jsonName, message);
+        } else if (repeated) {
+            int count = message.getRepeatedFieldCount(descriptor);
+            if (count == 0) {
+                return;
+            }
+            out.name(jsonName);
+            out.beginArray();
+            if (parallel(count, out)) {
+                ParallelRepeatedCodec.write((ByteBufJsonWriter) out, message, this, CodecProjection.ALL);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    value.write(out, message.getRepeatedField(descriptor, i), this);
+                }
+            }
+            out.endArray();
+        } else if (message.hasField(descriptor)) {
+            out.name(jsonName);
+            value.write(out, message.getField(descriptor), this);
+        }
+    }
+
+    /**
+     * 按字段投影读取字段值并写入Message.Builder，只有Message字段有下一层投影
+     *
+     * @param in         JsonReader，当前位置为字段值
+     * @param builder    Message.Builder
+     * @param projection 字段的投影，ALL时读取整个字段
+     * @throws IOException 读取失败时，抛出
+     */
+    void read(JsonReader in, Message.Builder builder, CodecProjection projection) throws IOException {
+        if (projection == CodecProjection.ALL) {
+            read(in, builder);
+        } else if (repeated && parallel(in)) {
+            ParallelRepeatedCodec.read((ByteBufJsonReader) in, builder, this, projection);
+        } else if (repeated) {
+            in.beginArray();
+            while (in.hasNext()) {
+                builder.addRepeatedField(descriptor, readMessage(in, builder, projection));
+            }
+            in.endArray();
+        } else {
+            builder.setField(descriptor, readMessage(in, builder, projection));
+        }
+    }
+
+    /**
+     * 按字段投影将字段写入JsonWriter，只有Message字段有下一层投影
+     *
+     * @param out        JsonWriter
+     * @param message    Proto.Message
+     * @param projection 字段的投影，ALL时写入整个字段
+     * @throws IOException 写入失败时，抛出
+     */
+    void write(JsonWriter out, Message message, CodecProjection projection) throws IOException {
+        if (projection == CodecProjection.ALL) {
+            write(out, message);
+        } else if (repeated) {
+            int count = message.getRepeatedFieldCount(descriptor);
+            if (count == 0) {
+                return;
+            }
+            out.name(jsonName);
+            out.beginArray();
+            if (parallel(count, out)) {
+                ParallelRepeatedCodec.write((ByteBufJsonWriter) out, message, this, projection);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    messagePlan().write(out, (Message) message.getRepeatedField(descriptor, i), projection);
+                }
+            }
+            out.endArray();
+        } else if (message.hasField(descriptor)) {
+            out.name(jsonName);
+            messagePlan().write(out, (Message) message.getField(descriptor), projection);
+        }
+    }
+
+    //只有Repeated Message字段(不包括Map字段)可以并行编解码，参考ParallelRepeatedCodec
+    private boolean parallel(JsonReader in) {
+        return value == CodecValue.MESSAGE && mapKey == null && ParallelRepeatedCodec.supports(options, in);
+    }
+
+    private boolean parallel(int count, JsonWriter out) {
+        return value == CodecValue.MESSAGE && mapKey == null && ParallelRepeatedCodec.supports(options, count, out);
+    }
+
+    private Message readMessage(JsonReader in, Message.Builder builder, CodecProjection projection) throws IOException {
+        Message.Builder fieldBuilder = builder.newBuilderForField(descriptor);
+        messagePlan().read(in, fieldBuilder, projection);
+        return fieldBuilder.build();
+    }
+
+    private void readMapObject(JsonReader in, Message.Builder builder) throws IOException {
+        MapFieldAccessor accessor = mapAccessor();
+        in.beginObject();
+        while (in.hasNext()) {
+            Object key = parseMapKey(in.nextName());
+            Object value;
+            if (mapValue.value == CodecValue.MESSAGE) {
+                Message.Builder valueBuilder = mapValuePrototype(builder).newBuilderForType();
+                mapValue.messagePlan().read(in, valueBuilder);
+                value = valueBuilder.build();
+            } else {
+                value = mapValue.value.read(in, builder, mapValue);
+            }
+            accessor.put(builder, key, value);
+        }
+        in.endObject();
+    }
+
+    private void writeMapObject(JsonWriter out, Message message) throws IOException {
+        if (message.getRepeatedFieldCount(descriptor) == 0) {
+            return;
+        }
+        out.name(jsonName);
+        out.beginObject();
+        mapAccessor().forEach(message, (key, value) -> {
+            out.name(mapKeyName(mapKey.descriptor, key));
+            mapValue.value.write(out, value, mapValue);
+        });
+        out.endObject();
+    }
+
+    //Map的Message值没有父Builder可用，通过MapEntry的Builder获得一次默认实例
+    private Message mapValuePrototype(Message.Builder builder) {
+        Message prototype = mapValuePrototype;
+        if (prototype == null) {
+            prototype = builder.newBuilderForField(descriptor).newBuilderForField(mapValue.descriptor).getDefaultInstanceForType();
+            mapValuePrototype = prototype;
+        }
+        return prototype;
+    }
+
+    /**
+     * 将Json对象的名字解析为Map字段的Key，uint32/fixed32/uint64/fixed64按无符号数解析
+     *
+     * @param name Json对象的名字
+     * @return Integer/Long/Boolean/String
+     * @throws JsonSyntaxException 名字不符合Key的类型时，抛出
+     */
+    Object parseMapKey(String name) {
+        Descriptors.FieldDescriptor.Type type = mapKey.descriptor.getType();
+        switch (mapKey.value) {
+            case INT:
+                try {
+                    return isUnsigned(type) ? Integer.parseUnsignedInt(name) : Integer.parseInt(name);
+                } catch (NumberFormatException ex) {
+                    throw new JsonSyntaxException(
+                            "Invalid " + typeName(type) + " key(" + name + ") of map field(" + descriptor.getFullName() + ")", ex);
+                }
+            case LONG:
+                try {
+                    return isUnsigned(type) ? Long.parseUnsignedLong(name) : Long.parseLong(name);
+                } catch (NumberFormatException ex) {
+                    throw new JsonSyntaxException(
+                            "Invalid " + typeName(type) + " key(" + name + ") of map field(" + descriptor.getFullName() + ")", ex);
+                }
+            case BOOLEAN:
+                if ("true".equals(name)) {
+                    return Boolean.TRUE;
+                }
+                if ("false".equals(name)) {
+                    return Boolean.FALSE;
+                }
+                throw new JsonSyntaxException("Invalid bool key(" + name + ") of map field(" + descriptor.getFullName() + ")");
+            case STRING:
+                return mapKey.strings != null ? mapKey.strings.intern(name) : name;
+        }
+
+        throw new IllegalStateException("Should not be here.");
+    }
+
+    /**
+     * 将Map字段的Key转换为Json对象的名字，uint32/fixed32/uint64/fixed64按无符号数输出，与parseMapKey对应
+     *
+     * @param keyDescriptor Map条目的Key字段
+     * @param key           Integer/Long/Boolean/String
+     * @return Json对象的名字
+     */
+    static String mapKeyName(Descriptors.FieldDescriptor keyDescriptor, Object key) {
+        if (key instanceof String) {
+            return (String) key;
+        }
+        if (isUnsigned(keyDescriptor.getType())) {
+            return key instanceof Integer ? Integer.toUnsignedString((Integer) key) : Long.toUnsignedString((Long) key);
+        }
+        return key.toString();
+    }
+
+    private static boolean isUnsigned(Descriptors.FieldDescriptor.Type type) {
+        switch (type) {
+            case UINT32:
+            case FIXED32:
+            case UINT64:
+            case FIXED64:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    //错误信息中的类型名，如 int32、uint64
+    private static String typeName(Descriptors.FieldDescriptor.Type type) {
+        return type.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 判定数据类型
+     *
+     * @param fieldDescriptor 属性描述器
+     * @return Java.Reflect.Type数据类型
+     */
+    private static Type buildType(Descriptors.FieldDescriptor fieldDescriptor) {
+        Descriptors.FieldDescriptor.JavaType javaType = fieldDescriptor.getJavaType();
+        switch (javaType) {
+            case INT:
+                return Integer.class;
+            case LONG:
+                return Long.class;
+            case FLOAT:
+                return Float.class;
+            case DOUBLE:
+                return Double.class;
+            case BOOLEAN:
+                return Boolean.class;
+            case STRING:
+                return String.class;
+            case BYTE_STRING:
+                return ByteString.class;
+            case ENUM:
+                return TypeMapEnum.INSTANCE.lookupEnumType(fieldDescriptor.getEnumType());
+            case MESSAGE:
+                return TypeMapMessage.INSTANCE.lookupMessageType(fieldDescriptor.getMessageType());
+        }
+
+        throw new IllegalStateException("Should not be here.");
+    }
+
+    //MapEntry必须有且仅有两个Field，Key和value，否则报错
+    private static List<Descriptors.FieldDescriptor> checkMapEntry(Descriptors.Descriptor messageDescriptor) {
+        List<Descriptors.FieldDescriptor> mapFieldDescriptors = messageDescriptor.getFields();
+
+        if (mapFieldDescriptors.size() != 2) {
+            StringBuilder sb = new StringBuilder();
+            for (Descriptors.FieldDescriptor mapFieldDescriptor : mapFieldDescriptors) {
+                sb.append("\r\nname: ").append(mapFieldDescriptor.getJsonName())
+                        .append(", type: ").append(mapFieldDescriptor.getJavaType());
+                if (Descriptors.FieldDescriptor.JavaType.MESSAGE.equals(mapFieldDescriptor.getJavaType())) {
+                    sb.append(", message: ").append(mapFieldDescriptor.getMessageType().getFullName());
+                }
+            }
+            log.error("Should not be here, found corrupted descriptor. {}", sb.toString());
+            throw new IllegalArgumentException("size of Map Field Descriptor is NOT 2");
+        }
+
+        Descriptors.FieldDescriptor keyFieldDescriptor = mapFieldDescriptors.get(0);
+        if (!"key".equals(keyFieldDescriptor.getJsonName())) {
+            log.error("keyField json name is NOT 'key', actual value is {}", keyFieldDescriptor.getJsonName());
+            throw new IllegalArgumentException("KeyField json name is NOT 'key', actual value is " + keyFieldDescriptor.getJsonName());
+        }
+
+        Descriptors.FieldDescriptor valueFieldDescriptor = mapFieldDescriptors.get(1);
+        if (!"value".equals(valueFieldDescriptor.getJsonName())) {
+            log.error("valueField json name is NOT 'value', actual value is {}", valueFieldDescriptor.getJsonName());
+            throw new IllegalArgumentException("valueField json name is NOT 'value', actual value is " + valueFieldDescriptor.getJsonName());
+        }
+
+        return mapFieldDescriptors;
+    }
+}
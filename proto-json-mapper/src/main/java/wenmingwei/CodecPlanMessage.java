@@ -0,0 +1,231 @@
+package wenmingwei;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.Message;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 每种Proto.Message类型(Descriptor)预编译的编解码计划，不可变
+ * <p>
+ * 由TypeMapMessage.lookupCodecPlan构建并缓存，进程内每种类型、每组编解码选项只构建一次。
+ * 解码时通过jsonName直接分派到字段计划，编码时按字段编号顺序遍历字段计划，
+ * 输出顺序与Message.getAllFields(按字段编号排序的TreeMap)一致。
+ */
+class CodecPlanMessage {
+
+    //每种类型最多缓存的FieldMask投影数，超过后新的FieldMask每次重新编译
+    private static final int MAX_PROJECTIONS = 256;
+
+    private final Descriptors.Descriptor descriptor;
+    private final CodecOptions options;
+    //按字段编号排序
+    private final CodecPlanField[] fields;
+    //与fields对应的字段编号，二分查找
+    private final int[] fieldNumbers;
+    private final Map<String, CodecPlanField> fieldsByJsonName;
+    //ByteBufJsonReader按字节匹配字段名
+    private final JsonNameTable fieldNames;
+    //FieldMask -> 预编译的字段投影
+    private final ConcurrentMap<FieldMask, CodecProjection> projections = new ConcurrentHashMap<>();
+
+    CodecPlanMessage(Descriptors.Descriptor descriptor, CodecOptions options) {
+        this.descriptor = descriptor;
+        this.options = options;
+
+        List<Descriptors.FieldDescriptor> fieldDescriptors = new ArrayList<>(descriptor.getFields());
+        fieldDescriptors.sort(Comparator.comparingInt(Descriptors.FieldDescriptor::getNumber));
+
+        CodecPlanField[] tempFields = new CodecPlanField[fieldDescriptors.size()];
+        Map<String, CodecPlanField> tempFieldsByJsonName = new HashMap<>();
+        for (int i = 0; i < tempFields.length; i++) {
+            CodecPlanField field = new CodecPlanField(fieldDescriptors.get(i), options);
+            tempFields[i] = field;
+            tempFieldsByJsonName.put(field.jsonName(), field);
+        }
+
+        this.fields = tempFields;
+        this.fieldNumbers = new int[tempFields.length];
+        for (int i = 0; i < tempFields.length; i++) {
+            fieldNumbers[i] = tempFields[i].descriptor().getNumber();
+        }
+        this.fieldsByJsonName = Collections.unmodifiableMap(tempFieldsByJsonName);
+        this.fieldNames = new JsonNameTable(tempFields);
+    }
+
+    Descriptors.Descriptor descriptor() {
+        return descriptor;
+    }
+
+    CodecOptions options() {
+        return options;
+    }
+
+    /**
+     * 根据Json名字查找字段计划
+     *
+     * @param jsonName 字段的Json名字
+     * @return 字段计划，未知字段返回null
+     */
+    CodecPlanField field(String jsonName) {
+        return fieldsByJsonName.get(jsonName);
+    }
+
+    /**
+     * 根据字段编号查找字段计划，用于Proto二进制的转换
+     *
+     * @param number 字段编号
+     * @return 字段计划，未知字段返回null
+     */
+    CodecPlanField fieldByNumber(int number) {
+        int index = Arrays.binarySearch(fieldNumbers, number);
+        return index >= 0 ? fields[index] : null;
+    }
+
+    /**
+     * 查找FieldMask预编译的字段投影，第一次使用时编译并缓存
+     *
+     * @param mask 字段路径
+     * @return 字段投影
+     * @throws IllegalArgumentException FieldMask与本计划的Descriptor不匹配时，抛出
+     */
+    CodecProjection projection(FieldMask mask) {
+        CodecProjection projection = projections.get(mask);
+        if (projection == null) {
+            projection = CodecProjection.compile(this, mask);
+            if (projections.size() < MAX_PROJECTIONS) {
+                projections.putIfAbsent(mask, projection);
+            }
+        }
+        return projection;
+    }
+
+    /**
+     * 从JsonReader读取Json对象，写入Message.Builder；未知字段和null值直接跳过(google.protobuf.Value字段的null除外)
+     *
+     * @param in      JsonReader，当前位置为Json对象
+     * @param builder 与本计划Descriptor对应的Message.Builder
+     * @throws IOException 读取失败时，抛出
+     */
+    void read(JsonReader in, Message.Builder builder) throws IOException {
+        in.beginObject();
+        readFields(in, builder);
+    }
+
+    /**
+     * 从JsonReader读取当前Json对象的剩余字段，直到对象结束(包括 '}')，写入Message.Builder；未知字段和null值直接跳过
+     * <p>
+     * 用于Any的内容字段，与 "@type" 在同一个Json对象中。
+     *
+     * @param in      JsonReader，当前位置在Json对象内
+     * @param builder 与本计划Descriptor对应的Message.Builder
+     * @throws IOException 读取失败时，抛出
+     */
+    void readFields(JsonReader in, Message.Builder builder) throws IOException {
+        ByteBufJsonReader bytesIn = in instanceof ByteBufJsonReader ? (ByteBufJsonReader) in : null;
+        while (in.hasNext()) {
+            CodecPlanField field = nextField(in, bytesIn);
+            if (field == null || (in.peek() == JsonToken.NULL && !field.readsNull())) {
+                in.skipValue();
+                continue;
+            }
+            field.read(in, builder);
+        }
+        in.endObject();
+    }
+
+    /**
+     * 从JsonReader读取Json对象，只把投影选中的字段写入Message.Builder；其它字段不构建值，直接跳过
+     *
+     * @param in         JsonReader，当前位置为Json对象
+     * @param builder    与本计划Descriptor对应的Message.Builder
+     * @param projection 本计划的字段投影
+     * @throws IOException 读取失败时，抛出
+     */
+    void read(JsonReader in, Message.Builder builder, CodecProjection projection) throws IOException {
+        if (projection == CodecProjection.ALL) {
+            read(in, builder);
+            return;
+        }
+        ByteBufJsonReader bytesIn = in instanceof ByteBufJsonReader ? (ByteBufJsonReader) in : null;
+        in.beginObject();
+        while (in.hasNext()) {
+            CodecPlanField field = nextField(in, bytesIn);
+            CodecProjection child = field == null ? null : projection.child(field.jsonName());
+            if (child == null || (in.peek() == JsonToken.NULL && !field.readsNull())) {
+                in.skipValue();
+                continue;
+            }
+            field.read(in, builder, child);
+        }
+        in.endObject();
+    }
+
+    /**
+     * 将Proto.Message写入JsonWriter
+     *
+     * @param out     JsonWriter
+     * @param message 与本计划Descriptor对应的Proto.Message
+     * @throws IOException 写入失败时，抛出
+     */
+    void write(JsonWriter out, Message message) throws IOException {
+        out.beginObject();
+        writeFields(out, message);
+        out.endObject();
+    }
+
+    /**
+     * 将Proto.Message的字段写入JsonWriter，不写入Json对象的开始和结束
+     * <p>
+     * 用于Any的内容字段，与 "@type" 在同一个Json对象中。
+     *
+     * @param out     JsonWriter，当前位置在Json对象内
+     * @param message 与本计划Descriptor对应的Proto.Message
+     * @throws IOException 写入失败时，抛出
+     */
+    void writeFields(JsonWriter out, Message message) throws IOException {
+        for (CodecPlanField field : fields) {
+            field.write(out, message);
+        }
+    }
+
+    /**
+     * 将Proto.Message中投影选中的字段写入JsonWriter
+     *
+     * @param out        JsonWriter
+     * @param message    与本计划Descriptor对应的Proto.Message
+     * @param projection 本计划的字段投影
+     * @throws IOException 写入失败时，抛出
+     */
+    void write(JsonWriter out, Message message, CodecProjection projection) throws IOException {
+        if (projection == CodecProjection.ALL) {
+            write(out, message);
+            return;
+        }
+        CodecPlanField[] selected = projection.fields();
+        CodecProjection[] children = projection.children();
+        out.beginObject();
+        for (int i = 0; i < selected.length; i++) {
+            selected[i].write(out, message, children[i]);
+        }
+        out.endObject();
+    }
+
+    //ByteBufJsonReader按字节查找字段名，不构建String
+    CodecPlanField nextField(JsonReader in, ByteBufJsonReader bytesIn) throws IOException {
+        return bytesIn != null ? bytesIn.nextName(fieldNames) : fieldsByJsonName.get(in.nextName());
+    }
+}
@@ -0,0 +1,526 @@
+package wenmingwei;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Duration;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.Message;
+import com.google.protobuf.Timestamp;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Well-Known Types(google/protobuf/*.proto)的编解码计划，使用proto3 Json映射的紧凑格式，开启wellKnownTypes时代替通用计划
+ * <p>
+ * 1. Timestamp/Duration/FieldMask: Json字符串，参考WellKnownTypes
+ * 2. 包装类型(Int32Value、StringValue等): 直接为value的值，例如 5、"abc"
+ * 3. Struct/Value/ListValue: 任意Json对象/值/数组
+ * 4. Any: {"@type": "type.googleapis.com/sample.All", ...内容的字段}；内容为Well-Known Type时为 {"@type": ..., "value": 内容的Json}，
+ * 类型通过TypeMapAny查找
+ * <p>
+ * protoc生成的Timestamp/Duration直接调用访问方法；其它类型和DynamicMessage通过本计划Descriptor的字段读写，
+ * FileDescriptorSet中另外构建的google/protobuf/*.proto同样适用。FieldMask投影对Well-Known Types不生效，总是编解码整个值。
+ */
+@Slf4j
+final class CodecPlanWellKnown extends CodecPlanMessage {
+
+    enum Kind {
+        TIMESTAMP,
+        DURATION,
+        FIELD_MASK,
+        WRAPPER,
+        STRUCT,
+        VALUE,
+        LIST_VALUE,
+        ANY
+    }
+
+    private static final Map<String, Kind> KINDS;
+
+    static {
+        Map<String, Kind> kinds = new HashMap<>();
+        kinds.put("google.protobuf.Timestamp", Kind.TIMESTAMP);
+        kinds.put("google.protobuf.Duration", Kind.DURATION);
+        kinds.put("google.protobuf.FieldMask", Kind.FIELD_MASK);
+        for (String wrapper : new String[]{"DoubleValue", "FloatValue", "Int64Value", "UInt64Value", "Int32Value",
+                "UInt32Value", "BoolValue", "StringValue", "BytesValue"}) {
+            kinds.put("google.protobuf." + wrapper, Kind.WRAPPER);
+        }
+        kinds.put("google.protobuf.Struct", Kind.STRUCT);
+        kinds.put("google.protobuf.Value", Kind.VALUE);
+        kinds.put("google.protobuf.ListValue", Kind.LIST_VALUE);
+        kinds.put("google.protobuf.Any", Kind.ANY);
+        KINDS = Collections.unmodifiableMap(kinds);
+    }
+
+    //读取任意Json值，与gson内置的JsonElement TypeAdapter相同
+    private static final TypeAdapter<JsonElement> JSON_ELEMENT = new Gson().getAdapter(JsonElement.class);
+
+    private static final String ANY_TYPE = "@type";
+    private static final String ANY_VALUE = "value";
+
+    //google.protobuf.Value的oneof kind的字段编号
+    private static final int NULL_VALUE = 1;
+    private static final int NUMBER_VALUE = 2;
+    private static final int STRING_VALUE = 3;
+    private static final int BOOL_VALUE = 4;
+    private static final int STRUCT_VALUE = 5;
+    private static final int LIST_VALUE = 6;
+
+    private final Kind kind;
+    //Timestamp/Duration为seconds，包装类型为value，FieldMask为paths，Struct为fields，ListValue为values，Any为type_url
+    private final Descriptors.FieldDescriptor first;
+    //Timestamp/Duration为nanos，Any为value
+    private final Descriptors.FieldDescriptor second;
+    //包装类型的value，Struct的fields(Map字段)
+    private final CodecPlanField firstPlan;
+
+    //Value的oneof kind
+    private final Descriptors.OneofDescriptor valueKind;
+    private final Descriptors.EnumValueDescriptor nullValue;
+
+    //嵌套的Struct/Value/ListValue计划，第一次使用时解析，避免递归构建
+    private volatile CodecPlanMessage structPlan;
+    private volatile CodecPlanMessage valuePlan;
+    private volatile CodecPlanMessage listPlan;
+    //Struct的Value的默认实例，第一次使用时解析
+    private volatile Message structValuePrototype;
+
+    //Any: 内容类型 -> 默认实例和计划
+    private final ConcurrentMap<Descriptors.Descriptor, AnyContent> anyContents = new ConcurrentHashMap<>();
+
+    private CodecPlanWellKnown(Descriptors.Descriptor descriptor, CodecOptions options, Kind kind) {
+        super(descriptor, options);
+        this.kind = kind;
+        this.first = descriptor.getFields().isEmpty() ? null : descriptor.findFieldByNumber(1);
+        this.second = descriptor.findFieldByNumber(2);
+        this.firstPlan = first == null ? null : field(first.getJsonName());
+        if (kind == Kind.VALUE) {
+            this.valueKind = descriptor.getOneofs().get(0);
+            this.nullValue = descriptor.findFieldByNumber(NULL_VALUE).getEnumType().findValueByNumber(0);
+        } else {
+            this.valueKind = null;
+            this.nullValue = null;
+        }
+    }
+
+    /**
+     * @param descriptor Message描述
+     * @param options    编解码选项
+     * @return Well-Known Type的计划，其它类型返回null
+     */
+    static CodecPlanWellKnown of(Descriptors.Descriptor descriptor, CodecOptions options) {
+        Kind kind = KINDS.get(descriptor.getFullName());
+        return kind == null ? null : new CodecPlanWellKnown(descriptor, options, kind);
+    }
+
+    /**
+     * @param descriptor Message描述
+     * @return 该类型是否从Json null解码(google.protobuf.Value)
+     */
+    static boolean readsNull(Descriptors.Descriptor descriptor) {
+        return KINDS.get(descriptor.getFullName()) == Kind.VALUE;
+    }
+
+    @Override
+    void read(JsonReader in, Message.Builder builder) throws IOException {
+        switch (kind) {
+            case TIMESTAMP:
+                readTimestamp(WellKnownTypes.parseTimestamp(in.nextString()), builder);
+                return;
+            case DURATION:
+                readDuration(WellKnownTypes.parseDuration(in.nextString()), builder);
+                return;
+            case FIELD_MASK:
+                for (String path : WellKnownTypes.parseFieldMask(in.nextString())) {
+                    builder.addRepeatedField(first, path);
+                }
+                return;
+            case WRAPPER:
+                setIfNotDefault(builder, first, firstPlan.value().read(in, builder, firstPlan));
+                return;
+            case STRUCT:
+                readStruct(in, builder);
+                return;
+            case VALUE:
+                readValue(in, builder);
+                return;
+            case LIST_VALUE:
+                in.beginArray();
+                while (in.hasNext()) {
+                    Message.Builder elementBuilder = builder.newBuilderForField(first);
+                    valuePlan().read(in, elementBuilder);
+                    builder.addRepeatedField(first, elementBuilder.build());
+                }
+                in.endArray();
+                return;
+            case ANY:
+                readAny(in, builder);
+                return;
+        }
+        throw new IllegalStateException("Should not be here.");
+    }
+
+    @Override
+    void read(JsonReader in, Message.Builder builder, CodecProjection projection) throws IOException {
+        read(in, builder);
+    }
+
+    @Override
+    void readFields(JsonReader in, Message.Builder builder) throws IOException {
+        throw new IllegalStateException("Well-known type(" + descriptor().getFullName() + ") is NOT a json object with fields");
+    }
+
+    @Override
+    void write(JsonWriter out, Message message) throws IOException {
+        switch (kind) {
+            case TIMESTAMP:
+                out.value(message instanceof Timestamp
+                        ? WellKnownTypes.formatTimestamp(((Timestamp) message).getSeconds(), ((Timestamp) message).getNanos())
+                        : WellKnownTypes.formatTimestamp((Long) message.getField(first), (Integer) message.getField(second)));
+                return;
+            case DURATION:
+                out.value(message instanceof Duration
+                        ? WellKnownTypes.formatDuration(((Duration) message).getSeconds(), ((Duration) message).getNanos())
+                        : WellKnownTypes.formatDuration((Long) message.getField(first), (Integer) message.getField(second)));
+                return;
+            case FIELD_MASK:
+                @SuppressWarnings("unchecked")
+                List<String> paths = message instanceof FieldMask
+                        ? ((FieldMask) message).getPathsList()
+                        : (List<String>) message.getField(first);
+                out.value(WellKnownTypes.formatFieldMask(paths));
+                return;
+            case WRAPPER:
+                firstPlan.value().write(out, message.getField(first), firstPlan);
+                return;
+            case STRUCT:
+                out.beginObject();
+                CodecPlanMessage plan = valuePlan();
+                firstPlan.mapAccessor().forEach(message, (key, value) -> {
+                    out.name((String) key);
+                    plan.write(out, (Message) value);
+                });
+                out.endObject();
+                return;
+            case VALUE:
+                writeValue(out, message);
+                return;
+            case LIST_VALUE:
+                out.beginArray();
+                for (int i = 0, count = message.getRepeatedFieldCount(first); i < count; i++) {
+                    valuePlan().write(out, (Message) message.getRepeatedField(first, i));
+                }
+                out.endArray();
+                return;
+            case ANY:
+                writeAny(out, message);
+                return;
+        }
+        throw new IllegalStateException("Should not be here.");
+    }
+
+    @Override
+    void write(JsonWriter out, Message message, CodecProjection projection) throws IOException {
+        write(out, message);
+    }
+
+    @Override
+    void writeFields(JsonWriter out, Message message) throws IOException {
+        throw new IllegalStateException("Well-known type(" + descriptor().getFullName() + ") is NOT a json object with fields");
+    }
+
+    private void readTimestamp(Timestamp timestamp, Message.Builder builder) {
+        if (builder instanceof Timestamp.Builder) {
+            ((Timestamp.Builder) builder).setSeconds(timestamp.getSeconds()).setNanos(timestamp.getNanos());
+        } else {
+            setIfNotDefault(builder, first, timestamp.getSeconds());
+            setIfNotDefault(builder, second, timestamp.getNanos());
+        }
+    }
+
+    private void readDuration(Duration duration, Message.Builder builder) {
+        if (builder instanceof Duration.Builder) {
+            ((Duration.Builder) builder).setSeconds(duration.getSeconds()).setNanos(duration.getNanos());
+        } else {
+            setIfNotDefault(builder, first, duration.getSeconds());
+            setIfNotDefault(builder, second, duration.getNanos());
+        }
+    }
+
+    private void readStruct(JsonReader in, Message.Builder builder) throws IOException {
+        MapFieldAccessor accessor = firstPlan.mapAccessor();
+        CodecPlanMessage plan = valuePlan();
+        in.beginObject();
+        while (in.hasNext()) {
+            String key = in.nextName();
+            Message.Builder valueBuilder = structValuePrototype(builder).newBuilderForType();
+            plan.read(in, valueBuilder);
+            accessor.put(builder, key, valueBuilder.build());
+        }
+        in.endObject();
+    }
+
+    private void readValue(JsonReader in, Message.Builder builder) throws IOException {
+        Descriptors.FieldDescriptor field;
+        switch (in.peek()) {
+            case NULL:
+                in.nextNull();
+                builder.setField(descriptor().findFieldByNumber(NULL_VALUE), nullValue);
+                return;
+            case NUMBER:
+                field = descriptor().findFieldByNumber(NUMBER_VALUE);
+                builder.setField(field, CodecValue.readDouble(in));
+                return;
+            case STRING:
+                field = descriptor().findFieldByNumber(STRING_VALUE);
+                builder.setField(field, in.nextString());
+                return;
+            case BOOLEAN:
+                field = descriptor().findFieldByNumber(BOOL_VALUE);
+                builder.setField(field, in.nextBoolean());
+                return;
+            case BEGIN_OBJECT:
+                field = descriptor().findFieldByNumber(STRUCT_VALUE);
+                Message.Builder structBuilder = builder.newBuilderForField(field);
+                structPlan().read(in, structBuilder);
+                builder.setField(field, structBuilder.build());
+                return;
+            case BEGIN_ARRAY:
+                field = descriptor().findFieldByNumber(LIST_VALUE);
+                Message.Builder listBuilder = builder.newBuilderForField(field);
+                listPlan().read(in, listBuilder);
+                builder.setField(field, listBuilder.build());
+                return;
+            default:
+                throw new JsonSyntaxException("Unexpected " + in.peek() + " for google.protobuf.Value at " + in.getPath());
+        }
+    }
+
+    private void writeValue(JsonWriter out, Message message) throws IOException {
+        Descriptors.FieldDescriptor field = message.getOneofFieldDescriptor(valueKind);
+        switch (field == null ? NULL_VALUE : field.getNumber()) {
+            case NUMBER_VALUE:
+                double number = (Double) message.getField(field);
+                CodecValue.checkValidFloatingPoint(number);
+                out.value(number);
+                return;
+            case STRING_VALUE:
+                out.value((String) message.getField(field));
+                return;
+            case BOOL_VALUE:
+                out.value((boolean) (Boolean) message.getField(field));
+                return;
+            case STRUCT_VALUE:
+                structPlan().write(out, (Message) message.getField(field));
+                return;
+            case LIST_VALUE:
+                listPlan().write(out, (Message) message.getField(field));
+                return;
+            default:
+                //null是字段值，Json对象中的null也要写出
+                boolean serializeNulls = out.getSerializeNulls();
+                out.setSerializeNulls(true);
+                try {
+                    out.nullValue();
+                } finally {
+                    out.setSerializeNulls(serializeNulls);
+                }
+        }
+    }
+
+    private void readAny(JsonReader in, Message.Builder builder) throws IOException {
+        in.beginObject();
+        if (!in.hasNext()) {
+            //空的Any
+            in.endObject();
+            return;
+        }
+
+        String name = in.nextName();
+        if (ANY_TYPE.equals(name)) {
+            //"@type" 在最前面(本计划编码的格式)，直接读取内容
+            String typeUrl = in.nextString();
+            AnyContent content = anyContent(typeUrl);
+            Message.Builder contentBuilder = content.prototype.newBuilderForType();
+            if (content.plan instanceof CodecPlanWellKnown) {
+                readAnyValue(in, contentBuilder, content.plan);
+                in.endObject();
+            } else {
+                content.plan.readFields(in, contentBuilder);
+            }
+            setAny(builder, typeUrl, contentBuilder.build());
+            return;
+        }
+
+        //"@type" 不在最前面，先读取整个Json对象，再按类型解码
+        JsonObject object = new JsonObject();
+        object.add(name, JSON_ELEMENT.read(in));
+        while (in.hasNext()) {
+            object.add(in.nextName(), JSON_ELEMENT.read(in));
+        }
+        in.endObject();
+
+        JsonElement typeElement = object.remove(ANY_TYPE);
+        if (typeElement == null || !typeElement.isJsonPrimitive()) {
+            throw new JsonParseException("Missing @type of google.protobuf.Any at " + in.getPath());
+        }
+        String typeUrl = typeElement.getAsString();
+        AnyContent content = anyContent(typeUrl);
+        Message.Builder contentBuilder = content.prototype.newBuilderForType();
+        TypeAdapterProtoMessage.readTree(object, reader -> {
+            if (content.plan instanceof CodecPlanWellKnown) {
+                reader.beginObject();
+                readAnyValue(reader, contentBuilder, content.plan);
+                reader.endObject();
+            } else {
+                content.plan.read(reader, contentBuilder);
+            }
+        });
+        setAny(builder, typeUrl, contentBuilder.build());
+    }
+
+    //内容为Well-Known Type: {"@type": ..., "value": 内容的Json}，忽略其它名字
+    private static void readAnyValue(JsonReader in, Message.Builder contentBuilder, CodecPlanMessage plan) throws IOException {
+        while (in.hasNext()) {
+            if (ANY_VALUE.equals(in.nextName())) {
+                plan.read(in, contentBuilder);
+            } else {
+                in.skipValue();
+            }
+        }
+    }
+
+    private void setAny(Message.Builder builder, String typeUrl, Message content) {
+        builder.setField(first, typeUrl);
+        setIfNotDefault(builder, second, content.toByteString());
+    }
+
+    private void writeAny(JsonWriter out, Message message) throws IOException {
+        String typeUrl = (String) message.getField(first);
+        ByteString bytes = (ByteString) message.getField(second);
+        out.beginObject();
+        if (typeUrl.isEmpty() && bytes.isEmpty()) {
+            //空的Any
+            out.endObject();
+            return;
+        }
+
+        AnyContent content = anyContent(typeUrl);
+        Message contentMessage = content.prototype.getParserForType().parseFrom(bytes);
+        out.name(ANY_TYPE).value(typeUrl);
+        if (content.plan instanceof CodecPlanWellKnown) {
+            out.name(ANY_VALUE);
+            content.plan.write(out, contentMessage);
+        } else {
+            content.plan.writeFields(out, contentMessage);
+        }
+        out.endObject();
+    }
+
+    private AnyContent anyContent(String typeUrl) {
+        Descriptors.Descriptor type = TypeMapAny.INSTANCE.lookup(typeUrl);
+        AnyContent content = anyContents.get(type);
+        if (content == null) {
+            content = resolveAnyContent(type);
+            AnyContent existing = anyContents.putIfAbsent(type, content);
+            if (existing != null) {
+                content = existing;
+            }
+        }
+        return content;
+    }
+
+    //非DynamicMessage模式下优先使用protoc生成的类，找不到时使用DynamicMessage
+    private AnyContent resolveAnyContent(Descriptors.Descriptor type) {
+        if (!options().isDynamic()) {
+            try {
+                Message prototype = TypeMapMessage.INSTANCE.newBuilder(TypeMapMessage.INSTANCE.lookupMessageType(type))
+                        .getDefaultInstanceForType();
+                return new AnyContent(prototype, TypeMapMessage.INSTANCE.lookupCodecPlan(prototype.getDescriptorForType(), options()));
+            } catch (IllegalArgumentException ex) {
+                if (log.isDebugEnabled()) {
+                    log.debug("No class for type({}) of google.protobuf.Any, use DynamicMessage", type.getFullName(), ex);
+                }
+            }
+        }
+        return new AnyContent(DynamicMessage.getDefaultInstance(type),
+                TypeMapMessage.INSTANCE.lookupCodecPlan(type, options().asDynamic()));
+    }
+
+    private CodecPlanMessage structPlan() {
+        CodecPlanMessage plan = structPlan;
+        if (plan == null) {
+            plan = TypeMapMessage.INSTANCE.lookupCodecPlan(descriptor().findFieldByNumber(STRUCT_VALUE).getMessageType(), options());
+            structPlan = plan;
+        }
+        return plan;
+    }
+
+    private CodecPlanMessage listPlan() {
+        CodecPlanMessage plan = listPlan;
+        if (plan == null) {
+            plan = TypeMapMessage.INSTANCE.lookupCodecPlan(descriptor().findFieldByNumber(LIST_VALUE).getMessageType(), options());
+            listPlan = plan;
+        }
+        return plan;
+    }
+
+    //Struct的Map值和ListValue的元素
+    private CodecPlanMessage valuePlan() {
+        CodecPlanMessage plan = valuePlan;
+        if (plan == null) {
+            Descriptors.Descriptor valueType = kind == Kind.STRUCT
+                    ? firstPlan.mapValue().descriptor().getMessageType()
+                    : first.getMessageType();
+            plan = TypeMapMessage.INSTANCE.lookupCodecPlan(valueType, options());
+            valuePlan = plan;
+        }
+        return plan;
+    }
+
+    //Map的Message值没有父Builder可用，通过MapEntry的Builder获得一次默认实例
+    private Message structValuePrototype(Message.Builder builder) {
+        Message prototype = structValuePrototype;
+        if (prototype == null) {
+            prototype = builder.newBuilderForField(first).newBuilderForField(firstPlan.mapValue().descriptor()).getDefaultInstanceForType();
+            structValuePrototype = prototype;
+        }
+        return prototype;
+    }
+
+    //proto3的默认值表示字段不存在，DynamicMessage.setField默认值后hasField为true，与protoc生成的类不一致
+    private static void setIfNotDefault(Message.Builder builder, Descriptors.FieldDescriptor field, Object value) {
+        if (!value.equals(field.getDefaultValue())) {
+            builder.setField(field, value);
+        }
+    }
+
+    //Any内容类型的默认实例，以及对应的计划
+    private static final class AnyContent {
+        private final Message prototype;
+        private final CodecPlanMessage plan;
+
+        private AnyContent(Message prototype, CodecPlanMessage plan) {
+            this.prototype = prototype;
+            this.plan = plan;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package wenmingwei;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.FieldMask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FieldMask针对某个编解码计划(CodecPlanMessage)预编译的字段投影，不可变
+ * <p>
+ * 每一层只保存被选中的字段，值为ALL时选中整个字段，否则为嵌套Message字段的下一层投影。
+ * 解码时未选中的字段在Token层面跳过，不构建值和嵌套Builder；编码时按字段编号顺序只输出选中的字段。
+ * <p>
+ * 空的FieldMask选中所有字段。路径的每一段可以是proto字段名(snake_case)或者Json名字(lowerCamelCase)；
+ * 只有Message字段(包括Repeated Message字段，对每个元素生效)可以继续选择子字段，Map字段只能整体选择。
+ */
+class CodecProjection {
+
+    //选中整个字段
+    static final CodecProjection ALL = new CodecProjection(new CodecPlanField[0], new CodecProjection[0]);
+
+    //按字段编号排序
+    private final CodecPlanField[] fields;
+    private final CodecProjection[] children;
+    private final Map<String, CodecProjection> childrenByJsonName;
+
+    private CodecProjection(CodecPlanField[] fields, CodecProjection[] children) {
+        this.fields = fields;
+        this.children = children;
+        Map<String, CodecProjection> tempChildrenByJsonName = new HashMap<>();
+        for (int i = 0; i < fields.length; i++) {
+            tempChildrenByJsonName.put(fields[i].jsonName(), children[i]);
+        }
+        this.childrenByJsonName = Collections.unmodifiableMap(tempChildrenByJsonName);
+    }
+
+    /**
+     * 编译FieldMask
+     *
+     * @param plan Message的编解码计划
+     * @param mask 字段路径
+     * @return 字段投影
+     * @throws IllegalArgumentException 路径中有不存在的字段，或者在非Message字段上选择子字段时，抛出
+     */
+    static CodecProjection compile(CodecPlanMessage plan, FieldMask mask) {
+        if (mask.getPathsCount() == 0) {
+            return ALL;
+        }
+        Node root = new Node();
+        for (String path : mask.getPathsList()) {
+            Node node = root;
+            CodecPlanMessage nodePlan = plan;
+            String[] segments = path.split("\\.", -1);
+            for (int i = 0; i < segments.length; i++) {
+                if (nodePlan == null) {
+                    throw new IllegalArgumentException("Cannot select sub field of non-message field in path(" + path
+                            + ") of message(" + plan.descriptor().getFullName() + ")");
+                }
+                CodecPlanField field = lookupField(nodePlan, segments[i]);
+                if (field == null) {
+                    throw new IllegalArgumentException("Field(" + segments[i] + ") in path(" + path
+                            + ") is NOT found in message(" + nodePlan.descriptor().getFullName() + ")");
+                }
+                node = node.child(field, i == segments.length - 1);
+                nodePlan = field.value() == CodecValue.MESSAGE && !field.isMapField() ? field.messagePlan() : null;
+            }
+        }
+        return root.build();
+    }
+
+    /**
+     * @param jsonName 字段的Json名字
+     * @return 字段的下一层投影，ALL表示选中整个字段，未选中时返回null
+     */
+    CodecProjection child(String jsonName) {
+        return childrenByJsonName.get(jsonName);
+    }
+
+    /**
+     * @return 选中的字段，按字段编号排序，不能修改
+     */
+    CodecPlanField[] fields() {
+        return fields;
+    }
+
+    /**
+     * @return 与fields一一对应的下一层投影，不能修改
+     */
+    CodecProjection[] children() {
+        return children;
+    }
+
+    private static CodecPlanField lookupField(CodecPlanMessage plan, String segment) {
+        Descriptors.FieldDescriptor fieldDescriptor = plan.descriptor().findFieldByName(segment);
+        return plan.field(fieldDescriptor != null ? fieldDescriptor.getJsonName() : segment);
+    }
+
+    //编译过程中的可变节点
+    private static class Node {
+        private final Map<CodecPlanField, Node> children = new HashMap<>();
+        //选中整个字段，忽略其它更深的路径
+        private boolean all;
+
+        Node child(CodecPlanField field, boolean last) {
+            Node child = children.computeIfAbsent(field, key -> new Node());
+            if (last) {
+                child.all = true;
+            }
+            return child;
+        }
+
+        CodecProjection build() {
+            if (all) {
+                return ALL;
+            }
+            List<CodecPlanField> selected = new ArrayList<>(children.keySet());
+            selected.sort(Comparator.comparingInt(field -> field.descriptor().getNumber()));
+            CodecPlanField[] fields = selected.toArray(new CodecPlanField[0]);
+            CodecProjection[] projections = new CodecProjection[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                projections[i] = children.get(fields[i]).build();
+            }
+            return new CodecProjection(fields, projections);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package wenmingwei;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+
+import java.io.IOException;
+
+/**
+ * 单个字段值的流式编解码策略，按Proto.FieldDescriptor.JavaType划分
+ * <p>
+ * 解码规则与Gson内置的Integer/Long/Float/Double/Boolean/String TypeAdapter保持一致，
+ * 编码格式与TypeAdapterProtoMessage保持一致。
+ */
+enum CodecValue {
+
+    INT {
+        @Override
+        Object read(JsonReader in, Message.Builder builder, CodecPlanField field) throws IOException {
+            return readInt(in);
+        }
+
+        @Override
+        void write(JsonWriter out, Object value, CodecPlanField field) throws IOException {
+            out.value((Number) value);
+        }
+    },
+
+    LONG {
+        @Override
+        Object read(JsonReader in, Message.Builder builder, CodecPlanField field) throws IOException {
+            return readLong(in);
+        }
+
+        @Override
+        void write(JsonWriter out, Object value, CodecPlanField field) throws IOException {
+            out.value((Number) value);
+        }
+    },
+
+    FLOAT {
+        @Override
+        Object read(JsonReader in, Message.Builder builder, CodecPlanField field) throws IOException {
+            return readFloat(in);
+        }
+
+        @Override
+        void write(JsonWriter out, Object value, CodecPlanField field) throws IOException {
+            checkValidFloatingPoint(((Number) value).doubleValue());
+            out.value((Number) value);
+        }
+    },
+
+    DOUBLE {
+        @Override
+        Object read(JsonReader in, Message.Builder builder, CodecPlanField field) throws IOException {
+            return readDouble(in);
+        }
+
+        @Override
+        void write(JsonWriter out, Object value, CodecPlanField field) throws IOException {
+            checkValidFloatingPoint(((Number) value).doubleValue());
+            out.value((Number) value);
+        }
+    },
+
+    BOOLEAN {
+        @Override
+        Object read(JsonReader in, Message.Builder builder, CodecPlanField field) throws IOException {
+            return readBoolean(in);
+        }
+
+        @Override
+        void write(JsonWriter out, Object value, CodecPlanField field) throws IOException {
+            out.value((boolean) (Boolean) value);
+        }
+    },
+
+    STRING {
+        @Override
+        Object read(JsonReader in, Message.Builder builder, CodecPlanField field) throws IOException {
+            if (in.peek() == JsonToken.BOOLEAN) {
+                return Boolean.toString(in.nextBoolean());
+            }
+            StringInternTable strings = field.strings();
+            if (strings == null) {
+                return in.nextString();
+            }
+            //ByteBuf按字节查找，命中时不构建String
+            return in instanceof ByteBufJsonReader ? ((ByteBufJsonReader) in).nextString(strings) : strings.intern(in.nextString());
+        }
+
+        @Override
+        void write(JsonWriter out, Object value, CodecPlanField field) throws IOException {
+            out.value((String) value);
+        }
+    },
+
+    BYTE_STRING {
+        @Override
+        Object read(JsonReader in, Message.Builder builder, CodecPlanField field) throws IOException {
+            return TypeAdapterByteString.read(in);
+        }
+
+        @Override
+        void write(JsonWriter out, Object value, CodecPlanField field) throws IOException {
+            TypeAdapterByteString.write(out, (ByteString) value);
+        }
+    },
+
+    ENUM {
+        @Override
+        Object read(JsonReader in, Message.Builder builder, CodecPlanField field) throws IOException {
+            //名字或编号，nextString也接受数字
+            String value = in.nextString();
+            EnumValueTable table = field.enumValues();
+            Descriptors.EnumValueDescriptor enumValueDescriptor = table.find(value);
+            if (enumValueDescriptor == null) {
+                throw new JsonParseException(table.unknownValueMessage(value));
+            }
+            return enumValueDescriptor;
+        }
+
+        @Override
+        void write(JsonWriter out, Object value, CodecPlanField field) throws IOException {
+            out.value(((Descriptors.EnumValueDescriptor) value).getName());
+        }
+    },
+
+    MESSAGE {
+        @Override
+        Object read(JsonReader in, Message.Builder builder, CodecPlanField field) throws IOException {
+            //嵌套Message(包括Map字段的MapEntry)通过父Builder创建，不需要TypeMapMessage
+            Message.Builder fieldBuilder = builder.newBuilderForField(field.descriptor());
+            field.messagePlan().read(in, fieldBuilder);
+            return fieldBuilder.build();
+        }
+
+        @Override
+        void write(JsonWriter out, Object value, CodecPlanField field) throws IOException {
+            field.messagePlan().write(out, (Message) value);
+        }
+    };
+
+    /**
+     * 从JsonReader读取一个字段值
+     *
+     * @param in      JsonReader
+     * @param builder 字段所属Message的Builder，用于创建嵌套Message的Builder
+     * @param field   字段的编解码计划
+     * @return 可直接传给Message.Builder.setField/addRepeatedField的值
+     * @throws IOException 读取失败时，抛出
+     */
+    abstract Object read(JsonReader in, Message.Builder builder, CodecPlanField field) throws IOException;
+
+    /**
+     * 将一个字段值写入JsonWriter
+     *
+     * @param out   JsonWriter
+     * @param value Message.getField/getRepeatedField返回的值
+     * @param field 字段的编解码计划
+     * @throws IOException 写入失败时，抛出
+     */
+    abstract void write(JsonWriter out, Object value, CodecPlanField field) throws IOException;
+
+    static CodecValue of(Descriptors.FieldDescriptor.JavaType javaType) {
+        switch (javaType) {
+            case INT:
+                return INT;
+            case LONG:
+                return LONG;
+            case FLOAT:
+                return FLOAT;
+            case DOUBLE:
+                return DOUBLE;
+            case BOOLEAN:
+                return BOOLEAN;
+            case STRING:
+                return STRING;
+            case BYTE_STRING:
+                return BYTE_STRING;
+            case ENUM:
+                return ENUM;
+            case MESSAGE:
+                return MESSAGE;
+        }
+
+        throw new IllegalStateException("Should not be here.");
+    }
+
+    //以下为基本类型的编解码，不装箱
+
+    static int readInt(JsonReader in) throws IOException {
+        try {
+            return in.nextInt();
+        } catch (NumberFormatException ex) {
+            throw new JsonSyntaxException(ex);
+        }
+    }
+
+    static long readLong(JsonReader in) throws IOException {
+        try {
+            return in.nextLong();
+        } catch (NumberFormatException ex) {
+            throw new JsonSyntaxException(ex);
+        }
+    }
+
+    static float readFloat(JsonReader in) throws IOException {
+        return (float) readDouble(in);
+    }
+
+    static double readDouble(JsonReader in) throws IOException {
+        try {
+            return in.nextDouble();
+        } catch (NumberFormatException ex) {
+            throw new JsonSyntaxException(ex);
+        }
+    }
+
+    static boolean readBoolean(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.STRING) {
+            return Boolean.parseBoolean(in.nextString());
+        }
+        return in.nextBoolean();
+    }
+
+    //与JsonWriter.value(Number)的输出一致(Float.toString)，避免装箱
+    static void writeFloat(JsonWriter out, float value) throws IOException {
+        checkValidFloatingPoint(value);
+        if (out instanceof ByteBufJsonWriter || out.getClass() == JsonWriter.class) {
+            out.jsonValue(Float.toString(value));
+            return;
+        }
+        //其它JsonWriter(例如TypeAdapter.toJsonTree使用的写入JsonElement的实现)不一定支持jsonValue，Any的内容在JsonElement树编码时经过这里
+        out.value((Float) value);
+    }
+
+    static void writeDouble(JsonWriter out, double value) throws IOException {
+        checkValidFloatingPoint(value);
+        out.value(value);
+    }
+
+    static void checkValidFloatingPoint(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException(value + " is not a valid double value as per JSON specification.");
+        }
+    }
+}
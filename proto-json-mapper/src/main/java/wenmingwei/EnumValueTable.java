@@ -0,0 +1,115 @@
+package wenmingwei;
+
+import com.google.protobuf.Descriptors;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 每种Proto.Enum类型(EnumDescriptor)预先构建的查找表，不可变
+ * <p>
+ * 由TypeMapEnum.lookupValueTable构建并缓存。名字通过HashMap查找；编号连续(常见情况)时通过数组下标查找，否则通过HashMap查找。
+ * 找不到时返回null，由调用者决定如何报错，不会在查找过程中抛出异常。
+ */
+final class EnumValueTable {
+
+    //编号数组最多比值的数量多出的空位，超过时改用HashMap
+    private static final int MAX_ARRAY_GAP = 16;
+
+    private final Descriptors.EnumDescriptor descriptor;
+    private final Map<String, Descriptors.EnumValueDescriptor> byName;
+
+    //二选一: byNumberArray[number]，或者byNumberMap.get(number)
+    private final Descriptors.EnumValueDescriptor[] byNumberArray;
+    private final Map<Integer, Descriptors.EnumValueDescriptor> byNumberMap;
+
+    EnumValueTable(Descriptors.EnumDescriptor descriptor) {
+        this.descriptor = descriptor;
+
+        Map<String, Descriptors.EnumValueDescriptor> tempByName = new HashMap<>();
+        Map<Integer, Descriptors.EnumValueDescriptor> tempByNumber = new HashMap<>();
+        int minNumber = 0;
+        int maxNumber = 0;
+        for (Descriptors.EnumValueDescriptor value : descriptor.getValues()) {
+            tempByName.put(value.getName(), value);
+            //allow_alias时多个名字对应同一个编号，与EnumDescriptor.findValueByNumber一样使用第一个
+            tempByNumber.putIfAbsent(value.getNumber(), value);
+            minNumber = Math.min(minNumber, value.getNumber());
+            maxNumber = Math.max(maxNumber, value.getNumber());
+        }
+        this.byName = Collections.unmodifiableMap(tempByName);
+
+        if (minNumber >= 0 && maxNumber < tempByNumber.size() + MAX_ARRAY_GAP) {
+            Descriptors.EnumValueDescriptor[] tempArray = new Descriptors.EnumValueDescriptor[maxNumber + 1];
+            for (Map.Entry<Integer, Descriptors.EnumValueDescriptor> entry : tempByNumber.entrySet()) {
+                tempArray[entry.getKey()] = entry.getValue();
+            }
+            this.byNumberArray = tempArray;
+            this.byNumberMap = null;
+        } else {
+            this.byNumberArray = null;
+            this.byNumberMap = Collections.unmodifiableMap(tempByNumber);
+        }
+    }
+
+    Descriptors.EnumDescriptor descriptor() {
+        return descriptor;
+    }
+
+    /**
+     * 根据编号查找
+     *
+     * @param number 编号
+     * @return 对应的EnumValueDescriptor，未知编号返回null
+     */
+    Descriptors.EnumValueDescriptor findByNumber(int number) {
+        if (byNumberArray != null) {
+            return number >= 0 && number < byNumberArray.length ? byNumberArray[number] : null;
+        }
+        return byNumberMap.get(number);
+    }
+
+    /**
+     * 根据Json中的值查找: 优先按名字查找，名字不存在时，按十进制编号(如 "2" 或 "-1")查找
+     *
+     * @param value Json中的字符串或者数字
+     * @return 对应的EnumValueDescriptor，未知的值返回null
+     */
+    Descriptors.EnumValueDescriptor find(String value) {
+        Descriptors.EnumValueDescriptor ret = byName.get(value);
+        if (ret != null) {
+            return ret;
+        }
+
+        //手工解析，非数字时直接返回null，避免Integer.parseInt抛出异常
+        int length = value.length();
+        int i = length > 0 && value.charAt(0) == '-' ? 1 : 0;
+        if (i == length || length - i > 10) {
+            return null;
+        }
+        long number = 0;
+        for (; i < length; i++) {
+            char ch = value.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return null;
+            }
+            number = number * 10 + (ch - '0');
+        }
+        if (value.charAt(0) == '-') {
+            number = -number;
+        }
+        if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+            return null;
+        }
+        return findByNumber((int) number);
+    }
+
+    /**
+     * @param value Json中的值
+     * @return 未知值的错误信息
+     */
+    String unknownValueMessage(String value) {
+        return "Unknown value(" + value + ") of enum(" + descriptor.getFullName() + ")";
+    }
+}
@@ -0,0 +1,77 @@
+package wenmingwei;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * 绑定protoc生成的访问方法(getXxxMap/putXxx、getXxxList/addAllXxx等)
+ * <p>
+ * 通过LambdaMetafactory将访问方法绑定为函数式接口的实现，由MapFieldAccessor和RepeatedNumberAccessor使用。
+ */
+final class GeneratedAccessors {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private GeneratedAccessors() {
+    }
+
+    //与protoc生成的访问方法名一致，group字段使用类型名
+    static String accessorName(Descriptors.FieldDescriptor fd) {
+        String name = fd.getType() == Descriptors.FieldDescriptor.Type.GROUP ? fd.getMessageType().getName() : fd.getName();
+        return JavaClassNames.underscoresToCamelCase(name);
+    }
+
+    static Class<?> valueClass(Descriptors.FieldDescriptor.JavaType javaType) {
+        switch (javaType) {
+            case INT:
+                return int.class;
+            case LONG:
+                return long.class;
+            case FLOAT:
+                return float.class;
+            case DOUBLE:
+                return double.class;
+            case BOOLEAN:
+                return boolean.class;
+            case STRING:
+                return String.class;
+            case BYTE_STRING:
+                return ByteString.class;
+        }
+
+        throw new IllegalStateException("Should not be here.");
+    }
+
+    /**
+     * 通过LambdaMetafactory将访问方法绑定为函数式接口的实现
+     *
+     * @param functionalInterface 函数式接口
+     * @param implementation      访问方法
+     * @param instantiatedType    函数式接口方法的具体类型，参数为包装类型时由LambdaMetafactory负责拆箱
+     * @return 函数式接口的实现
+     * @throws Throwable 绑定失败时，抛出
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T bind(Class<?> functionalInterface, MethodHandle implementation, MethodType instantiatedType) throws Throwable {
+        Method sam = samMethod(functionalInterface);
+        MethodType samType = MethodType.methodType(sam.getReturnType(), sam.getParameterTypes());
+        return (T) LambdaMetafactory.metafactory(LOOKUP, sam.getName(), MethodType.methodType(functionalInterface),
+                samType, implementation, instantiatedType).getTarget().invoke();
+    }
+
+    private static Method samMethod(Class<?> functionalInterface) {
+        for (Method method : functionalInterface.getMethods()) {
+            if (Modifier.isAbstract(method.getModifiers())) {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException(functionalInterface + " is not a functional interface");
+    }
+}
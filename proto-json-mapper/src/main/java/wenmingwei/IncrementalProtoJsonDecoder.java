@@ -0,0 +1,388 @@
+package wenmingwei;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.protobuf.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ByteProcessor;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 按块(HttpContent)增量解码一个Json对象为Proto.Message，不需要HttpObjectAggregator
+ * <p>
+ * 每收到一块数据，只扫描新数据的结构(字符串、括号深度)，一旦最外层对象的某个成员 "name": value 完整，
+ * 立即解码并写入Message.Builder；最外层成员的值为Json数组、并且是Repeated/Map字段时，按数组元素逐个解码。
+ * 其它字段的数组值(开启wellKnownTypes时单个的google.protobuf.ListValue/Value字段)整体解码，拆开时只会保留最后一个元素。
+ * 已解码的数据所在的块立即释放，同一时间只保留尚未完整的一个成员(或一个数组元素)和最新收到的块。
+ * <p>
+ * 字段的解码与流式编解码(CodecPlanMessage)一致。解码分散在多次调用中，不上报ProtoJsonMetrics。
+ * <p>
+ * 非线程安全，每个请求使用一个实例，通常在同一个Netty EventLoop中调用。
+ */
+public class IncrementalProtoJsonDecoder implements AutoCloseable {
+
+    //待解码数据最多保留的块数，超过时CompositeByteBuf会合并为一块
+    private static final int MAX_COMPONENTS = 1024;
+
+    private static final byte[] OBJECT_START = {'{'};
+    private static final byte[] OBJECT_END = {'}'};
+    private static final byte[] ARRAY_OBJECT_END = {']', '}'};
+
+    private enum Mode {
+        //最外层 '{' 之前
+        BEFORE,
+        //最外层对象内
+        MEMBERS,
+        //最外层 '}' 之后
+        DONE
+    }
+
+    private final CodecPlanMessage plan;
+    private final Message.Builder builder;
+    private final CompositeByteBuf pending;
+    //ProtoJsonMapperConfig.parallelPool，为null时使用ForkJoinPool.commonPool()
+    private final ForkJoinPool parallelPool;
+    private final Scanner scanner = new Scanner();
+
+    //下一个待扫描的位置
+    private int scanIndex;
+    //已释放的字节数，用于错误信息中的位置
+    private long discarded;
+
+    //当前成员的起始位置，成员的值已按数组元素解码时，为数组 ']' 之后的位置
+    private int memberStart;
+    private int memberCount;
+    private boolean memberConsumed;
+
+    //最外层成员的值为Json数组时有效: '{' 加上成员名到 '[' 的原始字节，以及当前元素的起始位置
+    private byte[] arrayPrefix;
+    private int elementStart;
+    private int elementCount;
+
+    //深度为2的容器是否为数组
+    private boolean innerArray;
+
+    private boolean closed;
+
+    IncrementalProtoJsonDecoder(CodecPlanMessage plan, Message.Builder builder, ByteBufAllocator allocator, ForkJoinPool parallelPool) {
+        this.plan = plan;
+        this.builder = builder;
+        this.pending = allocator.compositeBuffer(MAX_COMPONENTS);
+        this.parallelPool = parallelPool;
+    }
+
+    /**
+     * 提交一块Http内容
+     *
+     * @param content Http内容，引用计数由本解码器接管(负责释放)
+     * @return 收到LastHttpContent时返回解码完成的Proto.Message，否则返回null
+     * @throws JsonSyntaxException Json格式错误，或者Json不完整时，抛出；之后本解码器不可再用
+     */
+    public Message offer(HttpContent content) {
+        return offer(content.content(), content instanceof LastHttpContent);
+    }
+
+    /**
+     * 提交一块Json内容
+     *
+     * @param chunk Json内容的下一块，引用计数由本解码器接管(负责释放)
+     * @param last  是否为最后一块
+     * @return last为true时返回解码完成的Proto.Message，否则返回null
+     * @throws JsonSyntaxException Json格式错误，或者Json不完整时，抛出；之后本解码器不可再用
+     */
+    public Message offer(ByteBuf chunk, boolean last) {
+        if (closed) {
+            chunk.release();
+            throw new IllegalStateException("Decoder is already closed");
+        }
+
+        try {
+            if (chunk.isReadable()) {
+                pending.addComponent(true, chunk);
+            } else {
+                chunk.release();
+            }
+
+            scan();
+            discardConsumed();
+
+            if (!last) {
+                return null;
+            }
+            if (scanner.mode != Mode.DONE) {
+                throw new JsonSyntaxException("Incomplete json object, " + position(pending.writerIndex()) + " bytes received");
+            }
+            close();
+            return builder.build();
+        } catch (RuntimeException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * 释放尚未解码的数据，可以重复调用
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            pending.release();
+        }
+    }
+
+    private void scan() {
+        int end = pending.writerIndex();
+        while (scanIndex < end) {
+            int index = pending.forEachByte(scanIndex, end - scanIndex, scanner);
+            if (index < 0) {
+                scanIndex = end;
+                break;
+            }
+            handle(index, pending.getByte(index));
+            scanIndex = index + 1;
+        }
+    }
+
+    //处理Scanner停下的字节: 最外层的括号和逗号，以及最外层成员的值中深度为2的括号和逗号
+    @SuppressWarnings("fallthrough")
+    private void handle(int index, byte b) {
+        switch (scanner.mode) {
+            case BEFORE:
+                if (b != '{') {
+                    throw new JsonSyntaxException("Expected BEGIN_OBJECT but was '" + (char) b + "' at byte " + position(index));
+                }
+                scanner.mode = Mode.MEMBERS;
+                scanner.depth = 1;
+                memberStart = index + 1;
+                return;
+            case DONE:
+                throw new JsonSyntaxException("Unexpected '" + (char) b + "' after the end of json object at byte " + position(index));
+        }
+
+        int depth = scanner.depth;
+        switch (b) {
+            case '[':
+                if (depth == 1) {
+                    //成员的值为数组，Repeated字段按元素解码，'{' 加上成员名到 '[' 的原始字节作为每个元素的前缀
+                    byte[] prefix = new byte[index + 2 - memberStart];
+                    prefix[0] = '{';
+                    pending.getBytes(memberStart, prefix, 1, prefix.length - 1);
+                    if (isRepeated(prefix)) {
+                        arrayPrefix = prefix;
+                        elementStart = index + 1;
+                        elementCount = 0;
+                        scanner.splitting = true;
+                    }
+                }
+                // fall through
+            case '{':
+                innerArray = b == '[';
+                scanner.depth = depth + 1;
+                return;
+            case ',':
+                if (depth == 1) {
+                    finishMember(index, false);
+                    memberStart = index + 1;
+                } else if (arrayPrefix != null) {
+                    finishElement(index, false);
+                    elementStart = index + 1;
+                }
+                return;
+            default:
+                // '}' 或者 ']'
+                if (depth == 2) {
+                    if (innerArray != (b == ']')) {
+                        throw new JsonSyntaxException("Unexpected '" + (char) b + "' at byte " + position(index));
+                    }
+                    if (arrayPrefix != null) {
+                        finishElement(index, true);
+                        arrayPrefix = null;
+                        scanner.splitting = false;
+                        memberConsumed = true;
+                        memberStart = index + 1;
+                    }
+                } else {
+                    if (b != '}') {
+                        throw new JsonSyntaxException("Unexpected '" + (char) b + "' at byte " + position(index));
+                    }
+                    finishMember(index, true);
+                    scanner.mode = Mode.DONE;
+                }
+                scanner.depth = depth - 1;
+        }
+    }
+
+    private void finishMember(int end, boolean closing) {
+        if (memberConsumed) {
+            //值已按数组元素解码，']' 之后只能是空白
+            if (!isBlank(memberStart, end)) {
+                throw new JsonSyntaxException("Expected ',' or '}' at byte " + position(memberStart));
+            }
+            memberConsumed = false;
+        } else if (isBlank(memberStart, end)) {
+            //只有空对象 {} 允许没有成员
+            if (!closing || memberCount > 0) {
+                throw new JsonSyntaxException("Expected name at byte " + position(end));
+            }
+            return;
+        } else {
+            decode(OBJECT_START, memberStart, end, OBJECT_END);
+        }
+        memberCount++;
+    }
+
+    private void finishElement(int end, boolean closing) {
+        if (isBlank(elementStart, end)) {
+            //只有空数组 [] 允许没有元素
+            if (!closing || elementCount > 0) {
+                throw new JsonSyntaxException("Expected value at byte " + position(end));
+            }
+            return;
+        }
+        //{"name":[element]}，Repeated字段的值追加到Builder
+        decode(arrayPrefix, elementStart, end, ARRAY_OBJECT_END);
+        elementCount++;
+    }
+
+    //数组前缀 {"name":[ 中的字段是否为Repeated字段(包括Map字段)；未知字段、名字格式错误时不拆分，整个成员解码时再处理
+    private boolean isRepeated(byte[] prefix) {
+        //每个数组成员只读一次名字，lenient语法的名字也按成员解码时的规则处理
+        try (JsonReader reader = new JsonReader(new StringReader(new String(prefix, StandardCharsets.UTF_8)))) {
+            reader.setLenient(true);
+            reader.beginObject();
+            CodecPlanField field = plan.field(reader.nextName());
+            return field != null && field.descriptor().isRepeated();
+        } catch (IOException | IllegalStateException ex) {
+            return false;
+        }
+    }
+
+    //将 prefix + pending[start, end) + suffix 作为一个Json对象解码，写入Builder
+    private void decode(byte[] prefix, int start, int end, byte[] suffix) {
+        ByteBuf json = Unpooled.wrappedBuffer(
+                Unpooled.wrappedBuffer(prefix),
+                pending.slice(start, end - start),
+                Unpooled.wrappedBuffer(suffix));
+        //直接解析字节；ByteBufJsonReader不支持的lenient语法按字符重新解码
+        try (ByteBufJsonReader reader = new ByteBufJsonReader(json)) {
+            //与Gson.fromJson一致
+            reader.setLenient(true);
+            reader.setParallelPool(parallelPool);
+            plan.read(reader, builder);
+            return;
+        } catch (IOException ex) {
+            //其它格式错误重新解码也会失败
+            if (!ByteBufJsonReader.isUnsupportedSyntax(ex)) {
+                throw new JsonSyntaxException("Malformed json at byte " + position(start), ex);
+            }
+        } catch (IllegalStateException | NumberFormatException ex) {
+            throw new JsonSyntaxException("Malformed json at byte " + position(start), ex);
+        }
+
+        JsonReader reader = new JsonReader(new StringReader(json.toString(StandardCharsets.UTF_8)));
+        reader.setLenient(true);
+        try {
+            plan.read(reader, builder);
+        } catch (IOException | IllegalStateException | NumberFormatException ex) {
+            throw new JsonSyntaxException("Malformed json at byte " + position(start), ex);
+        }
+    }
+
+    //释放已经解码的块，保留当前成员(或者数组元素)的起始位置之后的数据
+    private void discardConsumed() {
+        int keepFrom;
+        if (scanner.mode != Mode.MEMBERS) {
+            keepFrom = scanIndex;
+        } else if (arrayPrefix != null) {
+            keepFrom = elementStart;
+        } else {
+            keepFrom = memberStart;
+        }
+
+        pending.readerIndex(keepFrom);
+        pending.discardReadComponents();
+        int shift = keepFrom - pending.readerIndex();
+        if (shift == 0) {
+            return;
+        }
+        discarded += shift;
+        scanIndex -= shift;
+        memberStart -= shift;
+        elementStart -= shift;
+    }
+
+    private boolean isBlank(int start, int end) {
+        return pending.forEachByte(start, end - start, Scanner::isWhitespace) < 0;
+    }
+
+    private long position(int index) {
+        return discarded + index;
+    }
+
+    //在不需要处理的字节上连续扫描，遇到需要处理的字节时停下
+    private static final class Scanner implements ByteProcessor {
+        Mode mode = Mode.BEFORE;
+        int depth;
+        //最外层成员的值为数组，深度为2的逗号需要处理
+        boolean splitting;
+
+        private boolean inString;
+        private boolean escaped;
+
+        @Override
+        public boolean process(byte b) {
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                }
+                return true;
+            }
+
+            if (mode != Mode.MEMBERS) {
+                return isWhitespace(b);
+            }
+
+            switch (b) {
+                case '"':
+                    inString = true;
+                    return true;
+                case '{':
+                case '[':
+                    if (depth >= 2) {
+                        depth++;
+                        return true;
+                    }
+                    return false;
+                case '}':
+                case ']':
+                    if (depth > 2) {
+                        depth--;
+                        return true;
+                    }
+                    return false;
+                case ',':
+                    return depth > 2 || (depth == 2 && !splitting);
+                default:
+                    return true;
+            }
+        }
+
+        static boolean isWhitespace(byte b) {
+            return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+        }
+    }
+}
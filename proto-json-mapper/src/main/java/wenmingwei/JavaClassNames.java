@@ -0,0 +1,139 @@
+package wenmingwei;
+
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+
+/**
+ * 根据Proto描述(Descriptor)推导protoc生成的Java类名，规则与protoc的Java代码生成器一致:
+ * <p>
+ * 1. 包名: option java_package，未设置时使用proto package
+ * 2. 外部类: option java_outer_classname，未设置时由文件名转换为驼峰，和文件中的类型重名时追加 "OuterClass"
+ * 3. option java_multiple_files = true 时，顶层类型不嵌套在外部类中
+ * 4. 嵌套类型使用 '$' 连接，可直接用于ClassLoader.loadClass
+ */
+final class JavaClassNames {
+
+    private static final String OUTER_CLASS_SUFFIX = "OuterClass";
+
+    private JavaClassNames() {
+    }
+
+    static String of(Descriptors.Descriptor descriptor) {
+        return of(descriptor.getFile(), descriptor.getContainingType(), descriptor.getName());
+    }
+
+    static String of(Descriptors.EnumDescriptor descriptor) {
+        return of(descriptor.getFile(), descriptor.getContainingType(), descriptor.getName());
+    }
+
+    private static String of(Descriptors.FileDescriptor file, Descriptors.Descriptor containingType, String name) {
+        StringBuilder nested = new StringBuilder(name);
+        for (Descriptors.Descriptor parent = containingType; parent != null; parent = parent.getContainingType()) {
+            nested.insert(0, '$').insert(0, parent.getName());
+        }
+
+        DescriptorProtos.FileOptions options = file.getOptions();
+        String javaPackage = options.hasJavaPackage() ? options.getJavaPackage() : file.getPackage();
+
+        StringBuilder sb = new StringBuilder();
+        if (!javaPackage.isEmpty()) {
+            sb.append(javaPackage).append('.');
+        }
+        if (!options.getJavaMultipleFiles()) {
+            sb.append(outerClassName(file)).append('$');
+        }
+        return sb.append(nested).toString();
+    }
+
+    /**
+     * 加载类，优先使用线程上下文ClassLoader，与原来的properties加载方式一致
+     *
+     * @param className 类名，嵌套类使用 '$' 连接
+     * @return 类
+     * @throws ClassNotFoundException 类不存在时，抛出
+     */
+    static Class<?> loadClass(String className) throws ClassNotFoundException {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = JavaClassNames.class.getClassLoader();
+        }
+        return classLoader.loadClass(className);
+    }
+
+    static String outerClassName(Descriptors.FileDescriptor file) {
+        DescriptorProtos.FileOptions options = file.getOptions();
+        if (options.hasJavaOuterClassname()) {
+            return options.getJavaOuterClassname();
+        }
+
+        String fileName = file.getName();
+        int slash = fileName.lastIndexOf('/');
+        String baseName = fileName.substring(slash + 1);
+        if (baseName.endsWith(".protodevel")) {
+            baseName = baseName.substring(0, baseName.length() - ".protodevel".length());
+        } else if (baseName.endsWith(".proto")) {
+            baseName = baseName.substring(0, baseName.length() - ".proto".length());
+        }
+
+        String className = underscoresToCamelCase(baseName);
+        return hasConflictingClassName(file, className) ? className + OUTER_CLASS_SUFFIX : className;
+    }
+
+    //与protoc的UnderscoresToCamelCase(name, true)一致，也用于生成的字段访问方法名(getXxx/setXxx)
+    static String underscoresToCamelCase(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        boolean capNextLetter = true;
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            if ('a' <= ch && ch <= 'z') {
+                sb.append(capNextLetter ? (char) (ch + ('A' - 'a')) : ch);
+                capNextLetter = false;
+            } else if ('A' <= ch && ch <= 'Z') {
+                sb.append(ch);
+                capNextLetter = false;
+            } else if ('0' <= ch && ch <= '9') {
+                sb.append(ch);
+                capNextLetter = true;
+            } else {
+                capNextLetter = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean hasConflictingClassName(Descriptors.FileDescriptor file, String className) {
+        for (Descriptors.EnumDescriptor enumDescriptor : file.getEnumTypes()) {
+            if (enumDescriptor.getName().equals(className)) {
+                return true;
+            }
+        }
+        for (Descriptors.ServiceDescriptor serviceDescriptor : file.getServices()) {
+            if (serviceDescriptor.getName().equals(className)) {
+                return true;
+            }
+        }
+        for (Descriptors.Descriptor messageDescriptor : file.getMessageTypes()) {
+            if (hasConflictingClassName(messageDescriptor, className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasConflictingClassName(Descriptors.Descriptor messageDescriptor, String className) {
+        if (messageDescriptor.getName().equals(className)) {
+            return true;
+        }
+        for (Descriptors.EnumDescriptor enumDescriptor : messageDescriptor.getEnumTypes()) {
+            if (enumDescriptor.getName().equals(className)) {
+                return true;
+            }
+        }
+        for (Descriptors.Descriptor nestedDescriptor : messageDescriptor.getNestedTypes()) {
+            if (hasConflictingClassName(nestedDescriptor, className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
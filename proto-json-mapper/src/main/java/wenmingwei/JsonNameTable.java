@@ -0,0 +1,102 @@
+package wenmingwei;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 字段Json名字(UTF-8字节)到字段计划的开放寻址哈希表，不可变
+ * <p>
+ * 由CodecPlanMessage构建，ByteBufJsonReader扫描名字的同时计算哈希(hash)，再按字节比较，不构建String。
+ */
+final class JsonNameTable {
+
+    private final byte[][] names;
+    private final CodecPlanField[] fields;
+    private final int mask;
+
+    JsonNameTable(CodecPlanField[] planFields) {
+        int capacity = 2;
+        while (capacity < planFields.length * 2) {
+            capacity <<= 1;
+        }
+        this.names = new byte[capacity][];
+        this.fields = new CodecPlanField[capacity];
+        this.mask = capacity - 1;
+
+        for (CodecPlanField field : planFields) {
+            byte[] name = field.jsonName().getBytes(StandardCharsets.UTF_8);
+            int index = index(hash(name, 0, name.length));
+            while (names[index] != null) {
+                index = (index + 1) & mask;
+            }
+            names[index] = name;
+            fields[index] = field;
+        }
+    }
+
+    /**
+     * 累加一个字节的哈希
+     *
+     * @param hash 之前字节的哈希，第一个字节之前为0
+     * @param b    名字的UTF-8字节
+     * @return 哈希
+     */
+    static int hash(int hash, byte b) {
+        return 31 * hash + b;
+    }
+
+    static int hash(byte[] bytes, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = hash(hash, bytes[i]);
+        }
+        return hash;
+    }
+
+    /**
+     * 按字节查找字段
+     *
+     * @param bytes 名字所在的数组
+     * @param start 名字开始位置
+     * @param end   名字结束位置(不含)
+     * @param hash  hash(bytes, start, end)
+     * @return 字段计划，未知字段返回null
+     */
+    CodecPlanField get(byte[] bytes, int start, int end, int hash) {
+        int index = index(hash);
+        byte[] name;
+        while ((name = names[index]) != null) {
+            if (equals(name, bytes, start, end)) {
+                return fields[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * 按名字查找字段，名字中有转义字符时使用
+     *
+     * @param jsonName 字段的Json名字
+     * @return 字段计划，未知字段返回null
+     */
+    CodecPlanField get(String jsonName) {
+        byte[] name = jsonName.getBytes(StandardCharsets.UTF_8);
+        return get(name, 0, name.length, hash(name, 0, name.length));
+    }
+
+    private int index(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static boolean equals(byte[] name, byte[] bytes, int start, int end) {
+        if (name.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (name[i] != bytes[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,94 @@
+package wenmingwei;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 估算Proto.Message编码为Json后的字节数，用于预分配ByteBuf，避免编码过程中扩容拷贝。
+ * <p>
+ * 估算基于两部分:
+ * 1. Message.getSerializedSize()，生成的Message会缓存该值，开销很小
+ * 2. 每种Message类型(Descriptor)最近观测到的 Json字节数/Proto字节数 比例，字段名越长、数值越多，比例越大
+ */
+class JsonSizeEstimator {
+
+    //没有观测数据时使用的比例，字段名和引号通常使Json比Proto二进制大一倍以上
+    private static final float DEFAULT_RATIO = 2.5f;
+    //最小预分配大小，覆盖 "{}" 和少量短字段
+    private static final int MIN_SIZE = 64;
+    //预留余量，尽量一次分配到位
+    private static final float HEADROOM = 1.125f;
+
+    private final ConcurrentMap<Descriptors.Descriptor, Ratio> ratios = new ConcurrentHashMap<>();
+
+    /**
+     * 估算编码后的Json字节数
+     *
+     * @param message Proto.Message对象
+     * @return 估算的字节数
+     */
+    int estimate(Message message) {
+        return estimate(message.getDescriptorForType(), message.getSerializedSize());
+    }
+
+    /**
+     * 估算Proto二进制转换为Json后的字节数
+     *
+     * @param descriptor Message类型
+     * @param protoBytes Proto二进制的字节数
+     * @return 估算的字节数
+     */
+    int estimate(Descriptors.Descriptor descriptor, int protoBytes) {
+        Ratio ratio = ratios.get(descriptor);
+        float value = ratio == null ? DEFAULT_RATIO : ratio.value;
+        long estimated = (long) (protoBytes * value * HEADROOM) + MIN_SIZE;
+        return (int) Math.min(estimated, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * 记录实际编码后的Json字节数，修正该Message类型的比例
+     *
+     * @param message   Proto.Message对象
+     * @param jsonBytes 实际编码后的Json字节数
+     */
+    void record(Message message, int jsonBytes) {
+        record(message.getDescriptorForType(), message.getSerializedSize(), jsonBytes);
+    }
+
+    /**
+     * 记录实际转换后的Json字节数，修正该Message类型的比例
+     *
+     * @param descriptor Message类型
+     * @param protoBytes Proto二进制的字节数
+     * @param jsonBytes  实际转换后的Json字节数
+     */
+    void record(Descriptors.Descriptor descriptor, int protoBytes, int jsonBytes) {
+        if (protoBytes == 0) {
+            return;
+        }
+        float observed = (float) jsonBytes / protoBytes;
+
+        Ratio ratio = ratios.get(descriptor);
+        if (ratio == null) {
+            ratio = new Ratio(observed);
+            Ratio existing = ratios.putIfAbsent(descriptor, ratio);
+            if (existing == null) {
+                return;
+            }
+            ratio = existing;
+        }
+        //指数平滑，避免个别消息导致比例剧烈变化；并发写入丢失个别观测值无影响
+        ratio.value = ratio.value * 0.75f + observed * 0.25f;
+    }
+
+    private static class Ratio {
+        private volatile float value;
+
+        Ratio(float value) {
+            this.value = value;
+        }
+    }
+}
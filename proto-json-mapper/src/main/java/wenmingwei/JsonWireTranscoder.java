@@ -0,0 +1,401 @@
+package wenmingwei;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonToken;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import com.google.protobuf.WireFormat;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Json直接转换为Proto二进制(wire format)，不构建Message.Builder和Message，参考ProtoJsonMapper.transcodeToProto
+ * <p>
+ * 按Json中字段的顺序，边读边写Tag和值。嵌套Message、packed字段和字符串的长度先预留1字节，写完后回填；
+ * 长度超过127字节时，将内容后移让出varint需要的字节。
+ * <p>
+ * 解码规则与CodecPlanMessage.read一致(未知字段和null跳过，proto3非oneof字段的默认值不写入)，结果解析后与decode得到的Message相同。
+ * Json中Message字段、Repeated字段或者Map字段出现多次时，Json的语义(替换)与wire format的语义(合并、追加)不同，返回false由调用者重新转换。
+ * Well-Known Types(开启wellKnownTypes时)按计划解码为Message之后写入。
+ * <p>
+ * 每次转换创建一个实例，非线程安全。
+ */
+final class JsonWireTranscoder {
+
+    private final ByteBufJsonReader in;
+    private final ByteBuf out;
+    private final CodecOptions options;
+
+    private JsonWireTranscoder(ByteBufJsonReader in, ByteBuf out, CodecOptions options) {
+        this.in = in;
+        this.out = out;
+        this.options = options;
+    }
+
+    /**
+     * 读取一个Json对象，转换为Proto二进制写入ByteBuf
+     *
+     * @param in         JsonReader，当前位置为Json对象
+     * @param descriptor Message类型
+     * @param out        写入的ByteBuf，从writerIndex开始写入
+     * @param options    编解码选项
+     * @return 是否转换成功；false时ByteBuf中已写入部分内容，需要改为先解码再序列化
+     * @throws IOException 读取失败时，抛出
+     */
+    static boolean transcode(ByteBufJsonReader in, Descriptors.Descriptor descriptor, ByteBuf out, CodecOptions options) throws IOException {
+        //顶层的null与decode一致(返回null或者抛出异常)，由调用者处理
+        if (in.peek() == JsonToken.NULL
+                && !(options.isWellKnownTypes() && CodecPlanWellKnown.readsNull(descriptor))) {
+            return false;
+        }
+        CodecPlanMessage plan = TypeMapMessage.INSTANCE.lookupCodecPlan(descriptor, options);
+        return new JsonWireTranscoder(in, out, options).writeFields(plan);
+    }
+
+    //写入一个Json对象的所有字段，不写入长度
+    private boolean writeFields(CodecPlanMessage plan) throws IOException {
+        if (plan instanceof CodecPlanWellKnown) {
+            writeWellKnown(plan);
+            return true;
+        }
+
+        in.beginObject();
+        //已经出现过的字段，按Descriptor中的字段序号
+        long seen = 0L;
+        BitSet seenMore = null;
+        while (in.hasNext()) {
+            CodecPlanField field = plan.nextField(in, in);
+            if (field == null || (in.peek() == JsonToken.NULL && !field.readsNull())) {
+                in.skipValue();
+                continue;
+            }
+
+            int index = field.descriptor().getIndex();
+            boolean duplicate;
+            if (index < Long.SIZE) {
+                duplicate = (seen & (1L << index)) != 0;
+                seen |= 1L << index;
+            } else {
+                if (seenMore == null) {
+                    seenMore = new BitSet();
+                }
+                duplicate = seenMore.get(index);
+                seenMore.set(index);
+            }
+            if (!writeField(field, duplicate)) {
+                return false;
+            }
+        }
+        in.endObject();
+        return true;
+    }
+
+    private boolean writeField(CodecPlanField field, boolean duplicate) throws IOException {
+        Descriptors.FieldDescriptor descriptor = field.descriptor();
+        if (duplicate && (descriptor.isRepeated() || field.value() == CodecValue.MESSAGE)) {
+            return false;
+        }
+
+        if (field.isMapField() && options.isMapAsObject()) {
+            return writeMapObject(field);
+        }
+        if (descriptor.isRepeated()) {
+            return writeRepeated(field);
+        }
+        if (field.value() == CodecValue.MESSAGE) {
+            writeTag(descriptor.getNumber(), WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            return writeMessage(field.messagePlan());
+        }
+
+        //proto3的非oneof字段为默认值时与Message.Builder.setField一致，不写入；重复出现的字段覆盖之前的值，需要写入
+        int tagIndex = out.writerIndex();
+        writeTag(descriptor.getNumber(), descriptor.getLiteType().getWireType());
+        int valueIndex = out.writerIndex();
+        writeValue(field);
+        boolean presence = descriptor.getFile().getSyntax() != Descriptors.FileDescriptor.Syntax.PROTO3
+                || descriptor.getContainingOneof() != null || duplicate;
+        if (!presence && isZero(valueIndex)) {
+            out.writerIndex(tagIndex);
+        }
+        return true;
+    }
+
+    //Map字段按Json数组 [{"key": ..., "value": ...}] 时也在这里，元素为MapEntry
+    private boolean writeRepeated(CodecPlanField field) throws IOException {
+        Descriptors.FieldDescriptor descriptor = field.descriptor();
+        int number = descriptor.getNumber();
+        in.beginArray();
+        if (descriptor.isPacked()) {
+            int tagIndex = out.writerIndex();
+            writeTag(number, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            int lengthIndex = beginLength();
+            while (in.hasNext()) {
+                writeValue(field);
+            }
+            if (out.writerIndex() == lengthIndex + 1) {
+                //空数组不写入
+                out.writerIndex(tagIndex);
+            } else {
+                endLength(lengthIndex);
+            }
+        } else if (field.value() == CodecValue.MESSAGE) {
+            while (in.hasNext()) {
+                writeTag(number, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                if (!writeMessage(field.messagePlan())) {
+                    return false;
+                }
+            }
+        } else {
+            int wireType = descriptor.getLiteType().getWireType();
+            while (in.hasNext()) {
+                writeTag(number, wireType);
+                writeValue(field);
+            }
+        }
+        in.endArray();
+        return true;
+    }
+
+    //开启mapAsObject时的Json对象 {"key": value, ...}，每个条目与protoc生成的MapEntry一样写入key和value
+    private boolean writeMapObject(CodecPlanField field) throws IOException {
+        CodecPlanField key = field.mapKey();
+        CodecPlanField value = field.mapValue();
+        int number = field.descriptor().getNumber();
+        in.beginObject();
+        while (in.hasNext()) {
+            Object keyValue = field.parseMapKey(in.nextName());
+            writeTag(number, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            int lengthIndex = beginLength();
+            writeTag(1, key.descriptor().getLiteType().getWireType());
+            writeKey(key.descriptor(), keyValue);
+            if (value.value() == CodecValue.MESSAGE) {
+                writeTag(2, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                if (!writeMessage(value.messagePlan())) {
+                    return false;
+                }
+            } else {
+                writeTag(2, value.descriptor().getLiteType().getWireType());
+                writeValue(value);
+            }
+            endLength(lengthIndex);
+        }
+        in.endObject();
+        return true;
+    }
+
+    private boolean writeMessage(CodecPlanMessage plan) throws IOException {
+        int lengthIndex = beginLength();
+        if (!writeFields(plan)) {
+            return false;
+        }
+        endLength(lengthIndex);
+        return true;
+    }
+
+    //Well-Known Types的Json格式与字段不对应，按计划解码为Message之后写入
+    private void writeWellKnown(CodecPlanMessage plan) throws IOException {
+        Message.Builder builder = options.isDynamic()
+                ? DynamicMessage.newBuilder(plan.descriptor())
+                : TypeMapMessage.INSTANCE.newBuilder(TypeMapMessage.INSTANCE.lookupMessageType(plan.descriptor()));
+        plan.read(in, builder);
+        Message message = builder.build();
+        int size = message.getSerializedSize();
+        out.ensureWritable(size);
+        CodedOutputStream output = CodedOutputStream.newInstance(new ByteBufOutputStream(out), size);
+        message.writeTo(output);
+        output.flush();
+    }
+
+    //与CodecValue的解码规则一致
+    private void writeValue(CodecPlanField field) throws IOException {
+        Descriptors.FieldDescriptor descriptor = field.descriptor();
+        switch (descriptor.getType()) {
+            case DOUBLE:
+                out.writeLongLE(Double.doubleToRawLongBits(CodecValue.readDouble(in)));
+                return;
+            case FLOAT:
+                out.writeIntLE(Float.floatToRawIntBits(CodecValue.readFloat(in)));
+                return;
+            case INT64:
+            case UINT64:
+                writeVarint64(CodecValue.readLong(in));
+                return;
+            case SINT64:
+                writeVarint64(CodedOutputStream.encodeZigZag64(CodecValue.readLong(in)));
+                return;
+            case FIXED64:
+            case SFIXED64:
+                out.writeLongLE(CodecValue.readLong(in));
+                return;
+            case INT32:
+                writeInt32(CodecValue.readInt(in));
+                return;
+            case UINT32:
+                writeVarint32(CodecValue.readInt(in));
+                return;
+            case SINT32:
+                writeVarint32(CodedOutputStream.encodeZigZag32(CodecValue.readInt(in)));
+                return;
+            case FIXED32:
+            case SFIXED32:
+                out.writeIntLE(CodecValue.readInt(in));
+                return;
+            case BOOL:
+                out.writeByte(CodecValue.readBoolean(in) ? 1 : 0);
+                return;
+            case STRING:
+                int lengthIndex = beginLength();
+                if (in.peek() == JsonToken.BOOLEAN) {
+                    ByteBufUtil.writeAscii(out, Boolean.toString(in.nextBoolean()));
+                } else {
+                    in.nextString(out);
+                }
+                endLength(lengthIndex);
+                return;
+            case BYTES:
+                ByteString bytes = TypeAdapterByteString.read(in);
+                writeVarint32(bytes.size());
+                out.writeBytes(bytes.asReadOnlyByteBuffer());
+                return;
+            case ENUM:
+                String name = in.nextString();
+                EnumValueTable table = field.enumValues();
+                Descriptors.EnumValueDescriptor value = table.find(name);
+                if (value == null) {
+                    throw new JsonParseException(table.unknownValueMessage(name));
+                }
+                writeInt32(value.getNumber());
+                return;
+        }
+        throw new IllegalStateException("Should not be here.");
+    }
+
+    //Map的key: Integer/Long/Boolean/String，参考CodecPlanField.parseMapKey
+    private void writeKey(Descriptors.FieldDescriptor descriptor, Object key) {
+        switch (descriptor.getType()) {
+            case INT64:
+            case UINT64:
+                writeVarint64((Long) key);
+                return;
+            case SINT64:
+                writeVarint64(CodedOutputStream.encodeZigZag64((Long) key));
+                return;
+            case FIXED64:
+            case SFIXED64:
+                out.writeLongLE((Long) key);
+                return;
+            case INT32:
+                writeInt32((Integer) key);
+                return;
+            case UINT32:
+                writeVarint32((Integer) key);
+                return;
+            case SINT32:
+                writeVarint32(CodedOutputStream.encodeZigZag32((Integer) key));
+                return;
+            case FIXED32:
+            case SFIXED32:
+                out.writeIntLE((Integer) key);
+                return;
+            case BOOL:
+                out.writeByte((Boolean) key ? 1 : 0);
+                return;
+            case STRING:
+                writeVarint32(ByteBufUtil.utf8Bytes((String) key));
+                ByteBufUtil.writeUtf8(out, (String) key);
+                return;
+        }
+        throw new IllegalStateException("Should not be here.");
+    }
+
+    private void writeTag(int number, int wireType) {
+        writeVarint32(number << 3 | wireType);
+    }
+
+    //int32和enum的负数按64位写入，与CodedOutputStream.writeInt32NoTag一致
+    private void writeInt32(int value) {
+        if (value >= 0) {
+            writeVarint32(value);
+        } else {
+            writeVarint64(value);
+        }
+    }
+
+    private void writeVarint32(int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private void writeVarint64(long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte(((int) value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    //预留1字节的长度，大多数嵌套Message和字符串小于128字节
+    private int beginLength() {
+        int lengthIndex = out.writerIndex();
+        out.writeByte(0);
+        return lengthIndex;
+    }
+
+    private void endLength(int lengthIndex) {
+        int length = out.writerIndex() - lengthIndex - 1;
+        if (length < 0x80) {
+            out.setByte(lengthIndex, length);
+            return;
+        }
+
+        int extra = CodedOutputStream.computeUInt32SizeNoTag(length) - 1;
+        out.ensureWritable(extra);
+        moveRight(lengthIndex + 1, length, extra);
+        out.writerIndex(out.writerIndex() + extra);
+        int index = lengthIndex;
+        while ((length & ~0x7F) != 0) {
+            out.setByte(index++, (length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        out.setByte(index, length);
+    }
+
+    //区间重叠，从后向前拷贝
+    private void moveRight(int from, int length, int distance) {
+        if (out.hasArray()) {
+            byte[] array = out.array();
+            int offset = out.arrayOffset();
+            System.arraycopy(array, offset + from, array, offset + from + distance, length);
+            return;
+        }
+        int i = length;
+        while (i >= Long.BYTES) {
+            i -= Long.BYTES;
+            out.setLong(from + distance + i, out.getLong(from + i));
+        }
+        while (i > 0) {
+            i--;
+            out.setByte(from + distance + i, out.getByte(from + i));
+        }
+    }
+
+    //值的字节都为0即默认值: varint的0、false、第一个Enum值、长度为0的字符串和bytes、+0.0
+    private boolean isZero(int from) {
+        for (int i = from; i < out.writerIndex(); i++) {
+            if (out.getByte(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,186 @@
+package wenmingwei;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Map字段的条目读写
+ * <p>
+ * 优先通过LambdaMetafactory绑定protoc生成的putXxx/getXxxMap(Enum值为putXxxValue/getXxxValueMap)访问方法，
+ * 直接读写Builder内部的Map，不创建MapEntry；找不到访问方法时(如proto2的Enum值)，退回到MapEntry + addRepeatedField。
+ * 计划按Descriptor缓存，同一Descriptor的DynamicMessage等不是protoc生成类的实例，同样使用MapEntry读写。
+ * <p>
+ * Key为Integer/Long/Boolean/String，Value与Message.getField的返回值一致(Enum值为EnumValueDescriptor)。
+ */
+@Slf4j
+abstract class MapFieldAccessor {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    final Descriptors.FieldDescriptor descriptor;
+    final Descriptors.FieldDescriptor keyDescriptor;
+    final Descriptors.FieldDescriptor valueDescriptor;
+
+    private MapFieldAccessor(Descriptors.FieldDescriptor descriptor) {
+        this.descriptor = descriptor;
+        this.keyDescriptor = descriptor.getMessageType().findFieldByNumber(1);
+        this.valueDescriptor = descriptor.getMessageType().findFieldByNumber(2);
+    }
+
+    /**
+     * 写入一个条目，Key相同时覆盖
+     *
+     * @param builder Map字段所属Message的Builder
+     * @param key     Key
+     * @param value   Value
+     */
+    abstract void put(Message.Builder builder, Object key, Object value);
+
+    /**
+     * 按Map的迭代顺序遍历条目
+     *
+     * @param message Map字段所属的Message
+     * @param visitor 条目的处理
+     * @throws IOException visitor抛出
+     */
+    abstract void forEach(Message message, EntryVisitor visitor) throws IOException;
+
+    interface EntryVisitor {
+        void visit(Object key, Object value) throws IOException;
+    }
+
+    interface MapPutter {
+        void put(Message.Builder builder, Object key, Object value);
+    }
+
+    /**
+     * 为Map字段创建访问器，失败时使用MapEntry
+     *
+     * @param descriptor Map字段
+     * @return 访问器
+     */
+    static MapFieldAccessor of(Descriptors.FieldDescriptor descriptor) {
+        try {
+            return bind(descriptor);
+        } catch (Throwable ex) {
+            if (log.isDebugEnabled()) {
+                log.debug("Cannot bind map accessors for field({}), use MapEntry", descriptor.getFullName(), ex);
+            }
+            return new Generic(descriptor);
+        }
+    }
+
+    /**
+     * @param descriptor 字段
+     * @return 通用访问器，使用MapEntry读写，不绑定protoc生成的类，用于DynamicMessage
+     */
+    static MapFieldAccessor generic(Descriptors.FieldDescriptor descriptor) {
+        return new Generic(descriptor);
+    }
+
+    private static MapFieldAccessor bind(Descriptors.FieldDescriptor descriptor) throws Throwable {
+        Class<? extends Message> messageClass = TypeMapMessage.INSTANCE.lookupMessageType(descriptor.getContainingType());
+        Class<?> builderClass = TypeMapMessage.INSTANCE.newBuilder(messageClass).getClass();
+
+        Descriptors.Descriptor entryDescriptor = descriptor.getMessageType();
+        Class<?> keyClass = GeneratedAccessors.valueClass(entryDescriptor.findFieldByNumber(1).getJavaType());
+        boolean enumValue = entryDescriptor.findFieldByNumber(2).getJavaType() == Descriptors.FieldDescriptor.JavaType.ENUM;
+
+        String name = GeneratedAccessors.accessorName(descriptor);
+        //Enum值使用编号读写，proto2的Enum值没有putXxxValue，绑定失败时使用MapEntry
+        String suffix = enumValue ? "Value" : "";
+        Class<?> valueClass = enumValue
+                ? int.class
+                : messageClass.getMethod("get" + name + "OrThrow", keyClass).getReturnType();
+
+        MethodHandle put = LOOKUP.findVirtual(builderClass, "put" + name + suffix,
+                MethodType.methodType(builderClass, keyClass, valueClass));
+        MethodHandle getMap = LOOKUP.findVirtual(messageClass, "get" + name + suffix + "Map",
+                MethodType.methodType(Map.class));
+
+        //LambdaMetafactory负责Key/Value的拆箱
+        MapPutter putter = GeneratedAccessors.bind(MapPutter.class,
+                put, put.type().changeReturnType(void.class).wrap().changeReturnType(void.class));
+        Function<Message, Map<?, ?>> getter = GeneratedAccessors.bind(Function.class, getMap, getMap.type());
+        return new Bound(descriptor, messageClass, builderClass, putter, getter, enumValue);
+    }
+
+    //通过MapEntry读写，与Message.Builder.addRepeatedField/Message.getRepeatedField一致
+    private static final class Generic extends MapFieldAccessor {
+
+        Generic(Descriptors.FieldDescriptor descriptor) {
+            super(descriptor);
+        }
+
+        @Override
+        void put(Message.Builder builder, Object key, Object value) {
+            Message.Builder entryBuilder = builder.newBuilderForField(descriptor);
+            entryBuilder.setField(keyDescriptor, key);
+            entryBuilder.setField(valueDescriptor, value);
+            builder.addRepeatedField(descriptor, entryBuilder.build());
+        }
+
+        @Override
+        void forEach(Message message, EntryVisitor visitor) throws IOException {
+            int count = message.getRepeatedFieldCount(descriptor);
+            for (int i = 0; i < count; i++) {
+                Message entry = (Message) message.getRepeatedField(descriptor, i);
+                visitor.visit(entry.getField(keyDescriptor), entry.getField(valueDescriptor));
+            }
+        }
+    }
+
+    //通过protoc生成的访问方法读写，其它实现(例如同一Descriptor的DynamicMessage)使用MapEntry
+    private static final class Bound extends MapFieldAccessor {
+        private final Class<?> messageClass;
+        private final Class<?> builderClass;
+        private final MapPutter putter;
+        private final Function<Message, Map<?, ?>> getter;
+        private final boolean enumValue;
+        private final Generic generic;
+
+        Bound(Descriptors.FieldDescriptor descriptor, Class<?> messageClass, Class<?> builderClass,
+              MapPutter putter, Function<Message, Map<?, ?>> getter, boolean enumValue) {
+            super(descriptor);
+            this.messageClass = messageClass;
+            this.builderClass = builderClass;
+            this.putter = putter;
+            this.getter = getter;
+            this.enumValue = enumValue;
+            this.generic = new Generic(descriptor);
+        }
+
+        @Override
+        void put(Message.Builder builder, Object key, Object value) {
+            if (!builderClass.isInstance(builder)) {
+                generic.put(builder, key, value);
+                return;
+            }
+            putter.put(builder, key, enumValue ? ((Descriptors.EnumValueDescriptor) value).getNumber() : value);
+        }
+
+        @Override
+        void forEach(Message message, EntryVisitor visitor) throws IOException {
+            if (!messageClass.isInstance(message)) {
+                generic.forEach(message, visitor);
+                return;
+            }
+            for (Map.Entry<?, ?> entry : getter.apply(message).entrySet()) {
+                Object value = entry.getValue();
+                if (enumValue) {
+                    //未知编号与Message.getField一样，创建未知的EnumValueDescriptor
+                    value = valueDescriptor.getEnumType().findValueByNumberCreatingIfUnknown((Integer) value);
+                }
+                visitor.visit(entry.getKey(), value);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package wenmingwei;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import com.google.protobuf.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * 逐条解码NDJSON(每行一个Json对象)的Spliterator
+ * <p>
+ * 同一个Spliterator的所有记录共用一个Reader和JsonReader，不再为每条记录创建解析器和缓冲区。
+ * 记录之间可以有任意空白(包括空行)。
+ * <p>
+ * 数据源为ByteBuf时，在开始读取前可以按换行符拆分为前后两段，分别在不同线程中解码；
+ * 此时每条记录必须在同一行内(NDJSON的要求)，否则拆分点可能落在记录中间。数据源为Reader时不可拆分。
+ */
+final class NdjsonSpliterator implements Spliterator<Message> {
+
+    //小于该字节数时不再拆分，避免任务过碎
+    private static final int MIN_SPLIT_SIZE = 1 << 16;
+
+    //protoc生成的类为Gson.getAdapter得到的TypeAdapter，DynamicMessage为TypeAdapterStreamingProtoMessage
+    private final TypeAdapter<? extends Message> adapter;
+
+    //可拆分的数据源: buf的[start, end)，第一次读取时创建Reader
+    private final ByteBuf buf;
+    private int start;
+    private final int end;
+
+    private JsonReader reader;
+    private boolean started;
+
+    NdjsonSpliterator(TypeAdapter<? extends Message> adapter, ByteBuf buf, int start, int end) {
+        this.adapter = adapter;
+        this.buf = buf;
+        this.start = start;
+        this.end = end;
+    }
+
+    NdjsonSpliterator(TypeAdapter<? extends Message> adapter, Reader reader) {
+        this.adapter = adapter;
+        this.buf = null;
+        this.start = 0;
+        this.end = 0;
+        this.reader = newJsonReader(reader);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Message> action) {
+        if (reader == null) {
+            reader = newJsonReader(new InputStreamReader(
+                    new ByteBufInputStream(buf.slice(start, end - start)),
+                    StandardCharsets.UTF_8  //只支持UTF8编码的Json。
+            ));
+        }
+
+        try {
+            if (reader.peek() == JsonToken.END_DOCUMENT) {
+                return false;
+            }
+        } catch (EOFException ex) {
+            //没有任何记录(空内容或者只有空白)时，第一次peek抛出EOFException
+            if (!started) {
+                return false;
+            }
+            throw new JsonSyntaxException(ex);
+        } catch (MalformedJsonException ex) {
+            throw new JsonSyntaxException(ex);
+        } catch (IOException ex) {
+            throw new JsonIOException(ex);
+        }
+
+        started = true;
+        action.accept(read());
+        return true;
+    }
+
+    //与 Gson.fromJson(JsonReader, Type) 一致，解析错误包装为JsonSyntaxException
+    private Message read() {
+        try {
+            return adapter.read(reader);
+        } catch (IllegalStateException | IOException ex) {
+            throw new JsonSyntaxException(ex);
+        }
+    }
+
+    @Override
+    public Spliterator<Message> trySplit() {
+        if (buf == null || reader != null || end - start < MIN_SPLIT_SIZE) {
+            return null;
+        }
+
+        //在中点之后的第一个换行符处拆分，前一段交给新的Spliterator
+        int lineFeed = buf.indexOf(start + (end - start) / 2, end, (byte) '\n');
+        if (lineFeed < 0) {
+            return null;
+        }
+        Spliterator<Message> prefix = new NdjsonSpliterator(adapter, buf, start, lineFeed + 1);
+        start = lineFeed + 1;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    private static JsonReader newJsonReader(Reader reader) {
+        JsonReader ret = new JsonReader(reader);
+        //允许多个顶层Json值；Gson.fromJson在解码每条记录时同样使用lenient模式
+        ret.setLenient(true);
+        return ret;
+    }
+}
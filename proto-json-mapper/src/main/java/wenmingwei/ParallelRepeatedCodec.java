@@ -0,0 +1,222 @@
+package wenmingwei;
+
+import com.google.protobuf.Message;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 在ForkJoinPool中分段并行编解码元素很多的Repeated Message字段，参考ProtoJsonMapperConfig.parallelThreshold
+ * <p>
+ * 元素按下标切分为连续的段，每段一个任务；结果按段的顺序拼接，元素顺序不变，输出与逐个编解码逐字节一致。
+ * 编码: 每段写入单独的ByteBuf(紧凑格式)，再按顺序拷贝到ByteBufJsonWriter，只支持ByteBufJsonWriter。
+ * 解码: 先跳过整个数组记录每个元素的位置(不解码)，每段通过共享缓冲区的ByteBufJsonReader解码，只支持ByteBufJsonReader。
+ * 第一段由调用线程处理；之后等待时按ForkJoinPool的规则帮助执行任务，在同一个池的工作线程中调用也不会死锁。
+ * ForkJoinPool取自ByteBufJsonWriter/ByteBufJsonReader(由ProtoJsonMapper设置)，计划在ProtoJsonMapper之间共享时也使用各自的池。
+ */
+final class ParallelRepeatedCodec {
+
+    //每段至少的元素数，避免任务过碎
+    private static final int MIN_CHUNK_SIZE = 256;
+    //每个工作线程平均的段数，段数多一些可以平衡元素大小不均
+    private static final int CHUNKS_PER_THREAD = 4;
+    //Json对象的元素至少 "{}," 三个字节，剩余字节不够时不用扫描就知道元素个数不到阈值
+    private static final int MIN_ELEMENT_BYTES = 3;
+
+    private ParallelRepeatedCodec() {
+    }
+
+    /**
+     * @param options 编解码选项
+     * @param count   Repeated字段的元素个数
+     * @param out     JsonWriter
+     * @return 是否并行编码
+     */
+    static boolean supports(CodecOptions options, int count, Object out) {
+        return options.getParallelThreshold() > 0 && count >= options.getParallelThreshold() && out instanceof ByteBufJsonWriter;
+    }
+
+    /**
+     * @param options 编解码选项
+     * @param in      JsonReader，当前位置为Repeated字段的Json数组
+     * @return 是否可能并行解码，元素个数在扫描后才能确定
+     */
+    static boolean supports(CodecOptions options, Object in) {
+        return options.getParallelThreshold() > 0
+                && in instanceof ByteBufJsonReader
+                && ((ByteBufJsonReader) in).remaining() >= options.getParallelThreshold() * MIN_ELEMENT_BYTES;
+    }
+
+    /**
+     * 编码Repeated Message字段的所有元素，调用前后由调用者写入字段名和数组的开始、结束
+     *
+     * @param out        ByteBufJsonWriter，当前位置在数组内
+     * @param message    字段所属的Message
+     * @param field      Repeated Message字段的编解码计划
+     * @param projection 元素的投影，ALL时写入整个元素
+     * @throws IOException 写入失败时，抛出
+     */
+    static void write(ByteBufJsonWriter out, Message message, CodecPlanField field, CodecProjection projection) throws IOException {
+        int count = message.getRepeatedFieldCount(field.descriptor());
+        ForkJoinPool pool = pool(out.getParallelPool());
+        int chunkSize = chunkSize(pool, count);
+
+        List<ForkJoinTask<ByteBuf>> tasks = new ArrayList<>((count + chunkSize - 1) / chunkSize);
+        try {
+            //第一段由调用线程编码，直接写入，其它段提交到ForkJoinPool
+            for (int from = chunkSize; from < count; from += chunkSize) {
+                int chunkFrom = from;
+                int chunkTo = Math.min(count, from + chunkSize);
+                tasks.add(pool.submit(() -> writeChunk(out, message, field, projection, chunkFrom, chunkTo)));
+            }
+            CodecPlanMessage plan = field.messagePlan();
+            for (int i = 0, first = Math.min(count, chunkSize); i < first; i++) {
+                plan.write(out, (Message) message.getRepeatedField(field.descriptor(), i), projection);
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+                ByteBuf chunk = join(tasks.get(i));
+                try {
+                    //去掉每段的 '[' 和 ']'
+                    out.rawValue(chunk, chunk.readerIndex() + 1, chunk.readableBytes() - 2);
+                } finally {
+                    chunk.release();
+                    tasks.set(i, null);
+                }
+            }
+        } finally {
+            //失败时等待其它任务结束，释放已经编码的段；取消正在执行的任务会丢失其结果，无法释放
+            for (ForkJoinTask<ByteBuf> task : tasks) {
+                if (task != null) {
+                    task.quietlyJoin();
+                    if (task.isCompletedNormally()) {
+                        task.getRawResult().release();
+                    }
+                }
+            }
+        }
+    }
+
+    private static ByteBuf writeChunk(ByteBufJsonWriter out, Message message, CodecPlanField field,
+                                      CodecProjection projection, int from, int to) throws IOException {
+        ByteBuf chunk = out.alloc().heapBuffer();
+        try {
+            ByteBufJsonWriter writer = new ByteBufJsonWriter(chunk);
+            writer.setHtmlSafe(out.isHtmlSafe());
+            writer.setSerializeNulls(out.getSerializeNulls());
+            writer.setParallelPool(out.getParallelPool());
+            writer.beginArray();
+            CodecPlanMessage plan = field.messagePlan();
+            for (int i = from; i < to; i++) {
+                plan.write(writer, (Message) message.getRepeatedField(field.descriptor(), i), projection);
+            }
+            writer.endArray();
+            return chunk;
+        } catch (IOException | RuntimeException ex) {
+            chunk.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * 解码Repeated Message字段的Json数组，按顺序添加到Message.Builder
+     * <p>
+     * 元素个数不到阈值时在当前线程中解码。
+     *
+     * @param in         ByteBufJsonReader，当前位置为字段值(Json数组)
+     * @param builder    字段所属Message的Builder
+     * @param field      Repeated Message字段的编解码计划
+     * @param projection 元素的投影，ALL时读取整个元素
+     * @throws IOException 读取失败时，抛出
+     */
+    static void read(ByteBufJsonReader in, Message.Builder builder, CodecPlanField field, CodecProjection projection) throws IOException {
+        int[] offsets = in.skipArrayElements();
+        int count = offsets.length - 1;
+        //元素的Builder都从同一个默认实例创建，任务中不访问父Builder
+        Message prototype = builder.newBuilderForField(field.descriptor()).getDefaultInstanceForType();
+
+        if (count < field.options().getParallelThreshold()) {
+            for (Message element : readChunk(in, prototype, field, projection, offsets, 0, count)) {
+                builder.addRepeatedField(field.descriptor(), element);
+            }
+            return;
+        }
+
+        ForkJoinPool pool = pool(in.getParallelPool());
+        int chunkSize = chunkSize(pool, count);
+        List<ForkJoinTask<List<Message>>> tasks = new ArrayList<>((count + chunkSize - 1) / chunkSize);
+        try {
+            //第一段由调用线程解码，其它段提交到ForkJoinPool
+            for (int from = chunkSize; from < count; from += chunkSize) {
+                int chunkFrom = from;
+                int chunkTo = Math.min(count, from + chunkSize);
+                tasks.add(pool.submit(() -> readChunk(in, prototype, field, projection, offsets, chunkFrom, chunkTo)));
+            }
+            for (Message element : readChunk(in, prototype, field, projection, offsets, 0, Math.min(count, chunkSize))) {
+                builder.addRepeatedField(field.descriptor(), element);
+            }
+            for (ForkJoinTask<List<Message>> task : tasks) {
+                for (Message element : join(task)) {
+                    builder.addRepeatedField(field.descriptor(), element);
+                }
+            }
+        } finally {
+            for (ForkJoinTask<List<Message>> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private static List<Message> readChunk(ByteBufJsonReader in, Message prototype, CodecPlanField field,
+                                           CodecProjection projection, int[] offsets, int from, int to) throws IOException {
+        ByteBufJsonReader reader = new ByteBufJsonReader(in, offsets[from], offsets[to], from);
+        CodecPlanMessage plan = field.messagePlan();
+        List<Message> elements = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            Message.Builder elementBuilder = prototype.newBuilderForType();
+            plan.read(reader, elementBuilder, projection);
+            elements.add(elementBuilder.build());
+        }
+        return elements;
+    }
+
+    private static ForkJoinPool pool(ForkJoinPool pool) {
+        return pool != null ? pool : ForkJoinPool.commonPool();
+    }
+
+    private static int chunkSize(ForkJoinPool pool, int count) {
+        int chunks = pool.getParallelism() * CHUNKS_PER_THREAD;
+        return Math.max(MIN_CHUNK_SIZE, (count + chunks - 1) / chunks);
+    }
+
+    //按原样抛出任务中的异常
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for parallel codec task");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            //ForkJoinTask把其它线程抛出的异常包装为同类型的新异常，取出原来的异常
+            if (cause.getCause() != null && cause.getCause().getClass() == cause.getClass()) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
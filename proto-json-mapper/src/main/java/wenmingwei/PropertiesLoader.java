@@ -5,7 +5,9 @@ import com.google.common.base.Strings;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.BufferedReader;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -17,7 +19,32 @@ import java.util.Properties;
 @Slf4j
 class PropertiesLoader {
 
+    //加载可选的配置：未通过-D指定，并且默认配置文件不存在时返回空配置；
+    //通过-D指定的配置文件不存在，或者配置文件格式错误时抛出IllegalStateException，不能带着错误的配置启动
+    Properties loadOptionalProperties(String propertyKey, String defaultUri) {
+        boolean optional = System.getProperty(propertyKey) == null;
+        try {
+            Properties properties = loadProperties(propertyKey, defaultUri, optional);
+            if (properties == null) {
+                //未指定配置，并且默认配置文件不存在
+                if (log.isDebugEnabled()) {
+                    log.debug("Optional properties({}) not found, skip it.", defaultUri);
+                }
+                return new Properties();
+            }
+            return properties;
+        } catch (IOException | RuntimeException ex) {
+            log.error("Failed to load properties({}).", System.getProperty(propertyKey, defaultUri), ex);
+            throw new IllegalStateException("Failed to load properties(" + System.getProperty(propertyKey, defaultUri) + ")", ex);
+        }
+    }
+
     Properties loadProperties(String propertyKey, String defaultUri) throws IOException {
+        return loadProperties(propertyKey, defaultUri, false);
+    }
+
+    //missingAsNull为true时，配置文件不存在返回null，否则抛出FileNotFoundException
+    private Properties loadProperties(String propertyKey, String defaultUri, boolean missingAsNull) throws IOException {
         String propertiesURI = System.getProperty(propertyKey, defaultUri);
 
         if (log.isDebugEnabled()) {
@@ -57,22 +84,23 @@ class PropertiesLoader {
             }
             path = path.trim();
             Preconditions.checkArgument(!Strings.isNullOrEmpty(path), "Path is empty(" + propertiesURI + ")");
-            try (
-                    InputStreamReader reader =
-                            new InputStreamReader(
-                                    Preconditions.checkNotNull(
-                                            Thread.currentThread().getContextClassLoader().getResourceAsStream(path),
-                                            "Resource from classpath(" + propertiesURI + ") is NULL"
-                                    ),
-                                    StandardCharsets.UTF_8
-                            )
-            ) {
+            InputStream resource = Thread.currentThread().getContextClassLoader().getResourceAsStream(path);
+            if (resource == null) {
+                if (missingAsNull) {
+                    return null;
+                }
+                throw new FileNotFoundException("Resource from classpath(" + propertiesURI + ") is NULL");
+            }
+            try (InputStreamReader reader = new InputStreamReader(resource, StandardCharsets.UTF_8)) {
                 properties.load(reader);
             }
         } else if ("file".equalsIgnoreCase(scheme)) {
             if (log.isDebugEnabled()) {
                 log.debug("Loading from filesystem.({})", uri);
             }
+            if (missingAsNull && !Files.exists(Paths.get(uri))) {
+                return null;
+            }
             try (
                     BufferedReader reader =
                             Files.newBufferedReader(
@@ -0,0 +1,211 @@
+package wenmingwei;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.protobuf.AnyProto;
+import com.google.protobuf.ApiProto;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DurationProto;
+import com.google.protobuf.EmptyProto;
+import com.google.protobuf.FieldMaskProto;
+import com.google.protobuf.SourceContextProto;
+import com.google.protobuf.StructProto;
+import com.google.protobuf.TimestampProto;
+import com.google.protobuf.TypeProto;
+import com.google.protobuf.WrappersProto;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 从二进制FileDescriptorSet(protoc --descriptor_set_out --include_imports)加载的Proto类型，不需要protoc生成的类
+ * <p>
+ * 加载时只建立Message全名到.proto文件的索引；FileDescriptor在第一次查找其中的类型时连同依赖一起构建，之后一直有效。
+ * 集合中缺少的google/protobuf/*.proto依赖使用protobuf-java自带的描述。线程安全。
+ */
+@Slf4j
+public class ProtoDescriptorSet {
+
+    //protobuf-java自带的Well-Known Types
+    private static final Map<String, Descriptors.FileDescriptor> BUILT_IN;
+
+    static {
+        Map<String, Descriptors.FileDescriptor> builtIn = new HashMap<>();
+        for (Descriptors.FileDescriptor file : new Descriptors.FileDescriptor[]{
+                AnyProto.getDescriptor(), ApiProto.getDescriptor(), DescriptorProtos.getDescriptor(),
+                DurationProto.getDescriptor(), EmptyProto.getDescriptor(), FieldMaskProto.getDescriptor(),
+                SourceContextProto.getDescriptor(), StructProto.getDescriptor(), TimestampProto.getDescriptor(),
+                TypeProto.getDescriptor(), WrappersProto.getDescriptor()}) {
+            builtIn.put(file.getName(), file);
+        }
+        BUILT_IN = Collections.unmodifiableMap(builtIn);
+    }
+
+    //文件名 -> 文件描述
+    private final Map<String, DescriptorProtos.FileDescriptorProto> files;
+    //Message全名(包括嵌套类型) -> 文件名
+    private final Map<String, String> messageFiles;
+
+    private final ConcurrentMap<String, Descriptors.FileDescriptor> built = new ConcurrentHashMap<>();
+
+    private ProtoDescriptorSet(DescriptorProtos.FileDescriptorSet descriptorSet) {
+        Map<String, DescriptorProtos.FileDescriptorProto> tempFiles = new HashMap<>();
+        Map<String, String> tempMessageFiles = new HashMap<>();
+        for (DescriptorProtos.FileDescriptorProto file : descriptorSet.getFileList()) {
+            tempFiles.put(file.getName(), file);
+            String prefix = file.getPackage().isEmpty() ? "" : file.getPackage() + ".";
+            indexMessages(file.getName(), prefix, file.getMessageTypeList(), tempMessageFiles);
+        }
+        this.files = Collections.unmodifiableMap(tempFiles);
+        this.messageFiles = Collections.unmodifiableMap(tempMessageFiles);
+    }
+
+    /**
+     * @param descriptorSet FileDescriptorSet
+     * @return 类型集合
+     */
+    public static ProtoDescriptorSet of(DescriptorProtos.FileDescriptorSet descriptorSet) {
+        return new ProtoDescriptorSet(descriptorSet);
+    }
+
+    /**
+     * 读取二进制FileDescriptorSet，不关闭InputStream
+     *
+     * @param in 二进制FileDescriptorSet
+     * @return 类型集合
+     * @throws IOException 读取或者解析失败时，抛出
+     */
+    public static ProtoDescriptorSet parseFrom(InputStream in) throws IOException {
+        return of(DescriptorProtos.FileDescriptorSet.parseFrom(in));
+    }
+
+    /**
+     * 按URI读取二进制FileDescriptorSet，支持 classpath:///path 和 file:///path
+     *
+     * @param uri 文件位置
+     * @return 类型集合
+     * @throws IOException 读取或者解析失败时，抛出
+     */
+    public static ProtoDescriptorSet load(String uri) throws IOException {
+        if (log.isDebugEnabled()) {
+            log.debug("Loading FileDescriptorSet from uri {}", uri);
+        }
+
+        URI parsed = URI.create(uri);
+        String scheme = parsed.getScheme();
+        String path = parsed.getPath();
+        Preconditions.checkArgument(scheme != null, "Scheme of uri(" + uri + ") is NULL.");
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(path), "Path of uri(" + uri + ") is empty.");
+
+        if ("classpath".equalsIgnoreCase(scheme)) {
+            while (path.startsWith("/")) {
+                path = path.substring(1);
+            }
+            try (InputStream in = Preconditions.checkNotNull(
+                    Thread.currentThread().getContextClassLoader().getResourceAsStream(path),
+                    "Resource from classpath(" + uri + ") is NULL")) {
+                return parseFrom(in);
+            }
+        } else if ("file".equalsIgnoreCase(scheme)) {
+            try (InputStream in = Files.newInputStream(Paths.get(parsed))) {
+                return parseFrom(in);
+            }
+        }
+        throw new IllegalArgumentException("Scheme of uri(" + uri + ") is NOT supported.");
+    }
+
+    /**
+     * 查找Message类型，第一次查找时构建所在的FileDescriptor及其依赖
+     *
+     * @param fullName Message全名，例如 sample.All、sample.All.Inner
+     * @return Message格式描述，可用于DynamicMessage
+     * @throws IllegalArgumentException 类型不存在，或者.proto文件及其依赖无法构建时，抛出
+     */
+    public Descriptors.Descriptor findMessageType(String fullName) {
+        String fileName = messageFiles.get(fullName);
+        if (fileName == null) {
+            throw new IllegalArgumentException("Message type(" + fullName + ") is NOT found in FileDescriptorSet.");
+        }
+        Descriptors.FileDescriptor file = buildFile(fileName);
+
+        String packageName = file.getPackage();
+        String relativeName = packageName.isEmpty() ? fullName : fullName.substring(packageName.length() + 1);
+        String[] names = relativeName.split("\\.");
+        Descriptors.Descriptor descriptor = file.findMessageTypeByName(names[0]);
+        for (int i = 1; i < names.length && descriptor != null; i++) {
+            descriptor = descriptor.findNestedTypeByName(names[i]);
+        }
+        if (descriptor == null) {
+            throw new IllegalStateException("Message type(" + fullName + ") is NOT found in " + fileName);
+        }
+        return descriptor;
+    }
+
+    private Descriptors.FileDescriptor buildFile(String fileName) {
+        Descriptors.FileDescriptor file = built.get(fileName);
+        if (file != null) {
+            return file;
+        }
+        synchronized (this) {
+            return buildFile(fileName, new ArrayDeque<>());
+        }
+    }
+
+    //递归构建依赖，building用于检查循环依赖
+    private Descriptors.FileDescriptor buildFile(String fileName, Deque<String> building) {
+        Descriptors.FileDescriptor file = built.get(fileName);
+        if (file != null) {
+            return file;
+        }
+
+        DescriptorProtos.FileDescriptorProto proto = files.get(fileName);
+        if (proto == null) {
+            file = BUILT_IN.get(fileName);
+            if (file == null) {
+                throw new IllegalArgumentException("Dependency(" + fileName + ") is NOT found in FileDescriptorSet, building " + building);
+            }
+            return file;
+        }
+        if (building.contains(fileName)) {
+            throw new IllegalArgumentException("Circular dependency of " + fileName + ", building " + building);
+        }
+
+        building.push(fileName);
+        List<String> dependencyNames = proto.getDependencyList();
+        Descriptors.FileDescriptor[] dependencies = new Descriptors.FileDescriptor[dependencyNames.size()];
+        for (int i = 0; i < dependencies.length; i++) {
+            dependencies[i] = buildFile(dependencyNames.get(i), building);
+        }
+        building.pop();
+
+        try {
+            file = Descriptors.FileDescriptor.buildFrom(proto, dependencies);
+        } catch (Descriptors.DescriptorValidationException ex) {
+            throw new IllegalArgumentException("Failed to build " + fileName + " from FileDescriptorSet", ex);
+        }
+        built.put(fileName, file);
+        return file;
+    }
+
+    private static void indexMessages(String fileName, String prefix, List<DescriptorProtos.DescriptorProto> messages,
+                                      Map<String, String> messageFiles) {
+        for (DescriptorProtos.DescriptorProto message : messages) {
+            String fullName = prefix + message.getName();
+            messageFiles.put(fullName, fileName);
+            indexMessages(fileName, fullName + ".", message.getNestedTypeList(), messageFiles);
+        }
+    }
+}
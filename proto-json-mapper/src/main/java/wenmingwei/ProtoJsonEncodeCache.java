@@ -0,0 +1,169 @@
+package wenmingwei;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.protobuf.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 不可变热点Proto.Message的Json编码缓存，位于ProtoJsonMapper之前
+ * <p>
+ * 缓存 encode(Message, ByteBuf) 的紧凑格式UTF-8字节，命中时不再编码。按字节数限制总大小，超过时按LRU淘汰(Guava Cache，分段近似LRU)。
+ * 缓存的是非池化的Heap ByteBuf(只读)，每次返回retainedDuplicate，多个调用者可以同时写入不同的Channel。
+ * 缓存从不释放条目的ByteBuf，淘汰时只丢弃引用，由GC回收: 池化的ByteBuf释放后会被其它分配复用，
+ * 查找与retain之间被并发淘汰时会拿到别人的内容，非池化且不释放的ByteBuf不会被复用，已经返回的ByteBuf始终有效。
+ * <p>
+ * Key有两种方式，参考KeyMode：
+ * 1. IDENTITY: 按对象身份(==)，弱引用，Message不再被引用后条目随GC清除；适合常驻内存的参考数据对象
+ * 2. CONTENT: 按内容(Message.equals/hashCode)，内容相同的不同对象共享一份编码；每次查找需要计算哈希(protoc生成的类会缓存)和比较内容
+ * <p>
+ * Message必须是不可变的(protoc生成的类和DynamicMessage都是)。超过maximumBytes/4(Guava Cache默认的分段数)的编码结果不会留在缓存中。线程安全。
+ */
+public class ProtoJsonEncodeCache {
+
+    public enum KeyMode {
+        IDENTITY,
+        CONTENT
+    }
+
+    private final ProtoJsonMapper mapper;
+    private final ByteBufAllocator allocator;
+    private final Cache<Message, ByteBuf> cache;
+    //当前缓存的字节数
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * @param mapper       编码使用的ProtoJsonMapper
+     * @param maximumBytes 缓存的最大字节数(Json字节)
+     * @param keyMode      Key的方式
+     */
+    public ProtoJsonEncodeCache(ProtoJsonMapper mapper, long maximumBytes, KeyMode keyMode) {
+        this(mapper, maximumBytes, keyMode, ByteBufAllocator.DEFAULT);
+    }
+
+    /**
+     * @param mapper       编码使用的ProtoJsonMapper
+     * @param maximumBytes 缓存的最大字节数(Json字节)
+     * @param keyMode      Key的方式
+     * @param allocator    未命中时编码使用的临时ByteBuf的分配器，编码结果拷贝到非池化的Heap ByteBuf后缓存
+     */
+    public ProtoJsonEncodeCache(ProtoJsonMapper mapper, long maximumBytes, KeyMode keyMode, ByteBufAllocator allocator) {
+        Preconditions.checkArgument(maximumBytes > 0, "maximumBytes(" + maximumBytes + ") must be positive");
+        this.mapper = Preconditions.checkNotNull(mapper, "mapper");
+        this.allocator = Preconditions.checkNotNull(allocator, "allocator");
+
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+        if (keyMode == KeyMode.IDENTITY) {
+            //弱引用的Key按身份(==)比较
+            builder.weakKeys();
+        }
+        this.cache = builder
+                .maximumWeight(maximumBytes)
+                .<Message, ByteBuf>weigher((message, json) -> json.capacity())
+                .removalListener(this::onRemoval)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 编码Proto.Message，命中时直接返回缓存的字节
+     *
+     * @param message 不可变的Proto.Message对象
+     * @return 只读的Json ByteBuf，与缓存共享内容，由调用者负责释放
+     */
+    public ByteBuf encode(Message message) {
+        //缓存的ByteBuf不会被释放，淘汰之后retain也是安全的
+        return lookup(message).retainedDuplicate();
+    }
+
+    /**
+     * 编码Proto.Message，写入ByteBuf，命中时直接拷贝缓存的字节
+     *
+     * @param message 不可变的Proto.Message对象
+     * @param out     写入的ByteBuf，从writerIndex开始写入
+     */
+    public void encode(Message message, ByteBuf out) {
+        ByteBuf json = encode(message);
+        try {
+            out.writeBytes(json, json.readerIndex(), json.readableBytes());
+        } finally {
+            json.release();
+        }
+    }
+
+    /**
+     * @return 命中、未命中、淘汰次数等统计，自创建以来累计
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return 当前缓存的字节数
+     */
+    public long sizeInBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return 当前缓存的条目数，近似值
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * 清除所有条目，已经返回的ByteBuf不受影响
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private ByteBuf lookup(Message message) {
+        try {
+            return cache.get(message, () -> load(message));
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError ex) {
+            //load没有受检异常
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private ByteBuf load(Message message) {
+        ByteBuf encoded = mapper.encode(message, allocator);
+        byte[] json;
+        try {
+            //按实际大小保存，预留的空间不占用缓存
+            json = ByteBufUtil.getBytes(encoded);
+        } finally {
+            encoded.release();
+        }
+        bytes.addAndGet(json.length);
+        return Unpooled.wrappedBuffer(json).asReadOnly();
+    }
+
+    //只丢弃引用，不释放ByteBuf，参考类的说明
+    private void onRemoval(RemovalNotification<Message, ByteBuf> notification) {
+        ByteBuf json = notification.getValue();
+        if (json != null) {
+            bytes.addAndGet(-json.capacity());
+        }
+    }
+}
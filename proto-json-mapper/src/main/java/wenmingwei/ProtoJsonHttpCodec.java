@@ -0,0 +1,516 @@
+package wenmingwei;
+
+import com.google.gson.JsonParseException;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Http Json请求体与Proto.Message之间的Netty编解码器，放在HttpServerCodec之后，不需要HttpObjectAggregator
+ * <p>
+ * 解码: 按ProtoJsonRoutes找到请求体的Proto.Message类型，解码为ProtoJsonRequest；没有绑定的请求原样传给下一个Handler。
+ * 1. 没有配置offloadExecutor，或者Content-Length不超过offloadThreshold时，在EventLoop中随着HttpContent的到达增量解码(IncrementalProtoJsonDecoder)
+ * 2. 配置了offloadExecutor，并且Content-Length超过offloadThreshold或者长度未知(Transfer-Encoding: chunked)时，先收集请求体，
+ * 收齐后按实际收到的字节数决定: 超过offloadThreshold时交给offloadExecutor解码，期间通过ChannelReadSuspension暂停读取(autoRead)，
+ * 后续收到的消息暂存，解码完成后在EventLoop中按顺序继续处理；否则直接在EventLoop中解码
+ * <p>
+ * Json格式错误、Content-Length格式错误时直接回复 400 Bad Request，请求体超过maxContentLength时回复 413 Request Entity Too Large，
+ * 并丢弃该请求剩余的内容。
+ * <p>
+ * 编码: Proto.Message编码为 200 OK 的响应，响应体写入池化的ByteBuf。不超过responseChunkSize时为设置了Content-Length的FullHttpResponse，
+ * 超过时为Transfer-Encoding: chunked的HttpResponse，响应体按responseChunkSize分成多个HttpContent。
+ * ProtoJsonStreamResponse编码为NDJSON的流式响应，每条记录一个HttpContent。
+ * <p>
+ * 每个Channel一个实例。Keep-Alive由前面的HttpServerKeepAliveHandler处理。
+ */
+@Slf4j
+public class ProtoJsonHttpCodec extends MessageToMessageCodec<HttpObject, Object> {
+
+    //默认超过256KB的请求体交给offloadExecutor解码
+    public static final int DEFAULT_OFFLOAD_THRESHOLD = 256 * 1024;
+    //默认请求体最大16MB
+    public static final long DEFAULT_MAX_CONTENT_LENGTH = 16 * 1024 * 1024;
+    //默认超过64KB的响应体分块发送
+    public static final int DEFAULT_RESPONSE_CHUNK_SIZE = 64 * 1024;
+
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
+    private static final String TEXT_CONTENT_TYPE = "text/plain; charset=UTF-8";
+    private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson; charset=UTF-8";
+
+    //收集的请求体最多保留的块数，超过时CompositeByteBuf会合并为一块
+    private static final int MAX_COMPONENTS = 1024;
+
+    private enum State {
+        //等待下一个请求
+        IDLE,
+        //在EventLoop中增量解码
+        INLINE,
+        //收集请求体，收齐后按字节数决定交给offloadExecutor还是在EventLoop中解码
+        COLLECT,
+        //没有绑定的请求，原样传递
+        PASS_THROUGH,
+        //解码失败，丢弃剩余内容
+        DISCARD
+    }
+
+    private final ProtoJsonMapper mapper;
+    private final ProtoJsonRoutes routes;
+    private final Executor offloadExecutor;
+    private final int offloadThreshold;
+    private final long maxContentLength;
+    private final int responseChunkSize;
+
+    private State state = State.IDLE;
+    //当前请求的请求行和请求头
+    private HttpRequest request;
+    private Descriptors.Descriptor descriptor;
+    private IncrementalProtoJsonDecoder decoder;
+    private CompositeByteBuf body;
+    //当前请求已经收到的请求体字节数
+    private long received;
+
+    //offloadExecutor解码期间收到的消息
+    private final ArrayDeque<HttpObject> queued = new ArrayDeque<>();
+    private boolean offloading;
+    //offload期间暂停了读取
+    private boolean readSuspended;
+    private boolean released;
+    //已经写出ProtoJsonStreamResponse的响应头，尚未结束
+    private boolean streamingResponse;
+
+    /**
+     * 所有请求体都在EventLoop中增量解码
+     *
+     * @param mapper ProtoJsonMapper
+     * @param routes 路由绑定
+     */
+    public ProtoJsonHttpCodec(ProtoJsonMapper mapper, ProtoJsonRoutes routes) {
+        this(mapper, routes, null, DEFAULT_OFFLOAD_THRESHOLD, DEFAULT_MAX_CONTENT_LENGTH);
+    }
+
+    /**
+     * @param mapper           ProtoJsonMapper
+     * @param routes           路由绑定
+     * @param offloadExecutor  解码大请求体的Executor，为null时所有请求体都在EventLoop中解码
+     * @param offloadThreshold 请求体超过该字节数时交给offloadExecutor解码
+     */
+    public ProtoJsonHttpCodec(ProtoJsonMapper mapper, ProtoJsonRoutes routes, Executor offloadExecutor, int offloadThreshold) {
+        this(mapper, routes, offloadExecutor, offloadThreshold, DEFAULT_MAX_CONTENT_LENGTH);
+    }
+
+    /**
+     * @param mapper           ProtoJsonMapper
+     * @param routes           路由绑定
+     * @param offloadExecutor  解码大请求体的Executor，为null时所有请求体都在EventLoop中解码
+     * @param offloadThreshold 请求体超过该字节数时交给offloadExecutor解码
+     * @param maxContentLength 有绑定的请求的请求体最大字节数，Content-Length或者已收到的字节数超过时回复413
+     */
+    public ProtoJsonHttpCodec(ProtoJsonMapper mapper, ProtoJsonRoutes routes, Executor offloadExecutor, int offloadThreshold,
+                              long maxContentLength) {
+        this(mapper, routes, offloadExecutor, offloadThreshold, maxContentLength, DEFAULT_RESPONSE_CHUNK_SIZE);
+    }
+
+    /**
+     * @param mapper            ProtoJsonMapper
+     * @param routes            路由绑定
+     * @param offloadExecutor   解码大请求体的Executor，为null时所有请求体都在EventLoop中解码
+     * @param offloadThreshold  请求体超过该字节数时交给offloadExecutor解码
+     * @param maxContentLength  有绑定的请求的请求体最大字节数，Content-Length或者已收到的字节数超过时回复413
+     * @param responseChunkSize 响应体超过该字节数时分块发送，每块最多该字节数
+     */
+    public ProtoJsonHttpCodec(ProtoJsonMapper mapper, ProtoJsonRoutes routes, Executor offloadExecutor, int offloadThreshold,
+                              long maxContentLength, int responseChunkSize) {
+        if (responseChunkSize <= 0) {
+            throw new IllegalArgumentException("responseChunkSize(" + responseChunkSize + ") must be positive");
+        }
+        this.mapper = mapper;
+        this.routes = routes;
+        this.offloadExecutor = offloadExecutor;
+        this.offloadThreshold = offloadThreshold;
+        this.maxContentLength = maxContentLength;
+        this.responseChunkSize = responseChunkSize;
+    }
+
+    @Override
+    public boolean acceptOutboundMessage(Object msg) {
+        return msg instanceof Message || msg instanceof ProtoJsonStreamResponse;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, List<Object> out) {
+        if (msg instanceof ProtoJsonStreamResponse) {
+            encodeStream(ctx, (ProtoJsonStreamResponse) msg, out);
+            return;
+        }
+
+        ByteBuf content = mapper.encode((Message) msg, ctx.alloc());
+        if (content.readableBytes() <= responseChunkSize) {
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, JSON_CONTENT_TYPE);
+            HttpUtil.setContentLength(response, content.readableBytes());
+            out.add(response);
+            return;
+        }
+
+        //大的响应体分块发送，每块是content的一段
+        out.add(chunkedHead(JSON_CONTENT_TYPE));
+        try {
+            while (content.readableBytes() > responseChunkSize) {
+                out.add(new DefaultHttpContent(content.readRetainedSlice(responseChunkSize)));
+            }
+            out.add(new DefaultLastHttpContent(content.retain()));
+        } finally {
+            content.release();
+        }
+    }
+
+    private void encodeStream(ChannelHandlerContext ctx, ProtoJsonStreamResponse msg, List<Object> out) {
+        if (!streamingResponse) {
+            streamingResponse = true;
+            out.add(chunkedHead(NDJSON_CONTENT_TYPE));
+        }
+        if (msg.isEnd()) {
+            streamingResponse = false;
+            LastHttpContent last = new DefaultLastHttpContent();
+            if (msg.getTrailers() != null) {
+                last.trailingHeaders().set(msg.getTrailers());
+            }
+            out.add(last);
+            return;
+        }
+
+        ByteBuf content = ctx.alloc().ioBuffer();
+        try {
+            mapper.encodeStream(Collections.singleton(msg.getMessage()).iterator(), content);
+        } catch (RuntimeException ex) {
+            content.release();
+            throw ex;
+        }
+        out.add(new DefaultHttpContent(content));
+    }
+
+    private static HttpResponse chunkedHead(String contentType) {
+        HttpResponse head = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        head.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+        HttpUtil.setTransferEncodingChunked(head, true);
+        return head;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, HttpObject msg, List<Object> out) {
+        if (offloading) {
+            //保持顺序，解码完成后再处理
+            queued.add(ReferenceCountUtil.retain(msg));
+            return;
+        }
+        decodeObject(ctx, msg, out);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releaseAll();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        releaseAll();
+        if (readSuspended) {
+            //不再等待offload的结果，撤销本Handler的暂停
+            readSuspended = false;
+            ChannelReadSuspension.resume(ctx.channel());
+        }
+        super.handlerRemoved(ctx);
+    }
+
+    private void decodeObject(ChannelHandlerContext ctx, HttpObject msg, List<Object> out) {
+        if (msg instanceof HttpRequest) {
+            startRequest(ctx, (HttpRequest) msg, out);
+        }
+        if (msg instanceof HttpContent) {
+            decodeContent(ctx, (HttpContent) msg, out);
+        }
+    }
+
+    private void startRequest(ChannelHandlerContext ctx, HttpRequest msg, List<Object> out) {
+        Descriptors.Descriptor routeDescriptor = routes.lookup(msg.method(), msg.uri());
+        if (routeDescriptor == null) {
+            state = State.PASS_THROUGH;
+            out.add(ReferenceCountUtil.retain(msg));
+            return;
+        }
+
+        //FullHttpRequest带有请求体，只保留请求行和请求头
+        request = msg instanceof FullHttpRequest
+                ? new DefaultHttpRequest(msg.protocolVersion(), msg.method(), msg.uri(), msg.headers())
+                : msg;
+        descriptor = routeDescriptor;
+        received = 0;
+
+        long contentLength;
+        try {
+            contentLength = HttpUtil.getContentLength(msg, -1L);
+        } catch (NumberFormatException ex) {
+            badRequest(ctx, request, new IllegalArgumentException("Illegal Content-Length: " + ex.getMessage(), ex));
+            discardRequest();
+            return;
+        }
+        if (contentLength > maxContentLength) {
+            tooLarge(ctx, request);
+            discardRequest();
+            return;
+        }
+
+        //长度未知时先收集，收齐后按实际字节数决定是否offload
+        if (offloadExecutor != null && (contentLength < 0 || contentLength > offloadThreshold)) {
+            state = State.COLLECT;
+            body = ctx.alloc().compositeBuffer(MAX_COMPONENTS);
+        } else {
+            state = State.INLINE;
+            decoder = mapper.newIncrementalDecoder(routeDescriptor, ctx.alloc());
+        }
+    }
+
+    private void decodeContent(ChannelHandlerContext ctx, HttpContent content, List<Object> out) {
+        boolean last = content instanceof LastHttpContent;
+        if (state == State.INLINE || state == State.COLLECT) {
+            //没有Content-Length，或者实际内容比Content-Length多
+            received += content.content().readableBytes();
+            if (received > maxContentLength) {
+                tooLarge(ctx, request);
+                releaseRequest();
+                finishRequest();
+                state = last ? State.IDLE : State.DISCARD;
+                return;
+            }
+        }
+        switch (state) {
+            case INLINE:
+                Message message;
+                try {
+                    //decoder接管引用计数，MessageToMessageCodec在decode之后还会释放一次
+                    message = decoder.offer(content.retain());
+                } catch (JsonParseException | IllegalArgumentException ex) {
+                    //decoder已经释放
+                    badRequest(ctx, request, ex);
+                    finishRequest();
+                    state = last ? State.IDLE : State.DISCARD;
+                    return;
+                } catch (RuntimeException ex) {
+                    //decoder已经释放，丢弃剩余内容后交给exceptionCaught
+                    finishRequest();
+                    state = last ? State.IDLE : State.DISCARD;
+                    throw ex;
+                }
+                if (last) {
+                    out.add(new ProtoJsonRequest(request, message));
+                    finishRequest();
+                }
+                return;
+            case COLLECT:
+                if (content.content().isReadable()) {
+                    body.addComponent(true, content.content().retain());
+                }
+                if (last) {
+                    if (received > offloadThreshold) {
+                        offload(ctx);
+                    } else {
+                        decodeCollected(ctx, out);
+                    }
+                }
+                return;
+            case PASS_THROUGH:
+                //FullHttpRequest已在startRequest中传递
+                if (!(content instanceof HttpRequest)) {
+                    out.add(content.retain());
+                }
+                break;
+            default:
+                //DISCARD，或者没有请求行的内容
+                break;
+        }
+        if (last) {
+            state = State.IDLE;
+        }
+    }
+
+    //收集到的请求体不超过offloadThreshold，直接在EventLoop中解码
+    private void decodeCollected(ChannelHandlerContext ctx, List<Object> out) {
+        CompositeByteBuf json = body;
+        HttpRequest collectedRequest = request;
+        Descriptors.Descriptor collectedDescriptor = descriptor;
+        body = null;
+        finishRequest();
+        decoded(ctx, collectedRequest, decodeFully(json, collectedDescriptor), out);
+    }
+
+    private void offload(ChannelHandlerContext ctx) {
+        CompositeByteBuf json = body;
+        HttpRequest offloadRequest = request;
+        Descriptors.Descriptor offloadDescriptor = descriptor;
+        body = null;
+        finishRequest();
+
+        offloading = true;
+        if (!readSuspended) {
+            //解码完成前不再读取新的请求
+            ChannelReadSuspension.suspend(ctx.channel());
+            readSuspended = true;
+        }
+
+        try {
+            offloadExecutor.execute(() -> {
+                Object result = decodeFully(json, offloadDescriptor);
+                ctx.executor().execute(() -> offloadDone(ctx, offloadRequest, result));
+            });
+        } catch (RejectedExecutionException ex) {
+            if (log.isDebugEnabled()) {
+                log.debug("Offload executor rejected, decode in event loop", ex);
+            }
+            offloadDone(ctx, offloadRequest, decodeFully(json, offloadDescriptor));
+        }
+    }
+
+    //返回Proto.Message，或者解码时抛出的异常；json由本方法释放
+    private Object decodeFully(CompositeByteBuf json, Descriptors.Descriptor messageDescriptor) {
+        try {
+            return mapper.decode(json, messageDescriptor);
+        } catch (Exception ex) {
+            return ex;
+        } finally {
+            json.release();
+        }
+    }
+
+    private void offloadDone(ChannelHandlerContext ctx, HttpRequest offloadRequest, Object result) {
+        offloading = false;
+        if (released) {
+            return;
+        }
+
+        List<Object> out = new ArrayList<>();
+        decoded(ctx, offloadRequest, result, out);
+        for (Object decoded : out) {
+            ctx.fireChannelRead(decoded);
+        }
+        out.clear();
+
+        //按顺序处理解码期间收到的消息，遇到下一个需要offload的请求时停止
+        HttpObject msg;
+        while (!offloading && (msg = queued.poll()) != null) {
+            try {
+                decodeObject(ctx, msg, out);
+            } catch (RuntimeException ex) {
+                ctx.fireExceptionCaught(ex);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+            for (Object decoded : out) {
+                ctx.fireChannelRead(decoded);
+            }
+            out.clear();
+        }
+        ctx.fireChannelReadComplete();
+
+        if (!offloading && readSuspended) {
+            readSuspended = false;
+            ChannelReadSuspension.resume(ctx.channel());
+        }
+    }
+
+    //decodeFully的结果: Proto.Message加入out，Json格式错误时回复400，其它异常交给exceptionCaught
+    private void decoded(ChannelHandlerContext ctx, HttpRequest decodedRequest, Object result, List<Object> out) {
+        if (result instanceof Message) {
+            out.add(new ProtoJsonRequest(decodedRequest, (Message) result));
+        } else if (result instanceof JsonParseException || result instanceof IllegalArgumentException) {
+            badRequest(ctx, decodedRequest, (Exception) result);
+        } else {
+            ctx.fireExceptionCaught((Exception) result);
+        }
+    }
+
+    private void badRequest(ChannelHandlerContext ctx, HttpRequest badRequest, Exception ex) {
+        if (log.isDebugEnabled()) {
+            log.debug("Bad json request({} {})", badRequest.method(), badRequest.uri(), ex);
+        }
+        errorResponse(ctx, HttpResponseStatus.BAD_REQUEST, String.valueOf(ex.getMessage()));
+    }
+
+    private void tooLarge(ChannelHandlerContext ctx, HttpRequest largeRequest) {
+        if (log.isDebugEnabled()) {
+            log.debug("Json request({} {}) exceeds {} bytes", largeRequest.method(), largeRequest.uri(), maxContentLength);
+        }
+        errorResponse(ctx, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, "Request body exceeds " + maxContentLength + " bytes");
+    }
+
+    private void errorResponse(ChannelHandlerContext ctx, HttpResponseStatus status, String message) {
+        ByteBuf content = ByteBufUtil.writeUtf8(ctx.alloc(), message);
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, TEXT_CONTENT_TYPE);
+        HttpUtil.setContentLength(response, content.readableBytes());
+        ctx.writeAndFlush(response);
+    }
+
+    //丢弃当前请求剩余的内容，FullHttpRequest在随后的decodeContent中回到IDLE
+    private void discardRequest() {
+        finishRequest();
+        state = State.DISCARD;
+    }
+
+    //释放当前请求尚未解码的内容
+    private void releaseRequest() {
+        if (decoder != null) {
+            decoder.close();
+        }
+        if (body != null) {
+            body.release();
+            body = null;
+        }
+    }
+
+    private void finishRequest() {
+        state = State.IDLE;
+        request = null;
+        descriptor = null;
+        decoder = null;
+    }
+
+    private void releaseAll() {
+        released = true;
+        releaseRequest();
+        decoder = null;
+        HttpObject msg;
+        while ((msg = queued.poll()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+}
@@ -1,18 +1,39 @@
 package wenmingwei;
 
+import com.google.common.cache.CacheStats;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.FieldMask;
 import com.google.protobuf.Message;
 import com.google.protobuf.ProtocolMessageEnum;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Proto.Message 与 Json 互相转换的 Mapper.
@@ -25,25 +46,110 @@ import java.nio.charset.StandardCharsets;
  */
 @Slf4j
 public class ProtoJsonMapper {
+    //encodeStream写入OutputStream时，缓冲区超过该字节数即写出
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
     private final Gson gson;
+    private final CodecOptions options;
+    private final JsonSizeEstimator sizeEstimator = new JsonSizeEstimator();
+    private final ProtoJsonMetrics metrics;
+    //没有设置度量时不读取时钟
+    private final boolean instrumented;
+    //ProtoJsonMapperConfig.descriptorSet，没有设置时为null
+    private final ProtoDescriptorSet descriptorSet;
+    //ProtoJsonMapperConfig.parallelPool，每次编解码时设置到ByteBufJsonWriter/ByteBufJsonReader；为null时使用ForkJoinPool.commonPool()
+    private final ForkJoinPool parallelPool;
 
     public ProtoJsonMapper() {
+        this(new ProtoJsonMapperConfig());
+    }
+
+    public ProtoJsonMapper(ProtoJsonMapperConfig config) {
+        this(config, ProtoJsonMetrics.NOOP);
+    }
+
+    /**
+     * @param config  编解码配置
+     * @param metrics 编解码度量，参考ProtoJsonMetrics
+     */
+    public ProtoJsonMapper(ProtoJsonMapperConfig config, ProtoJsonMetrics metrics) {
 
         if (log.isDebugEnabled()) {
-            log.debug("Create GSON object to translate json and proto.message.");
+            log.debug("Create GSON object to translate json and proto.message, config: {}", config);
         }
 
-        this.gson = new GsonBuilder()
+        this.options = CodecOptions.of(config);
+        this.parallelPool = config.getParallelPool();
+        this.metrics = metrics;
+        this.instrumented = metrics != ProtoJsonMetrics.NOOP;
+
+        GsonBuilder gsonBuilder = new GsonBuilder()
                 //处理 ByteString
                 .registerTypeHierarchyAdapter(ByteString.class, new TypeAdapterByteString())
                 //处理 Proto.Message
-                .registerTypeHierarchyAdapter(Message.class, new TypeAdapterProtoMessage())
+                .registerTypeHierarchyAdapter(Message.class, new TypeAdapterProtoMessage(options))
                 //处理 Proto.Message.Enum 的解码
                 .registerTypeHierarchyAdapter(ProtocolMessageEnum.class, new TypeAdapterEnumValueDescriptor())
                 //处理 Proto.Message.Enum 的编码
                 .registerTypeHierarchyAdapter(Descriptors.EnumValueDescriptor.class, new TypeAdapterEnumValueDescriptor())
-                .setPrettyPrinting()
-                .create();
+                .setPrettyPrinting();
+
+        if (config.isStreaming() || config.isDynamic()) {
+            //流式编解码 Proto.Message，优先于上面注册的TypeAdapterProtoMessage
+            gsonBuilder.registerTypeAdapterFactory(new TypeAdapterStreamingProtoMessage.Factory(options));
+        }
+
+        if (config.isWellKnownTypes()) {
+            //google.protobuf.Value的null是字段值，JsonElement树编码时也要写出
+            gsonBuilder.serializeNulls();
+            for (Descriptors.Descriptor anyType : config.getAnyTypes()) {
+                TypeMapAny.INSTANCE.register(anyType);
+            }
+        }
+
+        this.gson = gsonBuilder.create();
+        String descriptorSetUri = config.getDescriptorSet();
+        if (config.isWellKnownTypes() && descriptorSetUri != null && !descriptorSetUri.isEmpty()) {
+            //Any的类型查找进程内共享，同一URI只加载一次
+            this.descriptorSet = TypeMapAny.INSTANCE.register(descriptorSetUri, ProtoJsonMapper::loadDescriptorSet);
+        } else {
+            this.descriptorSet = loadDescriptorSet(descriptorSetUri);
+        }
+    }
+
+    private static ProtoDescriptorSet loadDescriptorSet(String uri) {
+        if (uri == null || uri.isEmpty()) {
+            return null;
+        }
+        try {
+            return ProtoDescriptorSet.load(uri);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Failed to load FileDescriptorSet(" + uri + ")", ex);
+        }
+    }
+
+    /**
+     * 从ProtoJsonMapperConfig.descriptorSet加载的类型中查找Message类型，对应的.proto文件在第一次查找时构建
+     *
+     * @param fullName Message全名，例如 sample.All
+     * @return Message格式描述，可用于decode
+     * @throws IllegalArgumentException 没有设置descriptorSet，或者类型不存在时，抛出
+     */
+    public Descriptors.Descriptor findMessageType(String fullName) {
+        if (descriptorSet == null) {
+            throw new IllegalArgumentException("No FileDescriptorSet is configured to find message type(" + fullName + ")");
+        }
+        return descriptorSet.findMessageType(fullName);
+    }
+
+    /**
+     * 解码时字符串去重的统计，参考ProtoJsonMapperConfig.stringDedupFields
+     *
+     * @return 命中(没有构建新String)、未命中、替换次数，自创建以来累计；没有设置去重字段时全部为0
+     */
+    public CacheStats stringDedupStats() {
+        StringInternTable strings = options.getStringTable();
+        return strings == null ? new CacheStats(0, 0, 0, 0, 0, 0) : strings.stats();
     }
 
     /**
@@ -53,13 +159,138 @@ public class ProtoJsonMapper {
      * @return Json String
      */
     public String encode(Message message) {
-        return this.gson.toJson(message);
+        if (!instrumented) {
+            return this.gson.toJson(message);
+        }
+
+        long start = System.nanoTime();
+        String json;
+        try {
+            json = this.gson.toJson(message);
+        } catch (RuntimeException ex) {
+            metrics.encodeFailed(message.getDescriptorForType(), System.nanoTime() - start, ex);
+            throw ex;
+        }
+        //上报UTF-8字节数，与写入ByteBuf的重载一致
+        metrics.encoded(message.getDescriptorForType(), System.nanoTime() - start, ByteBufUtil.utf8Bytes(json));
+        return json;
+    }
+
+    /**
+     * 将Proto.Message中FieldMask选中的字段编码为 JsonString，格式与 encode(Message) 一致
+     * <p>
+     * FieldMask针对Message类型编译一次后缓存，参考CodecProjection。
+     *
+     * @param message   Proto.Message对象
+     * @param fieldMask 输出的字段路径，为空时输出所有字段
+     * @return Json String
+     * @throws IllegalArgumentException FieldMask中有Message类型不存在的字段时，抛出
+     */
+    public String encode(Message message, FieldMask fieldMask) {
+        if (!instrumented) {
+            return encodeProjected(message, fieldMask);
+        }
+
+        long start = System.nanoTime();
+        String json;
+        try {
+            json = encodeProjected(message, fieldMask);
+        } catch (RuntimeException ex) {
+            metrics.encodeFailed(message.getDescriptorForType(), System.nanoTime() - start, ex);
+            throw ex;
+        }
+        //上报UTF-8字节数，与写入ByteBuf的重载一致
+        metrics.encoded(message.getDescriptorForType(), System.nanoTime() - start, ByteBufUtil.utf8Bytes(json));
+        return json;
+    }
+
+    private String encodeProjected(Message message, FieldMask fieldMask) {
+        CodecPlanMessage plan = TypeMapMessage.INSTANCE.lookupCodecPlan(message.getDescriptorForType(), options);
+        CodecProjection projection = plan.projection(fieldMask);
+
+        StringWriter json = new StringWriter();
+        try {
+            JsonWriter writer = this.gson.newJsonWriter(json);
+            //与 gson.toJson 一致
+            writer.setLenient(true);
+            writer.setHtmlSafe(this.gson.htmlSafe());
+            plan.write(writer, message, projection);
+            writer.flush();
+        } catch (IOException ex) {
+            throw new JsonIOException(ex);
+        }
+        return json.toString();
+    }
+
+    /**
+     * 将Proto.Message 编码为紧凑格式(无缩进)的UTF-8 Json，直接写入ByteBuf
+     * <p>
+     * 不会构建中间的String或char[]，写入前根据Message类型的历史编码大小预留空间，尽量避免扩容拷贝。
+     *
+     * @param message Proto.Message对象
+     * @param out     写入的ByteBuf，从writerIndex开始写入；编码失败时(例如超过maxCapacity)不保留已经写入的部分
+     */
+    public void encode(Message message, ByteBuf out) {
+        if (!instrumented) {
+            encodeCompact(message, out);
+            return;
+        }
+
+        long start = System.nanoTime();
+        int startIndex = out.writerIndex();
+        try {
+            encodeCompact(message, out);
+        } catch (RuntimeException ex) {
+            metrics.encodeFailed(message.getDescriptorForType(), System.nanoTime() - start, ex);
+            throw ex;
+        }
+        metrics.encoded(message.getDescriptorForType(), System.nanoTime() - start, out.writerIndex() - startIndex);
+    }
+
+    private void encodeCompact(Message message, ByteBuf out) {
+        int start = out.writerIndex();
+        //估算值只是提示，不能超过maxCapacity，否则Json能放下时也会抛出异常
+        out.ensureWritable(sizeEstimator.estimate(message), false);
+
+        JsonWriter writer = newWriter(out);
+        try {
+            this.gson.toJson(message, message.getClass(), writer);
+        } catch (RuntimeException ex) {
+            //丢弃已经写入的部分Json，与transcodeToJson一致
+            out.writerIndex(start);
+            throw ex;
+        }
+
+        sizeEstimator.record(message, out.writerIndex() - start);
+    }
+
+    /**
+     * 将Proto.Message 编码为紧凑格式(无缩进)的UTF-8 Json，写入新分配的ByteBuf
+     * <p>
+     * 使用ByteBufAllocator.ioBuffer分配，在支持的平台上为Direct Buffer，可以直接写入Netty Channel。
+     *
+     * @param message   Proto.Message对象
+     * @param allocator ByteBuf分配器，通常为 ChannelHandlerContext.alloc()
+     * @return 包含Json内容的ByteBuf，由调用者负责释放
+     */
+    public ByteBuf encode(Message message, ByteBufAllocator allocator) {
+        ByteBuf out = allocator.ioBuffer(sizeEstimator.estimate(message));
+        try {
+            encode(message, out);
+            return out;
+        } catch (RuntimeException ex) {
+            out.release();
+            throw ex;
+        }
     }
 
     /**
      * 将 JsonString 解码为 Proto.Message
      * <p>
      * IMPORTANT: MessageDescriptor用来帮助TypeAdapterProtoMessage确定转换Proto.Message的类型
+     * <p>
+     * 通过ByteBufJsonReader直接解析UTF-8字节，字段名按字节匹配。
+     * Json中有ByteBufJsonReader不支持的lenient语法时，改用InputStreamReader重新解码，结果与之前一致；其它格式错误直接抛出。
      *
      * @param json              Json Content, 直接使用的Netty Http 解码得到的ByteBuf，减少Memory-Copy
      * @param messageDescriptor Proto.Message格式描述
@@ -67,11 +298,45 @@ public class ProtoJsonMapper {
      * @throws IOException 解码异常时返回
      */
     public Message decode(ByteBuf json, Descriptors.Descriptor messageDescriptor) throws IOException {
+        if (!instrumented) {
+            return decodeJson(json, messageDescriptor);
+        }
+
+        long start = System.nanoTime();
+        int bytes = json.readableBytes();
+        Message message;
+        try {
+            message = decodeJson(json, messageDescriptor);
+        } catch (IOException | RuntimeException ex) {
+            metrics.decodeFailed(messageDescriptor, System.nanoTime() - start, ex);
+            throw ex;
+        }
+        metrics.decoded(messageDescriptor, System.nanoTime() - start, bytes);
+        return message;
+    }
+
+    private Message decodeJson(ByteBuf json, Descriptors.Descriptor messageDescriptor) throws IOException {
+
+        if (options.isDynamic()) {
+            //直接按计划解码为DynamicMessage，空的FieldMask选中所有字段
+            return decodeProjected(json, messageDescriptor, FieldMask.getDefaultInstance());
+        }
 
-        Class<? extends Message> messageType = TypeMapMessage.INSTANCE.lookupMessageType(messageDescriptor.getFullName());
+        //找不到对应的类时抛出IllegalArgumentException
+        Class<? extends Message> messageType = TypeMapMessage.INSTANCE.lookupMessageType(messageDescriptor);
 
-        if (messageType == null) {
-            throw new IllegalArgumentException("Cannot find class type for message (" + messageDescriptor.getFullName() + ")");
+        try (ByteBufJsonReader reader = newReader(json)) {
+            Message message = gson.fromJson(reader, messageType);
+            if (message != null) {
+                assertFullConsumption(reader);
+            }
+            json.skipBytes(json.readableBytes());
+            return message;
+        } catch (JsonSyntaxException ex) {
+            //只有ByteBufJsonReader不支持的lenient语法需要重新解码，其它格式错误与InputStreamReader解码时一致
+            if (!ByteBufJsonReader.isUnsupportedSyntax(ex)) {
+                throw ex;
+            }
         }
 
         try (InputStreamReader reader = new InputStreamReader(
@@ -81,4 +346,368 @@ public class ProtoJsonMapper {
             return gson.fromJson(reader, messageType);
         }
     }
+
+    //与 gson.fromJson(Reader, Type) 一致，Json之后不能有其它内容(非lenient模式下读取)
+    private static void assertFullConsumption(JsonReader reader) {
+        try {
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonIOException("JSON document was not fully consumed.");
+            }
+        } catch (MalformedJsonException ex) {
+            throw new JsonSyntaxException(ex);
+        } catch (IOException ex) {
+            throw new JsonIOException(ex);
+        }
+    }
+
+    /**
+     * 只解码FieldMask选中的字段，其它字段在Token层面跳过，不构建值和嵌套Builder
+     * <p>
+     * FieldMask针对Message类型编译一次后缓存，参考CodecProjection。
+     *
+     * @param json              Json Content
+     * @param messageDescriptor Proto.Message格式描述
+     * @param fieldMask         需要的字段路径，为空时解码所有字段
+     * @return 只包含选中字段的Proto.Message对象
+     * @throws IOException 解码异常时返回
+     * @throws IllegalArgumentException FieldMask中有Message类型不存在的字段时，抛出
+     */
+    public Message decode(ByteBuf json, Descriptors.Descriptor messageDescriptor, FieldMask fieldMask) throws IOException {
+        if (!instrumented) {
+            return decodeProjected(json, messageDescriptor, fieldMask);
+        }
+
+        long start = System.nanoTime();
+        int bytes = json.readableBytes();
+        Message message;
+        try {
+            message = decodeProjected(json, messageDescriptor, fieldMask);
+        } catch (IOException | RuntimeException ex) {
+            metrics.decodeFailed(messageDescriptor, System.nanoTime() - start, ex);
+            throw ex;
+        }
+        metrics.decoded(messageDescriptor, System.nanoTime() - start, bytes);
+        return message;
+    }
+
+    private Message decodeProjected(ByteBuf json, Descriptors.Descriptor messageDescriptor, FieldMask fieldMask) throws IOException {
+
+        Message.Builder builder = newBuilder(messageDescriptor);
+        CodecPlanMessage plan = TypeMapMessage.INSTANCE.lookupCodecPlan(builder.getDescriptorForType(), options);
+        CodecProjection projection = plan.projection(fieldMask);
+
+        try (ByteBufJsonReader reader = newReader(json)) {
+            //与 gson.fromJson 一致
+            reader.setLenient(true);
+            plan.read(reader, builder, projection);
+            reader.setLenient(false);
+            assertFullConsumption(reader);
+            json.skipBytes(json.readableBytes());
+            return builder.build();
+        } catch (IOException ex) {
+            //只有ByteBufJsonReader不支持的lenient语法需要重新解码，其它格式错误与JsonReader解码时一致
+            if (!ByteBufJsonReader.isUnsupportedSyntax(ex)) {
+                throw ex;
+            }
+            builder.clear();
+        } catch (IllegalStateException | NumberFormatException ex) {
+            throw new JsonSyntaxException(ex);
+        }
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteBufInputStream(json),
+                StandardCharsets.UTF_8  //只支持UTF8编码的Json请求。
+        ))) {
+            reader.setLenient(true);
+            plan.read(reader, builder, projection);
+            reader.setLenient(false);
+            assertFullConsumption(reader);
+        } catch (IllegalStateException | NumberFormatException ex) {
+            throw new JsonSyntaxException(ex);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 将多个Proto.Message编码为NDJSON(每行一个紧凑格式的Json，以 '\n' 结尾)，直接写入ByteBuf
+     * <p>
+     * 所有记录共用一个JsonWriter，格式与 encode(Message, ByteBuf) 一致。
+     *
+     * @param messages Proto.Message对象
+     * @param out      写入的ByteBuf，从writerIndex开始写入；编码失败时保留之前的完整记录，丢弃失败记录已经写入的部分
+     */
+    public void encodeStream(Iterator<? extends Message> messages, ByteBuf out) {
+        JsonWriter writer = newStreamWriter(out);
+        while (messages.hasNext()) {
+            encodeRecord(messages.next(), out, writer);
+        }
+    }
+
+    /**
+     * 将多个Proto.Message编码为NDJSON(每行一个紧凑格式的Json，以 '\n' 结尾)，写入OutputStream
+     * <p>
+     * 所有记录共用一个JsonWriter和一个缓冲区，缓冲区积累到一定大小后整块写出；写完后flush，但不关闭OutputStream。
+     *
+     * @param messages Proto.Message对象
+     * @param out      写入的OutputStream
+     * @throws IOException 写入OutputStream失败时，抛出
+     */
+    public void encodeStream(Iterator<? extends Message> messages, OutputStream out) throws IOException {
+        ByteBuf buf = ByteBufAllocator.DEFAULT.heapBuffer(STREAM_BUFFER_SIZE);
+        try {
+            JsonWriter writer = newStreamWriter(buf);
+            while (messages.hasNext()) {
+                encodeRecord(messages.next(), buf, writer);
+                if (buf.readableBytes() >= STREAM_BUFFER_SIZE) {
+                    buf.readBytes(out, buf.readableBytes());
+                    buf.clear();
+                }
+            }
+            buf.readBytes(out, buf.readableBytes());
+            out.flush();
+        } finally {
+            buf.release();
+        }
+    }
+
+    /**
+     * 将 NDJSON(每行一个Json) 逐条解码为 Proto.Message
+     * <p>
+     * 返回的Spliterator是惰性的，每次tryAdvance只解码一条记录，所有记录共用一个解析器。
+     * 读取ByteBuf的可读部分，不改变readerIndex，遍历完成前不能释放ByteBuf。
+     * 在开始读取前可以按换行符拆分，通过 StreamSupport.stream(spliterator, true) 在多个线程中并行解码。
+     * 不上报ProtoJsonMetrics，需要时由调用者在遍历时统计。
+     *
+     * @param json              NDJSON Content，每条记录在同一行内
+     * @param messageDescriptor Proto.Message格式描述
+     * @return 逐条解码的Spliterator，解码失败时在遍历过程中抛出JsonParseException
+     */
+    public Spliterator<Message> decodeStream(ByteBuf json, Descriptors.Descriptor messageDescriptor) {
+        return new NdjsonSpliterator(messageAdapter(messageDescriptor), json, json.readerIndex(), json.writerIndex());
+    }
+
+    /**
+     * 将 NDJSON(每行一个Json) 逐条解码为 Proto.Message
+     * <p>
+     * 返回的Spliterator是惰性的，每次tryAdvance只从InputStream读取并解码一条记录，所有记录共用一个解析器和缓冲区。
+     * 数据源为InputStream时不可拆分；由调用者负责关闭InputStream。不上报ProtoJsonMetrics。
+     *
+     * @param json              NDJSON Content
+     * @param messageDescriptor Proto.Message格式描述
+     * @return 逐条解码的Spliterator，解码失败时在遍历过程中抛出JsonParseException
+     */
+    public Spliterator<Message> decodeStream(InputStream json, Descriptors.Descriptor messageDescriptor) {
+        return new NdjsonSpliterator(messageAdapter(messageDescriptor), new InputStreamReader(
+                json,
+                StandardCharsets.UTF_8  //只支持UTF8编码的Json。
+        ));
+    }
+
+    /**
+     * 创建按块(HttpContent)增量解码的解码器，不需要先用HttpObjectAggregator聚合整个请求体
+     * <p>
+     * 每个请求使用一个解码器，收到的块中完整的字段立即解码，已解码的块立即释放。
+     * 解码分散在多次调用中，不上报ProtoJsonMetrics。
+     *
+     * @param messageDescriptor Proto.Message格式描述
+     * @param allocator         保存未解码数据的CompositeByteBuf的分配器，通常为 ChannelHandlerContext.alloc()
+     * @return 增量解码器，不再使用时需要close
+     */
+    public IncrementalProtoJsonDecoder newIncrementalDecoder(Descriptors.Descriptor messageDescriptor, ByteBufAllocator allocator) {
+        Message.Builder builder = newBuilder(messageDescriptor);
+        CodecPlanMessage plan = TypeMapMessage.INSTANCE.lookupCodecPlan(builder.getDescriptorForType(), options);
+        return new IncrementalProtoJsonDecoder(plan, builder, allocator, parallelPool);
+    }
+
+    /**
+     * 将Protobuf二进制格式(wire format)转换为紧凑格式(无缩进)的UTF-8 Json，写入ByteBuf
+     * <p>
+     * 通过CodedInputStream边读边写，不构建Message，输出与先解析再 encode(Message, ByteBuf) 一致。
+     * 字段顺序不规范(例如合并的消息)的层级，以及Well-Known Types，解析为Message之后编码。
+     *
+     * @param protoBytes        Proto二进制，读取全部可读字节
+     * @param messageDescriptor Proto.Message格式描述
+     * @param out               写入的ByteBuf，从writerIndex开始写入
+     * @throws IOException Proto二进制格式错误时抛出，out中不保留已经写入的部分
+     */
+    public void transcodeToJson(ByteBuf protoBytes, Descriptors.Descriptor messageDescriptor, ByteBuf out) throws IOException {
+        long startNanos = instrumented ? System.nanoTime() : 0L;
+        int start = out.writerIndex();
+        int length = protoBytes.readableBytes();
+        //估算值只是提示，超过maxCapacity时不抛出异常，Json放不下时在写入时抛出
+        out.ensureWritable(sizeEstimator.estimate(messageDescriptor, length), false);
+
+        ByteBufJsonWriter writer = newWriter(out);
+        //与 gson.toJson 一致
+        writer.setLenient(true);
+        writer.setHtmlSafe(this.gson.htmlSafe());
+        writer.setSerializeNulls(this.gson.serializeNulls());
+        try {
+            WireJsonTranscoder.transcode(protoBytes, messageDescriptor, writer, options);
+        } catch (IOException | RuntimeException ex) {
+            //丢弃已经写入的部分Json，与transcodeToProto一致
+            out.writerIndex(start);
+            if (instrumented) {
+                metrics.encodeFailed(messageDescriptor, System.nanoTime() - startNanos, ex);
+            }
+            throw ex;
+        }
+        protoBytes.skipBytes(length);
+
+        sizeEstimator.record(messageDescriptor, length, out.writerIndex() - start);
+        if (instrumented) {
+            metrics.encoded(messageDescriptor, System.nanoTime() - startNanos, out.writerIndex() - start);
+        }
+    }
+
+    /**
+     * 将Json转换为Protobuf二进制格式(wire format)，写入ByteBuf
+     * <p>
+     * 通过ByteBufJsonReader边读边写Tag和值，不构建Message.Builder和Message，结果解析后与decode得到的Message相同。
+     * 字段按Json中的顺序写入；Json中同一个Message/Repeated/Map字段出现多次，或者有ByteBufJsonReader不支持的lenient语法、格式错误时，
+     * 改为先解码为Message(DynamicMessage模式下为DynamicMessage)再序列化，结果与异常与decode一致；decode返回null时不写入。
+     *
+     * @param json              Json Content，读取全部可读字节
+     * @param messageDescriptor Proto.Message格式描述
+     * @param out               写入的ByteBuf，从writerIndex开始写入
+     * @throws IOException 解码异常时返回
+     */
+    public void transcodeToProto(ByteBuf json, Descriptors.Descriptor messageDescriptor, ByteBuf out) throws IOException {
+        if (!instrumented) {
+            transcodeJson(json, messageDescriptor, out);
+            return;
+        }
+
+        long start = System.nanoTime();
+        int bytes = json.readableBytes();
+        try {
+            transcodeJson(json, messageDescriptor, out);
+        } catch (IOException | RuntimeException ex) {
+            metrics.decodeFailed(messageDescriptor, System.nanoTime() - start, ex);
+            throw ex;
+        }
+        metrics.decoded(messageDescriptor, System.nanoTime() - start, bytes);
+    }
+
+    private void transcodeJson(ByteBuf json, Descriptors.Descriptor messageDescriptor, ByteBuf out) throws IOException {
+        int start = out.writerIndex();
+        //Proto二进制通常不大于Json；估算值只是提示，超过maxCapacity时不抛出异常
+        out.ensureWritable(json.readableBytes(), false);
+
+        try (ByteBufJsonReader reader = newReader(json)) {
+            //与 gson.fromJson 一致
+            reader.setLenient(true);
+            //空的Json与decode一致，下面重新解码
+            boolean transcoded = !isEmptyDocument(reader) && JsonWireTranscoder.transcode(reader, messageDescriptor, out, options);
+            if (transcoded) {
+                reader.setLenient(false);
+                assertFullConsumption(reader);
+                json.skipBytes(json.readableBytes());
+                return;
+            }
+        } catch (IOException ex) {
+            out.writerIndex(start);
+            //只有ByteBufJsonReader不支持的lenient语法需要重新解码，其它异常与decode的类型一致:
+            //DynamicMessage模式参考decodeProjected，否则与Gson.fromJson一样包装为JsonSyntaxException
+            if (!ByteBufJsonReader.isUnsupportedSyntax(ex)) {
+                if (options.isDynamic()) {
+                    throw ex;
+                }
+                throw new JsonSyntaxException(ex);
+            }
+        } catch (IllegalStateException | NumberFormatException ex) {
+            out.writerIndex(start);
+            //Gson.fromJson不包装NumberFormatException
+            if (ex instanceof NumberFormatException && !options.isDynamic()) {
+                throw ex;
+            }
+            throw new JsonSyntaxException(ex);
+        } catch (RuntimeException ex) {
+            out.writerIndex(start);
+            throw ex;
+        }
+
+        //Json的语义与wire format不同(同一个字段出现多次)、顶层为null、空的Json，或者有ByteBufJsonReader不支持的lenient语法
+        out.writerIndex(start);
+        Message message = decodeJson(json, messageDescriptor);
+        if (message == null) {
+            return;
+        }
+        int size = message.getSerializedSize();
+        //实际大小，放不下时与直接写入一样抛出IndexOutOfBoundsException
+        out.ensureWritable(size);
+        CodedOutputStream output = CodedOutputStream.newInstance(new ByteBufOutputStream(out), size);
+        message.writeTo(output);
+        output.flush();
+    }
+
+    //没有任何Json值(空内容或者只有空白)，decode时Gson.fromJson返回null
+    private static boolean isEmptyDocument(JsonReader reader) throws IOException {
+        try {
+            reader.peek();
+            return false;
+        } catch (EOFException ex) {
+            return true;
+        }
+    }
+
+    //DynamicMessage模式下按Descriptor创建，否则创建TypeMapMessage登记的类的Builder，找不到对应的类时抛出IllegalArgumentException
+    private Message.Builder newBuilder(Descriptors.Descriptor messageDescriptor) {
+        if (options.isDynamic()) {
+            return DynamicMessage.newBuilder(messageDescriptor);
+        }
+        return TypeMapMessage.INSTANCE.newBuilder(TypeMapMessage.INSTANCE.lookupMessageType(messageDescriptor));
+    }
+
+    private TypeAdapter<? extends Message> messageAdapter(Descriptors.Descriptor messageDescriptor) {
+        if (options.isDynamic()) {
+            return new TypeAdapterStreamingProtoMessage(messageDescriptor, options);
+        }
+        //找不到对应的类时抛出IllegalArgumentException
+        return gson.getAdapter(TypeMapMessage.INSTANCE.lookupMessageType(messageDescriptor));
+    }
+
+    private ByteBufJsonWriter newWriter(ByteBuf out) {
+        ByteBufJsonWriter writer = new ByteBufJsonWriter(out);
+        writer.setParallelPool(parallelPool);
+        return writer;
+    }
+
+    private ByteBufJsonReader newReader(ByteBuf json) {
+        ByteBufJsonReader reader = new ByteBufJsonReader(json);
+        reader.setParallelPool(parallelPool);
+        return reader;
+    }
+
+    //允许多个顶层Json值，记录之间不写入任何分隔，由encodeRecord写入换行
+    private JsonWriter newStreamWriter(ByteBuf out) {
+        JsonWriter writer = newWriter(out);
+        writer.setLenient(true);
+        return writer;
+    }
+
+    private void encodeRecord(Message message, ByteBuf out, JsonWriter writer) {
+        long startNanos = instrumented ? System.nanoTime() : 0L;
+        int start = out.writerIndex();
+        //估算值只是提示，与encode(Message, ByteBuf)一致
+        out.ensureWritable(sizeEstimator.estimate(message) + 1, false);
+
+        try {
+            this.gson.toJson(message, message.getClass(), writer);
+        } catch (RuntimeException ex) {
+            //丢弃这条记录已经写入的部分，之前的记录保留
+            out.writerIndex(start);
+            if (instrumented) {
+                metrics.encodeFailed(message.getDescriptorForType(), System.nanoTime() - startNanos, ex);
+            }
+            throw ex;
+        }
+
+        sizeEstimator.record(message, out.writerIndex() - start);
+        if (instrumented) {
+            metrics.encoded(message.getDescriptorForType(), System.nanoTime() - startNanos, out.writerIndex() - start);
+        }
+        //ByteBufUtf8Writer没有缓冲，可以直接写入ByteBuf
+        out.writeByte('\n');
+    }
 }
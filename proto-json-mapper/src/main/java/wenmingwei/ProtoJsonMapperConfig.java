@@ -0,0 +1,104 @@
+package wenmingwei;
+
+import com.google.protobuf.Descriptors;
+import lombok.Data;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * ProtoJsonMapper 的配置项
+ * <p>
+ * 所有配置项都有默认值，默认行为与无参构造的ProtoJsonMapper一致。
+ */
+@Data
+public class ProtoJsonMapperConfig {
+
+    /**
+     * 是否使用流式编解码(TypeAdapterStreamingProtoMessage)。
+     * <p>
+     * 开启后，解码时直接从JsonReader读取Token写入Message.Builder，不再构建JsonObject/JsonArray中间树；
+     * Json格式与默认的TypeAdapterProtoMessage保持一致。
+     */
+    private boolean streaming = false;
+
+    /**
+     * Map字段是否编码为Json对象，例如 {"counters": {"a": 1, "b": 2}}。
+     * <p>
+     * 默认为false，Map字段编码为 [{"key": "a", "value": 1}, ...]，与之前的版本兼容。
+     * 开启后，Key按字段类型(int32/int64/bool/string)从Json对象的名字解析，条目直接写入Builder的Map，不创建MapEntry。
+     * 解码只接受开启时的格式。
+     */
+    private boolean mapAsObject = false;
+
+    /**
+     * 是否使用DynamicMessage模式，不需要protoc生成的类。
+     * <p>
+     * 开启后，decode按Descriptor创建DynamicMessage，不再查找TypeMapMessage登记的类；encode可以编码DynamicMessage，
+     * 同样可以编码protoc生成的Message。编解码计划在每种Descriptor第一次使用时构建，总是使用流式编解码。
+     * Json格式与streaming模式一致。
+     */
+    private boolean dynamic = false;
+
+    /**
+     * 二进制FileDescriptorSet的位置(classpath:///path 或 file:///path)，通常由 protoc --descriptor_set_out --include_imports 生成。
+     * <p>
+     * 设置后可以通过 ProtoJsonMapper.findMessageType 按全名查找Descriptor，参考ProtoDescriptorSet。默认为空。
+     * <p>
+     * wellKnownTypes开启时，其中的类型同时用于查找google.protobuf.Any的内容，与anyTypes一样进程内共享:
+     * 对进程内所有开启wellKnownTypes的ProtoJsonMapper可见，同一URI只加载一次。
+     */
+    private String descriptorSet;
+
+    /**
+     * Repeated Message字段并行编解码的元素个数阈值，仅在streaming或dynamic开启时生效，默认为0(不并行)。
+     * <p>
+     * 元素个数不小于阈值时，按段在parallelPool中并行编解码，结果按原来的顺序拼接，输出与串行编解码逐字节一致。
+     * 只对写入ByteBuf的编码(encode(Message, ByteBuf)、encodeStream)和从ByteBuf的解码生效，Map字段不并行。
+     * 适合导出类的大消息(一个Repeated字段有几十万条记录)，阈值通常在几千以上，太小时任务调度的开销超过收益。
+     */
+    private int parallelThreshold = 0;
+
+    /**
+     * 并行编解码使用的ForkJoinPool，为null时使用ForkJoinPool.commonPool()。
+     * <p>
+     * 在每次编解码时使用，不属于编解码选项；其它配置相同、池不同的ProtoJsonMapper共享编解码计划。
+     */
+    private ForkJoinPool parallelPool;
+
+    /**
+     * Well-Known Types(google/protobuf/*.proto)是否使用proto3 Json映射的紧凑格式，默认为false(与普通Message一样编码为Json对象)。
+     * <p>
+     * 开启后: Timestamp为RFC 3339字符串 "2019-10-01T08:00:00.123Z"，Duration为 "1.5s"，FieldMask为 "a.b,cD"，
+     * 包装类型(Int32Value、StringValue等)直接为值，Struct/Value/ListValue为任意Json，
+     * Any为 {"@type": "type.googleapis.com/sample.All", ...内容的字段}。由专用的编解码计划处理，不经过通用的字段分派。
+     * 开启前后的Json格式不兼容，编码和解码的双方需要同时开启。
+     */
+    private boolean wellKnownTypes = false;
+
+    /**
+     * google.protobuf.Any可以包含的类型，仅在wellKnownTypes开启时生效，Well-Known Types已经包含。
+     * <p>
+     * 进程内共享: 登记后对进程内所有开启wellKnownTypes的ProtoJsonMapper可见，不会注销；全名相同的类型保留先登记的，冲突时打印警告。
+     * 设置了descriptorSet时，其中的类型也可以按需查找。type URL中的类型没有登记时，编解码抛出IllegalArgumentException。
+     */
+    private Set<Descriptors.Descriptor> anyTypes = new LinkedHashSet<>();
+
+    /**
+     * 解码时字符串值需要去重的字段，元素为字段全名(sample.All.st)或者Message全名(sample.Inner，该类型所有的string字段)，默认为空(不去重)。
+     * <p>
+     * 适合取值很少、重复出现的字符串(地区码、租户ID、状态名)，解码结果长期缓存时，相同的值共享一个String。
+     * Map字段对string类型的Key和Value去重，MapEntry类型的全名(sample.All.CountersEntry)同样可以使用。
+     * 从ByteBuf解码时按UTF-8字节查找去重表，命中时不构建String；从String/Reader解码、JsonElement树模式只对构建好的ASCII字符串去重。
+     * 命中率参考ProtoJsonMapper.stringDedupStats。
+     */
+    private Set<String> stringDedupFields = new LinkedHashSet<>();
+
+    /**
+     * 字符串去重表的最大条目数，每个ProtoJsonMapper一个表，向上取整为2的幂，默认为4096，仅在stringDedupFields不为空时生效。
+     * <p>
+     * 按哈希直接映射，冲突的值互相替换；超过64字节的字符串不去重。
+     */
+    private int stringDedupCapacity = 4096;
+}
@@ -0,0 +1,57 @@
+package wenmingwei;
+
+import com.google.protobuf.Descriptors;
+
+/**
+ * ProtoJsonMapper编解码的度量接口(SPI)，按Proto.Message类型(Descriptor)上报次数、耗时、字节数和失败次数
+ * <p>
+ * 通过 ProtoJsonMapper(ProtoJsonMapperConfig, ProtoJsonMetrics) 设置，实现类负责聚合(如直方图)，方法在编解码线程中同步调用，需要线程安全并且足够快。
+ * 没有设置时为NOOP，ProtoJsonMapper不会读取时钟，也不会调用本接口。
+ * <p>
+ * 上报的操作: encode/decode的各个重载，encodeStream的每条记录。decodeStream和IncrementalProtoJsonDecoder不上报。
+ */
+public interface ProtoJsonMetrics {
+
+    ProtoJsonMetrics NOOP = new ProtoJsonMetrics() {
+    };
+
+    /**
+     * 编码成功
+     *
+     * @param descriptor Proto.Message类型
+     * @param nanos      耗时，纳秒
+     * @param bytes      输出的Json字节数；编码为String时为UTF-8编码后的字节数
+     */
+    default void encoded(Descriptors.Descriptor descriptor, long nanos, long bytes) {
+    }
+
+    /**
+     * 解码成功
+     *
+     * @param descriptor Proto.Message类型
+     * @param nanos      耗时，纳秒
+     * @param bytes      输入的Json字节数
+     */
+    default void decoded(Descriptors.Descriptor descriptor, long nanos, long bytes) {
+    }
+
+    /**
+     * 编码失败，异常随后抛给调用者
+     *
+     * @param descriptor Proto.Message类型
+     * @param nanos      失败前的耗时，纳秒
+     * @param cause      异常
+     */
+    default void encodeFailed(Descriptors.Descriptor descriptor, long nanos, Throwable cause) {
+    }
+
+    /**
+     * 解码失败，异常随后抛给调用者
+     *
+     * @param descriptor Proto.Message类型
+     * @param nanos      失败前的耗时，纳秒
+     * @param cause      异常
+     */
+    default void decodeFailed(Descriptors.Descriptor descriptor, long nanos, Throwable cause) {
+    }
+}
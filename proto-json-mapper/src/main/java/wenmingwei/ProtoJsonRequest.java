@@ -0,0 +1,18 @@
+package wenmingwei;
+
+import com.google.protobuf.Message;
+import io.netty.handler.codec.http.HttpRequest;
+import lombok.Value;
+
+/**
+ * ProtoJsonHttpCodec解码得到的Http请求
+ */
+@Value
+public class ProtoJsonRequest {
+
+    //请求行和请求头，不含请求体，不需要释放
+    HttpRequest request;
+
+    //解码后的请求体
+    Message message;
+}
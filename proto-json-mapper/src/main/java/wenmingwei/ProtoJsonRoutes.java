@@ -0,0 +1,46 @@
+package wenmingwei;
+
+import com.google.protobuf.Descriptors;
+import io.netty.handler.codec.http.HttpMethod;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Http请求(Method + Path)到请求体Proto.Message类型(Descriptor)的绑定，供ProtoJsonHttpCodec使用
+ * <p>
+ * Path按完整路径匹配，不含查询参数。可以在多个Channel的ProtoJsonHttpCodec之间共享。
+ */
+public class ProtoJsonRoutes {
+
+    private final Map<String, Descriptors.Descriptor> routes = new ConcurrentHashMap<>();
+
+    /**
+     * 绑定路由，相同的Method + Path重复绑定时覆盖
+     *
+     * @param method     Http Method，如 POST
+     * @param path       请求路径，如 /user/create
+     * @param descriptor 请求体的Proto.Message格式描述
+     * @return this
+     */
+    public ProtoJsonRoutes bind(HttpMethod method, String path, Descriptors.Descriptor descriptor) {
+        routes.put(key(method, path), descriptor);
+        return this;
+    }
+
+    /**
+     * 查找请求对应的Proto.Message类型
+     *
+     * @param method Http Method
+     * @param uri    请求的uri，可以带查询参数
+     * @return Proto.Message格式描述，没有绑定时返回null
+     */
+    public Descriptors.Descriptor lookup(HttpMethod method, String uri) {
+        int query = uri.indexOf('?');
+        return routes.get(key(method, query < 0 ? uri : uri.substring(0, query)));
+    }
+
+    private static String key(HttpMethod method, String path) {
+        return method.name() + ' ' + path;
+    }
+}
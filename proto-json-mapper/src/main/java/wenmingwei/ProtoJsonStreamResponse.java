@@ -0,0 +1,54 @@
+package wenmingwei;
+
+import com.google.protobuf.Message;
+import io.netty.handler.codec.http.HttpHeaders;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * ProtoJsonHttpCodec的流式响应(NDJSON)，依次写出若干个message，最后写出end
+ * <p>
+ * 第一次写出时先发送 200 OK 的响应头(Transfer-Encoding: chunked)，每个Proto.Message编码为一行Json，作为一个HttpContent；
+ * end编码为LastHttpContent，可以带trailers
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class ProtoJsonStreamResponse {
+
+    //流中的一条记录，为null时表示流结束
+    Message message;
+
+    //流结束时的trailers，可以为null
+    HttpHeaders trailers;
+
+    /**
+     * @param message 一条记录
+     * @return 流中的一条记录
+     */
+    public static ProtoJsonStreamResponse message(Message message) {
+        if (message == null) {
+            throw new NullPointerException("message");
+        }
+        return new ProtoJsonStreamResponse(message, null);
+    }
+
+    /**
+     * @return 流结束
+     */
+    public static ProtoJsonStreamResponse end() {
+        return new ProtoJsonStreamResponse(null, null);
+    }
+
+    /**
+     * @param trailers 写在LastHttpContent中的trailers
+     * @return 流结束
+     */
+    public static ProtoJsonStreamResponse end(HttpHeaders trailers) {
+        return new ProtoJsonStreamResponse(null, trailers);
+    }
+
+    public boolean isEnd() {
+        return message == null;
+    }
+}
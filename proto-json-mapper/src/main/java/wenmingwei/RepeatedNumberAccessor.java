@@ -0,0 +1,377 @@
+package wenmingwei;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Internal;
+import com.google.protobuf.Message;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Int/Long/Float/Double类型Repeated字段的整体读写，不装箱
+ * <p>
+ * protoc生成的Message内部使用Internal.IntList/LongList/FloatList/DoubleList保存这些字段。
+ * 解码时先将整个Json数组读入一个同类型的基本类型列表，再通过生成的addAllXxx一次写入Builder(内部为数组拷贝)；
+ * 编码时通过生成的getXxxList取得列表，按下标读取基本类型值。
+ * 找不到访问方法或者列表不是基本类型列表时，退回到Message.Builder.addRepeatedField/Message.getRepeatedField；
+ * 计划按Descriptor缓存，同一Descriptor的DynamicMessage等不是protoc生成类的实例，同样退回到通用实现。
+ * <p>
+ * Json格式与CodecValue完全一致。
+ */
+@Slf4j
+abstract class RepeatedNumberAccessor {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    //解码时列表的初始容量，与IntArrayList等的默认容量一致
+    private static final int INITIAL_CAPACITY = 10;
+
+    final Descriptors.FieldDescriptor descriptor;
+
+    private RepeatedNumberAccessor(Descriptors.FieldDescriptor descriptor) {
+        this.descriptor = descriptor;
+    }
+
+    /**
+     * 读取整个Json数组，追加到Builder中的字段
+     *
+     * @param in      JsonReader，当前位置为Json数组
+     * @param builder 字段所属Message的Builder
+     * @throws IOException 读取失败时，抛出
+     */
+    abstract void read(JsonReader in, Message.Builder builder) throws IOException;
+
+    /**
+     * 将字段写为Json数组，没有元素时不写入
+     *
+     * @param out     JsonWriter
+     * @param name    字段的Json名字
+     * @param message 字段所属的Message
+     * @throws IOException 写入失败时，抛出
+     */
+    abstract void write(JsonWriter out, String name, Message message) throws IOException;
+
+    /**
+     * @param descriptor 字段
+     * @return 是否为Int/Long/Float/Double类型的Repeated字段
+     */
+    static boolean supports(Descriptors.FieldDescriptor descriptor) {
+        if (!descriptor.isRepeated()) {
+            return false;
+        }
+        switch (descriptor.getJavaType()) {
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 为Repeated字段创建访问器，失败时使用Message.Builder.addRepeatedField/Message.getRepeatedField
+     *
+     * @param descriptor Int/Long/Float/Double类型的Repeated字段
+     * @return 访问器
+     */
+    static RepeatedNumberAccessor of(Descriptors.FieldDescriptor descriptor) {
+        try {
+            return bind(descriptor);
+        } catch (Throwable ex) {
+            if (log.isDebugEnabled()) {
+                log.debug("Cannot bind primitive list accessors for field({}), use generic accessor", descriptor.getFullName(), ex);
+            }
+            return new Generic(descriptor);
+        }
+    }
+
+    /**
+     * @param descriptor 字段
+     * @return 通用访问器，使用Message.Builder.addRepeatedField/Message.getRepeatedField，不绑定protoc生成的类，用于DynamicMessage
+     */
+    static RepeatedNumberAccessor generic(Descriptors.FieldDescriptor descriptor) {
+        return new Generic(descriptor);
+    }
+
+    private static RepeatedNumberAccessor bind(Descriptors.FieldDescriptor descriptor) throws Throwable {
+        Class<? extends Message> messageClass = TypeMapMessage.INSTANCE.lookupMessageType(descriptor.getContainingType());
+        Message.Builder prototype = TypeMapMessage.INSTANCE.newBuilder(messageClass);
+        Class<?> builderClass = prototype.getClass();
+
+        String name = GeneratedAccessors.accessorName(descriptor);
+        MethodHandle getList = LOOKUP.findVirtual(messageClass, "get" + name + "List",
+                MethodType.methodType(List.class));
+        MethodHandle addAll = LOOKUP.findVirtual(builderClass, "addAll" + name,
+                MethodType.methodType(builderClass, Iterable.class));
+
+        Function<Message, List<?>> getter = GeneratedAccessors.bind(Function.class, getList, getList.type());
+        BiConsumer<Message.Builder, Iterable<?>> adder = GeneratedAccessors.bind(BiConsumer.class,
+                addAll, addAll.type().changeReturnType(void.class));
+
+        //默认实例中的空列表，用于创建同类型的可变列表；不是基本类型列表时抛出ClassCastException，退回到通用实现
+        List<?> template = getter.apply(prototype.getDefaultInstanceForType());
+        switch (descriptor.getJavaType()) {
+            case INT:
+                return new IntAccessor(descriptor, messageClass, builderClass, getter, adder, (Internal.IntList) template);
+            case LONG:
+                return new LongAccessor(descriptor, messageClass, builderClass, getter, adder, (Internal.LongList) template);
+            case FLOAT:
+                return new FloatAccessor(descriptor, messageClass, builderClass, getter, adder, (Internal.FloatList) template);
+            case DOUBLE:
+                return new DoubleAccessor(descriptor, messageClass, builderClass, getter, adder, (Internal.DoubleList) template);
+        }
+
+        throw new IllegalArgumentException("Field(" + descriptor.getFullName() + ") is not a repeated number field");
+    }
+
+    //通过Message.Builder.addRepeatedField/Message.getRepeatedField读写，与CodecPlanField的通用实现一致
+    private static final class Generic extends RepeatedNumberAccessor {
+        private final CodecValue value;
+
+        Generic(Descriptors.FieldDescriptor descriptor) {
+            super(descriptor);
+            this.value = CodecValue.of(descriptor.getJavaType());
+        }
+
+        @Override
+        void read(JsonReader in, Message.Builder builder) throws IOException {
+            in.beginArray();
+            while (in.hasNext()) {
+                builder.addRepeatedField(descriptor, value.read(in, builder, null));
+            }
+            in.endArray();
+        }
+
+        @Override
+        void write(JsonWriter out, String name, Message message) throws IOException {
+            int count = message.getRepeatedFieldCount(descriptor);
+            if (count == 0) {
+                return;
+            }
+            out.name(name);
+            out.beginArray();
+            for (int i = 0; i < count; i++) {
+                value.write(out, message.getRepeatedField(descriptor, i), null);
+            }
+            out.endArray();
+        }
+    }
+
+    //以下通过protoc生成的getXxxList/addAllXxx读写
+
+    //绑定到protoc生成的类，其它实现(例如同一Descriptor的DynamicMessage)使用通用访问器
+    private abstract static class Bound extends RepeatedNumberAccessor {
+        private final Class<?> messageClass;
+        private final Class<?> builderClass;
+        private final Generic generic;
+
+        Bound(Descriptors.FieldDescriptor descriptor, Class<?> messageClass, Class<?> builderClass) {
+            super(descriptor);
+            this.messageClass = messageClass;
+            this.builderClass = builderClass;
+            this.generic = new Generic(descriptor);
+        }
+
+        @Override
+        final void read(JsonReader in, Message.Builder builder) throws IOException {
+            if (builderClass.isInstance(builder)) {
+                readBound(in, builder);
+            } else {
+                generic.read(in, builder);
+            }
+        }
+
+        @Override
+        final void write(JsonWriter out, String name, Message message) throws IOException {
+            if (messageClass.isInstance(message)) {
+                writeBound(out, name, message);
+            } else {
+                generic.write(out, name, message);
+            }
+        }
+
+        //builder为protoc生成的Builder类
+        abstract void readBound(JsonReader in, Message.Builder builder) throws IOException;
+
+        //message为protoc生成的Message类
+        abstract void writeBound(JsonWriter out, String name, Message message) throws IOException;
+    }
+
+    private static final class IntAccessor extends Bound {
+        private final Function<Message, List<?>> getter;
+        private final BiConsumer<Message.Builder, Iterable<?>> adder;
+        private final Internal.IntList template;
+
+        IntAccessor(Descriptors.FieldDescriptor descriptor, Class<?> messageClass, Class<?> builderClass,
+                    Function<Message, List<?>> getter, BiConsumer<Message.Builder, Iterable<?>> adder, Internal.IntList template) {
+            super(descriptor, messageClass, builderClass);
+            this.getter = getter;
+            this.adder = adder;
+            this.template = template;
+        }
+
+        @Override
+        void readBound(JsonReader in, Message.Builder builder) throws IOException {
+            Internal.IntList values = template.mutableCopyWithCapacity(INITIAL_CAPACITY);
+            in.beginArray();
+            while (in.hasNext()) {
+                values.addInt(CodecValue.readInt(in));
+            }
+            in.endArray();
+            if (!values.isEmpty()) {
+                adder.accept(builder, values);
+            }
+        }
+
+        @Override
+        void writeBound(JsonWriter out, String name, Message message) throws IOException {
+            Internal.IntList values = (Internal.IntList) getter.apply(message);
+            int size = values.size();
+            if (size == 0) {
+                return;
+            }
+            out.name(name);
+            out.beginArray();
+            for (int i = 0; i < size; i++) {
+                out.value(values.getInt(i));
+            }
+            out.endArray();
+        }
+    }
+
+    private static final class LongAccessor extends Bound {
+        private final Function<Message, List<?>> getter;
+        private final BiConsumer<Message.Builder, Iterable<?>> adder;
+        private final Internal.LongList template;
+
+        LongAccessor(Descriptors.FieldDescriptor descriptor, Class<?> messageClass, Class<?> builderClass,
+                     Function<Message, List<?>> getter, BiConsumer<Message.Builder, Iterable<?>> adder, Internal.LongList template) {
+            super(descriptor, messageClass, builderClass);
+            this.getter = getter;
+            this.adder = adder;
+            this.template = template;
+        }
+
+        @Override
+        void readBound(JsonReader in, Message.Builder builder) throws IOException {
+            Internal.LongList values = template.mutableCopyWithCapacity(INITIAL_CAPACITY);
+            in.beginArray();
+            while (in.hasNext()) {
+                values.addLong(CodecValue.readLong(in));
+            }
+            in.endArray();
+            if (!values.isEmpty()) {
+                adder.accept(builder, values);
+            }
+        }
+
+        @Override
+        void writeBound(JsonWriter out, String name, Message message) throws IOException {
+            Internal.LongList values = (Internal.LongList) getter.apply(message);
+            int size = values.size();
+            if (size == 0) {
+                return;
+            }
+            out.name(name);
+            out.beginArray();
+            for (int i = 0; i < size; i++) {
+                out.value(values.getLong(i));
+            }
+            out.endArray();
+        }
+    }
+
+    private static final class FloatAccessor extends Bound {
+        private final Function<Message, List<?>> getter;
+        private final BiConsumer<Message.Builder, Iterable<?>> adder;
+        private final Internal.FloatList template;
+
+        FloatAccessor(Descriptors.FieldDescriptor descriptor, Class<?> messageClass, Class<?> builderClass,
+                      Function<Message, List<?>> getter, BiConsumer<Message.Builder, Iterable<?>> adder, Internal.FloatList template) {
+            super(descriptor, messageClass, builderClass);
+            this.getter = getter;
+            this.adder = adder;
+            this.template = template;
+        }
+
+        @Override
+        void readBound(JsonReader in, Message.Builder builder) throws IOException {
+            Internal.FloatList values = template.mutableCopyWithCapacity(INITIAL_CAPACITY);
+            in.beginArray();
+            while (in.hasNext()) {
+                values.addFloat(CodecValue.readFloat(in));
+            }
+            in.endArray();
+            if (!values.isEmpty()) {
+                adder.accept(builder, values);
+            }
+        }
+
+        @Override
+        void writeBound(JsonWriter out, String name, Message message) throws IOException {
+            Internal.FloatList values = (Internal.FloatList) getter.apply(message);
+            int size = values.size();
+            if (size == 0) {
+                return;
+            }
+            out.name(name);
+            out.beginArray();
+            for (int i = 0; i < size; i++) {
+                CodecValue.writeFloat(out, values.getFloat(i));
+            }
+            out.endArray();
+        }
+    }
+
+    private static final class DoubleAccessor extends Bound {
+        private final Function<Message, List<?>> getter;
+        private final BiConsumer<Message.Builder, Iterable<?>> adder;
+        private final Internal.DoubleList template;
+
+        DoubleAccessor(Descriptors.FieldDescriptor descriptor, Class<?> messageClass, Class<?> builderClass,
+                       Function<Message, List<?>> getter, BiConsumer<Message.Builder, Iterable<?>> adder, Internal.DoubleList template) {
+            super(descriptor, messageClass, builderClass);
+            this.getter = getter;
+            this.adder = adder;
+            this.template = template;
+        }
+
+        @Override
+        void readBound(JsonReader in, Message.Builder builder) throws IOException {
+            Internal.DoubleList values = template.mutableCopyWithCapacity(INITIAL_CAPACITY);
+            in.beginArray();
+            while (in.hasNext()) {
+                values.addDouble(CodecValue.readDouble(in));
+            }
+            in.endArray();
+            if (!values.isEmpty()) {
+                adder.accept(builder, values);
+            }
+        }
+
+        @Override
+        void writeBound(JsonWriter out, String name, Message message) throws IOException {
+            Internal.DoubleList values = (Internal.DoubleList) getter.apply(message);
+            int size = values.size();
+            if (size == 0) {
+                return;
+            }
+            out.name(name);
+            out.beginArray();
+            for (int i = 0; i < size; i++) {
+                CodecValue.writeDouble(out, values.getDouble(i));
+            }
+            out.endArray();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package wenmingwei;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheStats;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 解码时字符串值去重的定长哈希表，按UTF-8字节查找，参考ProtoJsonMapperConfig.stringDedupFields
+ * <p>
+ * ByteBufJsonReader扫描字符串的同时计算哈希(与JsonNameTable相同)，命中时直接返回已有的String，不解码、不分配；
+ * 未命中时解码并放入表中，替换同一位置原来的条目(直接映射)。条目数不超过capacity，超过MAX_LENGTH字节的字符串不去重，占用的内存有上限。
+ * <p>
+ * 线程安全，不加锁: 条目不可变，只有final字段，并发替换时读到旧条目或新条目都是正确的，最多多一次未命中。
+ */
+final class StringInternTable {
+
+    //低基数的字段值(地区码、租户ID、状态名)通常很短，更长的字符串不去重
+    static final int MAX_LENGTH = 64;
+
+    private final Entry[] entries;
+    private final int mask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity 最大条目数，向上取整为2的幂
+     */
+    StringInternTable(int capacity) {
+        Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 30, "capacity(" + capacity + ") must be in (0, 2^30]");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.entries = new Entry[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * 按字节查找，命中时计数
+     *
+     * @param bytes 字符串所在的数组，不含引号和转义字符
+     * @param start 开始位置
+     * @param end   结束位置(不含)
+     * @param hash  JsonNameTable.hash(bytes, start, end)
+     * @return 已有的String，未命中返回null
+     */
+    String get(byte[] bytes, int start, int end, int hash) {
+        Entry entry = entries[index(hash)];
+        if (entry != null && entry.hash == hash && entry.matches(bytes, start, end)) {
+            hits.increment();
+            return entry.value;
+        }
+        return null;
+    }
+
+    /**
+     * get未命中后，放入解码的String
+     *
+     * @param bytes 字符串所在的数组，不含引号和转义字符
+     * @param start 开始位置
+     * @param end   结束位置(不含)
+     * @param hash  JsonNameTable.hash(bytes, start, end)
+     * @param value 字节解码的String
+     */
+    void put(byte[] bytes, int start, int end, int hash, String value) {
+        misses.increment();
+        byte[] key = new byte[end - start];
+        System.arraycopy(bytes, start, key, 0, key.length);
+        store(new Entry(key, value, hash));
+    }
+
+    /**
+     * 对已经构建的String去重，用于JsonElement树和非ByteBuf的JsonReader，只能减少保留的对象，不能减少分配
+     * <p>
+     * 只处理ASCII字符串: ASCII字节的哈希与String.hashCode相同，可以与按字节放入的条目共用。
+     *
+     * @param value 字符串
+     * @return 已有的相同String，或者value
+     */
+    String intern(String value) {
+        int length = value.length();
+        if (length > MAX_LENGTH) {
+            return value;
+        }
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) >= 0x80) {
+                return value;
+            }
+        }
+        int hash = value.hashCode();
+        Entry entry = entries[index(hash)];
+        if (entry != null && entry.hash == hash && entry.value.equals(value)) {
+            hits.increment();
+            return entry.value;
+        }
+        misses.increment();
+        store(new Entry(value.getBytes(StandardCharsets.US_ASCII), value, hash));
+        return value;
+    }
+
+    /**
+     * @return 命中、未命中、替换(淘汰)次数，自创建以来累计；未命中即放入的次数，没有加载耗时
+     */
+    CacheStats stats() {
+        long missCount = misses.sum();
+        return new CacheStats(hits.sum(), missCount, missCount, 0, 0, evictions.sum());
+    }
+
+    private void store(Entry entry) {
+        int index = index(entry.hash);
+        if (entries[index] != null) {
+            evictions.increment();
+        }
+        entries[index] = entry;
+    }
+
+    private int index(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static final class Entry {
+        private final byte[] bytes;
+        private final String value;
+        private final int hash;
+
+        private Entry(byte[] bytes, String value, int hash) {
+            this.bytes = bytes;
+            this.value = value;
+            this.hash = hash;
+        }
+
+        private boolean matches(byte[] other, int start, int end) {
+            if (bytes.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] != other[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package wenmingwei;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.google.protobuf.ByteString;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
-import java.util.Base64;
 
 /**
  * ByteString和Json之间的互相转换。
@@ -31,7 +33,7 @@ public class TypeAdapterByteString
     @Override
     public ByteString deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
         JsonObject obj = json.getAsJsonObject();
-        return ByteString.copyFrom(Base64.getDecoder().decode(obj.get("b64").getAsString()));
+        return Base64Codec.decode(obj.get("b64").getAsString());
     }
 
     /**
@@ -51,7 +53,55 @@ public class TypeAdapterByteString
     @Override
     public JsonElement serialize(ByteString src, Type typeOfSrc, JsonSerializationContext context) {
         JsonObject ret = new JsonObject();
-        ret.addProperty("b64", Base64.getEncoder().encodeToString(src.toByteArray()));
+        ret.addProperty("b64", Base64Codec.encodeToString(src));
+        return ret;
+    }
+
+    /**
+     * 流式编码，格式与serialize一致，供TypeAdapterStreamingProtoMessage使用
+     * <p>
+     * 写入ByteBuf时，Base64直接从ByteString内部的缓冲区编码进ByteBuf，不构建中间的byte[]和String
+     *
+     * @param out JsonWriter
+     * @param src ByteString
+     * @throws IOException 写入失败时，抛出
+     */
+    static void write(JsonWriter out, ByteString src) throws IOException {
+        out.beginObject();
+        out.name("b64");
+        if (out instanceof ByteBufJsonWriter) {
+            ((ByteBufJsonWriter) out).base64Value(src);
+        } else {
+            out.value(Base64Codec.encodeToString(src));
+        }
+        out.endObject();
+    }
+
+    /**
+     * 流式解码，格式与deserialize一致，供TypeAdapterStreamingProtoMessage使用
+     * <p>
+     * 直接解码到一个byte[]并包装为ByteString，不再拷贝；ByteBufJsonReader直接从Json字节解码，不构建Base64字符串
+     *
+     * @param in JsonReader
+     * @return ByteString
+     * @throws IOException 读取失败时，抛出
+     */
+    static ByteString read(JsonReader in) throws IOException {
+        ByteString ret = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            if ("b64".equals(in.nextName())) {
+                //ByteBuf直接从字节解码，不构建Base64字符串
+                ret = in instanceof ByteBufJsonReader ? ((ByteBufJsonReader) in).nextBase64() : Base64Codec.decode(in.nextString());
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if (ret == null) {
+            throw new JsonParseException("Field 'b64' is required for ByteString");
+        }
         return ret;
     }
 }
@@ -2,7 +2,6 @@ package wenmingwei;
 
 import com.google.gson.*;
 import com.google.protobuf.Descriptors;
-import com.google.protobuf.ProtocolMessageEnum;
 
 import java.lang.reflect.Type;
 
@@ -30,7 +29,7 @@ public class TypeAdapterEnumValueDescriptor
     /**
      * 将字符串解码为Proto.Message.EnumValueDescriptor描述对象
      *
-     * @param json    JsonString，字符串格式，在上层程序保证。
+     * @param json    JsonString，Enum的名字；也可以是Enum的编号，数字或者字符串格式
      * @param typeOfT 必须为Enum的子类，在上层程序保证。
      * @param context 忽略
      * @return EnumValueDescriptor对象，包含Enum
@@ -39,9 +38,13 @@ public class TypeAdapterEnumValueDescriptor
     @Override
     public Descriptors.EnumValueDescriptor deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
 
-        @SuppressWarnings("unchecked")
-        ProtocolMessageEnum enumObj = (ProtocolMessageEnum) Enum.valueOf((Class) typeOfT, json.getAsString());
-
-        return enumObj.getValueDescriptor();
+        //名字或编号，通过预先构建的查找表查找
+        EnumValueTable table = TypeMapEnum.INSTANCE.lookupValueTable((Class<?>) typeOfT);
+        String value = json.getAsString();
+        Descriptors.EnumValueDescriptor ret = table.find(value);
+        if (ret == null) {
+            throw new JsonParseException(table.unknownValueMessage(value));
+        }
+        return ret;
     }
 }
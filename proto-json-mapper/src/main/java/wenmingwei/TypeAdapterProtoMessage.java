@@ -1,11 +1,13 @@
 package wenmingwei;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.google.protobuf.*;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -22,6 +24,16 @@ import java.util.Map;
 public class TypeAdapterProtoMessage
         implements JsonSerializer<Message>, JsonDeserializer<Message> {
 
+    private final CodecOptions options;
+
+    public TypeAdapterProtoMessage() {
+        this(CodecOptions.DEFAULT);
+    }
+
+    TypeAdapterProtoMessage(CodecOptions options) {
+        this.options = options;
+    }
+
     /**
      * 将Proto.Message编码为JsonObject
      *
@@ -32,12 +44,23 @@ public class TypeAdapterProtoMessage
      */
     @Override
     public JsonElement serialize(Message message, Type typeOfSrc, JsonSerializationContext context) {
+        if (options.isWellKnownTypes()) {
+            CodecPlanMessage plan = TypeMapMessage.INSTANCE.lookupCodecPlan(message.getDescriptorForType(), options);
+            if (plan instanceof CodecPlanWellKnown) {
+                return serializeWellKnown(plan, message);
+            }
+        }
+
         JsonObject ret = new JsonObject();
         Map<Descriptors.FieldDescriptor, Object> fields = message.getAllFields();
         for (Map.Entry<Descriptors.FieldDescriptor, Object> entry : fields.entrySet()) {
             Descriptors.FieldDescriptor fieldDescriptor = entry.getKey();
             Object value = entry.getValue();
-            ret.add(fieldDescriptor.getJsonName(), context.serialize(value));
+            if (fieldDescriptor.isMapField() && options.isMapAsObject()) {
+                ret.add(fieldDescriptor.getJsonName(), serializeMapObject(fieldDescriptor, (List<?>) value, context));
+            } else {
+                ret.add(fieldDescriptor.getJsonName(), context.serialize(value));
+            }
         }
         return ret;
     }
@@ -62,83 +85,68 @@ public class TypeAdapterProtoMessage
             log.trace("Json content: {}", json);
         }
 
-        //传入必须为JsonObject，否则抛出异常
-        JsonObject jsonObject = json.getAsJsonObject();
-
         //typeOfT必须为Proto.Message的子类，否则抛出异常
         @SuppressWarnings("unchecked")
         Class<? extends Message> messageType = (Class<? extends Message>) typeOfT;
 
         Message.Builder builder = TypeMapMessage.INSTANCE.newBuilder(messageType);
 
-        List<Descriptors.FieldDescriptor> fieldDescriptors = builder.getDescriptorForType().getFields();
+        //预编译的编解码计划，每个Json字段只做一次分派，不再遍历Descriptor
+        CodecPlanMessage plan = TypeMapMessage.INSTANCE.lookupCodecPlan(builder.getDescriptorForType(), options);
+        if (plan instanceof CodecPlanWellKnown) {
+            //Well-Known Types不一定是Json对象
+            deserializeWellKnown(plan, json, builder);
+            return builder.build();
+        }
+
+        //传入必须为JsonObject，否则抛出异常
+        JsonObject jsonObject = json.getAsJsonObject();
 
-        for (Descriptors.FieldDescriptor fieldDescriptor : fieldDescriptors) {
-            String jsonName = fieldDescriptor.getJsonName();
-            JsonElement jsonElement = jsonObject.get(jsonName);
+        for (Map.Entry<String, JsonElement> member : jsonObject.entrySet()) {
+            CodecPlanField field = plan.field(member.getKey());
 
-            if (jsonElement != null) {
+            if (field != null && !oneofSuperseded(field, builder)) {
                 if (log.isDebugEnabled()) {
-                    log.debug("Found field({})", jsonName);
+                    log.debug("Found field({})", field.jsonName());
                 }
-                Descriptors.FieldDescriptor.JavaType javaType = fieldDescriptor.getJavaType();
+                JsonElement jsonElement = member.getValue();
 
                 //如果数据类型为Map，需要特别处理，MapEntry没有可访问的构造函数，并且无法携带泛型
                 //另外，Map类型在Proto.Message的访问方式为List<MapEntry>, getRepeatedField
-                if (Descriptors.FieldDescriptor.JavaType.MESSAGE.equals(javaType) && fieldDescriptor.isMapField()) {
-                    Descriptors.Descriptor messageDescriptor = fieldDescriptor.getMessageType();
-                    JsonArray elements = jsonElement.getAsJsonArray();
-                    Iterator<JsonElement> iterator = elements.iterator();
-
-                    List<Descriptors.FieldDescriptor> mapFieldDescriptors = messageDescriptor.getFields();
-
-                    //必须有且仅有两个Field，Key和value，否则报错
-                    if (mapFieldDescriptors.size() != 2) {
-                        StringBuilder sb = new StringBuilder();
-                        for (Descriptors.FieldDescriptor mapFieldDescriptor : mapFieldDescriptors) {
-                            sb.append("\r\nname: ").append(mapFieldDescriptor.getJsonName())
-                                    .append(", type: ").append(mapFieldDescriptor.getJavaType());
-                            if (Descriptors.FieldDescriptor.JavaType.MESSAGE.equals(mapFieldDescriptor.getJavaType())) {
-                                sb.append(", message: ").append(mapFieldDescriptor.getMessageType().getFullName());
-                            }
-                        }
-                        log.error("Should not be here, found corrupted descriptor. {}", sb.toString());
-                        throw new IllegalArgumentException("size of Map Field Descriptor is NOT 2");
-                    }
-
-                    Descriptors.FieldDescriptor keyFieldDescriptor = mapFieldDescriptors.get(0);
-                    if (!"key".equals(keyFieldDescriptor.getJsonName())) {
-                        log.error("keyField json name is NOT 'key', actual value is {}", keyFieldDescriptor.getJsonName());
-                        throw new IllegalArgumentException("KeyField json name is NOT 'key', actual value is " + keyFieldDescriptor.getJsonName());
-                    }
-
-                    Descriptors.FieldDescriptor valueFieldDescriptor = mapFieldDescriptors.get(1);
-                    if (!"value".equals(valueFieldDescriptor.getJsonName())) {
-                        log.error("valueField json name is NOT 'value', actual value is {}", valueFieldDescriptor.getJsonName());
-                        throw new IllegalArgumentException("valueField json name is NOT 'value', actual value is " + valueFieldDescriptor.getJsonName());
+                if (field.isMapField() && options.isMapAsObject()) {
+                    //Map字段为Json对象，Key从名字解析，条目直接写入Builder的Map
+                    MapFieldAccessor accessor = field.mapAccessor();
+                    Type valueType = field.mapValue().type();
+                    for (Map.Entry<String, JsonElement> entry : jsonElement.getAsJsonObject().entrySet()) {
+                        Object key = field.parseMapKey(entry.getKey());
+                        accessor.put(builder, key, field.mapValue().dedup(context.deserialize(entry.getValue(), valueType)));
                     }
+                } else if (field.isMapField()) {
+                    Descriptors.FieldDescriptor fieldDescriptor = field.descriptor();
+                    Descriptors.Descriptor messageDescriptor = fieldDescriptor.getMessageType();
 
-                    Type keyType = buildType(keyFieldDescriptor);
-                    Type valueType = buildType(valueFieldDescriptor);
+                    //Key和Value字段已在构建计划时校验
+                    CodecPlanField keyField = field.mapKey();
+                    CodecPlanField valueField = field.mapValue();
 
-                    WireFormat.FieldType keyFieldType = keyFieldDescriptor.getLiteType();
-                    WireFormat.FieldType valueFieldType = valueFieldDescriptor.getLiteType();
+                    Type keyType = keyField.type();
+                    Type valueType = valueField.type();
 
-                    while (iterator.hasNext()) {
-                        JsonElement element = iterator.next();
+                    WireFormat.FieldType keyFieldType = keyField.descriptor().getLiteType();
+                    WireFormat.FieldType valueFieldType = valueField.descriptor().getLiteType();
 
+                    for (JsonElement element : jsonElement.getAsJsonArray()) {
                         JsonObject entryObject = element.getAsJsonObject();
                         JsonElement keyElement = entryObject.get("key");
                         JsonElement valueElement = entryObject.get("value");
 
-                        Object key = context.deserialize(keyElement, keyType);
-                        Object value = context.deserialize(valueElement, valueType);
+                        Object key = keyField.dedup(context.deserialize(keyElement, keyType));
+                        Object value = valueField.dedup(context.deserialize(valueElement, valueType));
                         MapEntry entry = MapEntry.newDefaultInstance(messageDescriptor, keyFieldType, key, valueFieldType, value);
                         builder.addRepeatedField(fieldDescriptor, entry);
                     }
                 } else {
-                    Type fieldType = buildType(fieldDescriptor);
-                    setField(fieldDescriptor, jsonElement, builder, fieldType, context);
+                    setField(field, jsonElement, builder, context);
                 }
             }
         }
@@ -146,56 +154,112 @@ public class TypeAdapterProtoMessage
         return builder.build();
     }
 
-    /**
-     * 判定数据类型
-     *
-     * @param fieldDescriptor 属性描述器
-     * @return Java.Reflect.Type数据类型
-     */
-    private Type buildType(Descriptors.FieldDescriptor fieldDescriptor) {
-        Descriptors.FieldDescriptor.JavaType javaType = fieldDescriptor.getJavaType();
-        switch (javaType) {
-            case INT:
-                return Integer.class;
-            case LONG:
-                return Long.class;
-            case FLOAT:
-                return Float.class;
-            case DOUBLE:
-                return Double.class;
-            case BOOLEAN:
-                return Boolean.class;
-            case STRING:
-                return String.class;
-            case BYTE_STRING:
-                return ByteString.class;
-            case ENUM:
-                return TypeMapEnum.INSTANCE.lookupEnumType(fieldDescriptor.getEnumType().getFullName());
-            case MESSAGE:
-                return TypeMapMessage.INSTANCE.lookupMessageType(fieldDescriptor.getMessageType().getFullName());
+    //同一个oneof的多个成员都出现时，与按Descriptor字段顺序解码的结果一致: 保留Descriptor中靠后的成员，与Json中的顺序无关
+    private static boolean oneofSuperseded(CodecPlanField field, Message.Builder builder) {
+        Descriptors.OneofDescriptor oneof = field.descriptor().getContainingOneof();
+        if (oneof == null) {
+            return false;
         }
+        Descriptors.FieldDescriptor current = builder.getOneofFieldDescriptor(oneof);
+        return current != null && current.getIndex() > field.descriptor().getIndex();
+    }
+
+    //Well-Known Types按专用计划编码，与流式编码的格式一致；通过TypeAdapter.toJsonTree写入JsonElement，不依赖gson内部的JsonTreeWriter
+    private static JsonElement serializeWellKnown(CodecPlanMessage plan, Message message) {
+        return new TypeAdapter<Message>() {
+            @Override
+            public void write(JsonWriter out, Message value) throws IOException {
+                plan.write(out, value);
+            }
+
+            @Override
+            public Message read(JsonReader in) {
+                //只通过toJsonTree编码，解码由deserializeWellKnown完成
+                throw new UnsupportedOperationException("Well-known type(" + plan.descriptor().getFullName()
+                        + ") tree writer only encodes, decode through deserializeWellKnown");
+            }
+        }.toJsonTree(message);
+    }
 
-        throw new IllegalStateException("Should not be here.");
+    private static void deserializeWellKnown(CodecPlanMessage plan, JsonElement json, Message.Builder builder) {
+        readTree(json, reader -> plan.read(reader, builder));
+    }
+
+    //Map字段编码为Json对象: {"key": value, ...}
+    private static JsonObject serializeMapObject(Descriptors.FieldDescriptor fieldDescriptor, List<?> entries, JsonSerializationContext context) {
+        Descriptors.FieldDescriptor keyDescriptor = fieldDescriptor.getMessageType().findFieldByNumber(1);
+        Descriptors.FieldDescriptor valueDescriptor = fieldDescriptor.getMessageType().findFieldByNumber(2);
+
+        JsonObject ret = new JsonObject();
+        for (Object entry : entries) {
+            Message entryMessage = (Message) entry;
+            ret.add(CodecPlanField.mapKeyName(keyDescriptor, entryMessage.getField(keyDescriptor)),
+                    context.serialize(entryMessage.getField(valueDescriptor)));
+        }
+        return ret;
     }
 
     private void setField(
-            Descriptors.FieldDescriptor fieldDescriptor,
+            CodecPlanField field,
             JsonElement jsonElement,
             Message.Builder builder,
-            Type typeOfT,
             JsonDeserializationContext context
 
     ) {
-        if (fieldDescriptor.isRepeated()) {
+        Descriptors.FieldDescriptor fieldDescriptor = field.descriptor();
+        Type typeOfT = field.type();
+        RepeatedNumberAccessor numberAccessor = field.numberAccessor();
+        if (numberAccessor != null) {
+            //Int/Long/Float/Double数组直接读入基本类型列表，不装箱
+            readTree(jsonElement, reader -> numberAccessor.read(reader, builder));
+        } else if (fieldDescriptor.isRepeated()) {
             //如果时Repeated字段，List/Array
             JsonArray elements = jsonElement.getAsJsonArray();
 
             for (JsonElement element : elements) {
-                builder.addRepeatedField(fieldDescriptor, context.deserialize(element, typeOfT));
+                if (element.isJsonNull() && field.value() == CodecValue.MESSAGE && field.messagePlan() instanceof CodecPlanWellKnown) {
+                    //google.protobuf.Value的null
+                    Message.Builder elementBuilder = builder.newBuilderForField(fieldDescriptor);
+                    deserializeWellKnown(field.messagePlan(), element, elementBuilder);
+                    builder.addRepeatedField(fieldDescriptor, elementBuilder.build());
+                } else {
+                    builder.addRepeatedField(fieldDescriptor, field.dedup(context.deserialize(element, typeOfT)));
+                }
             }
+        } else if (field.readsNull() && jsonElement.isJsonNull()) {
+            //google.protobuf.Value的null，Gson对JsonNull不调用TypeAdapter
+            Message.Builder fieldBuilder = builder.newBuilderForField(fieldDescriptor);
+            deserializeWellKnown(field.messagePlan(), jsonElement, fieldBuilder);
+            builder.setField(fieldDescriptor, fieldBuilder.build());
         } else {
             //普通字段
-            builder.setField(fieldDescriptor, context.deserialize(jsonElement, typeOfT));
+            builder.setField(fieldDescriptor, field.dedup(context.deserialize(jsonElement, typeOfT)));
         }
     }
+
+    interface TreeReadAction {
+        void read(JsonReader in) throws IOException;
+    }
+
+    //通过TypeAdapter.fromJsonTree从JsonElement读取，与Gson.fromJson(JsonElement)一样使用lenient模式；不依赖gson内部的JsonTreeReader
+    static void readTree(JsonElement json, TreeReadAction action) {
+        new TypeAdapter<Void>() {
+            @Override
+            public void write(JsonWriter out, Void value) {
+                //只通过fromJsonTree读取，没有可以编码的值
+                throw new UnsupportedOperationException("Tree reader only decodes, it has no value to encode");
+            }
+
+            @Override
+            public Void read(JsonReader in) {
+                in.setLenient(true);
+                try {
+                    action.read(in);
+                } catch (IOException | IllegalStateException | NumberFormatException ex) {
+                    throw new JsonSyntaxException(ex);
+                }
+                return null;
+            }
+        }.fromJsonTree(json);
+    }
 }
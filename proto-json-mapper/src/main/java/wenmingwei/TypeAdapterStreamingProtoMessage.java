@@ -0,0 +1,131 @@
+package wenmingwei;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+
+/**
+ * Proto.Message与Json之间的流式编解码
+ * <p>
+ * Json格式与TypeAdapterProtoMessage完全一致，区别在于:
+ * 解码时直接从JsonReader逐个读取Token并写入Message.Builder，不会先构建JsonObject/JsonArray中间树；
+ * 编码时直接写入JsonWriter，不会先构建JsonObject。
+ * <p>
+ * 字段的分派和编解码由TypeMapMessage缓存的CodecPlanMessage完成，
+ * 嵌套的Proto.Message通过Message.Builder.newBuilderForField创建，只有最外层的Message需要查找类型。
+ * <p>
+ * 目前支持:
+ * 1. Repeated Field
+ * 2. Map Field
+ * 3. Enum Field
+ * 4. ByteString Field
+ * 5. 正常 Field（Int/Long/Double/String...）
+ */
+@Slf4j
+public class TypeAdapterStreamingProtoMessage extends TypeAdapter<Message> {
+
+    private final Class<? extends Message> messageType;
+    //DynamicMessage模式下解码的类型，此时messageType为null
+    private final Descriptors.Descriptor dynamicType;
+    private final CodecOptions options;
+
+    TypeAdapterStreamingProtoMessage(Class<? extends Message> messageType, CodecOptions options) {
+        this.messageType = messageType;
+        this.dynamicType = null;
+        this.options = options;
+    }
+
+    /**
+     * 解码为DynamicMessage，不需要protoc生成的类
+     *
+     * @param dynamicType Message格式描述
+     * @param options     编解码选项
+     */
+    TypeAdapterStreamingProtoMessage(Descriptors.Descriptor dynamicType, CodecOptions options) {
+        this.messageType = null;
+        this.dynamicType = dynamicType;
+        this.options = options;
+    }
+
+    /**
+     * 将Proto.Message编码写入JsonWriter
+     *
+     * @param out     JsonWriter
+     * @param message Proto.Message
+     * @throws IOException 写入失败时，抛出
+     */
+    @Override
+    public void write(JsonWriter out, Message message) throws IOException {
+        if (message == null) {
+            out.nullValue();
+            return;
+        }
+        TypeMapMessage.INSTANCE.lookupCodecPlan(message.getDescriptorForType(), options).write(out, message);
+    }
+
+    /**
+     * 从JsonReader解码Proto.Message
+     *
+     * @param in JsonReader
+     * @return Proto.Message对象
+     * @throws IOException 读取失败时，抛出
+     */
+    @Override
+    public Message read(JsonReader in) throws IOException {
+        if (log.isDebugEnabled()) {
+            log.debug("Decoding json stream to proto.message({})", messageType != null ? messageType : dynamicType.getFullName());
+        }
+
+        Message.Builder builder = messageType != null
+                ? TypeMapMessage.INSTANCE.newBuilder(messageType)
+                : DynamicMessage.newBuilder(dynamicType);
+        //开启wellKnownTypes时，google.protobuf.Value从null解码
+        if (in.peek() == JsonToken.NULL
+                && !(options.isWellKnownTypes() && CodecPlanWellKnown.readsNull(builder.getDescriptorForType()))) {
+            in.nextNull();
+            return null;
+        }
+        TypeMapMessage.INSTANCE.lookupCodecPlan(builder.getDescriptorForType(), options).read(in, builder);
+        return builder.build();
+    }
+
+    /**
+     * 为每个Proto.Message类型创建TypeAdapterStreamingProtoMessage
+     * <p>
+     * 通过GsonBuilder.registerTypeAdapterFactory注册，优先级高于registerTypeHierarchyAdapter注册的TypeAdapterProtoMessage
+     */
+    public static class Factory implements TypeAdapterFactory {
+
+        private final CodecOptions options;
+
+        public Factory() {
+            this(CodecOptions.DEFAULT);
+        }
+
+        Factory(CodecOptions options) {
+            this.options = options;
+        }
+
+        @Override
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            Class<? super T> rawType = type.getRawType();
+            if (!Message.class.isAssignableFrom(rawType)) {
+                return null;
+            }
+
+            @SuppressWarnings("unchecked")
+            TypeAdapter<T> adapter = (TypeAdapter<T>) new TypeAdapterStreamingProtoMessage((Class<? extends Message>) rawType, options);
+            return adapter;
+        }
+    }
+}
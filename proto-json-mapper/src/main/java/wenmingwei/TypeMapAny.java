@@ -0,0 +1,120 @@
+package wenmingwei;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.BoolValue;
+import com.google.protobuf.BytesValue;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DoubleValue;
+import com.google.protobuf.Duration;
+import com.google.protobuf.Empty;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.FloatValue;
+import com.google.protobuf.Int32Value;
+import com.google.protobuf.Int64Value;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.StringValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.UInt32Value;
+import com.google.protobuf.UInt64Value;
+import com.google.protobuf.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * google.protobuf.Any的类型登记: type URL -> Descriptor
+ * <p>
+ * type URL的最后一个 '/' 之后为Message全名，例如 type.googleapis.com/sample.All。查找顺序:
+ * 1. 已登记的类型，包括Well-Known Types和ProtoJsonMapperConfig.anyTypes
+ * 2. 已登记的ProtoDescriptorSet(ProtoJsonMapperConfig.descriptorSet)，找到后登记
+ * <p>
+ * 与TypeMapMessage一样进程内共享，线程安全: 一个ProtoJsonMapper登记的类型对进程内所有开启wellKnownTypes的ProtoJsonMapper可见，
+ * 全名相同的类型保留先登记的；FileDescriptorSet按URI只加载、登记一次，按登记的顺序查找。
+ */
+@Slf4j
+final class TypeMapAny {
+
+    static final TypeMapAny INSTANCE = new TypeMapAny();
+
+    //Message全名 -> Descriptor
+    private final ConcurrentMap<String, Descriptors.Descriptor> types = new ConcurrentHashMap<>();
+    //URI -> 类型集合，用于去重
+    private final ConcurrentMap<String, ProtoDescriptorSet> descriptorSetUris = new ConcurrentHashMap<>();
+    //按登记顺序查找
+    private final List<ProtoDescriptorSet> descriptorSets = new CopyOnWriteArrayList<>();
+
+    private TypeMapAny() {
+        for (Descriptors.Descriptor descriptor : new Descriptors.Descriptor[]{
+                Any.getDescriptor(), Duration.getDescriptor(), Empty.getDescriptor(), FieldMask.getDescriptor(),
+                Timestamp.getDescriptor(), Struct.getDescriptor(), Value.getDescriptor(), ListValue.getDescriptor(),
+                DoubleValue.getDescriptor(), FloatValue.getDescriptor(), Int64Value.getDescriptor(), UInt64Value.getDescriptor(),
+                Int32Value.getDescriptor(), UInt32Value.getDescriptor(), BoolValue.getDescriptor(),
+                StringValue.getDescriptor(), BytesValue.getDescriptor()}) {
+            register(descriptor);
+        }
+    }
+
+    /**
+     * 登记Any可以包含的类型，全名相同时保留先登记的
+     *
+     * @param descriptor Message类型
+     */
+    void register(Descriptors.Descriptor descriptor) {
+        Descriptors.Descriptor existing = types.putIfAbsent(descriptor.getFullName(), descriptor);
+        if (existing != null && existing != descriptor) {
+            log.warn("Type({}) of google.protobuf.Any is already registered by another descriptor, the first one is kept",
+                    descriptor.getFullName());
+        }
+    }
+
+    /**
+     * 登记按需查找类型的FileDescriptorSet，同一URI只加载一次
+     *
+     * @param uri    文件位置
+     * @param loader 第一次登记该URI时加载类型集合
+     * @return 该URI已经登记的类型集合
+     */
+    ProtoDescriptorSet register(String uri, Function<String, ProtoDescriptorSet> loader) {
+        return descriptorSetUris.computeIfAbsent(uri, key -> {
+            ProtoDescriptorSet descriptorSet = loader.apply(key);
+            descriptorSets.add(descriptorSet);
+            return descriptorSet;
+        });
+    }
+
+    /**
+     * @param typeUrl Any.type_url，例如 type.googleapis.com/sample.All
+     * @return Message类型
+     * @throws IllegalArgumentException type URL格式错误，或者类型没有登记时，抛出
+     */
+    Descriptors.Descriptor lookup(String typeUrl) {
+        int slash = typeUrl.lastIndexOf('/');
+        if (slash < 0 || slash == typeUrl.length() - 1) {
+            throw new IllegalArgumentException("Invalid type url(" + typeUrl + ") of google.protobuf.Any");
+        }
+        String fullName = typeUrl.substring(slash + 1);
+
+        Descriptors.Descriptor descriptor = types.get(fullName);
+        if (descriptor != null) {
+            return descriptor;
+        }
+        for (ProtoDescriptorSet descriptorSet : descriptorSets) {
+            try {
+                descriptor = descriptorSet.findMessageType(fullName);
+            } catch (IllegalArgumentException ex) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Type({}) of google.protobuf.Any is NOT found in FileDescriptorSet", fullName, ex);
+                }
+                continue;
+            }
+            Descriptors.Descriptor existing = types.putIfAbsent(fullName, descriptor);
+            return existing != null ? existing : descriptor;
+        }
+        throw new IllegalArgumentException("Type(" + fullName + ") of google.protobuf.Any is NOT registered, type url: " + typeUrl);
+    }
+}
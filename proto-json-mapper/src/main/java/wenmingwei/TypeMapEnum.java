@@ -1,16 +1,22 @@
 package wenmingwei;
 
+import com.google.protobuf.Descriptors;
 import lombok.extern.slf4j.Slf4j;
 
 import java.lang.reflect.Type;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * 因为Proto.Message.EnumDescriptor未携带类信息，只能获得Proto.FullName，
  * 所以，本类用于Map proto.fullName名字和对应的类，绑定关联关系。
+ * <p>
+ * 绑定关系在第一次使用时解析并缓存:
+ * 1. 如果proto-enum-types.properties(可选)中配置了该类型，使用配置的类名
+ * 2. 否则根据EnumDescriptor的文件选项推导protoc生成的类名，参考JavaClassNames
+ * <p>
+ * 解析失败时只有当前调用抛出IllegalArgumentException。
  */
 @Slf4j
 class TypeMapEnum {
@@ -18,50 +24,102 @@ class TypeMapEnum {
     private static final String PROPERTY_KEY = "proto.enum-types-map";
     private static final String DEFAULT_URI = "classpath:///proto-enum-types.properties";
 
-    private final Map<String, Class<Enum>> enumTypeMap;
+    //可选的覆盖配置: proto.fullName -> 类名
+    private final Properties overrides;
+
+    private final ConcurrentMap<String, Class<Enum>> enumTypeMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Descriptors.EnumDescriptor, EnumValueTable> valueTableMap = new ConcurrentHashMap<>();
+    //JsonElement树解码时只能拿到Enum类，Enum类 -> 查找表
+    private final ConcurrentMap<Class<?>, EnumValueTable> classValueTableMap = new ConcurrentHashMap<>();
 
     static final TypeMapEnum INSTANCE = new TypeMapEnum();
 
     private TypeMapEnum() {
-        Map<String, Class<Enum>> tempEnumTypeMap = new HashMap<>();
-        try {
-            readFromProperties(tempEnumTypeMap);
-        } catch (Exception ex) {
-            log.error("Something wrong during loading enum type map, have to exit whole system.", ex);
-            System.exit(1);
-        }
+        //只读取配置，不加载类，类在第一次使用时加载
+        this(new PropertiesLoader().loadOptionalProperties(PROPERTY_KEY, DEFAULT_URI));
+    }
 
-        enumTypeMap = Collections.unmodifiableMap(tempEnumTypeMap);
+    /**
+     * @param overrides 覆盖配置: proto.fullName -> 类名
+     */
+    TypeMapEnum(Properties overrides) {
+        this.overrides = overrides;
     }
 
     //查找绑定信息
-    Type lookupEnumType(String enumFullName) {
-        return enumTypeMap.get(enumFullName);
+    Type lookupEnumType(Descriptors.EnumDescriptor enumDescriptor) {
+        String enumFullName = enumDescriptor.getFullName();
+        Class<Enum> enumClazz = enumTypeMap.get(enumFullName);
+        if (enumClazz == null) {
+            enumClazz = resolveEnumType(enumDescriptor);
+            Class<Enum> existing = enumTypeMap.putIfAbsent(enumFullName, enumClazz);
+            if (existing != null) {
+                enumClazz = existing;
+            }
+        }
+        return enumClazz;
     }
 
-    //加载绑定信息
-    private void readFromProperties(
-            Map<String, Class<Enum>> tempEnumTypeMap
-    ) throws Exception {
-        Properties properties = new PropertiesLoader().loadProperties(PROPERTY_KEY, DEFAULT_URI);
-
-        ClassLoader threadContextClassLoader = Thread.currentThread().getContextClassLoader();
-        for (String enumFullName : properties.stringPropertyNames()) {
-            String clazzName = properties.getProperty(enumFullName);
+    //查找Enum值的查找表，每种Enum类型只构建一次，进程内一直有效
+    EnumValueTable lookupValueTable(Descriptors.EnumDescriptor enumDescriptor) {
+        EnumValueTable table = valueTableMap.get(enumDescriptor);
+        if (table == null) {
+            table = new EnumValueTable(enumDescriptor);
+            EnumValueTable existing = valueTableMap.putIfAbsent(enumDescriptor, table);
+            if (existing != null) {
+                table = existing;
+            }
+        }
+        return table;
+    }
 
-            if (clazzName == null) {
-                throw new IllegalArgumentException("Class name is not set, enum full name is (" + enumFullName + ")");
+    //根据protoc生成的Enum类查找Enum值的查找表
+    EnumValueTable lookupValueTable(Class<?> enumClazz) {
+        EnumValueTable table = classValueTableMap.get(enumClazz);
+        if (table == null) {
+            table = lookupValueTable(resolveEnumDescriptor(enumClazz));
+            EnumValueTable existing = classValueTableMap.putIfAbsent(enumClazz, table);
+            if (existing != null) {
+                table = existing;
             }
+        }
+        return table;
+    }
 
-            Class<?> clazz = threadContextClassLoader.loadClass(clazzName);
+    //protoc生成的Enum类都有静态方法getDescriptor
+    private static Descriptors.EnumDescriptor resolveEnumDescriptor(Class<?> enumClazz) {
+        try {
+            return (Descriptors.EnumDescriptor) enumClazz.getMethod("getDescriptor").invoke(enumClazz);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Cannot find descriptor of enum class(" + enumClazz.getCanonicalName() + ")", e);
+        }
+    }
 
-            if (Enum.class.isAssignableFrom(clazz)) {
-                @SuppressWarnings("unchecked")
-                Class<Enum> enumClazz = (Class<Enum>) clazz;
-                tempEnumTypeMap.put(enumFullName, enumClazz);
-            } else {
-                throw new IllegalArgumentException("Class(" + clazzName + ") is not a Enum");
-            }
+    //解析绑定信息
+    private Class<Enum> resolveEnumType(Descriptors.EnumDescriptor enumDescriptor) {
+        String enumFullName = enumDescriptor.getFullName();
+        String clazzName = overrides.getProperty(enumFullName);
+        if (clazzName == null) {
+            clazzName = JavaClassNames.of(enumDescriptor);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Resolving enum({}) to class({})", enumFullName, clazzName);
         }
+
+        Class<?> clazz;
+        try {
+            clazz = JavaClassNames.loadClass(clazzName);
+        } catch (ClassNotFoundException | LinkageError ex) {
+            throw new IllegalArgumentException("Cannot find class(" + clazzName + ") for enum (" + enumFullName + ")", ex);
+        }
+
+        if (!Enum.class.isAssignableFrom(clazz)) {
+            throw new IllegalArgumentException("Class(" + clazzName + ") is not a Enum");
+        }
+
+        @SuppressWarnings("unchecked")
+        Class<Enum> enumClazz = (Class<Enum>) clazz;
+        return enumClazz;
     }
 }
@@ -1,17 +1,23 @@
 package wenmingwei;
 
+import com.google.protobuf.Descriptors;
 import com.google.protobuf.Message;
 import lombok.extern.slf4j.Slf4j;
 
-import java.lang.reflect.Method;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
 
 /**
  * 因为Proto.MessageDescriptor未携带类信息，只能获得Proto.FullName，
  * 所以，本类用于Map proto.fullName名字和对应的类，绑定关联关系。
+ * <p>
+ * 绑定关系在第一次使用时解析并缓存:
+ * 1. 如果proto-message-types.properties(可选)中配置了该类型，使用配置的类名
+ * 2. 否则根据Descriptor的文件选项推导protoc生成的类名，参考JavaClassNames
+ * <p>
+ * 解析失败时只有当前调用抛出IllegalArgumentException。
  */
 @Slf4j
 class TypeMapMessage {
@@ -19,75 +25,132 @@ class TypeMapMessage {
     private static final String DEFAULT_URI = "classpath:///proto-message-types.properties";
     private static final String PROPERTY_KEY = "proto.message-types-map";
 
-    private final Map<String, Class<? extends Message>> messageTypeMap;
-    private final Map<Class<? extends Message>, Method> messageBuilderMap;
+    //可选的覆盖配置: proto.fullName -> 类名
+    private final Properties overrides;
+
+    private final ConcurrentMap<String, Class<? extends Message>> messageTypeMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<? extends Message>, Supplier<Message.Builder>> messageBuilderMap = new ConcurrentHashMap<>();
+    //编解码选项 -> (Message类型 -> 编解码计划)
+    private final ConcurrentMap<CodecOptions, ConcurrentMap<Descriptors.Descriptor, CodecPlanMessage>> codecPlanMap = new ConcurrentHashMap<>();
 
     static final TypeMapMessage INSTANCE = new TypeMapMessage();
 
     private TypeMapMessage() {
-        Map<String, Class<? extends Message>> tempMessageTypeMap = new HashMap<>();
-        Map<Class<? extends Message>, Method> tempMessageBuilderMap = new HashMap<>();
-        try {
-            readFromProperties(tempMessageTypeMap, tempMessageBuilderMap);
-        } catch (Exception ex) {
-            log.error("Something wrong during loading message type map, have to exit whole system.", ex);
-            System.exit(1);
-        }
+        //只读取配置，不加载类，类在第一次使用时加载
+        this(loadOverrides());
+    }
 
-        messageTypeMap = Collections.unmodifiableMap(tempMessageTypeMap);
-        messageBuilderMap = Collections.unmodifiableMap(tempMessageBuilderMap);
+    /**
+     * @param overrides 覆盖配置: proto.fullName -> 类名
+     */
+    TypeMapMessage(Properties overrides) {
+        this.overrides = overrides;
+    }
+
+    private static Properties loadOverrides() {
+        if (log.isDebugEnabled()) {
+            log.debug("Loading properties of TypeMapMessage.");
+        }
+        return new PropertiesLoader().loadOptionalProperties(PROPERTY_KEY, DEFAULT_URI);
     }
 
     //查找绑定信息
-    Class<? extends Message> lookupMessageType(String messageFullName) {
-        return messageTypeMap.get(messageFullName);
+    Class<? extends Message> lookupMessageType(Descriptors.Descriptor messageDescriptor) {
+        String messageFullName = messageDescriptor.getFullName();
+        Class<? extends Message> messageClazz = messageTypeMap.get(messageFullName);
+        if (messageClazz == null) {
+            messageClazz = resolveMessageType(messageDescriptor);
+            Class<? extends Message> existing = messageTypeMap.putIfAbsent(messageFullName, messageClazz);
+            if (existing != null) {
+                messageClazz = existing;
+            }
+        }
+        return messageClazz;
+    }
+
+    //查找预编译的编解码计划，每种Message类型、每组编解码选项只编译一次，进程内一直有效；
+    //开启字符串去重的选项缓存在所属的ProtoJsonMapper中，参考CodecOptions.mapperPlans
+    CodecPlanMessage lookupCodecPlan(Descriptors.Descriptor descriptor, CodecOptions options) {
+        ConcurrentMap<CodecOptions, ConcurrentMap<Descriptors.Descriptor, CodecPlanMessage>> planMap =
+                options.getMapperPlans() != null ? options.getMapperPlans() : codecPlanMap;
+        ConcurrentMap<Descriptors.Descriptor, CodecPlanMessage> plans = planMap.get(options);
+        if (plans == null) {
+            plans = new ConcurrentHashMap<>();
+            ConcurrentMap<Descriptors.Descriptor, CodecPlanMessage> existing = planMap.putIfAbsent(options, plans);
+            if (existing != null) {
+                plans = existing;
+            }
+        }
+
+        CodecPlanMessage plan = plans.get(descriptor);
+        if (plan == null) {
+            //构建过程不会递归构建嵌套类型的计划，并发时重复构建的计划会被丢弃
+            plan = options.isWellKnownTypes() ? CodecPlanWellKnown.of(descriptor, options) : null;
+            if (plan == null) {
+                plan = new CodecPlanMessage(descriptor, options);
+            }
+            CodecPlanMessage existing = plans.putIfAbsent(descriptor, plan);
+            if (existing != null) {
+                plan = existing;
+            }
+        }
+        return plan;
     }
 
-    //创建Message.Builder, 反射
+    //创建Message.Builder
     Message.Builder newBuilder(Class<? extends Message> clazz) {
 
-        //获得缓存的Builder方法，可以提速
-        Method method = messageBuilderMap.get(clazz);
-        if (method == null) {
-            throw new IllegalArgumentException("Cannot find newBuilder method for class(" + clazz.getCanonicalName() + ")");
+        //获得预先绑定的Builder工厂，直接调用默认实例的newBuilderForType，没有反射开销，可以被JIT内联
+        Supplier<Message.Builder> factory = messageBuilderMap.get(clazz);
+        if (factory == null) {
+            factory = builderFactory(clazz);
+            Supplier<Message.Builder> existing = messageBuilderMap.putIfAbsent(clazz, factory);
+            if (existing != null) {
+                factory = existing;
+            }
         }
+        return factory.get();
+    }
+
+    //第一次使用时反射一次获得默认实例，绑定为Builder工厂
+    private static Supplier<Message.Builder> builderFactory(Class<? extends Message> clazz) {
+        Message defaultInstance;
         try {
-            return (Message.Builder) method.invoke(clazz);
+            defaultInstance = (Message) clazz.getMethod("getDefaultInstance").invoke(clazz);
         } catch (Exception e) {
-            throw new IllegalArgumentException("Failed to invoke newBuilder of class(" + clazz.getCanonicalName() + ")", e);
+            throw new IllegalArgumentException("Cannot get default instance(getDefaultInstance) of class(" + clazz.getCanonicalName() + ")", e);
         }
+        if (defaultInstance == null) {
+            throw new IllegalArgumentException("Default instance of class(" + clazz.getCanonicalName() + ") is NULL");
+        }
+        return defaultInstance::newBuilderForType;
     }
 
-    //加载绑定信息
-    private void readFromProperties(
-            Map<String, Class<? extends Message>> tempMessageTypeMap,
-            Map<Class<? extends Message>, Method> tempMessageBuilderMap
-    ) throws Exception {
-        if (log.isDebugEnabled()) {
-            log.debug("Loading properties of TypeMapMessage.");
+    //解析绑定信息
+    private Class<? extends Message> resolveMessageType(Descriptors.Descriptor messageDescriptor) {
+        String messageFullName = messageDescriptor.getFullName();
+        String clazzName = overrides.getProperty(messageFullName);
+        if (clazzName == null) {
+            clazzName = JavaClassNames.of(messageDescriptor);
         }
-        Properties properties = new PropertiesLoader().loadProperties(PROPERTY_KEY, DEFAULT_URI);
-
-        ClassLoader threadContextClassLoader = Thread.currentThread().getContextClassLoader();
-        for (String messageFullName : properties.stringPropertyNames()) {
-            String clazzName = properties.getProperty(messageFullName);
 
-            if (clazzName == null) {
-                throw new IllegalArgumentException("Class name is not set, message full name is (" + messageFullName + ")");
-            }
-
-            Class<?> clazz = threadContextClassLoader.loadClass(clazzName);
+        if (log.isDebugEnabled()) {
+            log.debug("Resolving message({}) to class({})", messageFullName, clazzName);
+        }
 
-            if (Message.class.isAssignableFrom(clazz)) {
-                @SuppressWarnings("unchecked")
-                Class<? extends Message> messageClazz = (Class<? extends Message>) clazz;
+        Class<?> clazz;
+        try {
+            clazz = JavaClassNames.loadClass(clazzName);
+        } catch (ClassNotFoundException | LinkageError ex) {
+            throw new IllegalArgumentException("Cannot find class(" + clazzName + ") for message (" + messageFullName + ")", ex);
+        }
 
-                Method method = messageClazz.getMethod("newBuilder");
-                tempMessageTypeMap.put(messageFullName, messageClazz);
-                tempMessageBuilderMap.put(messageClazz, method);
-            } else {
-                throw new IllegalArgumentException("Class(" + clazzName + ") is not a Protobuf.Message class");
-            }
+        if (!Message.class.isAssignableFrom(clazz)) {
+            throw new IllegalArgumentException("Class(" + clazzName + ") is not a Protobuf.Message class");
         }
+
+        @SuppressWarnings("unchecked")
+        Class<? extends Message> messageClazz = (Class<? extends Message>) clazz;
+        return messageClazz;
     }
 }
@@ -0,0 +1,298 @@
+package wenmingwei;
+
+import com.google.common.base.CaseFormat;
+import com.google.gson.JsonSyntaxException;
+import com.google.protobuf.Duration;
+import com.google.protobuf.Timestamp;
+
+import java.util.List;
+
+/**
+ * Well-Known Types的Json字符串格式，与proto3 Json映射一致，不依赖java.time
+ * <p>
+ * 1. Timestamp: RFC 3339，例如 "1972-01-01T10:00:20.021Z"，编码总是UTC(Z)，小数为0、3、6或9位；解码接受时区偏移 "+08:00"
+ * 2. Duration: 秒数加 "s"，例如 "1.000340012s"、"-0.5s"，小数为0、3、6或9位
+ * 3. FieldMask: 逗号分隔的lowerCamelCase路径，例如 "user.displayName,photo"
+ */
+final class WellKnownTypes {
+
+    //0001-01-01T00:00:00Z
+    static final long TIMESTAMP_SECONDS_MIN = -62135596800L;
+    //9999-12-31T23:59:59Z
+    static final long TIMESTAMP_SECONDS_MAX = 253402300799L;
+    //+-10000年
+    static final long DURATION_SECONDS_MAX = 315576000000L;
+
+    private static final int NANOS_PER_SECOND = 1_000_000_000;
+    private static final int SECONDS_PER_DAY = 86400;
+
+    private WellKnownTypes() {
+    }
+
+    /**
+     * @param seconds 从1970-01-01T00:00:00Z开始的秒数
+     * @param nanos   纳秒，[0, 999999999]
+     * @return RFC 3339字符串
+     * @throws IllegalArgumentException 超出Timestamp的范围时，抛出
+     */
+    static String formatTimestamp(long seconds, int nanos) {
+        if (seconds < TIMESTAMP_SECONDS_MIN || seconds > TIMESTAMP_SECONDS_MAX || nanos < 0 || nanos >= NANOS_PER_SECOND) {
+            throw new IllegalArgumentException("Timestamp(seconds=" + seconds + ", nanos=" + nanos + ") is out of range");
+        }
+
+        long days = Math.floorDiv(seconds, SECONDS_PER_DAY);
+        int secondOfDay = (int) Math.floorMod(seconds, SECONDS_PER_DAY);
+
+        //civil_from_days，参考 http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        char[] chars = new char[30];
+        digits(chars, 0, year, 4);
+        chars[4] = '-';
+        digits(chars, 5, month, 2);
+        chars[7] = '-';
+        digits(chars, 8, day, 2);
+        chars[10] = 'T';
+        digits(chars, 11, secondOfDay / 3600, 2);
+        chars[13] = ':';
+        digits(chars, 14, secondOfDay / 60 % 60, 2);
+        chars[16] = ':';
+        digits(chars, 17, secondOfDay % 60, 2);
+        int length = fraction(chars, 19, nanos);
+        chars[length++] = 'Z';
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * @param text RFC 3339字符串
+     * @return Timestamp
+     * @throws JsonSyntaxException 格式错误或者超出Timestamp的范围时，抛出
+     */
+    static Timestamp parseTimestamp(String text) {
+        int length = text.length();
+        if (length < 20 || text.charAt(4) != '-' || text.charAt(7) != '-' || (text.charAt(10) != 'T' && text.charAt(10) != 't')
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            throw invalid("timestamp", text);
+        }
+        int year = parseDigits(text, 0, 4, "timestamp");
+        int month = parseDigits(text, 5, 7, "timestamp");
+        int day = parseDigits(text, 8, 10, "timestamp");
+        int hour = parseDigits(text, 11, 13, "timestamp");
+        int minute = parseDigits(text, 14, 16, "timestamp");
+        int second = parseDigits(text, 17, 19, "timestamp");
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59) {
+            throw invalid("timestamp", text);
+        }
+
+        int p = 19;
+        int nanos = 0;
+        if (text.charAt(p) == '.') {
+            int end = p + 1;
+            while (end < length && isDigit(text.charAt(end))) {
+                end++;
+            }
+            nanos = parseNanos(text, p + 1, end, "timestamp");
+            p = end;
+        }
+
+        long offsetSeconds;
+        if (p == length - 1 && (text.charAt(p) == 'Z' || text.charAt(p) == 'z')) {
+            offsetSeconds = 0;
+        } else if (p == length - 6 && (text.charAt(p) == '+' || text.charAt(p) == '-') && text.charAt(p + 3) == ':') {
+            int offsetHour = parseDigits(text, p + 1, p + 3, "timestamp");
+            int offsetMinute = parseDigits(text, p + 4, p + 6, "timestamp");
+            if (offsetHour > 23 || offsetMinute > 59) {
+                throw invalid("timestamp", text);
+            }
+            offsetSeconds = (offsetHour * 3600 + offsetMinute * 60) * (text.charAt(p) == '+' ? 1 : -1);
+        } else {
+            throw invalid("timestamp", text);
+        }
+
+        long seconds = daysFromCivil(year, month, day) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second - offsetSeconds;
+        if (seconds < TIMESTAMP_SECONDS_MIN || seconds > TIMESTAMP_SECONDS_MAX) {
+            throw invalid("timestamp", text);
+        }
+        return Timestamp.newBuilder().setSeconds(seconds).setNanos(nanos).build();
+    }
+
+    /**
+     * @param seconds 秒数
+     * @param nanos   纳秒，与seconds同号
+     * @return 例如 "1.5s"、"-0.000001s"
+     * @throws IllegalArgumentException 超出Duration的范围，或者seconds与nanos符号不同时，抛出
+     */
+    static String formatDuration(long seconds, int nanos) {
+        if (seconds < -DURATION_SECONDS_MAX || seconds > DURATION_SECONDS_MAX
+                || nanos <= -NANOS_PER_SECOND || nanos >= NANOS_PER_SECOND
+                || (seconds < 0 && nanos > 0) || (seconds > 0 && nanos < 0)) {
+            throw new IllegalArgumentException("Duration(seconds=" + seconds + ", nanos=" + nanos + ") is out of range");
+        }
+        StringBuilder sb = new StringBuilder(24);
+        if (seconds < 0 || nanos < 0) {
+            sb.append('-');
+        }
+        sb.append(Math.abs(seconds));
+        char[] chars = new char[10];
+        int length = fraction(chars, 0, Math.abs(nanos));
+        sb.append(chars, 0, length).append('s');
+        return sb.toString();
+    }
+
+    /**
+     * @param text 例如 "1.5s"
+     * @return Duration
+     * @throws JsonSyntaxException 格式错误或者超出Duration的范围时，抛出
+     */
+    static Duration parseDuration(String text) {
+        int length = text.length();
+        if (length < 2 || text.charAt(length - 1) != 's') {
+            throw invalid("duration", text);
+        }
+        boolean negative = text.charAt(0) == '-';
+        int p = negative ? 1 : 0;
+        int end = p;
+        long seconds = 0;
+        while (end < length - 1 && isDigit(text.charAt(end))) {
+            seconds = seconds * 10 + (text.charAt(end) - '0');
+            if (seconds > DURATION_SECONDS_MAX) {
+                throw invalid("duration", text);
+            }
+            end++;
+        }
+        if (end == p) {
+            throw invalid("duration", text);
+        }
+        int nanos = 0;
+        if (end < length - 1) {
+            if (text.charAt(end) != '.') {
+                throw invalid("duration", text);
+            }
+            nanos = parseNanos(text, end + 1, length - 1, "duration");
+        }
+        return Duration.newBuilder()
+                .setSeconds(negative ? -seconds : seconds)
+                .setNanos(negative ? -nanos : nanos)
+                .build();
+    }
+
+    /**
+     * @param paths FieldMask的路径，snake_case
+     * @return 逗号分隔的lowerCamelCase路径
+     */
+    static String formatFieldMask(List<String> paths) {
+        StringBuilder sb = new StringBuilder();
+        for (String path : paths) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(CaseFormat.LOWER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, path));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param text 逗号分隔的lowerCamelCase路径
+     * @return snake_case路径，空字符串没有路径
+     */
+    static String[] parseFieldMask(String text) {
+        if (text.isEmpty()) {
+            return new String[0];
+        }
+        String[] paths = text.split(",", -1);
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = CaseFormat.LOWER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, paths[i]);
+        }
+        return paths;
+    }
+
+    //days_from_civil，参考 http://howardhinnant.github.io/date_algorithms.html
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    //写入小数部分(含 '.')，按0、3、6、9位对齐，返回结束位置
+    private static int fraction(char[] chars, int p, int nanos) {
+        if (nanos == 0) {
+            return p;
+        }
+        chars[p++] = '.';
+        if (nanos % 1_000_000 == 0) {
+            digits(chars, p, nanos / 1_000_000, 3);
+            return p + 3;
+        }
+        if (nanos % 1_000 == 0) {
+            digits(chars, p, nanos / 1_000, 6);
+            return p + 6;
+        }
+        digits(chars, p, nanos, 9);
+        return p + 9;
+    }
+
+    private static void digits(char[] chars, int p, int value, int width) {
+        for (int i = p + width - 1; i >= p; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static int parseDigits(String text, int from, int to, String type) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char ch = text.charAt(i);
+            if (!isDigit(ch)) {
+                throw invalid(type, text);
+            }
+            value = value * 10 + (ch - '0');
+        }
+        return value;
+    }
+
+    //1到9位小数，右侧补0为纳秒
+    private static int parseNanos(String text, int from, int to, String type) {
+        if (to - from < 1 || to - from > 9) {
+            throw invalid(type, text);
+        }
+        int nanos = parseDigits(text, from, to, type);
+        for (int i = to - from; i < 9; i++) {
+            nanos *= 10;
+        }
+        return nanos;
+    }
+
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    private static JsonSyntaxException invalid(String type, String text) {
+        return new JsonSyntaxException("Invalid " + type + "(" + text + ")");
+    }
+}
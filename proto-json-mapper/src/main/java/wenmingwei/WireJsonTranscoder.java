@@ -0,0 +1,568 @@
+package wenmingwei;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.WireFormat;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.ByteProcessor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Proto二进制(wire format)直接转换为Json，不构建Message，参考ProtoJsonMapper.transcodeToJson
+ * <p>
+ * 每一层Message先扫描一遍Tag(跳过值，不解码)，确认字段是规范顺序:
+ * 字段编号递增，同一个Repeated字段连续出现，oneof最多一个成员，Map条目先key后value。
+ * 规范顺序时通过CodedInputStream边读边写，字段值直接写入ByteBufJsonWriter；
+ * 否则(合并的消息、乱序的字段等，protoc生成的序列化代码不会产生)该层解析为Message再按计划编码，结果与先解析再编码一致。
+ * Well-Known Types(开启wellKnownTypes时)和proto2的group同样解析为Message。
+ * <p>
+ * 输出与 ProtoJsonMapper.encode(Message, ByteBuf) 逐字节一致。每次转换创建一个实例，非线程安全。
+ */
+final class WireJsonTranscoder {
+
+    //与CodedInputStream的默认值一致
+    private static final int RECURSION_LIMIT = 100;
+
+    //不需要转义的字符串字节: ASCII可见字符，不含 '"' 和 '\\'；htmlSafe时还不含 < > & = '
+    private static final ByteProcessor PLAIN = b -> b >= 0x20 && b != '"' && b != '\\';
+    private static final ByteProcessor HTML_SAFE_PLAIN = b -> b >= 0x20 && b != '"' && b != '\\'
+            && b != '<' && b != '>' && b != '&' && b != '=' && b != '\'';
+
+    private final ByteBuf source;
+    //source中CodedInputStream开始的位置
+    private final int base;
+    private final CodedInputStream in;
+    private final ByteBufJsonWriter out;
+    private final CodecOptions options;
+    private final ByteProcessor plain;
+
+    //Tag扫描的当前位置
+    private int scanIndex;
+    private int depth;
+
+    private WireJsonTranscoder(ByteBuf source, ByteBufJsonWriter out, CodecOptions options) {
+        this.source = source;
+        this.base = source.readerIndex();
+        int length = source.readableBytes();
+        this.in = source.hasArray()
+                ? CodedInputStream.newInstance(source.array(), source.arrayOffset() + base, length)
+                : CodedInputStream.newInstance(source.nioBuffer(base, length));
+        //bytes字段的ByteString直接引用输入的字节，只在转换过程中使用
+        this.in.enableAliasing(true);
+        this.out = out;
+        this.options = options;
+        this.plain = out.isHtmlSafe() ? HTML_SAFE_PLAIN : PLAIN;
+    }
+
+    /**
+     * 将source的全部可读字节作为一个Message转换为Json，不改变readerIndex
+     *
+     * @param source     Proto二进制
+     * @param descriptor Message类型
+     * @param out        写入的JsonWriter
+     * @param options    编解码选项
+     * @throws IOException Proto二进制格式错误，或者写入失败时，抛出
+     */
+    static void transcode(ByteBuf source, Descriptors.Descriptor descriptor, ByteBufJsonWriter out, CodecOptions options) throws IOException {
+        WireJsonTranscoder transcoder = new WireJsonTranscoder(source, out, options);
+        CodecPlanMessage plan = TypeMapMessage.INSTANCE.lookupCodecPlan(descriptor, options);
+        transcoder.writeMessage(plan, source.readableBytes());
+    }
+
+    //转换CodedInputStream当前位置开始的length个字节
+    private void writeMessage(CodecPlanMessage plan, int length) throws IOException {
+        if (++depth > RECURSION_LIMIT) {
+            throw new InvalidProtocolBufferException("Protocol message had too many levels of nesting.");
+        }
+        int start = base + in.getTotalBytesRead();
+        int limit = in.pushLimit(length);
+        if (!(plan instanceof CodecPlanWellKnown) && canonical(plan, start, start + length)) {
+            writeFields(plan);
+        } else {
+            Message message = prototype(plan.descriptor()).getParserForType()
+                    .parsePartialFrom(in, ExtensionRegistryLite.getEmptyRegistry());
+            plan.write(out, message);
+        }
+        in.checkLastTagWas(0);
+        in.popLimit(limit);
+        depth--;
+    }
+
+    private void writeFields(CodecPlanMessage plan) throws IOException {
+        out.beginObject();
+        //当前打开的Repeated字段(Json数组，或者mapAsObject时的Json对象)
+        CodecPlanField open = null;
+        while (true) {
+            int tag = in.readTag();
+            if (tag == 0) {
+                break;
+            }
+            CodecPlanField field = match(plan, tag);
+            if (field == null) {
+                in.skipField(tag);
+                continue;
+            }
+            if (open != null && open != field) {
+                close(open);
+                open = null;
+            }
+
+            Descriptors.FieldDescriptor descriptor = field.descriptor();
+            if (field.isMapField() && options.isDynamic() && !options.isMapAsObject()) {
+                //DynamicMessage的MapEntry与普通Message一样按字段是否存在写入key和value
+                open = open(field, open);
+                writeMessage(field.messagePlan(), in.readRawVarint32());
+            } else if (field.isMapField()) {
+                open = open(field, open);
+                writeMapEntry(field);
+            } else if (descriptor.isRepeated() && WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED
+                    && descriptor.isPackable()) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                while (!in.isAtEnd()) {
+                    open = writeElement(field, open);
+                }
+                in.popLimit(limit);
+            } else if (descriptor.isRepeated()) {
+                open = writeElement(field, open);
+            } else if (field.value() == CodecValue.MESSAGE) {
+                out.name(field.jsonName());
+                writeMessage(field.messagePlan(), in.readRawVarint32());
+            } else {
+                writeSingular(field);
+            }
+        }
+        if (open != null) {
+            close(open);
+        }
+        out.endObject();
+    }
+
+    //Repeated字段的第一个元素之前写入字段名和数组开始，没有元素(proto2未知的Enum值)时不写入
+    private CodecPlanField open(CodecPlanField field, CodecPlanField open) throws IOException {
+        if (open == null) {
+            out.name(field.jsonName());
+            if (field.isMapField() && options.isMapAsObject()) {
+                out.beginObject();
+            } else {
+                out.beginArray();
+            }
+        }
+        return field;
+    }
+
+    private void close(CodecPlanField open) throws IOException {
+        if (open.isMapField() && options.isMapAsObject()) {
+            out.endObject();
+        } else {
+            out.endArray();
+        }
+    }
+
+    private CodecPlanField writeElement(CodecPlanField field, CodecPlanField open) throws IOException {
+        if (field.value() == CodecValue.MESSAGE) {
+            open = open(field, open);
+            writeMessage(field.messagePlan(), in.readRawVarint32());
+            return open;
+        }
+        if (field.value() == CodecValue.ENUM) {
+            Descriptors.EnumValueDescriptor value = readEnum(field);
+            if (value == null) {
+                return open;
+            }
+            open = open(field, open);
+            out.value(value.getName());
+            return open;
+        }
+        open = open(field, open);
+        writeScalar(field);
+        return open;
+    }
+
+    //proto3的非oneof字段为默认值时与Message.getAllFields一致，不写入
+    private void writeSingular(CodecPlanField field) throws IOException {
+        Descriptors.FieldDescriptor descriptor = field.descriptor();
+        boolean presence = !isProto3(descriptor.getFile()) || descriptor.getContainingOneof() != null;
+        if (presence) {
+            if (field.value() == CodecValue.ENUM) {
+                Descriptors.EnumValueDescriptor value = readEnum(field);
+                if (value != null) {
+                    out.name(field.jsonName());
+                    out.value(value.getName());
+                }
+            } else {
+                out.name(field.jsonName());
+                writeScalar(field);
+            }
+            return;
+        }
+
+        switch (descriptor.getType()) {
+            case STRING:
+                //长度为0即默认值，读取长度之后再写入字段名
+                int length = in.readRawVarint32();
+                if (length != 0) {
+                    out.name(field.jsonName());
+                    writeString(field, length);
+                }
+                return;
+            case BYTES:
+                ByteString bytes = in.readBytes();
+                if (!bytes.isEmpty()) {
+                    out.name(field.jsonName());
+                    TypeAdapterByteString.write(out, bytes);
+                }
+                return;
+            case ENUM:
+                Descriptors.EnumValueDescriptor value = readEnum(field);
+                if (value != null && value.getNumber() != 0) {
+                    out.name(field.jsonName());
+                    out.value(value.getName());
+                }
+                return;
+            default:
+                Object scalar = readNumber(descriptor);
+                if (!isDefault(scalar)) {
+                    out.name(field.jsonName());
+                    field.value().write(out, scalar, field);
+                }
+        }
+    }
+
+    //数值、bool、字符串、bytes，与CodecValue的格式一致
+    private void writeScalar(CodecPlanField field) throws IOException {
+        Descriptors.FieldDescriptor descriptor = field.descriptor();
+        switch (descriptor.getType()) {
+            case DOUBLE:
+                CodecValue.writeDouble(out, in.readDouble());
+                return;
+            case FLOAT:
+                CodecValue.writeFloat(out, in.readFloat());
+                return;
+            case INT64:
+                out.value(in.readInt64());
+                return;
+            case UINT64:
+                out.value(in.readUInt64());
+                return;
+            case SINT64:
+                out.value(in.readSInt64());
+                return;
+            case FIXED64:
+                out.value(in.readFixed64());
+                return;
+            case SFIXED64:
+                out.value(in.readSFixed64());
+                return;
+            case INT32:
+                out.value(in.readInt32());
+                return;
+            case UINT32:
+                out.value(in.readUInt32());
+                return;
+            case SINT32:
+                out.value(in.readSInt32());
+                return;
+            case FIXED32:
+                out.value(in.readFixed32());
+                return;
+            case SFIXED32:
+                out.value(in.readSFixed32());
+                return;
+            case BOOL:
+                out.value(in.readBool());
+                return;
+            case STRING:
+                writeString(field, in.readRawVarint32());
+                return;
+            case BYTES:
+                TypeAdapterByteString.write(out, in.readBytes());
+                return;
+        }
+        throw new IllegalStateException("Should not be here.");
+    }
+
+    //字符串: 不需要转义时直接拷贝字节，否则与protoc生成的类一样解码(proto3校验UTF-8)之后写入
+    private void writeString(CodecPlanField field, int length) throws IOException {
+        int index = base + in.getTotalBytesRead();
+        in.skipRawBytes(length);
+        if (source.forEachByte(index, length, plain) == -1) {
+            out.stringValue(source, index, length);
+            return;
+        }
+        if (isProto3(field.descriptor().getFile())
+                && !ByteBufUtil.isText(source, index, length, StandardCharsets.UTF_8)) {
+            throw new InvalidProtocolBufferException("Protocol message had invalid UTF-8.");
+        }
+        out.value(source.toString(index, length, StandardCharsets.UTF_8));
+    }
+
+    //条目的key和value已经由canonical确认顺序，缺少的一方与protoc生成的MapEntry一致写入默认值
+    private void writeMapEntry(CodecPlanField field) throws IOException {
+        CodecPlanField key = field.mapKey();
+        CodecPlanField value = field.mapValue();
+        int limit = in.pushLimit(in.readRawVarint32());
+
+        int tag = in.readTag();
+        Object keyValue;
+        if (tag != 0 && WireFormat.getTagFieldNumber(tag) == 1 && match(key, tag)) {
+            if (key.descriptor().getType() != Descriptors.FieldDescriptor.Type.STRING) {
+                keyValue = readNumber(key.descriptor());
+            } else if (isProto3(key.descriptor().getFile())) {
+                keyValue = in.readStringRequireUtf8();
+            } else {
+                keyValue = in.readString();
+            }
+            tag = in.readTag();
+        } else {
+            keyValue = key.descriptor().getDefaultValue();
+        }
+        //key之前和key与value之间的未知字段
+        while (tag != 0 && !(WireFormat.getTagFieldNumber(tag) == 2 && match(value, tag))) {
+            in.skipField(tag);
+            tag = in.readTag();
+        }
+
+        if (options.isMapAsObject()) {
+            out.name(CodecPlanField.mapKeyName(key.descriptor(), keyValue));
+        } else {
+            out.beginObject();
+            out.name(key.jsonName());
+            key.value().write(out, keyValue, key);
+            out.name(value.jsonName());
+        }
+
+        if (tag == 0) {
+            writeDefault(value);
+        } else if (value.value() == CodecValue.MESSAGE) {
+            writeMessage(value.messagePlan(), in.readRawVarint32());
+        } else if (value.value() == CodecValue.ENUM) {
+            Descriptors.EnumValueDescriptor enumValue = readEnum(value);
+            out.value(enumValue != null ? enumValue.getName() : value.descriptor().getEnumType().getValues().get(0).getName());
+        } else {
+            writeScalar(value);
+        }
+        while (!in.isAtEnd()) {
+            in.skipField(in.readTag());
+        }
+        in.popLimit(limit);
+
+        if (!options.isMapAsObject()) {
+            out.endObject();
+        }
+    }
+
+    //MapEntry没有value时，与Message.getField一致写入默认值
+    private void writeDefault(CodecPlanField field) throws IOException {
+        if (field.value() == CodecValue.MESSAGE) {
+            field.messagePlan().write(out, prototype(field.descriptor().getMessageType()));
+        } else {
+            field.value().write(out, field.descriptor().getDefaultValue(), field);
+        }
+    }
+
+    //proto3的未知Enum值与protoc生成的类一致，使用UNKNOWN_ENUM_VALUE_*的名字；proto2的未知Enum值作为未知字段跳过
+    private Descriptors.EnumValueDescriptor readEnum(CodecPlanField field) throws IOException {
+        int number = in.readEnum();
+        Descriptors.EnumDescriptor enumType = field.descriptor().getEnumType();
+        Descriptors.EnumValueDescriptor value = enumType.findValueByNumber(number);
+        if (value == null && isProto3(enumType.getFile())) {
+            value = enumType.findValueByNumberCreatingIfUnknown(number);
+        }
+        return value;
+    }
+
+    //与Message.getField的类型一致，用于默认值判断和Map的key
+    private Object readNumber(Descriptors.FieldDescriptor descriptor) throws IOException {
+        switch (descriptor.getType()) {
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case INT64:
+                return in.readInt64();
+            case UINT64:
+                return in.readUInt64();
+            case SINT64:
+                return in.readSInt64();
+            case FIXED64:
+                return in.readFixed64();
+            case SFIXED64:
+                return in.readSFixed64();
+            case INT32:
+                return in.readInt32();
+            case UINT32:
+                return in.readUInt32();
+            case SINT32:
+                return in.readSInt32();
+            case FIXED32:
+                return in.readFixed32();
+            case SFIXED32:
+                return in.readSFixed32();
+            case BOOL:
+                return in.readBool();
+        }
+        throw new IllegalStateException("Should not be here.");
+    }
+
+    //与protoc生成的类判断proto3字段是否存在的规则一致，-0.0不是默认值
+    private static boolean isDefault(Object value) {
+        if (value instanceof Double) {
+            return Double.doubleToRawLongBits((Double) value) == 0L;
+        }
+        if (value instanceof Float) {
+            return Float.floatToRawIntBits((Float) value) == 0;
+        }
+        if (value instanceof Boolean) {
+            return !(Boolean) value;
+        }
+        return ((Number) value).longValue() == 0L;
+    }
+
+    /**
+     * 扫描一层Message的Tag，确认可以边读边写
+     *
+     * @return 是否为规范顺序；格式错误时也返回false，由解析Message时抛出对应的异常
+     */
+    private boolean canonical(CodecPlanMessage plan, int start, int end) {
+        scanIndex = start;
+        CodecPlanField last = null;
+        int lastNumber = 0;
+        long oneofs = 0L;
+        while (scanIndex < end) {
+            long tag = scanVarint(end);
+            if (tag < 0 || tag > Integer.MAX_VALUE) {
+                return false;
+            }
+            int wireType = WireFormat.getTagWireType((int) tag);
+            int number = WireFormat.getTagFieldNumber((int) tag);
+            int valueIndex = scanIndex;
+            if (number == 0 || !skipValue(wireType, end)) {
+                return false;
+            }
+
+            CodecPlanField field = match(plan, (int) tag);
+            if (field == null) {
+                continue;
+            }
+            if (field == last) {
+                if (!field.descriptor().isRepeated()) {
+                    return false;
+                }
+            } else if (number < lastNumber) {
+                return false;
+            }
+            Descriptors.OneofDescriptor oneof = field.descriptor().getContainingOneof();
+            if (oneof != null) {
+                if (oneof.getIndex() >= Long.SIZE || (oneofs & (1L << oneof.getIndex())) != 0) {
+                    return false;
+                }
+                oneofs |= 1L << oneof.getIndex();
+            }
+            if (field.isMapField() && !canonicalEntry(field, valueIndex, end)) {
+                return false;
+            }
+            last = field;
+            lastNumber = number;
+        }
+        return scanIndex == end;
+    }
+
+    //Map条目: key和value各最多一次，key在value之前
+    //proto2的Enum值未知时整个条目作为未知字段，需要解析为Message判断
+    private boolean canonicalEntry(CodecPlanField field, int valueIndex, int end) {
+        if (field.mapValue().value() == CodecValue.ENUM && !isProto3(field.descriptor().getFile())) {
+            return false;
+        }
+        int next = scanIndex;
+        scanIndex = valueIndex;
+        long length = scanVarint(end);
+        int entryEnd = scanIndex + (int) length;
+        int seen = 0;
+        while (scanIndex < entryEnd) {
+            long tag = scanVarint(entryEnd);
+            if (tag < 0 || tag > Integer.MAX_VALUE || !skipValue(WireFormat.getTagWireType((int) tag), entryEnd)) {
+                return false;
+            }
+            int number = WireFormat.getTagFieldNumber((int) tag);
+            boolean known = number == 1 ? match(field.mapKey(), (int) tag) : number == 2 && match(field.mapValue(), (int) tag);
+            if (known) {
+                if (seen >= number) {
+                    return false;
+                }
+                seen = number;
+            }
+        }
+        boolean ret = scanIndex == entryEnd;
+        scanIndex = next;
+        return ret;
+    }
+
+    //跳过一个字段值，group按非规范处理
+    private boolean skipValue(int wireType, int end) {
+        switch (wireType) {
+            case WireFormat.WIRETYPE_VARINT:
+                return scanVarint(end) >= 0;
+            case WireFormat.WIRETYPE_FIXED64:
+                scanIndex += 8;
+                return scanIndex <= end;
+            case WireFormat.WIRETYPE_LENGTH_DELIMITED:
+                long length = scanVarint(end);
+                if (length < 0 || length > end - scanIndex) {
+                    return false;
+                }
+                scanIndex += (int) length;
+                return true;
+            case WireFormat.WIRETYPE_FIXED32:
+                scanIndex += 4;
+                return scanIndex <= end;
+            default:
+                return false;
+        }
+    }
+
+    //格式错误时返回-1
+    private long scanVarint(int end) {
+        long value = 0L;
+        for (int shift = 0; shift < 64 && scanIndex < end; shift += 7) {
+            byte b = source.getByte(scanIndex++);
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        return -1L;
+    }
+
+    //字段编号对应的字段，Wire类型与字段类型不符时(与protoc生成的类一致)作为未知字段
+    private static CodecPlanField match(CodecPlanMessage plan, int tag) {
+        CodecPlanField field = plan.fieldByNumber(WireFormat.getTagFieldNumber(tag));
+        return field != null && match(field, tag) ? field : null;
+    }
+
+    private static boolean match(CodecPlanField field, int tag) {
+        Descriptors.FieldDescriptor descriptor = field.descriptor();
+        int wireType = WireFormat.getTagWireType(tag);
+        return wireType == descriptor.getLiteType().getWireType()
+                || (wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED && descriptor.isPackable());
+    }
+
+    private static boolean isProto3(Descriptors.FileDescriptor file) {
+        return file.getSyntax() == Descriptors.FileDescriptor.Syntax.PROTO3;
+    }
+
+    //非DynamicMessage模式下使用protoc生成的类，与解码的类型一致
+    private Message prototype(Descriptors.Descriptor descriptor) {
+        if (options.isDynamic()) {
+            return DynamicMessage.getDefaultInstance(descriptor);
+        }
+        return TypeMapMessage.INSTANCE.newBuilder(TypeMapMessage.INSTANCE.lookupMessageType(descriptor)).getDefaultInstanceForType();
+    }
+}
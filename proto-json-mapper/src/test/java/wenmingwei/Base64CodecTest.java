@@ -0,0 +1,147 @@
+package wenmingwei;
+
+import com.google.protobuf.ByteString;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class Base64CodecTest {
+
+    //包括各种末尾长度，以及超过编码缓冲区(8192)的大小
+    private static final int[] SIZES = {0, 1, 2, 3, 4, 5, 6, 7, 100, 6143, 6144, 6145, 20000};
+
+    //java.util.Base64能解码或者抛出IllegalArgumentException的输入
+    private static final List<String> DECODE_INPUTS = Arrays.asList(
+            "", "AQ", "AQ=", "AQ==", "AQI", "AQI=", "AQID", "AQIDBA==", "AQIDBA", "+/+/", "-_-_", "A", "AQ===", "A=", "=",
+            "AQ=a", "AQ==a", "AQ!D", "AQ D", "AQé=", "AQ\n==", "AQID=", "AQIDB===");
+
+    private static ByteString random(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return ByteString.copyFrom(bytes);
+    }
+
+    //多块的RopeByteString，切分位置不在3字节边界上
+    private static ByteString rope(ByteString src) {
+        ByteString result = ByteString.EMPTY;
+        for (int from = 0, step = 1; from < src.size(); from += step, step = step * 2 + 1) {
+            result = result.concat(src.substring(from, Math.min(src.size(), from + step)));
+        }
+        return result;
+    }
+
+    //java.util.Base64的结果，或者异常的类型
+    private static String expectedDecode(String base64) {
+        try {
+            return Arrays.toString(Base64.getDecoder().decode(base64));
+        } catch (IllegalArgumentException ex) {
+            return "IllegalArgumentException";
+        }
+    }
+
+    @Test
+    public void encodeSameAsJdk() {
+        for (int size : SIZES) {
+            ByteString src = random(size, size);
+            String expected = Base64.getEncoder().encodeToString(src.toByteArray());
+            for (ByteString bytes : new ByteString[]{src, rope(src)}) {
+                assertEquals(expected.length(), Base64Codec.encodedLength(bytes.size()));
+                assertEquals("size " + size, expected, Base64Codec.encodeToString(bytes));
+
+                ByteBuf out = Unpooled.buffer(0);
+                Base64Codec.encode(bytes, out, false);
+                assertEquals("size " + size, expected, out.toString(StandardCharsets.US_ASCII));
+                out.release();
+            }
+        }
+    }
+
+    //htmlSafe模式与Gson一样转义 '='，其它字符不变
+    @Test
+    public void encodeHtmlSafe() {
+        for (int size : SIZES) {
+            ByteString src = random(size, size);
+            String expected = Base64.getEncoder().encodeToString(src.toByteArray()).replace("=", "\\u003d");
+
+            //写在已有内容之后，容量不足时扩容
+            ByteBuf out = Unpooled.buffer(1).writeByte('"');
+            Base64Codec.encode(rope(src), out, true);
+            assertEquals("size " + size, "\"" + expected, out.toString(StandardCharsets.US_ASCII));
+            out.release();
+        }
+    }
+
+    @Test
+    public void decodeSameAsJdk() {
+        for (int size : SIZES) {
+            ByteString src = random(size, size);
+            String base64 = Base64.getEncoder().encodeToString(src.toByteArray());
+            assertEquals("size " + size, src, Base64Codec.decode(base64));
+            //末尾的 '=' 可以省略
+            assertEquals("size " + size, src, Base64Codec.decode(base64.replace("=", "")));
+        }
+
+        for (String base64 : DECODE_INPUTS) {
+            String actual;
+            try {
+                actual = Arrays.toString(Base64Codec.decode(base64).toByteArray());
+            } catch (IllegalArgumentException ex) {
+                actual = "IllegalArgumentException";
+            }
+            assertEquals(base64, expectedDecode(base64), actual);
+        }
+    }
+
+    //ByteBufJsonReader直接从字节解码，包括转义的 '='，结果与decode(nextString())一致
+    @Test
+    public void readerNextBase64() throws IOException {
+        int seed = 0;
+        for (String base64 : DECODE_INPUTS) {
+            String expected = expectedDecode(base64);
+            List<String> literals = Arrays.asList(base64, base64.replace("=", "\\u003d"), base64.replace("=", "\\u003D"),
+                    base64.replace("A", "\\u0041"), base64.replace("\n", "\\n"));
+            for (String literal : literals) {
+                byte[] json = ("[\"" + literal + "\",1]").getBytes(StandardCharsets.UTF_8);
+                for (ByteBuf buf : TestMessages.buffers(json, seed++)) {
+                    try (ByteBufJsonReader reader = new ByteBufJsonReader(buf)) {
+                        reader.beginArray();
+                        String actual;
+                        try {
+                            actual = Arrays.toString(reader.nextBase64().toByteArray());
+                            //读取之后位置正确
+                            assertEquals(literal, 1, reader.nextInt());
+                        } catch (IllegalArgumentException ex) {
+                            actual = "IllegalArgumentException";
+                        }
+                        assertEquals(literal + " " + buf.getClass().getSimpleName(), expected, actual);
+                    }
+                    buf.release();
+                }
+            }
+        }
+    }
+
+    //不是字符串时与nextString一样抛出异常
+    @Test
+    public void readerNextBase64NotString() throws IOException {
+        ByteBuf buf = Unpooled.copiedBuffer("[{}]", StandardCharsets.UTF_8);
+        try (ByteBufJsonReader reader = new ByteBufJsonReader(buf)) {
+            reader.beginArray();
+            reader.nextBase64();
+            fail("{}");
+        } catch (IllegalStateException ignored) {
+        } finally {
+            buf.release();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package wenmingwei;
+
+import com.google.gson.stream.JsonReader;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ByteBufJsonReaderTest {
+
+    private static final List<String> INPUTS = Arrays.asList(
+            "{}", "[]", "", "   ", "\uFEFF{\"a\":1}", "{\"a\" : [ 1 , 2 ] ,\n\t\"b\":{}}", "[[],[[]],{},{\"a\":{}}]",
+            "[\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\\u00e9\\u4E2D\\ud83d\\ude00\", \"é中😀\", \"\\u003d\\u003c\", \"\"]",
+            "{\"n\\u0061me\":1,\"é\":2,\"\":3}",
+            "[0, -0, 1, -1, 12.5, -0.0, 1e2, 1E-3, 1.5e+3, 2147483648, 9223372036854775807, 9223372036854775808, -9223372036854775808, "
+                    + "-9223372036854775809, 123456789012345678901234567890, 0.1]",
+            "[true, false, null]", "\"top\"", "12", "true", "null",
+            //格式错误
+            "{", "[", "[1,]", "{\"a\":1,}", "{\"a\" 1}", "{\"a\":}", "{a:1}", "{'a':1}", "[01]", "[1.]", "[-]", "[1e]", "[.5]",
+            "[\"abc", "[\"\\x\"]", "[\"\\u12\"]", "[\"\\u12G4\"]", "[tru]", "[nul]", "[truex]", "[1 2]", "{\"a\":1}{}", "{\"a\":1} x",
+            "]", "}", "[}", "{]", "[NaN]", "[Infinity]", "[1]// c", "[\"bad\u0001ctl\"]");
+
+    //依次读取所有Token，记录Token、值和路径；出错时记录ERROR，之后不再读取
+    private static String tokens(JsonReader reader) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            while (true) {
+                switch (reader.peek()) {
+                    case BEGIN_ARRAY:
+                        reader.beginArray();
+                        sb.append('[');
+                        break;
+                    case END_ARRAY:
+                        reader.endArray();
+                        sb.append(']');
+                        break;
+                    case BEGIN_OBJECT:
+                        reader.beginObject();
+                        sb.append('{');
+                        break;
+                    case END_OBJECT:
+                        reader.endObject();
+                        sb.append('}');
+                        break;
+                    case NAME:
+                        sb.append("name:").append(reader.nextName());
+                        break;
+                    case STRING:
+                        sb.append("string:").append(reader.nextString());
+                        break;
+                    case NUMBER:
+                        sb.append("number:").append(reader.nextString());
+                        break;
+                    case BOOLEAN:
+                        sb.append(reader.nextBoolean());
+                        break;
+                    case NULL:
+                        reader.nextNull();
+                        sb.append("null");
+                        break;
+                    case END_DOCUMENT:
+                        return sb.append(" END").toString();
+                }
+                sb.append(' ').append(reader.getPath()).append('\n');
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException ex) {
+            return sb.append(" ERROR").toString();
+        }
+    }
+
+    //依次读取所有Token，返回格式错误的异常，没有错误时返回null
+    private static Exception error(JsonReader reader) {
+        try {
+            while (true) {
+                switch (reader.peek()) {
+                    case BEGIN_ARRAY:
+                        reader.beginArray();
+                        break;
+                    case END_ARRAY:
+                        reader.endArray();
+                        break;
+                    case BEGIN_OBJECT:
+                        reader.beginObject();
+                        break;
+                    case END_OBJECT:
+                        reader.endObject();
+                        break;
+                    case NAME:
+                        reader.nextName();
+                        break;
+                    case BOOLEAN:
+                        reader.nextBoolean();
+                        break;
+                    case NULL:
+                        reader.nextNull();
+                        break;
+                    case END_DOCUMENT:
+                        return null;
+                    default:
+                        reader.nextString();
+                        break;
+                }
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException ex) {
+            return ex;
+        }
+    }
+
+    private static List<String> inputs() throws IOException {
+        List<String> inputs = new ArrayList<>(INPUTS);
+        ProtoJsonMapperConfig config = new ProtoJsonMapperConfig();
+        config.setStreaming(true);
+        ProtoJsonMapper mapper = new ProtoJsonMapper(config);
+        config.setMapAsObject(true);
+        ProtoJsonMapper mapAsObject = new ProtoJsonMapper(config);
+        for (int seed = 0; seed < 20; seed++) {
+            inputs.add(mapper.encode(TestMessages.random(seed)));
+            inputs.add(mapAsObject.encode(TestMessages.random(seed)));
+        }
+        return inputs;
+    }
+
+    //Token、值、路径与Gson的JsonReader一致；格式错误时同样在读到出错的Token时抛出异常
+    @Test
+    public void sameTokensAsJsonReader() throws IOException {
+        int seed = 0;
+        for (String json : inputs()) {
+            String expected = tokens(new JsonReader(new StringReader(json)));
+            for (ByteBuf buf : TestMessages.buffers(json.getBytes(StandardCharsets.UTF_8), seed++)) {
+                int readerIndex = buf.readerIndex();
+                try (ByteBufJsonReader reader = new ByteBufJsonReader(buf)) {
+                    assertEquals(json + " " + buf.getClass().getSimpleName(), expected, tokens(reader));
+                }
+                //不改变readerIndex
+                assertEquals(readerIndex, buf.readerIndex());
+                buf.release();
+            }
+        }
+    }
+
+    //lenient模式下Gson能读取、ByteBufJsonReader不支持的语法，异常标记为需要重新解码；其它格式错误不标记
+    @Test
+    public void unsupportedLenientSyntax() throws IOException {
+        List<String> lenientOnly = Arrays.asList(
+                "{a:1}", "{'a':'b'}", "['a']", "[1;2]", "{\"a\"=1}", "{\"a\"=>1}", "{\"a\":1;\"b\":2}", "[1,,2]", "[1,]",
+                "[tru]", "[1.5x]", "[1.]", "/*c*/[]", "[1]// c", "#c\n[]", "[\u4e2d]");
+        List<String> inputs = new ArrayList<>(INPUTS);
+        inputs.addAll(lenientOnly);
+        for (String json : inputs) {
+            JsonReader gson = new JsonReader(new StringReader(json));
+            gson.setLenient(true);
+            boolean gsonError = error(gson) != null;
+            try (ByteBufJsonReader reader = new ByteBufJsonReader(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8))) {
+                reader.setLenient(true);
+                Exception ex = error(reader);
+                if (lenientOnly.contains(json)) {
+                    assertFalse(json, gsonError);
+                    assertNotNull(json, ex);
+                    assertTrue(json, ByteBufJsonReader.isUnsupportedSyntax(ex));
+                } else if (!gsonError && ex != null) {
+                    assertTrue(json, ByteBufJsonReader.isUnsupportedSyntax(ex));
+                }
+            }
+        }
+
+        //结构错误、未结束的字符串、错误的转义、非lenient模式
+        for (String json : new String[]{"{", "[", "}", "[}", "{\"a\":}", "[\"abc", "[\"\\x\"]", "{\"a\":1} x"}) {
+            try (ByteBufJsonReader reader = new ByteBufJsonReader(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8))) {
+                reader.setLenient(!json.endsWith("x"));
+                Exception ex = error(reader);
+                assertNotNull(json, ex);
+                assertFalse(json, ByteBufJsonReader.isUnsupportedSyntax(ex));
+            }
+        }
+    }
+
+    //skipValue跳过任意的值，之后的Token和路径一致
+    @Test
+    public void skipValue() throws IOException {
+        String json = "[{\"a\":[1,{\"b\":\"}\\\"]\"}],\"c\":null},\"x\\\"y\",-1.5e3,[[]],{},true,\"last\"]";
+        for (int skip = 0; skip < 7; skip++) {
+            String expected = tokens(skipped(new JsonReader(new StringReader(json)), skip));
+            for (ByteBuf buf : TestMessages.buffers(json.getBytes(StandardCharsets.UTF_8), skip)) {
+                try (ByteBufJsonReader reader = new ByteBufJsonReader(buf)) {
+                    assertEquals(json + " skip " + skip, expected, tokens(skipped(reader, skip)));
+                }
+                buf.release();
+            }
+        }
+    }
+
+    //nextInt/nextLong/nextDouble对数字和字符串的结果与异常一致
+    @Test
+    public void numbers() throws IOException {
+        String json = "[1, -0, 1.0, 1.5, 1e2, 2147483648, -2147483649, 9223372036854775807, 9223372036854775808, "
+                + "\"12\", \"1.0\", \"1e2\", \"-9223372036854775808\", \"x\", 1e400, true, null, NaN, -Infinity]";
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        for (int index = 0; index < 19; index++) {
+            for (int method = 0; method < 3; method++) {
+                for (boolean lenient : new boolean[]{false, true}) {
+                    String expected = number(new JsonReader(new StringReader(json)), index, method, lenient);
+                    for (ByteBuf buf : TestMessages.buffers(bytes, index)) {
+                        try (ByteBufJsonReader reader = new ByteBufJsonReader(buf)) {
+                            assertEquals("element " + index + " method " + method + " lenient " + lenient,
+                                    expected, number(reader, index, method, lenient));
+                        }
+                        buf.release();
+                    }
+                }
+            }
+        }
+    }
+
+    //读过数组开头之后跳过skip个元素
+    private static JsonReader skipped(JsonReader reader, int skip) throws IOException {
+        reader.beginArray();
+        for (int i = 0; i < skip; i++) {
+            reader.skipValue();
+        }
+        return reader;
+    }
+
+    //method: 0为nextInt，1为nextLong，2为nextDouble
+    private static String number(JsonReader reader, int index, int method, boolean lenient) throws IOException {
+        reader.setLenient(lenient);
+        try {
+            skipped(reader, index);
+            return String.valueOf(method == 0 ? reader.nextInt() : method == 1 ? reader.nextLong() : reader.nextDouble())
+                    + " " + reader.getPath();
+        } catch (IOException | IllegalStateException | NumberFormatException ex) {
+            return ex.getClass().getSimpleName();
+        }
+    }
+}
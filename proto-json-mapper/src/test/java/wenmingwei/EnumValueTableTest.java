@@ -0,0 +1,109 @@
+package wenmingwei;
+
+import com.google.gson.JsonParseException;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+import wenmingwei.test.All;
+import wenmingwei.test.Color;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EnumValueTableTest {
+
+    //编号不连续、有负数和别名的Enum，使用HashMap查找
+    private static Descriptors.EnumDescriptor sparseEnum() throws Descriptors.DescriptorValidationException {
+        DescriptorProtos.EnumDescriptorProto.Builder sparse = DescriptorProtos.EnumDescriptorProto.newBuilder()
+                .setName("Sparse")
+                .setOptions(DescriptorProtos.EnumOptions.newBuilder().setAllowAlias(true));
+        String[] names = {"ZERO", "NEGATIVE", "BIG", "BIG_ALIAS", "MIN"};
+        int[] numbers = {0, -5, 1000, 1000, Integer.MIN_VALUE};
+        for (int i = 0; i < names.length; i++) {
+            sparse.addValue(DescriptorProtos.EnumValueDescriptorProto.newBuilder().setName(names[i]).setNumber(numbers[i]));
+        }
+        DescriptorProtos.FileDescriptorProto file = DescriptorProtos.FileDescriptorProto.newBuilder()
+                .setName("sparse.proto")
+                .setPackage("wenmingwei.sparse")
+                .addEnumType(sparse)
+                .build();
+        return Descriptors.FileDescriptor.buildFrom(file, new Descriptors.FileDescriptor[0]).findEnumTypeByName("Sparse");
+    }
+
+    //名字、数字字符串都能找到；未知的名字、编号，非数字和超出int范围的数字返回null
+    @Test
+    public void findDense() {
+        EnumValueTable table = new EnumValueTable(Color.getDescriptor());
+        assertSame(Color.getDescriptor(), table.descriptor());
+        for (Color color : new Color[]{Color.RED, Color.GREEN, Color.BLUE}) {
+            assertSame(color.getValueDescriptor(), table.find(color.name()));
+            assertSame(color.getValueDescriptor(), table.find(Integer.toString(color.getNumber())));
+            assertSame(color.getValueDescriptor(), table.findByNumber(color.getNumber()));
+        }
+        assertSame(Color.RED.getValueDescriptor(), table.find("-0"));
+        assertSame(Color.BLUE.getValueDescriptor(), table.find("0002"));
+
+        for (String value : new String[]{"", "-", "3", "-1", "red", "BLUE ", " 1", "1.0", "1e0", "+1", "0x1", "--1",
+                "2147483648", "-2147483649", "99999999999", "00000000001"}) {
+            assertNull(value, table.find(value));
+        }
+        assertNull(table.findByNumber(-1));
+        assertNull(table.findByNumber(3));
+        assertNull(table.findByNumber(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void findSparse() throws Descriptors.DescriptorValidationException {
+        Descriptors.EnumDescriptor descriptor = sparseEnum();
+        EnumValueTable table = new EnumValueTable(descriptor);
+
+        assertSame(descriptor.findValueByName("NEGATIVE"), table.find("-5"));
+        assertSame(descriptor.findValueByName("NEGATIVE"), table.findByNumber(-5));
+        assertSame(descriptor.findValueByName("MIN"), table.find("-2147483648"));
+        //别名按名字找到自己，按编号与EnumDescriptor.findValueByNumber一样找到第一个
+        assertSame(descriptor.findValueByName("BIG_ALIAS"), table.find("BIG_ALIAS"));
+        assertSame(descriptor.findValueByNumber(1000), table.find("1000"));
+        assertEquals("BIG", table.findByNumber(1000).getName());
+
+        assertNull(table.find("1"));
+        assertNull(table.find("-2147483649"));
+        assertNull(table.findByNumber(999));
+        assertEquals("Unknown value(7) of enum(wenmingwei.sparse.Sparse)", table.unknownValueMessage("7"));
+    }
+
+    //解码时接受名字、数字和数字字符串，未知的值抛出异常
+    @Test
+    public void decodeNameOrNumber() throws IOException {
+        All expected = All.newBuilder()
+                .setColor(Color.BLUE)
+                .addRcolor(Color.RED).addRcolor(Color.BLUE).addRcolor(Color.GREEN)
+                .build();
+        for (int i = 0; i < 2; i++) {
+            ProtoJsonMapperConfig config = new ProtoJsonMapperConfig();
+            config.setStreaming(i == 1);
+            ProtoJsonMapper mapper = new ProtoJsonMapper(config);
+            assertEquals(config.toString(), expected, decode(mapper, "{\"color\":\"BLUE\",\"rcolor\":[\"RED\",2,\"1\"]}"));
+            assertEquals(config.toString(), expected, decode(mapper, "{\"color\":2,\"rcolor\":[0,\"BLUE\",1]}"));
+
+            for (String json : new String[]{"{\"color\":\"PURPLE\"}", "{\"color\":3}", "{\"rcolor\":[\"RED\",\"-1\"]}"}) {
+                try {
+                    decode(mapper, json);
+                    fail(config + json);
+                } catch (JsonParseException ex) {
+                    assertTrue(json, ex.getMessage().contains("wenmingwei.test.Color"));
+                }
+            }
+        }
+    }
+
+    private static All decode(ProtoJsonMapper mapper, String json) throws IOException {
+        return (All) mapper.decode(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8), All.getDescriptor());
+    }
+}
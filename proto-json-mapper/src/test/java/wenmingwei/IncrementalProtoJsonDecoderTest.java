@@ -0,0 +1,77 @@
+package wenmingwei;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+import wenmingwei.test.All;
+import wenmingwei.test.Dynamic;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class IncrementalProtoJsonDecoderTest {
+
+    private static ProtoJsonMapper wellKnownTypesMapper() {
+        ProtoJsonMapperConfig config = new ProtoJsonMapperConfig();
+        config.setStreaming(true);
+        config.setWellKnownTypes(true);
+        return new ProtoJsonMapper(config);
+    }
+
+    //在每一个字节处切成两块提交，结果与decode一致
+    static void assertSameAsDecode(ProtoJsonMapper mapper, Descriptors.Descriptor descriptor, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        Message expected = mapper.decode(Unpooled.wrappedBuffer(bytes), descriptor);
+        for (int split = 0; split <= bytes.length; split++) {
+            IncrementalProtoJsonDecoder decoder = mapper.newIncrementalDecoder(descriptor, ByteBufAllocator.DEFAULT);
+            assertEquals(null, decoder.offer(Unpooled.copiedBuffer(bytes, 0, split), false));
+            Message actual = decoder.offer(Unpooled.copiedBuffer(bytes, split, bytes.length - split), true);
+            assertEquals(json + " split at " + split, expected, actual);
+        }
+    }
+
+    //在任意字节处切开(包括字符串、转义字符、多字节UTF-8字符的中间)，结果与decode以及原来的Message一致
+    @Test
+    public void everyChunkBoundary() throws IOException {
+        ProtoJsonMapperConfig config = new ProtoJsonMapperConfig();
+        config.setStreaming(true);
+        for (boolean mapAsObject : new boolean[]{false, true}) {
+            config.setMapAsObject(mapAsObject);
+            ProtoJsonMapper mapper = new ProtoJsonMapper(config);
+            for (int seed = 0; seed < 6; seed++) {
+                All message = TestMessages.random(seed);
+                String json = mapper.encode(message);
+                assertSameAsDecode(mapper, All.getDescriptor(), json);
+                assertEquals(json, message, singleByteChunks(mapper, json));
+            }
+        }
+    }
+
+    //每个字节一块
+    private static Message singleByteChunks(ProtoJsonMapper mapper, String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        IncrementalProtoJsonDecoder decoder = mapper.newIncrementalDecoder(All.getDescriptor(), ByteBufAllocator.DEFAULT);
+        for (int i = 0; i < bytes.length; i++) {
+            assertEquals(null, decoder.offer(Unpooled.copiedBuffer(bytes, i, 1), false));
+        }
+        return decoder.offer(Unpooled.EMPTY_BUFFER, true);
+    }
+
+    //单个的ListValue/Value字段的值是Json数组，不能按元素拆开解码，否则只保留最后一个元素
+    @Test
+    public void singularListValueIsNotSplit() throws IOException {
+        ProtoJsonMapper mapper = wellKnownTypesMapper();
+        Message message = mapper.newIncrementalDecoder(Dynamic.getDescriptor(), ByteBufAllocator.DEFAULT)
+                .offer(Unpooled.copiedBuffer("{\"list\":[1,2,3]}", StandardCharsets.UTF_8), true);
+        assertEquals(3, ((Dynamic) message).getList().getValuesCount());
+
+        assertSameAsDecode(mapper, Dynamic.getDescriptor(), "{\"list\":[1,2,3]}");
+        assertSameAsDecode(mapper, Dynamic.getDescriptor(), "{\"value\" : [1,[2,{\"a\":[3]}],\"x\",null],\"name\":\"n\"}");
+        assertSameAsDecode(mapper, Dynamic.getDescriptor(), "{\"values\":[1,[2],null,{}],\"list\":[],\"value\":[]}");
+        assertSameAsDecode(mapper, Dynamic.getDescriptor(), "{list:[1,2],'values':[3,4]}");
+    }
+}
@@ -0,0 +1,169 @@
+package wenmingwei;
+
+import com.google.common.cache.CacheStats;
+import com.google.protobuf.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+import wenmingwei.test.All;
+
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProtoJsonEncodeCacheTest {
+
+    private final ProtoJsonMapper mapper = new ProtoJsonMapper();
+
+    //i32不同的Message内容不同，st的长度决定Json的大小
+    private static All message(int i, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < length; j++) {
+            sb.append((char) ('a' + j % 26));
+        }
+        return All.newBuilder().setI32(i).setSt(sb.toString()).build();
+    }
+
+    private String expected(Message message) {
+        ByteBuf out = Unpooled.buffer();
+        mapper.encode(message, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String read(ByteBuf json) {
+        try {
+            return json.toString(StandardCharsets.UTF_8);
+        } finally {
+            json.release();
+        }
+    }
+
+    private static void assertStats(ProtoJsonEncodeCache cache, long hits, long misses, long evictions) {
+        CacheStats stats = cache.stats();
+        assertEquals("hits", hits, stats.hitCount());
+        assertEquals("misses", misses, stats.missCount());
+        assertEquals("evictions", evictions, stats.evictionCount());
+    }
+
+    //命中时返回与encode(Message, ByteBuf)相同的字节
+    @Test
+    public void hitReturnsSameBytes() {
+        for (ProtoJsonEncodeCache.KeyMode keyMode : ProtoJsonEncodeCache.KeyMode.values()) {
+            ProtoJsonEncodeCache cache = new ProtoJsonEncodeCache(mapper, 1 << 20, keyMode);
+            All message = TestMessages.random(5);
+            String expected = expected(message);
+
+            assertEquals(keyMode.name(), expected, read(cache.encode(message)));
+            assertEquals(keyMode.name(), expected, read(cache.encode(message)));
+            ByteBuf out = Unpooled.buffer().writeByte('x');
+            cache.encode(message, out);
+            assertEquals(keyMode.name(), "x" + expected, out.toString(StandardCharsets.UTF_8));
+
+            assertStats(cache, 2, 1, 0);
+            assertEquals(1, cache.size());
+            assertEquals(expected.getBytes(StandardCharsets.UTF_8).length, cache.sizeInBytes());
+        }
+    }
+
+    //按字节数淘汰，缓存的字节数不超过maximumBytes；每个未命中的条目要么还在缓存中，要么被淘汰
+    @Test
+    public void evictionKeepsBytesWithinMaximum() {
+        long maximumBytes = 4096;
+        ProtoJsonEncodeCache cache = new ProtoJsonEncodeCache(mapper, maximumBytes, ProtoJsonEncodeCache.KeyMode.CONTENT);
+        for (int i = 0; i < 200; i++) {
+            All message = message(i, 100);
+            assertEquals(expected(message), read(cache.encode(message)));
+            assertTrue(cache.sizeInBytes() + " > " + maximumBytes, cache.sizeInBytes() <= maximumBytes);
+        }
+        CacheStats stats = cache.stats();
+        assertEquals(200, stats.missCount());
+        assertTrue(stats.evictionCount() > 0);
+        assertEquals(stats.missCount() - stats.evictionCount(), cache.size());
+
+        //被淘汰之后重新编码，结果不变
+        All first = message(0, 100);
+        assertEquals(expected(first), read(cache.encode(first)));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.sizeInBytes());
+    }
+
+    //超过maximumBytes/4的编码结果不留在缓存中，每次都重新编码
+    @Test
+    public void oversizedEntryIsNotRetained() {
+        long maximumBytes = 4096;
+        ProtoJsonEncodeCache cache = new ProtoJsonEncodeCache(mapper, maximumBytes, ProtoJsonEncodeCache.KeyMode.CONTENT);
+        All large = message(1, (int) (maximumBytes / 4) + 1);
+        String expected = expected(large);
+
+        assertEquals(expected, read(cache.encode(large)));
+        assertEquals(expected, read(cache.encode(large)));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.sizeInBytes());
+        assertStats(cache, 0, 2, 2);
+
+        //小的条目不受影响
+        All small = message(2, 10);
+        read(cache.encode(small));
+        read(cache.encode(small));
+        assertEquals(1, cache.size());
+        assertStats(cache, 1, 3, 2);
+    }
+
+    //IDENTITY按对象身份查找，内容相同的不同对象各自编码；CONTENT共享一份编码
+    @Test
+    public void identityDoesNotAliasEqualMessages() {
+        All a = message(1, 10);
+        All b = message(1, 10);
+        assertEquals(a, b);
+        assertNotSame(a, b);
+
+        ProtoJsonEncodeCache identity = new ProtoJsonEncodeCache(mapper, 1 << 20, ProtoJsonEncodeCache.KeyMode.IDENTITY);
+        assertEquals(expected(a), read(identity.encode(a)));
+        assertEquals(expected(b), read(identity.encode(b)));
+        read(identity.encode(a));
+        assertEquals(2, identity.size());
+        assertStats(identity, 1, 2, 0);
+
+        ProtoJsonEncodeCache content = new ProtoJsonEncodeCache(mapper, 1 << 20, ProtoJsonEncodeCache.KeyMode.CONTENT);
+        read(content.encode(a));
+        read(content.encode(b));
+        assertEquals(1, content.size());
+        assertStats(content, 1, 1, 0);
+    }
+
+    //调用者释放返回的ByteBuf不影响缓存的内容，返回的ByteBuf只读
+    @Test
+    public void releaseDoesNotFreeCachedCopy() {
+        ProtoJsonEncodeCache cache = new ProtoJsonEncodeCache(mapper, 1 << 20, ProtoJsonEncodeCache.KeyMode.CONTENT,
+                ByteBufAllocator.DEFAULT);
+        All message = TestMessages.random(9);
+        String expected = expected(message);
+
+        for (int i = 0; i < 10; i++) {
+            ByteBuf json = cache.encode(message);
+            try {
+                json.setByte(0, 'x');
+                fail();
+            } catch (ReadOnlyBufferException ignored) {
+            }
+            //读取只移动返回的ByteBuf自己的readerIndex
+            json.skipBytes(1);
+            json.release();
+        }
+
+        assertEquals(expected, read(cache.encode(message)));
+
+        //淘汰之后已经返回的ByteBuf仍然有效
+        ByteBuf held = cache.encode(message);
+        cache.invalidateAll();
+        assertEquals(expected, read(held));
+        assertStats(cache, 11, 1, 0);
+    }
+}
@@ -0,0 +1,285 @@
+package wenmingwei;
+
+import com.google.protobuf.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Test;
+import wenmingwei.test.All;
+import wenmingwei.test.Inner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ProtoJsonHttpCodecTest {
+
+    private final ProtoJsonMapper mapper = new ProtoJsonMapper();
+    private final ProtoJsonRoutes routes = new ProtoJsonRoutes().bind(HttpMethod.POST, "/all", All.getDescriptor());
+    //offloadExecutor只记录任务，由测试在当前线程执行
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final Executor offloadExecutor = tasks::add;
+
+    private static All message(int i, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < length; j++) {
+            sb.append((char) ('a' + j % 26));
+        }
+        return All.newBuilder().setI32(i).setSt(sb.toString()).build();
+    }
+
+    private String json(Message message) {
+        ByteBuf out = Unpooled.buffer();
+        mapper.encode(message, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static HttpRequest fullRequest(String uri, String json) {
+        DefaultFullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, uri,
+                Unpooled.copiedBuffer(json, StandardCharsets.UTF_8));
+        HttpUtil.setContentLength(request, request.content().readableBytes());
+        return request;
+    }
+
+    //Transfer-Encoding: chunked的请求，请求体每chunkSize个字节一个HttpContent
+    private static void writeChunked(EmbeddedChannel channel, String uri, String json, int chunkSize) {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, uri);
+        HttpUtil.setTransferEncodingChunked(request, true);
+        channel.writeInbound(request);
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            channel.writeInbound(new DefaultHttpContent(Unpooled.wrappedBuffer(bytes, i, Math.min(chunkSize, bytes.length - i))));
+        }
+        channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+
+    private static All readRequest(EmbeddedChannel channel) {
+        Object msg = channel.readInbound();
+        assertTrue(String.valueOf(msg), msg instanceof ProtoJsonRequest);
+        ProtoJsonRequest request = (ProtoJsonRequest) msg;
+        assertEquals("/all", request.getRequest().uri());
+        return (All) request.getMessage();
+    }
+
+    private static FullHttpResponse readResponse(EmbeddedChannel channel, HttpResponseStatus status) {
+        Object msg = channel.readOutbound();
+        assertTrue(String.valueOf(msg), msg instanceof FullHttpResponse);
+        FullHttpResponse response = (FullHttpResponse) msg;
+        assertEquals(status, response.status());
+        return response;
+    }
+
+    //没有offloadExecutor时，完整请求和分块到达的请求都在EventLoop中增量解码
+    @Test
+    public void inlineDecode() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ProtoJsonHttpCodec(mapper, routes));
+        All message = TestMessages.random(3);
+        String json = json(message);
+
+        channel.writeInbound(fullRequest("/all?x=1", json));
+        Object msg = channel.readInbound();
+        assertEquals(message, ((ProtoJsonRequest) msg).getMessage());
+
+        for (int chunkSize : new int[]{1, 7, 1000}) {
+            writeChunked(channel, "/all", json, chunkSize);
+            assertEquals(message, readRequest(channel));
+        }
+
+        //Json格式错误时回复400，之后的请求不受影响
+        channel.writeInbound(fullRequest("/all", "{\"i32\":"));
+        assertNull(channel.readInbound());
+        readResponse(channel, HttpResponseStatus.BAD_REQUEST).release();
+        channel.writeInbound(fullRequest("/all", json));
+        assertEquals(message, readRequest(channel));
+        assertFalse(channel.finish());
+    }
+
+    //请求体超过offloadThreshold时交给offloadExecutor解码，包括长度未知的请求；期间暂停读取，之后的请求按顺序处理
+    @Test
+    public void offloadDecode() {
+        int threshold = 64;
+        EmbeddedChannel channel = new EmbeddedChannel(new ProtoJsonHttpCodec(mapper, routes, offloadExecutor, threshold));
+        All large = message(1, threshold);
+        All small = All.newBuilder().setI32(2).build();
+        assertTrue(json(small).length() <= threshold);
+
+        for (boolean chunked : new boolean[]{false, true}) {
+            if (chunked) {
+                writeChunked(channel, "/all", json(large), 10);
+            } else {
+                channel.writeInbound(fullRequest("/all", json(large)));
+            }
+            assertNull(channel.readInbound());
+            assertEquals(1, tasks.size());
+            assertFalse(channel.config().isAutoRead());
+
+            //解码期间收到的请求暂存
+            writeChunked(channel, "/all", json(small), 3);
+            assertNull(channel.readInbound());
+
+            tasks.remove(0).run();
+            channel.runPendingTasks();
+            assertEquals(large, readRequest(channel));
+            assertEquals(small, readRequest(channel));
+            assertTrue(channel.config().isAutoRead());
+            assertTrue(tasks.isEmpty());
+        }
+
+        //长度未知但实际不超过offloadThreshold的请求在EventLoop中解码
+        writeChunked(channel, "/all", json(small), 1);
+        assertEquals(small, readRequest(channel));
+        assertTrue(tasks.isEmpty());
+
+        //offload解码失败时回复400
+        channel.writeInbound(fullRequest("/all", "{\"st\":\"" + json(large)));
+        tasks.remove(0).run();
+        channel.runPendingTasks();
+        assertNull(channel.readInbound());
+        readResponse(channel, HttpResponseStatus.BAD_REQUEST).release();
+        assertTrue(channel.config().isAutoRead());
+        assertFalse(channel.finish());
+    }
+
+    //Content-Length或者已收到的字节数超过maxContentLength时回复413，丢弃剩余内容
+    @Test
+    public void tooLarge() {
+        int maxContentLength = 32;
+        for (Executor executor : new Executor[]{null, offloadExecutor}) {
+            EmbeddedChannel channel = new EmbeddedChannel(new ProtoJsonHttpCodec(mapper, routes, executor, 8, maxContentLength));
+            String json = json(message(1, maxContentLength));
+
+            channel.writeInbound(fullRequest("/all", json));
+            readResponse(channel, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE).release();
+
+            writeChunked(channel, "/all", json, 5);
+            readResponse(channel, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE).release();
+            assertNull(channel.readOutbound());
+            assertNull(channel.readInbound());
+            assertTrue(tasks.isEmpty());
+
+            All small = All.newBuilder().setI32(2).build();
+            channel.writeInbound(fullRequest("/all", json(small)));
+            if (executor != null) {
+                tasks.remove(0).run();
+                channel.runPendingTasks();
+            }
+            assertEquals(small, readRequest(channel));
+            assertFalse(channel.finish());
+        }
+    }
+
+    //没有绑定的请求原样传递
+    @Test
+    public void passThrough() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ProtoJsonHttpCodec(mapper, routes, offloadExecutor, 0));
+        HttpRequest full = fullRequest("/other", "{bad");
+        channel.writeInbound(full);
+        assertSame(full, channel.readInbound());
+        ReferenceCountUtil.release(full);
+
+        HttpRequest get = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/all");
+        HttpContent content = new DefaultLastHttpContent(Unpooled.copiedBuffer("x", StandardCharsets.UTF_8));
+        channel.writeInbound(get, content);
+        assertSame(get, channel.readInbound());
+        assertSame(content, channel.readInbound());
+        assertEquals(1, content.refCnt());
+        content.release();
+
+        assertTrue(tasks.isEmpty());
+        assertNull(channel.readOutbound());
+        assertFalse(channel.finish());
+    }
+
+    //不超过responseChunkSize的响应为FullHttpResponse，超过时分块发送
+    @Test
+    public void encodeResponse() {
+        int chunkSize = 100;
+        EmbeddedChannel channel = new EmbeddedChannel(new ProtoJsonHttpCodec(mapper, routes, null,
+                ProtoJsonHttpCodec.DEFAULT_OFFLOAD_THRESHOLD, ProtoJsonHttpCodec.DEFAULT_MAX_CONTENT_LENGTH, chunkSize));
+
+        Inner small = Inner.newBuilder().setName("a").build();
+        channel.writeOutbound(small);
+        FullHttpResponse full = readResponse(channel, HttpResponseStatus.OK);
+        assertEquals(json(small), full.content().toString(StandardCharsets.UTF_8));
+        assertEquals(full.content().readableBytes(), HttpUtil.getContentLength(full));
+        full.release();
+
+        All large = message(1, chunkSize * 3);
+        channel.writeOutbound(large);
+        HttpResponse head = channel.readOutbound();
+        assertEquals(HttpResponseStatus.OK, head.status());
+        assertTrue(HttpUtil.isTransferEncodingChunked(head));
+        assertFalse(head.headers().contains(HttpHeaderNames.CONTENT_LENGTH));
+        StringBuilder body = new StringBuilder();
+        int chunks = 0;
+        HttpContent content;
+        do {
+            content = channel.readOutbound();
+            assertTrue(content.content().readableBytes() <= chunkSize);
+            body.append(content.content().toString(StandardCharsets.UTF_8));
+            content.release();
+            chunks++;
+        } while (!(content instanceof LastHttpContent));
+        assertEquals(json(large), body.toString());
+        assertEquals((json(large).length() + chunkSize - 1) / chunkSize, chunks);
+        assertFalse(channel.finish());
+    }
+
+    //ProtoJsonStreamResponse编码为NDJSON，第一条之前发送响应头，end带trailers
+    @Test
+    public void encodeStream() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ProtoJsonHttpCodec(mapper, routes));
+        for (int count : new int[]{3, 0}) {
+            for (int i = 0; i < count; i++) {
+                channel.writeOutbound(ProtoJsonStreamResponse.message(All.newBuilder().setI32(i).build()));
+            }
+            HttpHeaders trailers = new DefaultHttpHeaders().set("grpc-status", 0);
+            channel.writeOutbound(ProtoJsonStreamResponse.end(trailers));
+
+            List<HttpObject> written = new ArrayList<>();
+            Object msg;
+            while ((msg = channel.readOutbound()) != null) {
+                written.add((HttpObject) msg);
+            }
+            assertEquals(count + 2, written.size());
+            HttpResponse head = (HttpResponse) written.get(0);
+            assertTrue(HttpUtil.isTransferEncodingChunked(head));
+            assertEquals("application/x-ndjson; charset=UTF-8", head.headers().get(HttpHeaderNames.CONTENT_TYPE));
+            for (int i = 0; i < count; i++) {
+                HttpContent content = (HttpContent) written.get(i + 1);
+                assertFalse(content instanceof LastHttpContent);
+                assertEquals(json(All.newBuilder().setI32(i).build()) + "\n", content.content().toString(StandardCharsets.UTF_8));
+                content.release();
+            }
+            LastHttpContent last = (LastHttpContent) written.get(count + 1);
+            assertFalse(last.content().isReadable());
+            assertEquals("0", last.trailingHeaders().get("grpc-status"));
+        }
+        assertFalse(channel.finish());
+    }
+}
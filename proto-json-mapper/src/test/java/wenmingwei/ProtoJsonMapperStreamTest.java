@@ -0,0 +1,216 @@
+package wenmingwei;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.protobuf.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+import wenmingwei.test.All;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProtoJsonMapperStreamTest {
+
+    private static ProtoJsonMapper mapper(boolean streaming) {
+        ProtoJsonMapperConfig config = new ProtoJsonMapperConfig();
+        config.setStreaming(streaming);
+        return new ProtoJsonMapper(config);
+    }
+
+    private static List<All> messages(int count) {
+        List<All> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            messages.add(TestMessages.random(i));
+        }
+        return messages;
+    }
+
+    private static List<Message> collect(Spliterator<Message> spliterator) {
+        List<Message> ret = new ArrayList<>();
+        spliterator.forEachRemaining(ret::add);
+        return ret;
+    }
+
+    //每次最多返回chunkSize个字节的InputStream，记录边界和多字节UTF-8字符可能落在两次read之间
+    private static InputStream chunked(byte[] bytes, int chunkSize) {
+        return new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, chunkSize));
+            }
+        };
+    }
+
+    //每条记录一行，与encode(Message, ByteBuf)的结果一致；OutputStream与ByteBuf的结果一致
+    @Test
+    public void encodeStreamOneRecordPerLine() throws IOException {
+        for (int i = 0; i < 2; i++) {
+            ProtoJsonMapper mapper = mapper(i == 1);
+            //超过OutputStream的缓冲区大小，分多次写出
+            List<All> messages = messages(2000);
+
+            ByteBuf expected = Unpooled.buffer();
+            for (All message : messages) {
+                mapper.encode(message, expected);
+                expected.writeByte('\n');
+            }
+            String ndjson = expected.toString(StandardCharsets.UTF_8);
+            assertTrue(ndjson.length() > 1 << 16);
+
+            ByteBuf out = Unpooled.buffer().writeByte('x');
+            mapper.encodeStream(messages.iterator(), out);
+            assertEquals("x" + ndjson, out.toString(StandardCharsets.UTF_8));
+            String[] lines = ndjson.split("\n", -1);
+            assertEquals(messages.size() + 1, lines.length);
+            assertEquals("", lines[messages.size()]);
+
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            mapper.encodeStream(messages.iterator(), stream);
+            assertEquals(ndjson, new String(stream.toByteArray(), StandardCharsets.UTF_8));
+
+            ByteBuf empty = Unpooled.buffer();
+            mapper.encodeStream(new ArrayList<All>().iterator(), empty);
+            assertFalse(empty.isReadable());
+        }
+    }
+
+    //写不下时保留之前的完整记录
+    @Test
+    public void encodeStreamKeepsCompleteRecords() {
+        ProtoJsonMapper mapper = mapper(true);
+        All message = All.newBuilder().setSt("abcdefgh").build();
+        ByteBuf encoded = Unpooled.buffer();
+        mapper.encode(message, encoded);
+        String line = encoded.toString(StandardCharsets.UTF_8) + "\n";
+        List<All> three = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            three.add(message);
+        }
+        //放得下两条记录，第三条写到一半
+        ByteBuf out = Unpooled.buffer(0, line.length() * 2 + 4);
+        try {
+            mapper.encodeStream(three.iterator(), out);
+            fail();
+        } catch (IndexOutOfBoundsException ex) {
+            assertEquals(line + line, out.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    //记录之间可以有空行和空白，不改变readerIndex
+    @Test
+    public void decodeStreamSameAsEncodeStream() throws IOException {
+        for (int i = 0; i < 2; i++) {
+            ProtoJsonMapper mapper = mapper(i == 1);
+            List<All> messages = messages(50);
+            ByteBuf ndjson = Unpooled.buffer();
+            mapper.encodeStream(messages.iterator(), ndjson);
+            String text = "\n  " + ndjson.toString(StandardCharsets.UTF_8).replace("\n", "\n\r\n\t ") + "\n\n";
+
+            ByteBuf buf = Unpooled.buffer().writeByte('x').writeBytes(text.getBytes(StandardCharsets.UTF_8));
+            buf.readerIndex(1);
+            assertEquals(messages, collect(mapper.decodeStream(buf, All.getDescriptor())));
+            assertEquals(1, buf.readerIndex());
+
+            assertEquals(messages, collect(mapper.decodeStream(
+                    new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), All.getDescriptor())));
+
+            for (String blank : new String[]{"", " ", "\n\n", " \r\n\t"}) {
+                assertEquals(blank, 0, collect(mapper.decodeStream(Unpooled.copiedBuffer(blank, StandardCharsets.UTF_8), All.getDescriptor())).size());
+                assertEquals(blank, 0, collect(mapper.decodeStream(
+                        new ByteArrayInputStream(blank.getBytes(StandardCharsets.UTF_8)), All.getDescriptor())).size());
+            }
+        }
+    }
+
+    //InputStream每次读取任意字节数、ByteBuf为多块CompositeByteBuf时，结果不变
+    @Test
+    public void decodeStreamAtChunkBoundaries() throws IOException {
+        ProtoJsonMapper mapper = mapper(true);
+        List<All> messages = messages(20);
+        ByteBuf ndjson = Unpooled.buffer();
+        mapper.encodeStream(messages.iterator(), ndjson);
+        byte[] bytes = new byte[ndjson.readableBytes()];
+        ndjson.readBytes(bytes);
+
+        for (int chunkSize : new int[]{1, 2, 3, 7, 64, 1000}) {
+            assertEquals("chunk " + chunkSize, messages, collect(mapper.decodeStream(chunked(bytes, chunkSize), All.getDescriptor())));
+        }
+        for (ByteBuf buf : TestMessages.buffers(bytes, 1)) {
+            assertEquals(buf.getClass().getSimpleName(), messages, collect(mapper.decodeStream(buf, All.getDescriptor())));
+            buf.release();
+        }
+    }
+
+    //按换行符拆分后并行解码，顺序与输入一致
+    @Test
+    public void decodeStreamSplitsAtLineFeeds() {
+        for (int i = 0; i < 2; i++) {
+            ProtoJsonMapper mapper = mapper(i == 1);
+            List<All> messages = messages(3000);
+            ByteBuf ndjson = Unpooled.buffer();
+            mapper.encodeStream(messages.iterator(), ndjson);
+            assertTrue(ndjson.readableBytes() > 1 << 17);
+
+            Spliterator<Message> spliterator = mapper.decodeStream(ndjson, All.getDescriptor());
+            Spliterator<Message> prefix = spliterator.trySplit();
+            assertNotNull(prefix);
+            List<Message> decoded = collect(prefix);
+            decoded.addAll(collect(spliterator));
+            assertEquals(messages, decoded);
+
+            assertEquals(messages, StreamSupport.stream(mapper.decodeStream(ndjson, All.getDescriptor()), true)
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    //格式错误的行在遍历到时抛出异常，之前的记录正常返回
+    @Test
+    public void decodeStreamMalformedLines() {
+        String valid = "{\"i32\":1}\n";
+        String[] malformed = {"{bad", "{\"i32\":}", "{\"i32\":1", "{\"i32\":\"x\"}", "[1]", "\"s\"", "{\"color\":\"PURPLE\"}",
+                "{\"i32\":1}}", "{\"i32\":1} x"};
+        for (int i = 0; i < 2; i++) {
+            ProtoJsonMapper mapper = mapper(i == 1);
+            for (String line : malformed) {
+                String ndjson = valid + line + "\n" + valid;
+                byte[] bytes = ndjson.getBytes(StandardCharsets.UTF_8);
+                List<Spliterator<Message>> spliterators = new ArrayList<>();
+                spliterators.add(mapper.decodeStream(Unpooled.wrappedBuffer(bytes), All.getDescriptor()));
+                spliterators.add(mapper.decodeStream(chunked(bytes, 1 + new Random(i).nextInt(4)), All.getDescriptor()));
+                for (Spliterator<Message> spliterator : spliterators) {
+                    List<Message> decoded = new ArrayList<>();
+                    try {
+                        spliterator.forEachRemaining(decoded::add);
+                        fail(line);
+                    } catch (JsonParseException ex) {
+                        assertEquals(line, All.newBuilder().setI32(1).build(), decoded.get(0));
+                    }
+                }
+            }
+
+            //结尾不完整的记录
+            try {
+                collect(mapper.decodeStream(Unpooled.copiedBuffer(valid + "{\"i32\"", StandardCharsets.UTF_8), All.getDescriptor()));
+                fail();
+            } catch (JsonSyntaxException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package wenmingwei;
+
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+import wenmingwei.test.All;
+import wenmingwei.test.Choice;
+import wenmingwei.test.Inner;
+import wenmingwei.test.Keys;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProtoJsonMapperTest {
+
+    //预估大小超过maxCapacity，但Json能放下时正常写入
+    @Test
+    public void encodeIntoBoundedBuffer() {
+        ProtoJsonMapper mapper = new ProtoJsonMapper();
+        Inner message = Inner.newBuilder().setName("a").build();
+        //刚好放下
+        ByteBuf out = Unpooled.buffer(0, 14).writeByte('x');
+        mapper.encode(message, out);
+        assertEquals("x{\"name\":\"a\"}", out.toString(StandardCharsets.UTF_8));
+    }
+
+    //Json放不下时抛出异常，out中不保留已经写入的部分Json
+    @Test
+    public void encodeKeepsOutOnFailure() {
+        ProtoJsonMapper mapper = new ProtoJsonMapper();
+        Inner message = Inner.newBuilder().setName("abcdefgh").build();
+        ByteBuf out = Unpooled.buffer(0, 10).writeByte('x');
+        try {
+            mapper.encode(message, out);
+            fail();
+        } catch (IndexOutOfBoundsException ex) {
+            assertEquals("x", out.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    //计划按Descriptor缓存，绑定到protoc生成类的访问器遇到同一Descriptor的DynamicMessage时使用通用实现，结果与JsonElement树编码一致
+    @Test
+    public void encodeDynamicMessageWithStreamingMapper() throws InvalidProtocolBufferException {
+        for (int i = 0; i < 2; i++) {
+            ProtoJsonMapperConfig treeConfig = new ProtoJsonMapperConfig();
+            treeConfig.setMapAsObject(i == 1);
+            ProtoJsonMapper tree = new ProtoJsonMapper(treeConfig);
+
+            ProtoJsonMapperConfig config = new ProtoJsonMapperConfig();
+            config.setStreaming(true);
+            config.setMapAsObject(i == 1);
+            ProtoJsonMapper mapper = new ProtoJsonMapper(config);
+            //空的Repeated/Map字段也要经过访问器
+            for (All message : new All[]{All.getDefaultInstance(), TestMessages.random(3), TestMessages.random(7)}) {
+                DynamicMessage dynamic = DynamicMessage.parseFrom(All.getDescriptor(), message.toByteArray());
+                assertEquals(config.toString(), tree.encode(dynamic), mapper.encode(dynamic));
+
+                ByteBuf expected = Unpooled.buffer();
+                tree.encode(dynamic, expected);
+                ByteBuf actual = Unpooled.buffer();
+                mapper.encode(dynamic, actual);
+                assertEquals(config.toString(), expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    //JsonElement树解码时同一个oneof的多个成员都出现，保留Descriptor中靠后的成员，与Json中的顺序无关
+    @Test
+    public void oneofMembersKeepDescriptorOrder() throws IOException {
+        ProtoJsonMapper mapper = new ProtoJsonMapper();
+        Choice number = Choice.newBuilder().setLabel("l").setNumber(5).build();
+        for (String json : new String[]{
+                "{\"label\":\"l\",\"text\":\"a\",\"number\":\"5\"}",
+                "{\"number\":5,\"text\":\"a\",\"label\":\"l\"}"}) {
+            assertEquals(json, number, mapper.decode(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8), Choice.getDescriptor()));
+        }
+        Choice inner = Choice.newBuilder().setInner(Inner.newBuilder().setId(1)).build();
+        for (String json : new String[]{
+                "{\"inner\":{\"id\":\"1\"},\"text\":\"a\",\"number\":5}",
+                "{\"number\":5,\"text\":\"a\",\"inner\":{\"id\":\"1\"}}"}) {
+            assertEquals(json, inner, mapper.decode(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8), Choice.getDescriptor()));
+        }
+        assertEquals(Choice.newBuilder().setText("a").build(),
+                mapper.decode(Unpooled.copiedBuffer("{\"text\":\"a\"}", StandardCharsets.UTF_8), Choice.getDescriptor()));
+    }
+
+    //mapAsObject时Key的名字与JsonFormat一致: uint32/fixed32/uint64/fixed64按无符号数，编码、解码和转码都能还原
+    @Test
+    public void mapAsObjectKeys() throws IOException {
+        Keys message = Keys.newBuilder()
+                .putI32(-1, "a").putI32(Integer.MAX_VALUE, "b")
+                .putI64(Long.MIN_VALUE, "a").putI64(7, "b")
+                .putS32(-2, "a")
+                .putU32(-1, "a").putU32(1, "b")
+                .putF32(Integer.MIN_VALUE, "a")
+                .putU64(-1, "a").putU64(Long.MAX_VALUE, "b")
+                .putF64(Long.MIN_VALUE, "a")
+                .putBo(true, "a").putBo(false, "b")
+                .putSt("", "a").putSt("k", "b")
+                .build();
+        String expected = JsonFormat.printer().print(message);
+        for (int i = 0; i < 2; i++) {
+            ProtoJsonMapperConfig config = new ProtoJsonMapperConfig();
+            config.setMapAsObject(true);
+            config.setStreaming(i == 1);
+            ProtoJsonMapper mapper = new ProtoJsonMapper(config);
+
+            String json = mapper.encode(message);
+            //对象的名字和值与JsonFormat一致，与顺序、空白无关
+            assertEquals(config.toString(), new JsonParser().parse(expected), new JsonParser().parse(json));
+            assertEquals(config.toString(), message, mapper.decode(Unpooled.copiedBuffer(expected, StandardCharsets.UTF_8), Keys.getDescriptor()));
+
+            ByteBuf transcoded = Unpooled.buffer();
+            mapper.transcodeToJson(Unpooled.wrappedBuffer(message.toByteArray()), Keys.getDescriptor(), transcoded);
+            assertEquals(config.toString(), new JsonParser().parse(json), new JsonParser().parse(transcoded.toString(StandardCharsets.UTF_8)));
+            ByteBuf proto = Unpooled.buffer();
+            mapper.transcodeToProto(transcoded, Keys.getDescriptor(), proto);
+            assertEquals(config.toString(), message, Keys.parseFrom(ByteBufUtil.getBytes(proto)));
+
+            for (String invalid : new String[]{"{\"u32\":{\"-1\":\"a\"}}", "{\"u32\":{\"4294967296\":\"a\"}}",
+                    "{\"u64\":{\"18446744073709551616\":\"a\"}}", "{\"i32\":{\"4294967295\":\"a\"}}", "{\"bo\":{\"1\":\"a\"}}"}) {
+                try {
+                    mapper.decode(Unpooled.copiedBuffer(invalid, StandardCharsets.UTF_8), Keys.getDescriptor());
+                    fail(config + invalid);
+                } catch (JsonSyntaxException ignored) {
+                }
+            }
+        }
+    }
+
+    //与decode一致，Json之后只能有空白；ByteBufJsonReader不支持的lenient语法重新解码时同样检查
+    @Test
+    public void decodeProjectedRejectsTrailingContent() throws IOException {
+        ProtoJsonMapper mapper = new ProtoJsonMapper();
+        FieldMask fieldMask = FieldMask.newBuilder().addPaths("i32").build();
+        assertEquals(All.newBuilder().setI32(1).build(), decode(mapper, "{\"i32\":1,\"st\":\"a\"} \n", fieldMask));
+        assertEquals(All.newBuilder().setI32(1).build(), decode(mapper, "{i32:1}", fieldMask));
+        for (String json : new String[]{"{\"i32\":1} x", "{\"i32\":1}{}", "{i32:1} x", "{i32:1}{}"}) {
+            try {
+                decode(mapper, json, fieldMask);
+                fail(json);
+            } catch (JsonSyntaxException ignored) {
+            }
+        }
+    }
+
+    private static Object decode(ProtoJsonMapper mapper, String json, FieldMask fieldMask) throws IOException {
+        return mapper.decode(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8), All.getDescriptor(), fieldMask);
+    }
+
+    //DynamicMessage模式的decode经过decodeProjected，Json之后有其它内容时与非DynamicMessage模式一样抛出JsonSyntaxException
+    @Test
+    public void dynamicDecodeRejectsTrailingContent() throws IOException {
+        ProtoJsonMapperConfig config = new ProtoJsonMapperConfig();
+        config.setDynamic(true);
+        ProtoJsonMapper dynamic = new ProtoJsonMapper(config);
+        ProtoJsonMapper generated = new ProtoJsonMapper();
+        for (String json : new String[]{"{\"i32\":1} x", "{\"i32\":1}{}", "{i32:1} x", "{\"i32\":1} // c"}) {
+            for (ProtoJsonMapper mapper : new ProtoJsonMapper[]{generated, dynamic}) {
+                try {
+                    mapper.decode(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8), All.getDescriptor());
+                    fail(json);
+                } catch (JsonSyntaxException ignored) {
+                }
+            }
+        }
+        DynamicMessage message = (DynamicMessage) dynamic.decode(Unpooled.copiedBuffer("{\"i32\":1}\n", StandardCharsets.UTF_8), All.getDescriptor());
+        assertEquals(All.newBuilder().setI32(1).build().toByteString(), message.toByteString());
+    }
+
+    //元素个数超过parallelThreshold时并行编解码，结果与串行逐字节一致；池不同的ProtoJsonMapper共享计划时使用各自的池
+    @Test
+    public void parallelSameAsSerial() throws IOException {
+        All.Builder builder = All.newBuilder().setI32(1);
+        for (int i = 0; i < 3000; i++) {
+            builder.addRinner(Inner.newBuilder().setName("n" + i).setId(i).addKids(Inner.newBuilder().setName("\u4e2d").setId(-i)));
+        }
+        All message = builder.build();
+
+        for (int i = 0; i < 2; i++) {
+            ProtoJsonMapperConfig config = new ProtoJsonMapperConfig();
+            config.setStreaming(i == 0);
+            config.setDynamic(i == 1);
+            ProtoJsonMapper serial = new ProtoJsonMapper(config);
+            ByteBuf expected = Unpooled.buffer();
+            serial.encode(message, expected);
+
+            config.setParallelThreshold(1000);
+            for (ForkJoinPool pool : new ForkJoinPool[]{new ForkJoinPool(3), new ForkJoinPool(2)}) {
+                config.setParallelPool(pool);
+                ProtoJsonMapper parallel = new ProtoJsonMapper(config);
+                try {
+                    ByteBuf actual = Unpooled.buffer();
+                    parallel.encode(message, actual);
+                    assertEquals(config.toString(), expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8));
+
+                    byte[] json = ByteBufUtil.getBytes(expected);
+                    Message decoded = serial.decode(Unpooled.wrappedBuffer(json), All.getDescriptor());
+                    assertEquals(message.toByteString(), decoded.toByteString());
+                    for (ByteBuf buf : TestMessages.buffers(json, i)) {
+                        assertEquals(config + " " + buf.getClass().getSimpleName(),
+                                decoded, parallel.decode(buf, All.getDescriptor()));
+                        buf.release();
+                    }
+                    //任务提交到了这个ProtoJsonMapper的池
+                    assertTrue(config.toString(), pool.getPoolSize() > 0);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package wenmingwei;
+
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+import wenmingwei.test.All;
+import wenmingwei.test.Inner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class ProtoJsonMapperTranscodeTest {
+
+    private static final List<String> JSON_INPUTS = Arrays.asList(
+            "{}", "{\"i32\":\"12\",\"i64\":-1,\"u64\":\"18446744073709551615\",\"db\":1e2,\"fl\":\"1.5\",\"bo\":true}",
+            //同一个Message/Repeated/Map字段出现多次
+            "{\"inner\":{\"name\":\"a\"},\"inner\":{\"id\":\"1\"},\"ri32\":[1],\"ri32\":[2,3]}",
+            "{\"counters\":[{\"key\":\"a\",\"value\":1}],\"counters\":[{\"key\":\"a\",\"value\":2},{\"key\":\"b\",\"value\":3}]}",
+            //未知字段、转义的名字、lenient语法
+            "{\"unknown\":{\"x\":[1,\"}\",{\"y\":null}]},\"s\\u0074\":\"escaped\",\"snakeCaseName\":\"s\"}",
+            "{i32:1,'st':'single'}", "{\"by\":\"AQID\\u003d\",\"rby\":[\"\",\"/w==\"]}", "{\"color\":\"BLUE\",\"rcolor\":[\"RED\",2]}",
+            //格式错误
+            "{\"i32\":", "{\"i32\":true}", "{\"st\":\"abc", "[1]", "{\"i32\":1} x", "{\"by\":\"A\"}");
+
+    private static List<ProtoJsonMapperConfig> configs() {
+        List<ProtoJsonMapperConfig> configs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            configs.add(new ProtoJsonMapperConfig());
+        }
+        configs.get(1).setStreaming(true);
+        configs.get(2).setStreaming(true);
+        configs.get(2).setMapAsObject(true);
+        configs.get(3).setDynamic(true);
+        configs.get(4).setDynamic(true);
+        configs.get(4).setMapAsObject(true);
+        return configs;
+    }
+
+    private static Message parse(ProtoJsonMapperConfig config, byte[] bytes) throws InvalidProtocolBufferException {
+        return config.isDynamic() ? DynamicMessage.parseFrom(All.getDescriptor(), bytes) : All.parseFrom(bytes);
+    }
+
+    //与先解析再 encode(Message, ByteBuf) 一致，包括合并的消息(同一个字段出现多次、字段顺序不规范)
+    @Test
+    public void transcodeToJsonSameAsEncode() throws IOException {
+        for (ProtoJsonMapperConfig config : configs()) {
+            ProtoJsonMapper mapper = new ProtoJsonMapper(config);
+            for (int seed = 0; seed < 30; seed++) {
+                byte[] bytes = TestMessages.random(seed).toByteArray();
+                byte[] other = TestMessages.random(seed + 1000).toByteArray();
+                byte[] merged = Arrays.copyOf(bytes, bytes.length + other.length);
+                System.arraycopy(other, 0, merged, bytes.length, other.length);
+
+                for (byte[] proto : new byte[][]{bytes, merged}) {
+                    ByteBuf expected = Unpooled.buffer();
+                    mapper.encode(parse(config, proto), expected);
+                    for (ByteBuf buf : TestMessages.buffers(proto, seed)) {
+                        //写入到已有内容之后
+                        ByteBuf out = Unpooled.buffer().writeByte('x');
+                        mapper.transcodeToJson(buf, All.getDescriptor(), out);
+                        assertEquals(config + " " + buf.getClass().getSimpleName(),
+                                "x" + expected.toString(StandardCharsets.UTF_8), out.toString(StandardCharsets.UTF_8));
+                        assertFalse(buf.isReadable());
+                        buf.release();
+                    }
+                }
+            }
+        }
+    }
+
+    //Proto二进制格式错误时抛出异常，out中不保留已经写入的部分Json
+    @Test
+    public void transcodeToJsonKeepsOutOnFailure() throws IOException {
+        byte[][] malformed = {
+                {0x0a, 0x05, 'a'},
+                {(byte) 0x82, 0x01, 0x02, (byte) 0xc3, 0x28},
+                {0x6a, 0x03, 0x0a, 0x05, 'a'},
+                //合法的字段之后被截断
+                {0x08, 0x01, 0x52, 0x01, 0x61, 0x6a, 0x04, 0x0a, 0x01}};
+        for (ProtoJsonMapperConfig config : configs()) {
+            ProtoJsonMapper mapper = new ProtoJsonMapper(config);
+            for (byte[] proto : malformed) {
+                ByteBuf out = Unpooled.buffer().writeByte('x');
+                try {
+                    mapper.transcodeToJson(Unpooled.wrappedBuffer(proto), All.getDescriptor(), out);
+                    fail(config + " " + Arrays.toString(proto));
+                } catch (InvalidProtocolBufferException ex) {
+                    assertEquals("x", out.toString(StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    //预估大小超过maxCapacity，但Json能放下时正常写入
+    @Test
+    public void transcodeToJsonIntoBoundedBuffer() throws IOException {
+        for (ProtoJsonMapperConfig config : configs()) {
+            ProtoJsonMapper mapper = new ProtoJsonMapper(config);
+            byte[] proto = All.newBuilder().setI32(5).setSt("a").build().toByteArray();
+            ByteBuf encoded = Unpooled.buffer();
+            mapper.encode(parse(config, proto), encoded);
+            String expected = encoded.toString(StandardCharsets.UTF_8);
+            ByteBuf out = Unpooled.buffer(0, encoded.readableBytes() + 1).writeByte('x');
+            mapper.transcodeToJson(Unpooled.wrappedBuffer(proto), All.getDescriptor(), out);
+            assertEquals(config.toString(), "x" + expected, out.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    //Json比maxCapacity大，但Proto二进制能放下时正常写入；需要重新解码的Json同样写入
+    @Test
+    public void transcodeToProtoIntoBoundedBuffer() throws IOException {
+        for (ProtoJsonMapperConfig config : configs()) {
+            ProtoJsonMapper mapper = new ProtoJsonMapper(config);
+            for (String json : new String[]{"{\"name\":\"a\",\"id\":5}", "{name:'a',id:5}"}) {
+                ByteBuf out = Unpooled.buffer(0, 8);
+                mapper.transcodeToProto(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8), Inner.getDescriptor(), out);
+                assertEquals(config + " " + json, Inner.newBuilder().setName("a").setId(5).build(), Inner.parseFrom(ByteBufUtil.getBytes(out)));
+            }
+        }
+    }
+
+        //解析后与decode得到的Message相同；decode抛出异常时抛出相同类型的异常
+    @Test
+    public void transcodeToProtoSameAsDecode() throws IOException {
+        for (ProtoJsonMapperConfig config : configs()) {
+            ProtoJsonMapper mapper = new ProtoJsonMapper(config);
+            List<String> inputs = new ArrayList<>(JSON_INPUTS);
+            for (int seed = 0; seed < 30; seed++) {
+                inputs.add(mapper.encode(TestMessages.random(seed)));
+            }
+
+            int seed = 0;
+            for (String json : inputs) {
+                byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+                Object expected = decoded(mapper, bytes);
+                for (ByteBuf buf : TestMessages.buffers(bytes, seed++)) {
+                    assertEquals(config + " " + json + " " + buf.getClass().getSimpleName(), expected, transcoded(config, mapper, buf));
+                    buf.release();
+                }
+            }
+        }
+    }
+
+    //Message，或者异常的类名；Message按equals比较，Map字段按Key比较，不受重复条目的影响
+    private static Object decoded(ProtoJsonMapper mapper, byte[] json) {
+        try {
+            return mapper.decode(Unpooled.wrappedBuffer(json), All.getDescriptor());
+        } catch (IOException | RuntimeException ex) {
+            return ex.getClass().getName();
+        }
+    }
+
+    private static Object transcoded(ProtoJsonMapperConfig config, ProtoJsonMapper mapper, ByteBuf json) {
+        ByteBuf out = Unpooled.buffer();
+        try {
+            mapper.transcodeToProto(json, All.getDescriptor(), out);
+        } catch (IOException | RuntimeException ex) {
+            return ex.getClass().getName();
+        }
+        try {
+            return parse(config, ByteBufUtil.getBytes(out));
+        } catch (InvalidProtocolBufferException ex) {
+            throw new AssertionError("Malformed proto bytes", ex);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package wenmingwei;
+
+import com.google.common.cache.CacheStats;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+import wenmingwei.test.All;
+import wenmingwei.test.Inner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class StringInternTableTest {
+
+    private static final String LONG = "0123456789012345678901234567890123456789012345678901234567890123456789";
+
+    private static void assertStats(CacheStats stats, long hits, long misses) {
+        assertEquals("hits", hits, stats.hitCount());
+        assertEquals("misses", misses, stats.missCount());
+    }
+
+    //按字节放入的条目与按String查找的ASCII字符串共用
+    @Test
+    public void bytesAndStringsShareEntries() {
+        StringInternTable table = new StringInternTable(16);
+        byte[] bytes = "xcny".getBytes(StandardCharsets.US_ASCII);
+        int hash = JsonNameTable.hash(bytes, 1, 3);
+        assertNull(table.get(bytes, 1, 3, hash));
+        String cn = new String("cn");
+        table.put(bytes, 1, 3, hash, cn);
+        assertSame(cn, table.get(bytes, 1, 3, hash));
+        assertSame(cn, table.intern(new String("cn")));
+        assertStats(table.stats(), 2, 1);
+
+        String us = new String("us");
+        assertSame(us, table.intern(us));
+        assertSame(us, table.intern(new String("us")));
+        assertStats(table.stats(), 3, 2);
+    }
+
+    //非ASCII和超过MAX_LENGTH的字符串不去重，也不计数
+    @Test
+    public void internSkipsNonAsciiAndLongStrings() {
+        StringInternTable table = new StringInternTable(16);
+        for (String value : new String[]{"né", "中", "😀", LONG}) {
+            String copy = new String(value);
+            assertSame(value, table.intern(value));
+            assertSame(copy, table.intern(copy));
+        }
+        assertStats(table.stats(), 0, 0);
+    }
+
+    //直接映射，冲突的值互相替换
+    @Test
+    public void collisionReplacesEntry() {
+        StringInternTable table = new StringInternTable(1);
+        String a = new String("a");
+        String b = new String("b");
+        table.intern(a);
+        table.intern(b);
+        assertNotSame(a, table.intern(new String("a")));
+        CacheStats stats = table.stats();
+        assertStats(stats, 0, 3);
+        assertEquals(2, stats.evictionCount());
+    }
+
+    //只有配置的字段(包括Map条目)返回同一个String，其它字段不受影响；非ASCII、超长和有转义的值解码结果不变
+    @Test
+    public void decodeDedupsConfiguredFields() throws IOException {
+        for (int i = 0; i < 2; i++) {
+            ProtoJsonMapperConfig config = new ProtoJsonMapperConfig();
+            config.setStreaming(i == 1);
+            config.setStringDedupFields(new LinkedHashSet<>(Arrays.asList(
+                    "wenmingwei.test.All.st", "wenmingwei.test.All.rst", "wenmingwei.test.All.CountersEntry")));
+            ProtoJsonMapper mapper = new ProtoJsonMapper(config);
+
+            String json = "{\"st\":\"cn\",\"rst\":[\"cn\",\"us\"],\"counters\":[{\"key\":\"cn\",\"value\":\"1\"}],\"snakeCaseName\":\"cn\","
+                    + "\"inner\":{\"name\":\"cn\"},\"flags\":[{\"key\":true,\"value\":\"cn\"}]}";
+            List<All> decoded = new ArrayList<>();
+            for (int j = 0; j < 3; j++) {
+                decoded.add(decode(mapper, json));
+            }
+            All first = decoded.get(0);
+            assertEquals(All.newBuilder().setSt("cn").addRst("cn").addRst("us").putCounters("cn", 1).setSnakeCaseName("cn")
+                    .setInner(Inner.newBuilder().setName("cn")).putFlags(true, "cn").build(), first);
+            for (All message : decoded) {
+                assertSame(config.toString(), first.getSt(), message.getSt());
+                assertSame(first.getSt(), message.getRst(0));
+                assertSame(first.getRst(1), message.getRst(1));
+                assertSame(first.getSt(), message.getCountersMap().keySet().iterator().next());
+            }
+            for (All message : decoded.subList(1, decoded.size())) {
+                assertNotSame(config.toString(), first.getSnakeCaseName(), message.getSnakeCaseName());
+                assertNotSame(first.getInner().getName(), message.getInner().getName());
+                assertNotSame(first.getFlagsMap().get(true), message.getFlagsMap().get(true));
+            }
+            //第一次: cn、us未命中，rst的cn、counters的cn命中；之后每次4个全部命中
+            assertStats(mapper.stringDedupStats(), 2 + 4 * 2, 2);
+
+            for (String value : new String[]{"né中", "😀", LONG, LONG + "é", "a\\u0062\\n", "\\u00e9"}) {
+                String expected = value.replace("\\u0062", "b").replace("\\n", "\n").replace("\\u00e9", "é");
+                for (int j = 0; j < 2; j++) {
+                    All message = decode(mapper, "{\"st\":\"" + value + "\",\"rst\":[\"" + value + "\"]}");
+                    assertEquals(value, expected, message.getSt());
+                    assertEquals(value, expected, message.getRst(0));
+                }
+            }
+        }
+    }
+
+    //没有配置去重字段时统计全部为0
+    @Test
+    public void statsWithoutDedupFields() throws IOException {
+        ProtoJsonMapper mapper = new ProtoJsonMapper();
+        decode(mapper, "{\"st\":\"cn\"}");
+        assertStats(mapper.stringDedupStats(), 0, 0);
+    }
+
+    private static All decode(ProtoJsonMapper mapper, String json) throws IOException {
+        return (All) mapper.decode(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8), All.getDescriptor());
+    }
+}
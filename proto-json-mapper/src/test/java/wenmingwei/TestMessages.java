@@ -0,0 +1,158 @@
+package wenmingwei;
+
+import com.google.protobuf.ByteString;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import wenmingwei.test.All;
+import wenmingwei.test.Inner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 测试用的随机Message和各种形式的ByteBuf
+ */
+final class TestMessages {
+
+    //包括需要转义、HTML安全转义、多字节UTF-8和代理对的字符串
+    private static final String[] STRINGS = {"", "a", "hello", "<tag>&'=", "q\"b\\", "né中", " x", "\n\t", "😀", "\u007f", " ", "plain text 123"};
+
+    private TestMessages() {
+    }
+
+    /**
+     * @param seed 随机数种子，相同的种子得到相同的Message
+     * @return 随机填充了字段的All，每个字段可能是默认值
+     */
+    static All random(long seed) {
+        Random random = new Random(seed);
+        All.Builder builder = All.newBuilder();
+        if (random.nextBoolean()) {
+            builder.setI32(random.nextInt());
+        }
+        if (random.nextBoolean()) {
+            builder.setI64(random.nextLong());
+        }
+        if (random.nextBoolean()) {
+            builder.setU32(random.nextInt());
+        }
+        if (random.nextBoolean()) {
+            builder.setU64(random.nextLong());
+        }
+        if (random.nextBoolean()) {
+            builder.setS32(random.nextInt());
+        }
+        if (random.nextBoolean()) {
+            builder.setF64(random.nextLong());
+        }
+        if (random.nextBoolean()) {
+            builder.setFl(random.nextBoolean() ? -0.0f : random.nextFloat() * 1e6f);
+        }
+        if (random.nextBoolean()) {
+            builder.setDb(random.nextBoolean() ? -0.0 : random.nextGaussian() * 1e20);
+        }
+        if (random.nextBoolean()) {
+            builder.setBo(random.nextBoolean());
+        }
+        if (random.nextBoolean()) {
+            builder.setSt(string(random));
+        }
+        if (random.nextBoolean()) {
+            builder.setBy(bytes(random));
+        }
+        if (random.nextBoolean()) {
+            builder.setColorValue(random.nextInt(3));
+        }
+        if (random.nextBoolean()) {
+            builder.setInner(inner(random, 0));
+        }
+        for (int i = random.nextInt(4); i > 0; i--) {
+            builder.addRi32(random.nextInt());
+            builder.addRi64(random.nextLong());
+            builder.addRdb(random.nextDouble());
+            builder.addRfl(random.nextFloat());
+            builder.addRbo(random.nextBoolean());
+        }
+        for (int i = random.nextInt(3); i > 0; i--) {
+            builder.addRst(string(random));
+            builder.addRcolorValue(random.nextInt(3));
+            builder.addRinner(inner(random, 1));
+            builder.addRby(bytes(random));
+        }
+        for (int i = random.nextInt(3); i > 0; i--) {
+            builder.putCounters(string(random), random.nextLong());
+            builder.putById(random.nextInt(), inner(random, 2));
+            builder.putFlags(random.nextBoolean(), string(random));
+        }
+        if (random.nextBoolean()) {
+            builder.setSnakeCaseName(string(random));
+        }
+        return builder.build();
+    }
+
+    private static Inner inner(Random random, int depth) {
+        Inner.Builder builder = Inner.newBuilder();
+        if (random.nextBoolean()) {
+            builder.setName(string(random));
+        }
+        if (random.nextBoolean()) {
+            builder.setId(random.nextLong());
+        }
+        if (random.nextBoolean()) {
+            builder.setColorValue(random.nextInt(3));
+        }
+        if (depth < 3 && random.nextInt(3) == 0) {
+            builder.setChild(inner(random, depth + 1));
+        }
+        for (int i = depth < 3 ? random.nextInt(3) : 0; i > 0; i--) {
+            builder.addKids(inner(random, depth + 1));
+        }
+        return builder.build();
+    }
+
+    private static String string(Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = random.nextInt(3); i > 0; i--) {
+            sb.append(STRINGS[random.nextInt(STRINGS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static ByteString bytes(Random random) {
+        byte[] bytes = new byte[random.nextInt(8)];
+        random.nextBytes(bytes);
+        return ByteString.copyFrom(bytes);
+    }
+
+    /**
+     * @param bytes 内容
+     * @param seed  多块CompositeByteBuf的切分位置的随机数种子
+     * @return 内容相同的Heap Buffer、Direct Buffer、多块的CompositeByteBuf(Heap和Direct混合，readerIndex在第二块开头)、
+     * readerIndex不为0的Direct Buffer
+     */
+    static List<ByteBuf> buffers(byte[] bytes, long seed) {
+        List<ByteBuf> buffers = new ArrayList<>();
+        buffers.add(Unpooled.wrappedBuffer(bytes));
+        buffers.add(Unpooled.directBuffer(bytes.length).writeBytes(bytes));
+
+        Random random = new Random(seed);
+        CompositeByteBuf composite = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+        //已读的块，内容不能被当作Json读取
+        composite.addComponent(true, Unpooled.wrappedBuffer(new byte[]{'{', '"', '['}));
+        composite.readerIndex(3);
+        for (int i = 0; i < bytes.length; ) {
+            int length = Math.min(bytes.length - i, 1 + random.nextInt(7));
+            composite.addComponent(true, random.nextBoolean()
+                    ? Unpooled.wrappedBuffer(bytes, i, length) : Unpooled.directBuffer(length).writeBytes(bytes, i, length));
+            i += length;
+        }
+        buffers.add(composite);
+
+        ByteBuf offset = Unpooled.directBuffer(bytes.length + 7).writeZero(7).writeBytes(bytes);
+        offset.readerIndex(7);
+        buffers.add(offset);
+        return buffers;
+    }
+}
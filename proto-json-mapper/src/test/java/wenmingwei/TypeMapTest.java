@@ -0,0 +1,104 @@
+package wenmingwei;
+
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Timestamp;
+import org.junit.Test;
+import wenmingwei.test.All;
+import wenmingwei.test.Color;
+import wenmingwei.test.Inner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TypeMapTest {
+
+    //没有配置时根据文件选项推导protoc生成的类名: java_multiple_files、外部类、嵌套类型
+    @Test
+    public void resolveWithoutProperties() {
+        TypeMapMessage messages = new TypeMapMessage(new Properties());
+        assertSame(All.class, messages.lookupMessageType(All.getDescriptor()));
+        assertSame(Timestamp.class, messages.lookupMessageType(Timestamp.getDescriptor()));
+        assertSame(DescriptorProtos.FieldDescriptorProto.class,
+                messages.lookupMessageType(DescriptorProtos.FieldDescriptorProto.getDescriptor()));
+        //第二次从缓存获取
+        assertSame(All.class, messages.lookupMessageType(All.getDescriptor()));
+
+        TypeMapEnum enums = new TypeMapEnum(new Properties());
+        assertSame(Color.class, enums.lookupEnumType(Color.getDescriptor()));
+        assertSame(DescriptorProtos.FieldDescriptorProto.Type.class,
+                enums.lookupEnumType(DescriptorProtos.FieldDescriptorProto.Type.getDescriptor()));
+    }
+
+    //配置的类名优先于推导的类名
+    @Test
+    public void propertiesOverride() {
+        Properties overrides = new Properties();
+        overrides.setProperty("wenmingwei.test.Inner", All.class.getName());
+        overrides.setProperty("wenmingwei.test.Color", DescriptorProtos.FieldDescriptorProto.Type.class.getName());
+
+        assertSame(All.class, new TypeMapMessage(overrides).lookupMessageType(Inner.getDescriptor()));
+        assertSame(DescriptorProtos.FieldDescriptorProto.Type.class, new TypeMapEnum(overrides).lookupEnumType(Color.getDescriptor()));
+    }
+
+    //类在第一次使用时解析，错误的配置只影响该类型的调用，其它类型照常解析
+    @Test
+    public void resolveFailureIsPerType() {
+        Properties overrides = new Properties();
+        overrides.setProperty("wenmingwei.test.Inner", "wenmingwei.test.Missing");
+        overrides.setProperty("wenmingwei.test.All", String.class.getName());
+        overrides.setProperty("wenmingwei.test.Color", String.class.getName());
+        TypeMapMessage messages = new TypeMapMessage(overrides);
+        TypeMapEnum enums = new TypeMapEnum(overrides);
+
+        assertResolveFails(() -> messages.lookupMessageType(Inner.getDescriptor()), "wenmingwei.test.Missing");
+        assertResolveFails(() -> messages.lookupMessageType(All.getDescriptor()), "not a Protobuf.Message");
+        assertResolveFails(() -> enums.lookupEnumType(Color.getDescriptor()), "not a Enum");
+        //失败的结果不缓存，再次调用仍然失败
+        assertResolveFails(() -> messages.lookupMessageType(Inner.getDescriptor()), "wenmingwei.test.Missing");
+
+        assertSame(Timestamp.class, messages.lookupMessageType(Timestamp.getDescriptor()));
+    }
+
+    private static void assertResolveFails(Runnable lookup, String message) {
+        try {
+            lookup.run();
+            fail(message);
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(message));
+        }
+    }
+
+    //默认配置文件不存在时为空配置；-D指定的配置文件不存在时不能启动
+    @Test
+    public void optionalProperties() throws IOException {
+        String key = "wenmingwei.test.type-map";
+        PropertiesLoader loader = new PropertiesLoader();
+        assertEquals(new Properties(), loader.loadOptionalProperties(key, "classpath:///missing-types.properties"));
+
+        Path file = Files.createTempFile("types", ".properties");
+        try {
+            Files.write(file, "wenmingwei.test.Inner=wenmingwei.test.All\n".getBytes(StandardCharsets.UTF_8));
+            System.setProperty(key, file.toUri().toString());
+            assertEquals("wenmingwei.test.All",
+                    loader.loadOptionalProperties(key, "classpath:///missing-types.properties").getProperty("wenmingwei.test.Inner"));
+
+            Files.delete(file);
+            try {
+                loader.loadOptionalProperties(key, "classpath:///missing-types.properties");
+                fail(file.toString());
+            } catch (IllegalStateException ignored) {
+            }
+        } finally {
+            System.clearProperty(key);
+            Files.deleteIfExists(file);
+        }
+    }
+}
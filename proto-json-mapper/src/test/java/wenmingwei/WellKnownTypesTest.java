@@ -0,0 +1,186 @@
+package wenmingwei;
+
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.protobuf.Any;
+import com.google.protobuf.Duration;
+import com.google.protobuf.Message;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.util.Durations;
+import com.google.protobuf.util.JsonFormat;
+import com.google.protobuf.util.Timestamps;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class WellKnownTypesTest {
+
+    //0001-01-01T00:00:00Z 和 9999-12-31T23:59:59Z
+    private static final long TIMESTAMP_SECONDS_MIN = -62135596800L;
+    private static final long TIMESTAMP_SECONDS_MAX = 253402300799L;
+    private static final long DURATION_SECONDS_MAX = 315576000000L;
+
+    private static final Timestamp[] TIMESTAMPS = {
+            timestamp(0, 0),
+            //0、3、6、9位小数
+            timestamp(1569888000, 0),
+            timestamp(1569888000, 123_000_000),
+            timestamp(1569888000, 123_456_000),
+            timestamp(1569888000, 123_456_789),
+            timestamp(1569888000, 1),
+            //1970年之前
+            timestamp(-1, 999_999_999),
+            timestamp(-86400 * 365L, 500_000_000),
+            //闰日
+            timestamp(951782400, 0),
+            timestamp(TIMESTAMP_SECONDS_MIN, 0),
+            timestamp(TIMESTAMP_SECONDS_MAX, 999_999_999)
+    };
+
+    private static final Duration[] DURATIONS = {
+            duration(0, 0),
+            duration(1, 500_000_000),
+            duration(1, 500_000),
+            duration(1, 5),
+            duration(-1, -500_000_000),
+            duration(0, -1_000),
+            duration(-86400, 0),
+            duration(DURATION_SECONDS_MAX, 999_999_999),
+            duration(-DURATION_SECONDS_MAX, -999_999_999)
+    };
+
+    @Test
+    public void formatAndParseTimestamp() throws Exception {
+        for (Timestamp timestamp : TIMESTAMPS) {
+            String text = Timestamps.toString(timestamp);
+            assertEquals(text, WellKnownTypes.formatTimestamp(timestamp.getSeconds(), timestamp.getNanos()));
+            assertEquals(text, timestamp, WellKnownTypes.parseTimestamp(text));
+        }
+    }
+
+    //时区偏移换算为UTC，小数位数不限于0、3、6、9
+    @Test
+    public void parseTimestampWithOffset() throws Exception {
+        for (String text : new String[]{
+                "2019-10-01T08:00:00+08:00",
+                "2019-10-01T00:00:00.5-05:30",
+                "2019-09-30T23:59:59.12345+00:00",
+                "1970-01-01T00:00:00.1234567-23:59",
+                "9999-12-31T23:59:59.999999999+00:00",
+                "0001-01-01T08:00:00+08:00"}) {
+            assertEquals(text, Timestamps.parse(text), WellKnownTypes.parseTimestamp(text));
+        }
+    }
+
+    @Test
+    public void timestampOutOfRange() {
+        for (long seconds : new long[]{TIMESTAMP_SECONDS_MIN - 1, TIMESTAMP_SECONDS_MAX + 1}) {
+            try {
+                WellKnownTypes.formatTimestamp(seconds, 0);
+                fail(String.valueOf(seconds));
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        for (int nanos : new int[]{-1, 1_000_000_000}) {
+            try {
+                WellKnownTypes.formatTimestamp(0, nanos);
+                fail(String.valueOf(nanos));
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        for (String text : new String[]{
+                "0000-12-31T23:59:59Z",
+                "0001-01-01T00:00:00+00:01",
+                "9999-12-31T23:59:59-00:01",
+                "10000-01-01T00:00:00Z",
+                "2019-02-29T00:00:00Z",
+                "2019-10-01T24:00:00Z",
+                "2019-10-01T00:00:00.1234567890Z",
+                "2019-10-01T00:00:00.Z",
+                "2019-10-01T00:00:00",
+                "2019-10-01T00:00:00+0800"}) {
+            try {
+                WellKnownTypes.parseTimestamp(text);
+                fail(text);
+            } catch (JsonSyntaxException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void formatAndParseDuration() throws Exception {
+        for (Duration duration : DURATIONS) {
+            String text = Durations.toString(duration);
+            assertEquals(text, WellKnownTypes.formatDuration(duration.getSeconds(), duration.getNanos()));
+            assertEquals(text, duration, WellKnownTypes.parseDuration(text));
+        }
+        assertEquals(Durations.parse("-0.5s"), WellKnownTypes.parseDuration("-0.5s"));
+        assertEquals(Durations.parse("1.1234s"), WellKnownTypes.parseDuration("1.1234s"));
+    }
+
+    @Test
+    public void durationOutOfRange() {
+        for (long[] value : new long[][]{
+                {DURATION_SECONDS_MAX + 1, 0}, {-DURATION_SECONDS_MAX - 1, 0},
+                {1, -1}, {-1, 1}, {0, 1_000_000_000}, {0, -1_000_000_000}}) {
+            try {
+                WellKnownTypes.formatDuration(value[0], (int) value[1]);
+                fail(value[0] + "/" + value[1]);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        for (String text : new String[]{
+                "315576000001s", "-315576000001s", "1.0000000001s", "1.s", ".5s", "s", "-s", "1", "1.5", "+1s", "1m"}) {
+            try {
+                WellKnownTypes.parseDuration(text);
+                fail(text);
+            } catch (JsonSyntaxException ignored) {
+            }
+        }
+    }
+
+    //JsonElement树和流式编解码的结果都与JsonFormat一致
+    @Test
+    public void roundTripWithJsonFormat() throws Exception {
+        JsonFormat.TypeRegistry registry = JsonFormat.TypeRegistry.newBuilder()
+                .add(Timestamp.getDescriptor()).add(Duration.getDescriptor()).build();
+        JsonFormat.Printer printer = JsonFormat.printer().usingTypeRegistry(registry).omittingInsignificantWhitespace();
+        for (int i = 0; i < 2; i++) {
+            ProtoJsonMapperConfig config = new ProtoJsonMapperConfig();
+            config.setStreaming(i == 1);
+            config.setWellKnownTypes(true);
+            ProtoJsonMapper mapper = new ProtoJsonMapper(config);
+
+            for (Timestamp timestamp : TIMESTAMPS) {
+                assertRoundTrip(config, mapper, printer, timestamp);
+                assertRoundTrip(config, mapper, printer, Any.pack(timestamp));
+            }
+            for (Duration duration : DURATIONS) {
+                assertRoundTrip(config, mapper, printer, duration);
+                assertRoundTrip(config, mapper, printer, Any.pack(duration));
+            }
+        }
+    }
+
+    private static void assertRoundTrip(ProtoJsonMapperConfig config, ProtoJsonMapper mapper,
+                                        JsonFormat.Printer printer, Message message) throws Exception {
+        String json = printer.print(message);
+        //JsonFormat打印Any中的Well-Known Type时不省略空白，按Json树比较
+        JsonParser parser = new JsonParser();
+        assertEquals(config.toString(), parser.parse(json), parser.parse(mapper.encode(message)));
+        Message decoded = mapper.decode(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8), message.getDescriptorForType());
+        assertEquals(json, message, decoded);
+    }
+
+    private static Timestamp timestamp(long seconds, int nanos) {
+        return Timestamp.newBuilder().setSeconds(seconds).setNanos(nanos).build();
+    }
+
+    private static Duration duration(long seconds, int nanos) {
+        return Duration.newBuilder().setSeconds(seconds).setNanos(nanos).build();
+    }
+}